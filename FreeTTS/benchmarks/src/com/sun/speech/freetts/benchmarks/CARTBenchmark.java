@@ -0,0 +1,81 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sun.speech.freetts.Item;
+import com.sun.speech.freetts.Relation;
+import com.sun.speech.freetts.Utterance;
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.cart.CART;
+import com.sun.speech.freetts.cart.CARTImpl;
+import com.sun.speech.freetts.en.us.CMUVoice;
+
+/**
+ * Measures <code>CARTImpl.interpret</code> with the duration CART of
+ * the US English voices, applied to every segment of the paragraph
+ * corpus.  The segments come from a kevin16 utterance that has been
+ * processed up to the Durator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CARTBenchmark {
+    private CART cart;
+    private Item[] segments;
+
+    /**
+     * Loads the CART and builds the segments it is applied to.
+     *
+     * @throws Exception if the data cannot be loaded
+     */
+    @Setup
+    public void load() throws Exception {
+	cart = new CARTImpl(CMUVoice.class.getResource("durz_cart.txt"));
+
+	Voice voice = Corpus.loadVoice("kevin16");
+	Utterance utterance = Corpus.newUtterance(voice, Corpus.PARAGRAPH);
+	Corpus.runProcessors(voice, utterance,
+		Corpus.findProcessor(voice, "Durator"));
+
+	List<Item> items = new ArrayList<Item>();
+	for (Item item = utterance.getRelation(Relation.SEGMENT).getHead();
+	     item != null; item = item.getNext()) {
+	    items.add(item);
+	}
+	segments = items.toArray(new Item[items.size()]);
+    }
+
+    /**
+     * Interprets the CART for each segment.
+     *
+     * @param bh consumes the results
+     */
+    @Benchmark
+    public void interpret(Blackhole bh) {
+	for (int i = 0; i < segments.length; i++) {
+	    bh.consume(cart.interpret(segments[i]));
+	}
+    }
+}
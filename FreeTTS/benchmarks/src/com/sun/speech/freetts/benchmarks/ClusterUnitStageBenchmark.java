@@ -0,0 +1,30 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Measures the unit selection stages of the alan cluster unit voice.
+ * The ClusterUnitSelector stage is dominated by its Viterbi search.
+ */
+public class ClusterUnitStageBenchmark extends StageBenchmark {
+    @Param({"ClusterUnitSelector", "ClusterUnitPitchmarkGenerator",
+	    "UnitConcatenator"})
+    public String stage;
+
+    protected String getVoiceName() {
+	return "alan";
+    }
+
+    protected String getStageName() {
+	return stage;
+    }
+
+    protected String getCorpusName() {
+	return "time";
+    }
+}
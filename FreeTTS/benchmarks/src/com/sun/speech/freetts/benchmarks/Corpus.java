@@ -0,0 +1,177 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.speech.freetts.Token;
+import com.sun.speech.freetts.Tokenizer;
+import com.sun.speech.freetts.Utterance;
+import com.sun.speech.freetts.UtteranceProcessor;
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.VoiceManager;
+import com.sun.speech.freetts.audio.NullAudioPlayer;
+
+/**
+ * The fixed texts and the voice set up shared by the benchmarks.  The
+ * texts never change between releases so that results can be compared
+ * over time.
+ */
+final class Corpus {
+    /**
+     * The voice directories the benchmarks load their voices from.
+     */
+    private final static String VOICE_DIRECTORIES =
+	"com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory,"
+	+ "com.sun.speech.freetts.en.us.cmu_time_awb.AlanVoiceDirectory";
+
+    /**
+     * A single short sentence.
+     */
+    final static String SENTENCE =
+	"Duke was here on Thursday, November 14th, 2002.";
+
+    /**
+     * A paragraph with numbers, abbreviations and punctuation.
+     */
+    final static String PARAGRAPH =
+	"FreeTTS is a speech synthesis system written entirely in the "
+	+ "Java programming language.  It is based upon Flite, a small "
+	+ "run-time speech synthesis engine developed at Carnegie Mellon "
+	+ "University.  On May 3rd, 1999, Dr. Smith paid $42.50 for 17 "
+	+ "copies of the manual at 1600 Pennsylvania Ave.  The quick brown "
+	+ "fox jumps over the lazy dog, and the rain in Spain stays mainly "
+	+ "in the plain.";
+
+    /**
+     * Time of day phrases for the limited domain time voice.
+     */
+    final static String TIME =
+	"The time is now, exactly two o'clock in the afternoon.  "
+	+ "The time is now, a quarter past nine in the morning.  "
+	+ "The time is now, just after twenty to eleven at night.";
+
+    /**
+     * Words looked up by the lexicon and letter to sound benchmarks.
+     * Most are in the lexicon; some are only handled by the rules.
+     */
+    final static String[] WORDS = {
+	"synthesis", "java", "speech", "november", "thursday", "carnegie",
+	"mellon", "university", "pennsylvania", "programming", "language",
+	"copies", "manual", "quick", "brown", "jumps", "lazy", "plain",
+	"freetts", "flite", "zorbulate", "quandrix", "snarfed", "blemtok",
+	"whizzle", "plorvington", "gratch", "tuxedoed", "kumquatish",
+	"vortexing"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns the text of the named corpus.
+     *
+     * @param name one of "sentence", "paragraph" or "time"
+     *
+     * @return the text
+     */
+    static String getText(String name) {
+	if (name.equals("sentence")) {
+	    return SENTENCE;
+	} else if (name.equals("paragraph")) {
+	    return PARAGRAPH;
+	} else if (name.equals("time")) {
+	    return TIME;
+	}
+	throw new IllegalArgumentException("Unknown corpus: " + name);
+    }
+
+    /**
+     * Loads and allocates the named voice.  The audio goes to a
+     * <code>NullAudioPlayer</code>.
+     *
+     * @param name the name of the voice
+     *
+     * @return the allocated voice
+     */
+    static Voice loadVoice(String name) {
+	if (System.getProperty("freetts.voices") == null) {
+	    System.setProperty("freetts.voices", VOICE_DIRECTORIES);
+	}
+	Voice voice = VoiceManager.getInstance().getVoice(name);
+	if (voice == null) {
+	    throw new IllegalStateException("Cannot find voice " + name);
+	}
+	voice.allocate();
+	voice.setAudioPlayer(new NullAudioPlayer());
+	return voice;
+    }
+
+    /**
+     * Creates the utterance for the first sentence of the given text,
+     * as the voice would when speaking it.
+     *
+     * @param voice the voice
+     * @param text the text
+     *
+     * @return the utterance
+     */
+    static Utterance newUtterance(Voice voice, String text) {
+	Tokenizer tokenizer = voice.getTokenizer();
+	List<Token> tokens = new ArrayList<Token>();
+	tokenizer.setInputText(text);
+	while (tokenizer.hasMoreTokens()) {
+	    Token token = tokenizer.getNextToken();
+	    if (token.getWord().length() == 0
+		    || (tokenizer.isBreak() && !tokens.isEmpty())) {
+		break;
+	    }
+	    tokens.add(token);
+	}
+	Utterance utterance = new Utterance(voice, tokens);
+	utterance.setFirst(true);
+	utterance.setLast(true);
+	return utterance;
+    }
+
+    /**
+     * Returns the position of the first processor of the voice whose
+     * class has the given simple name.
+     *
+     * @param voice the voice
+     * @param name the simple class name of the processor
+     *
+     * @return the position in the processor list
+     */
+    static int findProcessor(Voice voice, String name) {
+	List<UtteranceProcessor> processors = voice.getUtteranceProcessors();
+	for (int i = 0; i < processors.size(); i++) {
+	    if (processors.get(i).getClass().getSimpleName().equals(name)) {
+		return i;
+	    }
+	}
+	throw new IllegalArgumentException(voice.getName()
+		+ " has no processor " + name);
+    }
+
+    /**
+     * Runs the first <code>count</code> processors of the voice on
+     * the utterance.
+     *
+     * @param voice the voice
+     * @param utterance the utterance
+     * @param count the number of processors to run
+     *
+     * @throws Exception if a processor fails
+     */
+    static void runProcessors(Voice voice, Utterance utterance, int count)
+	throws Exception {
+	List<UtteranceProcessor> processors = voice.getUtteranceProcessors();
+	for (int i = 0; i < count; i++) {
+	    processors.get(i).processUtterance(utterance);
+	}
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Measures each stage of the kevin16 diphone voice.
+ */
+public class DiphoneStageBenchmark extends StageBenchmark {
+    @Param({"TokenToWords", "PartOfSpeechTagger", "Phraser", "Segmenter",
+	    "PauseGenerator", "Intonator",
+	    "CMUDiphoneVoicePostLexicalAnalyzer", "Durator",
+	    "ContourGenerator", "DiphoneUnitSelector",
+	    "DiphonePitchmarkGenerator", "UnitConcatenator"})
+    public String stage;
+
+    @Param({"sentence", "paragraph"})
+    public String corpus;
+
+    protected String getVoiceName() {
+	return "kevin16";
+    }
+
+    protected String getStageName() {
+	return stage;
+    }
+
+    protected String getCorpusName() {
+	return corpus;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.speech.freetts.Voice;
+
+/**
+ * Measures <code>Voice.speak</code> from text to audio, with the
+ * audio going to a <code>NullAudioPlayer</code>.  Each workload names
+ * a voice and a corpus, separated by a slash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class EndToEndBenchmark {
+    @Param({"kevin16/sentence", "kevin16/paragraph",
+	    "kevin/paragraph", "alan/time"})
+    public String workload;
+
+    private Voice voice;
+    private String text;
+
+    /**
+     * Loads the voice of the workload.
+     */
+    @Setup
+    public void load() {
+	int slash = workload.indexOf('/');
+	voice = Corpus.loadVoice(workload.substring(0, slash));
+	text = Corpus.getText(workload.substring(slash + 1));
+    }
+
+    /**
+     * Releases the voice.
+     */
+    @TearDown
+    public void unload() {
+	voice.deallocate();
+    }
+
+    /**
+     * Speaks the corpus.
+     *
+     * @return <code>true</code> if the text was spoken
+     */
+    @Benchmark
+    public boolean speak() {
+	return voice.speak(text);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sun.speech.freetts.en.us.CMULexicon;
+import com.sun.speech.freetts.lexicon.LetterToSound;
+import com.sun.speech.freetts.lexicon.LetterToSoundImpl;
+
+/**
+ * Measures word lookups in the CMU lexicon and in its letter to sound
+ * rules.  Each invocation looks up every word of
+ * <code>Corpus.WORDS</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LexiconBenchmark {
+    private CMULexicon lexicon;
+    private LetterToSound letterToSound;
+
+    /**
+     * Loads the lexicon and the letter to sound rules.
+     *
+     * @throws IOException if the data cannot be loaded
+     */
+    @Setup
+    public void load() throws IOException {
+	lexicon = new CMULexicon("cmulex");
+	lexicon.load();
+	letterToSound = new LetterToSoundImpl(
+		CMULexicon.class.getResource("cmulex_lts.bin"), true);
+    }
+
+    /**
+     * Looks up the words in the lexicon, falling back to the rules.
+     *
+     * @param bh consumes the results
+     */
+    @Benchmark
+    public void lexiconGetPhones(Blackhole bh) {
+	String[] words = Corpus.WORDS;
+	for (int i = 0; i < words.length; i++) {
+	    bh.consume(lexicon.getPhones(words[i], null));
+	}
+    }
+
+    /**
+     * Applies the letter to sound rules to the words.
+     *
+     * @param bh consumes the results
+     */
+    @Benchmark
+    public void letterToSoundGetPhones(Blackhole bh) {
+	String[] words = Corpus.WORDS;
+	for (int i = 0; i < words.length; i++) {
+	    bh.consume(letterToSound.getPhones(words[i], null));
+	}
+    }
+}
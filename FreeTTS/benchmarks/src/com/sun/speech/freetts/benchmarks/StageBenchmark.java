@@ -0,0 +1,108 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.speech.freetts.Utterance;
+import com.sun.speech.freetts.UtteranceProcessor;
+import com.sun.speech.freetts.Voice;
+
+/**
+ * Measures a single <code>UtteranceProcessor</code> of a voice.
+ * Processors change the utterance they work on, so before each
+ * invocation a fresh utterance is built and run through all the
+ * processors that come before the measured one.  That is done in a
+ * per-invocation setup, outside the measured time, so that the
+ * samples, and so the percentiles, are of the measured stage alone.
+ * The setup costs some JMH overhead per invocation, which is small
+ * beside the stages in sample time mode but makes the runs longer.
+ *
+ * <p>Subclasses pick the voice and supply the stage and corpus
+ * parameters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public abstract class StageBenchmark {
+    private Voice voice;
+    private String text;
+    private int position;
+    private UtteranceProcessor processor;
+    private Utterance utterance;
+
+    /**
+     * Returns the name of the voice to measure.
+     *
+     * @return the voice name
+     */
+    protected abstract String getVoiceName();
+
+    /**
+     * Returns the simple class name of the processor to measure.
+     *
+     * @return the processor name
+     */
+    protected abstract String getStageName();
+
+    /**
+     * Returns the name of the corpus to synthesize.
+     *
+     * @return the corpus name
+     */
+    protected abstract String getCorpusName();
+
+    /**
+     * Loads the voice and finds the measured processor.
+     */
+    @Setup(Level.Trial)
+    public void loadVoice() {
+	voice = Corpus.loadVoice(getVoiceName());
+	text = Corpus.getText(getCorpusName());
+	position = Corpus.findProcessor(voice, getStageName());
+	processor = voice.getUtteranceProcessors().get(position);
+    }
+
+    /**
+     * Creates an utterance and runs the processors that come before
+     * the measured one.
+     *
+     * @throws Exception if an earlier processor fails
+     */
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception {
+	utterance = Corpus.newUtterance(voice, text);
+	Corpus.runProcessors(voice, utterance, position);
+    }
+
+    /**
+     * Runs the measured processor on the prepared utterance.
+     *
+     * @return the processed utterance
+     *
+     * @throws Exception if the processor fails
+     */
+    @Benchmark
+    public Utterance process() throws Exception {
+	processor.processUtterance(utterance);
+	return utterance;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.speech.freetts.Utterance;
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.relp.LPCResult;
+
+/**
+ * Measures the LPC resynthesis of a fully processed utterance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class VocoderBenchmark {
+    @Param({"kevin16", "kevin"})
+    public String voiceName;
+
+    private LPCResult lpcResult;
+    private byte[] samples;
+
+    /**
+     * Synthesizes the LPC result of the paragraph corpus.
+     *
+     * @throws Exception if the utterance cannot be processed
+     */
+    @Setup
+    public void load() throws Exception {
+	Voice voice = Corpus.loadVoice(voiceName);
+	Utterance utterance = Corpus.newUtterance(voice, Corpus.PARAGRAPH);
+	Corpus.runProcessors(voice, utterance,
+		voice.getUtteranceProcessors().size());
+	lpcResult = (LPCResult) utterance.getObject("target_lpcres");
+	samples = new byte[2 * lpcResult.getNumberOfSamples()];
+    }
+
+    /**
+     * Runs the LPC filter over all residuals.
+     *
+     * @return the samples
+     */
+    @Benchmark
+    public byte[] vocode() {
+	lpcResult.getWaveSamples(samples, 0);
+	return samples;
+    }
+}
@@ -141,6 +141,15 @@ public class SocketAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * Returns the first sample latency (not measured by this player).
+     *
+     * @return -1
+     */
+    public long getFirstSampleLatency() {
+	return -1;
+    }
+
 
     /**
      *  Signals the end of a set of data. Audio data for a single 
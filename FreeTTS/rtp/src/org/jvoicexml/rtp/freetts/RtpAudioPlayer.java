@@ -173,6 +173,13 @@ public final class RtpAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getFirstSampleLatency() {
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
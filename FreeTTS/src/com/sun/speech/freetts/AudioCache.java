@@ -0,0 +1,690 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sun.speech.freetts.audio.AudioPlayer;
+import com.sun.speech.freetts.util.Utilities;
+
+/**
+ * Keeps the audio of recently spoken text, so that text that is
+ * spoken again is played back without being synthesized.  The audio
+ * is kept for the name, pitch, pitch range, pitch shift, rate,
+ * duration stretch and volume of the voice together with the text,
+ * with runs of white space collapsed.  Only plain text is cached.
+ *
+ * <p>The cache holds at most a given number of bytes of audio and
+ * drops the least recently used audio to make room.  When a
+ * directory is given, audio is also written to a file there, and
+ * audio that is not in memory is read back from its file.
+ *
+ * <p>A voice uses the cache given to {@link Voice#setAudioCache
+ * setAudioCache}.  Otherwise, all voices share one cache that is
+ * controlled by the following system properties:
+ *
+ * <pre>
+ *   com.sun.speech.freetts.voice.audioCache - default false
+ *   com.sun.speech.freetts.voice.audioCacheSize - the size in
+ *       kilobytes, default 16384
+ *   com.sun.speech.freetts.voice.audioCacheDir - default none
+ * </pre>
+ *
+ * <p>An instance can be shared by several threads.
+ */
+public class AudioCache {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(AudioCache.class.getName());
+
+    /**
+     * The utterance feature that holds the audio of an utterance
+     * played from the cache.
+     */
+    final static String CLIP = "cached_audio";
+
+    /**
+     * The utterance feature that holds the recorder of the audio of an
+     * utterance.
+     */
+    final static String RECORDER = "audio_recorder";
+
+    private final static int MAGIC = 0xfa0d10ca;
+    private final static int VERSION = 1;
+
+    private static AudioCache defaultCache = null;
+    private static boolean defaultCacheChecked = false;
+
+    private final long maxSize;
+    private final File directory;
+    private final LinkedHashMap<String, Clip> clips =
+	new LinkedHashMap<String, Clip>(16, 0.75f, true);
+    private long size = 0;
+    private int hits = 0;
+    private int diskHits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+
+    /**
+     * Creates a memory only cache.
+     *
+     * @param maxSize the most bytes of audio to keep
+     */
+    public AudioCache(long maxSize) {
+	this(maxSize, null);
+    }
+
+    /**
+     * Creates a cache that also keeps audio in files.
+     *
+     * @param maxSize the most bytes of audio to keep in memory
+     * @param directory the directory for the files, or
+     *    <code>null</code> to keep audio only in memory
+     */
+    public AudioCache(long maxSize, File directory) {
+	this.maxSize = maxSize;
+	this.directory = directory;
+    }
+
+    /**
+     * Returns the cache shared by the voices, as set up by the system
+     * properties.
+     *
+     * @return the cache, or <code>null</code> if caching is off
+     */
+    static synchronized AudioCache getDefaultCache() {
+	if (!defaultCacheChecked) {
+	    defaultCacheChecked = true;
+	    if (Utilities.getProperty(Voice.PROP_PREFIX + "audioCache",
+			"false").equals("true")) {
+		String dir = Utilities.getProperty(
+			Voice.PROP_PREFIX + "audioCacheDir", null);
+		defaultCache = new AudioCache(1024L * Utilities.getInteger(
+			    Voice.PROP_PREFIX + "audioCacheSize",
+			    16384).intValue(),
+			dir == null ? null : new File(dir));
+	    }
+	}
+	return defaultCache;
+    }
+
+    /**
+     * Returns the key of the audio of a speakable.
+     *
+     * @param voice the voice that speaks it
+     * @param speakable the speakable
+     *
+     * @return the key, or <code>null</code> if the speakable is not
+     *    plain text
+     */
+    String getKey(Voice voice, FreeTTSSpeakable speakable) {
+	if (!speakable.isPlainText() || speakable.getText() == null) {
+	    return null;
+	}
+	StringBuilder key = new StringBuilder();
+	key.append(voice.getName());
+	key.append(' ').append(voice.getPitch());
+	key.append(' ').append(voice.getPitchRange());
+	key.append(' ').append(voice.getPitchShift());
+	key.append(' ').append(voice.getRate());
+	key.append(' ').append(voice.getDurationStretch());
+	key.append(' ').append(voice.getVolume());
+	key.append('\n');
+	String text = speakable.getText();
+	boolean space = false;
+	for (int i = 0; i < text.length(); i++) {
+	    char c = text.charAt(i);
+	    if (Character.isWhitespace(c)) {
+		space = true;
+	    } else {
+		if (space && key.charAt(key.length() - 1) != '\n') {
+		    key.append(' ');
+		}
+		space = false;
+		key.append(c);
+	    }
+	}
+	return key.toString();
+    }
+
+    /**
+     * Finds the audio for a key, in memory or in its file.
+     *
+     * @param key the key
+     *
+     * @return the audio, or <code>null</code> if it is not cached
+     */
+    Clip get(String key) {
+	Clip clip;
+	synchronized (this) {
+	    clip = clips.get(key);
+	    if (clip != null) {
+		hits++;
+		return clip;
+	    }
+	}
+	clip = read(key);
+	synchronized (this) {
+	    if (clip != null) {
+		diskHits++;
+		add(key, clip);
+	    } else {
+		misses++;
+	    }
+	}
+	return clip;
+    }
+
+    /**
+     * Adds the audio for a key.
+     *
+     * @param key the key
+     * @param clip the audio
+     */
+    void put(String key, Clip clip) {
+	synchronized (this) {
+	    add(key, clip);
+	}
+	write(key, clip);
+    }
+
+    /**
+     * Adds the audio recorded for a key, if it was recorded properly.
+     *
+     * @param key the key
+     * @param recorder the recorder
+     */
+    void put(String key, Recorder recorder) {
+	Clip clip = recorder.getClip();
+	if (clip != null) {
+	    put(key, clip);
+	}
+    }
+
+    /**
+     * Adds audio to the memory of the cache, dropping the least
+     * recently used audio to make room.  Audio that would take more
+     * than a quarter of the cache is not kept in memory.
+     *
+     * @param key the key
+     * @param clip the audio
+     */
+    private void add(String key, Clip clip) {
+	if (clip.getSize() > maxSize / 4) {
+	    return;
+	}
+	Clip old = clips.put(key, clip);
+	if (old != null) {
+	    size -= old.getSize();
+	}
+	size += clip.getSize();
+	for (Iterator<Clip> i = clips.values().iterator();
+		size > maxSize && i.hasNext(); ) {
+	    size -= i.next().getSize();
+	    i.remove();
+	    evictions++;
+	}
+    }
+
+    /**
+     * Removes all audio from memory.  The files are kept.
+     */
+    public synchronized void clear() {
+	clips.clear();
+	size = 0;
+    }
+
+    /**
+     * Returns the number of times audio was found in memory.
+     *
+     * @return the number of hits
+     */
+    public synchronized int getHits() {
+	return hits;
+    }
+
+    /**
+     * Returns the number of times audio was read from its file.
+     *
+     * @return the number of hits on disk
+     */
+    public synchronized int getDiskHits() {
+	return diskHits;
+    }
+
+    /**
+     * Returns the number of times audio was not found.
+     *
+     * @return the number of misses
+     */
+    public synchronized int getMisses() {
+	return misses;
+    }
+
+    /**
+     * Returns the number of times audio was dropped to make room.
+     *
+     * @return the number of evictions
+     */
+    public synchronized int getEvictions() {
+	return evictions;
+    }
+
+    /**
+     * Returns the number of bytes of audio in memory.
+     *
+     * @return the size
+     */
+    public synchronized long getSize() {
+	return size;
+    }
+
+    /**
+     * Returns the number of texts whose audio is in memory.
+     *
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+	return clips.size();
+    }
+
+    /**
+     * Shows the hits and misses of the cache.
+     */
+    public synchronized void showMetrics() {
+	LOGGER.info("Audio cache   : " + hits + " hits, " + diskHits
+		+ " disk hits, " + misses + " misses, " + evictions
+		+ " evictions, " + clips.size() + " entries, "
+		+ size / 1024 + "k of " + maxSize / 1024 + "k");
+    }
+
+    /**
+     * Returns the file that holds the audio for a key.
+     *
+     * @param key the key
+     *
+     * @return the file
+     */
+    private File getFile(String key) {
+	CRC32 crc = new CRC32();
+	try {
+	    crc.update(key.getBytes("UTF-8"));
+	} catch (IOException ioe) {
+	    throw new Error(ioe);	// UTF-8 is always there
+	}
+	return new File(directory, Long.toHexString(crc.getValue()) + "-"
+		+ Integer.toHexString(key.hashCode()) + ".audio");
+    }
+
+    /**
+     * Reads the audio for a key from its file.
+     *
+     * @param key the key
+     *
+     * @return the audio, or <code>null</code> if there is no file for
+     *    the key
+     */
+    private Clip read(String key) {
+	if (directory == null) {
+	    return null;
+	}
+	File file = getFile(key);
+	if (!file.isFile()) {
+	    return null;
+	}
+	try {
+	    DataInputStream is = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(file)));
+	    try {
+		if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+		    return null;
+		}
+		byte[] keyBytes = new byte[is.readInt()];
+		is.readFully(keyBytes);
+		if (!key.equals(new String(keyBytes, "UTF-8"))) {
+		    return null;	// another key with the same name
+		}
+		AudioFormat format = new AudioFormat(is.readFloat(),
+			is.readInt(), is.readInt(), is.readBoolean(),
+			is.readBoolean());
+		float volume = is.readFloat();
+		byte[][] segments = new byte[is.readInt()][];
+		for (int i = 0; i < segments.length; i++) {
+		    segments[i] = new byte[is.readInt()];
+		    is.readFully(segments[i]);
+		}
+		return new Clip(format, volume, segments);
+	    } finally {
+		is.close();
+	    }
+	} catch (IOException ioe) {
+	    if (LOGGER.isLoggable(Level.FINE)) {
+		LOGGER.fine("can't read " + file + ": " + ioe);
+	    }
+	    return null;
+	}
+    }
+
+    /**
+     * Writes the audio for a key to its file.  The audio is written
+     * to a temporary file first, so other threads or processes never
+     * see a partial file.
+     *
+     * @param key the key
+     * @param clip the audio
+     */
+    private void write(String key, Clip clip) {
+	if (directory == null || !clip.isPCM()) {
+	    return;
+	}
+	File temp = null;
+	try {
+	    if (!directory.isDirectory() && !directory.mkdirs()
+		    && !directory.isDirectory()) {
+		throw new IOException("can't create " + directory);
+	    }
+	    temp = File.createTempFile("audio", ".tmp", directory);
+	    DataOutputStream os = new DataOutputStream(
+		    new BufferedOutputStream(new FileOutputStream(temp)));
+	    try {
+		byte[] keyBytes = key.getBytes("UTF-8");
+		AudioFormat format = clip.getFormat();
+		os.writeInt(MAGIC);
+		os.writeInt(VERSION);
+		os.writeInt(keyBytes.length);
+		os.write(keyBytes);
+		os.writeFloat(format.getSampleRate());
+		os.writeInt(format.getSampleSizeInBits());
+		os.writeInt(format.getChannels());
+		os.writeBoolean(format.getEncoding()
+			== AudioFormat.Encoding.PCM_SIGNED);
+		os.writeBoolean(format.isBigEndian());
+		os.writeFloat(clip.getVolume());
+		os.writeInt(clip.segments.length);
+		for (int i = 0; i < clip.segments.length; i++) {
+		    os.writeInt(clip.segments[i].length);
+		    os.write(clip.segments[i]);
+		}
+	    } finally {
+		os.close();
+	    }
+	    File file = getFile(key);
+	    if (!temp.renameTo(file)) {
+		file.delete();
+		if (!temp.renameTo(file)) {
+		    throw new IOException("can't rename " + temp);
+		}
+	    }
+	    temp = null;
+	} catch (IOException ioe) {
+	    if (LOGGER.isLoggable(Level.FINE)) {
+		LOGGER.fine("can't write audio to " + directory + ": " + ioe);
+	    }
+	} finally {
+	    if (temp != null) {
+		temp.delete();
+	    }
+	}
+    }
+
+    /**
+     * The audio of a speakable, as the samples written to the audio
+     * player between each <code>begin</code> and <code>end</code>.
+     */
+    static class Clip {
+	private final AudioFormat format;
+	private final float volume;
+	private final byte[][] segments;
+	private final long size;
+
+	/**
+	 * Creates a clip.
+	 *
+	 * @param format the format of the audio
+	 * @param volume the volume of the player
+	 * @param segments the audio between each begin and end
+	 */
+	Clip(AudioFormat format, float volume, byte[][] segments) {
+	    this.format = format;
+	    this.volume = volume;
+	    this.segments = segments;
+	    long total = 0;
+	    for (int i = 0; i < segments.length; i++) {
+		total += segments[i].length;
+	    }
+	    this.size = total;
+	}
+
+	/**
+	 * Returns the format of the audio.
+	 *
+	 * @return the format
+	 */
+	AudioFormat getFormat() {
+	    return format;
+	}
+
+	/**
+	 * Returns the volume the audio was played at.
+	 *
+	 * @return the volume
+	 */
+	float getVolume() {
+	    return volume;
+	}
+
+	/**
+	 * Returns the number of bytes of audio.
+	 *
+	 * @return the size
+	 */
+	long getSize() {
+	    return size;
+	}
+
+	/**
+	 * Determines if the audio is plain PCM, which can be written to
+	 * a file.
+	 *
+	 * @return <code>true</code> if the audio is PCM
+	 */
+	boolean isPCM() {
+	    return format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+		|| format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+	}
+
+	/**
+	 * Plays the audio on a player.
+	 *
+	 * @param player the player
+	 *
+	 * @return <code>true</code> if all of the audio was played;
+	 *    <code>false</code> if it was cancelled
+	 *
+	 * @throws IOException if the player fails
+	 */
+	boolean play(AudioPlayer player) throws IOException {
+	    player.setAudioFormat(format);
+	    player.setVolume(volume);
+	    for (int i = 0; i < segments.length; i++) {
+		player.begin(segments[i].length);
+		if (!player.write(segments[i]) || !player.end()) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+
+    /**
+     * An audio player that passes everything on to another player
+     * and records the audio, so that it can be cached once all of the
+     * utterances of a speakable have been played.
+     */
+    static class Recorder implements AudioPlayer {
+	private AudioPlayer player;
+	private AudioFormat format = null;
+	private float volume;
+	private final List<byte[]> segments = new ArrayList<byte[]>();
+	private byte[] segment = null;
+	private int length = 0;
+	private boolean failed = false;
+
+	/**
+	 * Sets the player that the audio is passed on to.
+	 *
+	 * @param player the player
+	 *
+	 * @return this recorder
+	 */
+	Recorder record(AudioPlayer player) {
+	    if (this.player == null) {
+		volume = player.getVolume();
+	    }
+	    this.player = player;
+	    return this;
+	}
+
+	/**
+	 * Returns the recorded audio.
+	 *
+	 * @return the audio, or <code>null</code> if the recording
+	 *    failed or no audio was played
+	 */
+	Clip getClip() {
+	    if (failed || format == null || segment != null) {
+		return null;
+	    }
+	    return new Clip(format, volume,
+		    segments.toArray(new byte[segments.size()][]));
+	}
+
+	public void setAudioFormat(AudioFormat format) {
+	    if (this.format != null && !this.format.matches(format)) {
+		failed = true;
+	    }
+	    this.format = format;
+	    player.setAudioFormat(format);
+	}
+
+	public AudioFormat getAudioFormat() {
+	    return player.getAudioFormat();
+	}
+
+	public void pause() {
+	    player.pause();
+	}
+
+	public void resume() {
+	    player.resume();
+	}
+
+	public void reset() {
+	    player.reset();
+	}
+
+	public boolean drain() {
+	    return player.drain();
+	}
+
+	public void begin(int size) throws IOException {
+	    segment = new byte[Math.max(size, 0)];
+	    length = 0;
+	    player.begin(size);
+	}
+
+	public boolean end() throws IOException {
+	    if (segment == null) {
+		failed = true;
+	    } else {
+		segments.add(length == segment.length
+			? segment : Arrays.copyOf(segment, length));
+		segment = null;
+	    }
+	    return player.end();
+	}
+
+	public void cancel() {
+	    failed = true;
+	    player.cancel();
+	}
+
+	public void close() throws IOException {
+	    player.close();
+	}
+
+	public float getVolume() {
+	    return player.getVolume();
+	}
+
+	public void setVolume(float volume) {
+	    this.volume = volume;
+	    player.setVolume(volume);
+	}
+
+	public long getTime() {
+	    return player.getTime();
+	}
+
+	public void resetTime() {
+	    player.resetTime();
+	}
+
+	public void startFirstSampleTimer() {
+	    player.startFirstSampleTimer();
+	}
+
+	public long getFirstSampleLatency() {
+	    return player.getFirstSampleLatency();
+	}
+
+	public boolean write(byte[] audioData) throws IOException {
+	    return write(audioData, 0, audioData.length);
+	}
+
+	public boolean write(byte[] audioData, int offset, int size)
+	    throws IOException {
+	    if (segment == null) {
+		failed = true;
+	    } else {
+		if (length + size > segment.length) {
+		    segment = Arrays.copyOf(segment,
+			    Math.max(length + size, segment.length * 2));
+		}
+		System.arraycopy(audioData, offset, segment, length, size);
+		length += size;
+	    }
+	    boolean ok = player.write(audioData, offset, size);
+	    if (!ok) {
+		failed = true;
+	    }
+	    return ok;
+	}
+
+	public void showMetrics() {
+	    player.showMetrics();
+	}
+
+    }
+}
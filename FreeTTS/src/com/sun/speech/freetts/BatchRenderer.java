@@ -0,0 +1,580 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sun.speech.freetts.audio.NullAudioPlayer;
+
+/**
+ * Renders a corpus of prompts to audio files, synthesizing as many
+ * prompts at once as there are processors.  Each voice is allocated
+ * once and shared by all the workers through a {@link
+ * SynthesisEngine}.
+ *
+ * <p>The prompts are read from a manifest with one prompt per line,
+ * in one of the forms
+ *
+ * <pre>
+ *   id &lt;tab&gt; text
+ *   id &lt;tab&gt; voice &lt;tab&gt; parameters &lt;tab&gt; text
+ * </pre>
+ *
+ * where an empty voice stands for the default voice, and the
+ * parameters are a comma separated list of <code>rate</code>,
+ * <code>pitch</code>, <code>range</code>, <code>shift</code> and
+ * <code>stretch</code> settings, such as
+ * <code>rate=170,pitch=110</code>.  Blank lines and lines that start
+ * with '#' are skipped.
+ *
+ * <p>The audio of each prompt is written to <code>id.wav</code> or
+ * <code>id.raw</code> in the output directory.  A file is first
+ * written under a temporary name and renamed when it is complete,
+ * so prompts whose file exists are skipped, and a run that was
+ * interrupted can simply be started again.
+ */
+public class BatchRenderer {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(BatchRenderer.class.getName());
+
+    /**
+     * The names of the parameters, in the order of the settings.
+     */
+    private final static String[] PARAMETERS = {
+	"rate", "pitch", "range", "shift", "stretch"
+    };
+
+    private final File outputDirectory;
+    private final String defaultVoice;
+    private final int numberOfWorkers;
+    private boolean raw = false;
+
+    private final Map<String, Voice> voices = new HashMap<String, Voice>();
+    private final Map<String, SynthesisEngine> engines =
+	new HashMap<String, SynthesisEngine>();
+    private final Map<String, float[]> defaults =
+	new HashMap<String, float[]>();
+
+    private int rendered = 0;
+    private int skipped = 0;
+    private int failed = 0;
+    private double audioSeconds = 0;
+    private long renderTime = 0;
+
+    /**
+     * Creates a renderer with one worker per available processor.
+     *
+     * @param outputDirectory where to write the audio files
+     * @param defaultVoice the name of the voice of prompts that name
+     *    no voice
+     */
+    public BatchRenderer(File outputDirectory, String defaultVoice) {
+	this(outputDirectory, defaultVoice,
+		Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param outputDirectory where to write the audio files
+     * @param defaultVoice the name of the voice of prompts that name
+     *    no voice
+     * @param numberOfWorkers the number of prompts synthesized at the
+     *    same time
+     */
+    public BatchRenderer(File outputDirectory, String defaultVoice,
+	    int numberOfWorkers) {
+	this.outputDirectory = outputDirectory;
+	this.defaultVoice = defaultVoice;
+	this.numberOfWorkers = numberOfWorkers;
+    }
+
+    /**
+     * Sets the output to raw audio, as written by the voice, instead
+     * of WAV files.
+     *
+     * @param raw <code>true</code> for raw files
+     */
+    public void setRaw(boolean raw) {
+	this.raw = raw;
+    }
+
+    /**
+     * Renders all the prompts of a manifest.  Consecutive prompts with
+     * the same voice and parameters are synthesized in parallel.
+     *
+     * @param manifest the manifest
+     *
+     * @throws IOException if the manifest cannot be read or a file
+     *    cannot be written
+     */
+    public void render(Reader manifest) throws IOException {
+	if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+	    throw new IOException("can't create " + outputDirectory);
+	}
+	BufferedReader reader = new BufferedReader(manifest);
+	LinkedList<Job> jobs = new LinkedList<Job>();
+	String group = null;
+	long start = System.currentTimeMillis();
+	int lineNumber = 0;
+	String line;
+
+	while ((line = reader.readLine()) != null) {
+	    lineNumber++;
+	    if (line.trim().length() == 0 || line.startsWith("#")) {
+		continue;
+	    }
+	    Prompt prompt = parsePrompt(line, lineNumber);
+	    if (prompt == null) {
+		failed++;
+		continue;
+	    }
+	    if (getOutputFile(prompt.id).exists()) {
+		skipped++;
+		continue;
+	    }
+
+	    // the parameters belong to the shared voice, so the prompts
+	    // in progress must be finished before they can be changed
+	    String key = prompt.voice + "\t" + prompt.parameters;
+	    if (!key.equals(group)) {
+		while (!jobs.isEmpty()) {
+		    finish(jobs.removeFirst());
+		}
+		setParameters(prompt);
+		group = key;
+	    }
+	    jobs.add(submit(prompt));
+	    if (jobs.size() > numberOfWorkers * 4) {
+		finish(jobs.removeFirst());
+	    }
+	}
+	while (!jobs.isEmpty()) {
+	    finish(jobs.removeFirst());
+	}
+	renderTime += System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Shuts down the workers.  The voices stay allocated.
+     */
+    public void shutdown() {
+	for (SynthesisEngine engine : engines.values()) {
+	    engine.shutdown();
+	}
+    }
+
+    /**
+     * Returns the number of prompts that were rendered.
+     *
+     * @return the number of prompts
+     */
+    public int getRendered() {
+	return rendered;
+    }
+
+    /**
+     * Returns the number of prompts whose files already existed.
+     *
+     * @return the number of prompts
+     */
+    public int getSkipped() {
+	return skipped;
+    }
+
+    /**
+     * Returns the number of prompts that could not be rendered.
+     *
+     * @return the number of prompts
+     */
+    public int getFailed() {
+	return failed;
+    }
+
+    /**
+     * Returns the number of prompts rendered per second.
+     *
+     * @return the throughput
+     */
+    public double getUtterancesPerSecond() {
+	return renderTime == 0 ? 0 : rendered * 1000.0 / renderTime;
+    }
+
+    /**
+     * Returns the time spent rendering divided by the length of the
+     * audio rendered; below 1 is faster than real time.
+     *
+     * @return the real time factor
+     */
+    public double getRealTimeFactor() {
+	return audioSeconds == 0 ? 0 : renderTime / 1000.0 / audioSeconds;
+    }
+
+    /**
+     * Shows the throughput.
+     */
+    public void showMetrics() {
+	LOGGER.info("Rendered      : " + rendered + " prompts, "
+		+ skipped + " skipped, " + failed + " failed");
+	LOGGER.info("Audio         : " + (float) audioSeconds + " s in "
+		+ renderTime / 1000.0f + " s");
+	LOGGER.info("Throughput    : " + (float) getUtterancesPerSecond()
+		+ " utterances/s, real time factor "
+		+ (float) getRealTimeFactor());
+    }
+
+    /**
+     * Parses a line of the manifest.
+     *
+     * @param line the line
+     * @param lineNumber the number of the line
+     *
+     * @return the prompt, or <code>null</code> if the line is not valid
+     */
+    private Prompt parsePrompt(String line, int lineNumber) {
+	String[] fields = line.split("\t", 4);
+	Prompt prompt = new Prompt();
+	if (fields.length == 2) {
+	    prompt.id = fields[0].trim();
+	    prompt.voice = defaultVoice;
+	    prompt.parameters = "";
+	    prompt.text = fields[1];
+	} else if (fields.length == 4) {
+	    prompt.id = fields[0].trim();
+	    prompt.voice = fields[1].trim().length() == 0
+		? defaultVoice : fields[1].trim();
+	    prompt.parameters = fields[2].trim();
+	    prompt.text = fields[3];
+	} else {
+	    LOGGER.warning("line " + lineNumber + ": expected 2 or 4 fields");
+	    return null;
+	}
+	if (prompt.id.length() == 0 || prompt.id.indexOf('/') >= 0
+		|| prompt.id.indexOf(File.separatorChar) >= 0
+		|| prompt.id.startsWith(".")) {
+	    LOGGER.warning("line " + lineNumber + ": bad id " + prompt.id);
+	    return null;
+	}
+	return prompt;
+    }
+
+    /**
+     * Sets the voice of a prompt to the parameters of the prompt.
+     * Parameters that are not given get the default of the voice.
+     *
+     * @param prompt the prompt
+     *
+     * @throws IOException if the voice cannot be found
+     */
+    private void setParameters(Prompt prompt) throws IOException {
+	Voice voice = getVoice(prompt.voice);
+	float[] settings = defaults.get(prompt.voice).clone();
+	String[] list = prompt.parameters.split(",");
+	for (int i = 0; i < list.length; i++) {
+	    String parameter = list[i].trim();
+	    if (parameter.length() == 0) {
+		continue;
+	    }
+	    int eq = parameter.indexOf('=');
+	    int index = PARAMETERS.length - 1;
+	    while (index >= 0 && (eq < 0
+			|| !PARAMETERS[index].equals(parameter.substring(0, eq)))) {
+		index--;
+	    }
+	    try {
+		if (index < 0) {
+		    throw new NumberFormatException();
+		}
+		settings[index] = Float.parseFloat(parameter.substring(eq + 1));
+	    } catch (NumberFormatException nfe) {
+		LOGGER.warning("prompt " + prompt.id + ": bad parameter "
+			+ parameter);
+	    }
+	}
+	voice.setRate(settings[0]);
+	voice.setPitch(settings[1]);
+	voice.setPitchRange(settings[2]);
+	voice.setPitchShift(settings[3]);
+	voice.setDurationStretch(settings[4]);
+    }
+
+    /**
+     * Returns an allocated voice, allocating it the first time.
+     *
+     * @param name the name of the voice
+     *
+     * @return the voice
+     *
+     * @throws IOException if there is no such voice
+     */
+    private Voice getVoice(String name) throws IOException {
+	Voice voice = voices.get(name);
+	if (voice == null) {
+	    voice = VoiceManager.getInstance().getVoice(name);
+	    if (voice == null) {
+		throw new IOException("unknown voice " + name);
+	    }
+	    if (!voice.isLoaded()) {
+		voice.allocate();
+	    }
+	    voices.put(name, voice);
+	    engines.put(name, new SynthesisEngine(voice, numberOfWorkers));
+	    defaults.put(name, new float[] {
+		voice.getRate(), voice.getPitch(), voice.getPitchRange(),
+		voice.getPitchShift(), voice.getDurationStretch()
+	    });
+	}
+	return voice;
+    }
+
+    /**
+     * Starts synthesizing a prompt.
+     *
+     * @param prompt the prompt
+     *
+     * @return the job
+     */
+    private Job submit(Prompt prompt) {
+	Job job = new Job();
+	job.prompt = prompt;
+	job.player = new BufferAudioPlayer();
+	job.result = engines.get(prompt.voice).submit(prompt.text, job.player);
+	return job;
+    }
+
+    /**
+     * Waits for a job and writes its audio.
+     *
+     * @param job the job
+     *
+     * @throws IOException if the audio cannot be written
+     */
+    private void finish(Job job) throws IOException {
+	boolean ok;
+	try {
+	    ok = job.result.get().booleanValue();
+	} catch (InterruptedException ie) {
+	    throw new IOException("interrupted");
+	} catch (ExecutionException ee) {
+	    LOGGER.warning("prompt " + job.prompt.id + ": " + ee.getCause());
+	    ok = false;
+	}
+	AudioFormat format = job.player.getAudioFormat();
+	if (!ok || format == null) {
+	    LOGGER.warning("prompt " + job.prompt.id + " failed");
+	    failed++;
+	    return;
+	}
+	write(job.player, getOutputFile(job.prompt.id));
+	rendered++;
+	audioSeconds += job.player.length
+	    / (format.getSampleRate() * format.getFrameSize());
+    }
+
+    /**
+     * Returns the audio file of a prompt.
+     *
+     * @param id the id of the prompt
+     *
+     * @return the file
+     */
+    private File getOutputFile(String id) {
+	return new File(outputDirectory, id + (raw ? ".raw" : ".wav"));
+    }
+
+    /**
+     * Writes audio to a file.  The audio is written to a temporary
+     * file which is renamed once it is on disk.
+     *
+     * @param player the player that holds the audio
+     * @param file the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void write(BufferAudioPlayer player, File file)
+	throws IOException {
+	File temp = new File(file.getPath() + ".part");
+	FileOutputStream os = new FileOutputStream(temp);
+	try {
+	    FileChannel channel = os.getChannel();
+	    ByteBuffer data = ByteBuffer.wrap(player.data, 0, player.length);
+	    if (!raw) {
+		data = toWave(player.getAudioFormat(), data);
+	    }
+	    while (data.hasRemaining()) {
+		channel.write(data);
+	    }
+	    channel.force(false);
+	} finally {
+	    os.close();
+	}
+	if (!temp.renameTo(file)) {
+	    file.delete();
+	    if (!temp.renameTo(file)) {
+		throw new IOException("can't rename " + temp);
+	    }
+	}
+    }
+
+    /**
+     * Creates a WAV file holding the given PCM audio.  The samples are
+     * stored little endian, as the format requires.
+     *
+     * @param format the format of the audio
+     * @param data the audio
+     *
+     * @return the contents of the WAV file
+     */
+    private static ByteBuffer toWave(AudioFormat format, ByteBuffer data) {
+	int length = data.remaining();
+	int bytesPerSample = (format.getSampleSizeInBits() + 7) / 8;
+	ByteBuffer wave = ByteBuffer.allocate(44 + length);
+	wave.order(ByteOrder.LITTLE_ENDIAN);
+	wave.put(new byte[] {'R', 'I', 'F', 'F'});
+	wave.putInt(36 + length);
+	wave.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+	wave.putInt(16);
+	wave.putShort((short) 1);	// PCM
+	wave.putShort((short) format.getChannels());
+	wave.putInt((int) format.getSampleRate());
+	wave.putInt((int) format.getSampleRate() * format.getFrameSize());
+	wave.putShort((short) format.getFrameSize());
+	wave.putShort((short) format.getSampleSizeInBits());
+	wave.put(new byte[] {'d', 'a', 't', 'a'});
+	wave.putInt(length);
+	if (bytesPerSample == 2 && format.isBigEndian()) {
+	    data.order(ByteOrder.BIG_ENDIAN);
+	    while (data.remaining() >= 2) {
+		wave.putShort(data.getShort());
+	    }
+	} else {
+	    wave.put(data);
+	}
+	wave.flip();
+	return wave;
+    }
+
+    /**
+     * Renders a manifest from the command line.
+     *
+     * @param args the arguments
+     */
+    public static void main(String[] args) {
+	String manifest = null;
+	String output = ".";
+	String voice = "kevin16";
+	int threads = Runtime.getRuntime().availableProcessors();
+	boolean raw = false;
+
+	for (int i = 0; i < args.length; i++) {
+	    if (args[i].equals("-out") && i + 1 < args.length) {
+		output = args[++i];
+	    } else if (args[i].equals("-voice") && i + 1 < args.length) {
+		voice = args[++i];
+	    } else if (args[i].equals("-threads") && i + 1 < args.length) {
+		threads = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-raw")) {
+		raw = true;
+	    } else if (manifest == null && !args[i].startsWith("-")) {
+		manifest = args[i];
+	    } else {
+		manifest = null;
+		break;
+	    }
+	}
+	if (manifest == null) {
+	    System.out.println("Usage: BatchRenderer [-out dir] [-voice VOICE]"
+		    + " [-threads n] [-raw] manifest");
+	    System.exit(1);
+	}
+
+	BatchRenderer renderer =
+	    new BatchRenderer(new File(output), voice, threads);
+	renderer.setRaw(raw);
+	try {
+	    renderer.render(new InputStreamReader(
+			new FileInputStream(manifest), "UTF-8"));
+	} catch (IOException ioe) {
+	    System.err.println("Can't render " + manifest + ": " + ioe);
+	    System.exit(1);
+	} finally {
+	    renderer.shutdown();
+	}
+	System.out.println("rendered " + renderer.getRendered()
+		+ ", skipped " + renderer.getSkipped()
+		+ ", failed " + renderer.getFailed());
+	System.out.println((float) renderer.getUtterancesPerSecond()
+		+ " utterances/s, real time factor "
+		+ (float) renderer.getRealTimeFactor());
+	System.exit(0);
+    }
+
+    /**
+     * A line of the manifest.
+     */
+    private static class Prompt {
+	String id;
+	String voice;
+	String parameters;
+	String text;
+    }
+
+    /**
+     * A prompt that is being synthesized.
+     */
+    private static class Job {
+	Prompt prompt;
+	BufferAudioPlayer player;
+	Future<Boolean> result;
+    }
+
+    /**
+     * An audio player that keeps the audio in memory.
+     */
+    private static class BufferAudioPlayer extends NullAudioPlayer {
+	private AudioFormat format = null;
+	byte[] data = new byte[8192];
+	int length = 0;
+
+	public void setAudioFormat(AudioFormat format) {
+	    this.format = format;
+	}
+
+	public AudioFormat getAudioFormat() {
+	    return format;
+	}
+
+	public boolean write(byte[] bytes, int offset, int size) {
+	    if (length + size > data.length) {
+		byte[] bigger = new byte[Math.max(length + size,
+			    data.length * 2)];
+		System.arraycopy(data, 0, bigger, 0, length);
+		data = bigger;
+	    }
+	    System.arraycopy(bytes, offset, data, length, size);
+	    length += size;
+	    return true;
+	}
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each feature name used by FreeTTS a small number, the same
+ * for every feature set, so that features can be stored and found by
+ * number.  Numbers are never taken back; the set of names used by
+ * the voices is small and fixed.
+ */
+class FeatureNames {
+    private final static ConcurrentHashMap<String, Integer> ids =
+	new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] names = new String[64];
+    private static int numNames = 0;
+
+    /**
+     * Returns the number of a feature name, giving it a new one if it
+     * has none.
+     *
+     * @param name the feature name
+     *
+     * @return the number of the name
+     */
+    static int getId(String name) {
+	Integer id = ids.get(name);
+	if (id == null) {
+	    id = register(name);
+	}
+	return id.intValue();
+    }
+
+    /**
+     * Returns the number of a feature name, if it has one.
+     *
+     * @param name the feature name
+     *
+     * @return the number of the name, or -1 if it has none
+     */
+    static int findId(String name) {
+	Integer id = ids.get(name);
+	return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the feature name with the given number.
+     *
+     * @param id the number of the name
+     *
+     * @return the feature name
+     */
+    static String getName(int id) {
+	return names[id];
+    }
+
+    /**
+     * Gives a feature name a number.
+     *
+     * @param name the feature name
+     *
+     * @return the number of the name
+     */
+    private static synchronized Integer register(String name) {
+	Integer id = ids.get(name);
+	if (id == null) {
+	    if (numNames == names.length) {
+		names = Arrays.copyOf(names, numNames * 2);
+	    }
+	    names[numNames] = name;
+	    id = new Integer(numNames++);
+	    ids.put(name, id);
+	}
+	return id;
+    }
+}
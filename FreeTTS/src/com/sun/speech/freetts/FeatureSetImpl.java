@@ -13,26 +13,49 @@ package com.sun.speech.freetts;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.sun.speech.freetts.util.Utilities;
 
 /**
  * Implementation of the FeatureSet interface.
+ *
+ * <p>The features are kept in small parallel arrays in the order in
+ * which they were first set.  Each feature is identified by the
+ * number that <code>FeatureNames</code> gives its name, and int and
+ * float values are stored unboxed.  The box of such a value, whether
+ * it was passed to <code>setObject</code> or made when the value was
+ * first asked for with <code>getObject</code>, is kept next to it, so
+ * asking again does not box the value again.  Items usually have only
+ * a few features, so they are found by a linear search.
  */
 public class FeatureSetImpl implements FeatureSet {
-    private final Map featureMap;
+    /**
+     * The kinds of values.
+     */
+    private final static byte OBJECT = 0;
+    private final static byte INT = 1;
+    private final static byte FLOAT = 2;
+
+    private final static int INITIAL_CAPACITY = 4;
+
+    private int size;
+    private int[] ids;
+    private byte[] kinds;
+    private int[] bits;
+    private Object[] objects;
     static DecimalFormat formatter;
 
     /**
      * Creates a new empty feature set
      */
     public FeatureSetImpl() {
-        featureMap = new LinkedHashMap();
+	ids = new int[INITIAL_CAPACITY];
+	kinds = new byte[INITIAL_CAPACITY];
+	bits = new int[INITIAL_CAPACITY];
     }
 
     /**
@@ -43,7 +66,7 @@ public class FeatureSetImpl implements FeatureSet {
      * @return true if the named feature is present
      */
     public boolean isPresent(String name) {
-	return featureMap.containsKey(name);
+	return indexOf(name) >= 0;
     }
 
 
@@ -53,7 +76,18 @@ public class FeatureSetImpl implements FeatureSet {
      * @param name the name of the feature of interest
      */
     public void remove(String name) {
-	featureMap.remove(name);
+	int i = indexOf(name);
+	if (i >= 0) {
+	    int tail = size - i - 1;
+	    System.arraycopy(ids, i + 1, ids, i, tail);
+	    System.arraycopy(kinds, i + 1, kinds, i, tail);
+	    System.arraycopy(bits, i + 1, bits, i, tail);
+	    if (objects != null) {
+		System.arraycopy(objects, i + 1, objects, i, tail);
+		objects[size - 1] = null;
+	    }
+	    size--;
+	}
     }
 
     /**
@@ -82,6 +116,10 @@ public class FeatureSetImpl implements FeatureSet {
      * @throws ClassCastException if the associated value is not an int.
      */
     public int getInt(String name) {
+	int i = indexOf(name);
+	if (i >= 0 && kinds[i] == INT) {
+	    return bits[i];
+	}
         return ((Integer) getObject(name)).intValue();
     }
 
@@ -97,6 +135,10 @@ public class FeatureSetImpl implements FeatureSet {
      *   float
      */
     public float getFloat(String name) {
+	int i = indexOf(name);
+	if (i >= 0 && kinds[i] == FLOAT) {
+	    return Float.intBitsToFloat(bits[i]);
+	}
 	return ((Float) getObject(name)).floatValue();
     }
 
@@ -109,7 +151,25 @@ public class FeatureSetImpl implements FeatureSet {
      *   is not found
      */
     public Object getObject(String name) {
-	return featureMap.get(name);
+	int i = indexOf(name);
+	if (i < 0) {
+	    return null;
+	}
+	Object[] boxes = objects;
+	Object value = (boxes == null) ? null : boxes[i];
+	if (value == null && kinds[i] != OBJECT) {
+	    if (kinds[i] == INT) {
+		value = Integer.valueOf(bits[i]);
+	    } else {
+		value = Float.valueOf(Float.intBitsToFloat(bits[i]));
+	    }
+	    // Voice features are read by several threads, so the box is
+	    // only kept if there is already somewhere to keep it.
+	    if (boxes != null) {
+		boxes[i] = value;
+	    }
+	}
+	return value;
     }
 
     /**
@@ -119,7 +179,12 @@ public class FeatureSetImpl implements FeatureSet {
      * @param value the value of the feature
      */
     public void setInt(String name, int value) {
-	setObject(name, new Integer(value));
+	int i = slotFor(name);
+	kinds[i] = INT;
+	bits[i] = value;
+	if (objects != null) {
+	    objects[i] = null;
+	}
     }
 
     /**
@@ -129,7 +194,12 @@ public class FeatureSetImpl implements FeatureSet {
      * @param value the value of the feature
      */
     public void setFloat(String name, float value) {
-	setObject(name, new Float(value));
+	int i = slotFor(name);
+	kinds[i] = FLOAT;
+	bits[i] = Float.floatToRawIntBits(value);
+	if (objects != null) {
+	    objects[i] = null;
+	}
     }
 
     /**
@@ -149,7 +219,81 @@ public class FeatureSetImpl implements FeatureSet {
      * @param value the value of the feature
      */
     public void setObject(String name, Object value) {
-	featureMap.put(name, value);
+	int i = slotFor(name);
+	if (value instanceof Integer) {
+	    kinds[i] = INT;
+	    bits[i] = ((Integer) value).intValue();
+	} else if (value instanceof Float) {
+	    kinds[i] = FLOAT;
+	    bits[i] = Float.floatToRawIntBits(((Float) value).floatValue());
+	} else {
+	    kinds[i] = OBJECT;
+	}
+	if (objects == null) {
+	    objects = new Object[ids.length];
+	}
+	objects[i] = value;
+    }
+
+    /**
+     * Returns the names of the features, in the order in which they
+     * were first set.
+     *
+     * @return the list of names
+     */
+    List<String> getNames() {
+	List<String> names = new ArrayList<String>(size);
+	for (int i = 0; i < size; i++) {
+	    names.add(FeatureNames.getName(ids[i]));
+	}
+	return names;
+    }
+
+    /**
+     * Finds the index of the named feature.
+     *
+     * @param name the name of the feature
+     *
+     * @return the index, or -1 if the feature is not present
+     */
+    private int indexOf(String name) {
+	int id = FeatureNames.findId(name);
+	if (id >= 0) {
+	    for (int i = 0; i < size; i++) {
+		if (ids[i] == id) {
+		    return i;
+		}
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Returns the index of the named feature, adding it after the
+     * others if it is not present.
+     *
+     * @param name the name of the feature
+     *
+     * @return the index
+     */
+    private int slotFor(String name) {
+	int id = FeatureNames.getId(name);
+	for (int i = 0; i < size; i++) {
+	    if (ids[i] == id) {
+		return i;
+	    }
+	}
+	if (size == ids.length) {
+	    int capacity = size * 2;
+	    ids = Arrays.copyOf(ids, capacity);
+	    kinds = Arrays.copyOf(kinds, capacity);
+	    bits = Arrays.copyOf(bits, capacity);
+	    if (objects != null) {
+		objects = Arrays.copyOf(objects, capacity);
+	    }
+	}
+	ids[size] = id;
+	return size++;
     }
 
     /**
@@ -174,7 +318,7 @@ public class FeatureSetImpl implements FeatureSet {
      */
     public void dump(PrintWriter output, int pad, String title,
 	    boolean showName) {
-	List keys = new ArrayList(featureMap.keySet());
+	List<String> keys = getNames();
 
 	if (formatter == null) {
 	    formatter = new DecimalFormat("########0.000000");
@@ -183,8 +327,8 @@ public class FeatureSetImpl implements FeatureSet {
 	 Collections.reverse(keys);  // to match flite
 
 	Utilities.dump(output, pad, title);
-	for (Iterator i = keys.iterator(); i.hasNext(); ) {
-	    String key = (String) i.next();
+	for (Iterator<String> i = keys.iterator(); i.hasNext(); ) {
+	    String key = i.next();
 
 	    if (!showName && key.equals("name")) {
 		continue;
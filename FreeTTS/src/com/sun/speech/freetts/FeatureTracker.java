@@ -0,0 +1,196 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the changes made to an utterance, so that a feature
+ * computed by a FeatureProcessor can be reused until something it
+ * was computed from changes.
+ *
+ * <p>Adding items or relations changes the structure of the
+ * utterance, which forgets every computed feature.  Each write of a
+ * feature is stamped by its name.  While a feature is computed, the
+ * names of the features read are recorded, and the computed feature
+ * is kept only until one of those names is written again, on any
+ * item.  So a processor that writes "end" after each segment does
+ * not make the accent features of the syllables be computed again.
+ */
+class FeatureTracker {
+    private int structureCount;
+    private int clock;
+    private int[] stamps = new int[64];
+    private int[] reads = new int[16];
+    private int readCount;
+    private int mark = -1;
+
+    /**
+     * Notes that items or relations have been added to or removed
+     * from the utterance.
+     */
+    void structureChanged() {
+	structureCount++;
+    }
+
+    /**
+     * Notes that a feature has been written.
+     *
+     * @param name the name of the feature
+     */
+    void featureChanged(String name) {
+	int id = FeatureNames.getId(name);
+	if (id >= stamps.length) {
+	    stamps = Arrays.copyOf(stamps, Math.max(id + 1, stamps.length * 2));
+	}
+	stamps[id] = ++clock;
+    }
+
+    /**
+     * Notes that a feature has been read.  The name is recorded only
+     * while a feature is computed.
+     *
+     * @param name the name of the feature
+     */
+    void featureRead(String name) {
+	if (mark >= 0) {
+	    addRead(FeatureNames.getId(name));
+	}
+    }
+
+    /**
+     * Starts recording the features read to compute a feature.
+     * Computations may be nested; the names read by an inner one are
+     * also read by the outer one.
+     *
+     * @return what to give to {@link #stopReading} when the feature
+     *    has been computed
+     */
+    int startReading() {
+	int previous = mark;
+	mark = readCount;
+	return previous;
+    }
+
+    /**
+     * Stops recording the features read to compute a feature.
+     *
+     * @param previous what {@link #startReading} returned
+     */
+    void stopReading(int previous) {
+	mark = previous;
+	if (mark < 0) {
+	    readCount = 0;
+	}
+    }
+
+    /**
+     * Returns a feature computed earlier for an item, if nothing it
+     * was computed from has changed since.
+     *
+     * @param item the item
+     * @param slot the slot of the feature processor
+     *
+     * @return the feature, or null if it must be computed
+     */
+    Object getCachedFeature(Item item, int slot) {
+	CachedFeature cached = item.getCachedFeature(slot);
+	if (cached == null || cached.structureCount != structureCount) {
+	    return null;
+	}
+	int[] names = cached.reads;
+	for (int i = 0; i < names.length; i++) {
+	    int id = names[i];
+	    if (id < stamps.length && stamps[id] > cached.clock) {
+		return null;
+	    }
+	}
+	if (mark >= 0) {
+	    for (int i = 0; i < names.length; i++) {
+		addRead(names[i]);
+	    }
+	}
+	return cached.value;
+    }
+
+    /**
+     * Remembers a feature that has just been computed for an item,
+     * with the names read since the matching {@link #startReading}.
+     * Must be called before {@link #stopReading}.
+     *
+     * @param item the item
+     * @param slot the slot of the feature processor
+     * @param slots the number of slots of the voice
+     * @param value the feature
+     * @param structureCount the structure count before the feature
+     *    was computed
+     * @param clock the clock before the feature was computed
+     */
+    void setCachedFeature(Item item, int slot, int slots, Object value,
+	    int structureCount, int clock) {
+	if (structureCount == this.structureCount) {
+	    item.setCachedFeature(slot, slots, new CachedFeature(value,
+			structureCount, clock,
+			Arrays.copyOfRange(reads, mark, readCount)));
+	}
+    }
+
+    /**
+     * Returns the number of changes made to the structure of the
+     * utterance so far.
+     *
+     * @return the structure count
+     */
+    int getStructureCount() {
+	return structureCount;
+    }
+
+    /**
+     * Returns the number of feature writes made so far.
+     *
+     * @return the clock
+     */
+    int getClock() {
+	return clock;
+    }
+
+    /**
+     * Records that a feature name has been read by the computation in
+     * progress, once.
+     *
+     * @param id the number of the name
+     */
+    private void addRead(int id) {
+	for (int i = mark; i < readCount; i++) {
+	    if (reads[i] == id) {
+		return;
+	    }
+	}
+	if (readCount == reads.length) {
+	    reads = Arrays.copyOf(reads, readCount * 2);
+	}
+	reads[readCount++] = id;
+    }
+
+    /**
+     * A computed feature, with what is needed to tell whether it is
+     * still current.
+     */
+    static class CachedFeature {
+	final Object value;
+	final int structureCount;
+	final int clock;
+	final int[] reads;
+
+	CachedFeature(Object value, int structureCount, int clock,
+		int[] reads) {
+	    this.value = value;
+	    this.structureCount = structureCount;
+	    this.clock = clock;
+	    this.reads = reads;
+	}
+    }
+}
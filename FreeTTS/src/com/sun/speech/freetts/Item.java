@@ -11,6 +11,7 @@
 package com.sun.speech.freetts;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 
 /**
@@ -30,7 +31,7 @@ public class Item implements Dumpable {
     private Item daughter;
     private Item next;
     private Item prev;
-
+    private FeatureTracker.CachedFeature[] featureCache;
 
     /**
      * Creates an item. The item is coupled to a particular
@@ -53,7 +54,7 @@ public class Item implements Dumpable {
 	next = null;
 	prev = null;
 
-
+	getSharedContents().setUtterance(relation.getUtterance());
 	getSharedContents().addItemRelation(relation.getName(), this);
     }
 
@@ -425,6 +426,38 @@ public class Item implements Dumpable {
 	return newItem;
     }
 
+    /**
+     * Returns a feature computed earlier for this item.
+     *
+     * @param slot the slot of the feature processor
+     *
+     * @return the feature, or null if it has not been computed
+     */
+    FeatureTracker.CachedFeature getCachedFeature(int slot) {
+	if (featureCache == null || slot >= featureCache.length) {
+	    return null;
+	}
+	return featureCache[slot];
+    }
+
+    /**
+     * Remembers a feature computed for this item.
+     *
+     * @param slot the slot of the feature processor
+     * @param slots the number of slots of the voice
+     * @param feature the feature
+     */
+    void setCachedFeature(int slot, int slots,
+	    FeatureTracker.CachedFeature feature) {
+	if (featureCache == null) {
+	    featureCache =
+		new FeatureTracker.CachedFeature[Math.max(slot + 1, slots)];
+	} else if (slot >= featureCache.length) {
+	    featureCache = Arrays.copyOf(featureCache, Math.max(slot + 1, slots));
+	}
+	featureCache[slot] = feature;
+    }
+
     /**
      * Attaches/appends an item to this one.
      *
@@ -435,6 +468,17 @@ public class Item implements Dumpable {
 	item.prev = this;
     }
 
+    /**
+     * Makes this item the last of its list, dropping the items that
+     * follow it.
+     */
+    void cutAfter() {
+	if (next != null) {
+	    next.prev = null;
+	    next = null;
+	}
+    }
+
     /**
      * Prepends an item in this list before this item.
      *
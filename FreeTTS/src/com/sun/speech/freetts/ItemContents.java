@@ -15,15 +15,27 @@ import java.io.PrintWriter;
  * Contains the information that is shared between multiple items.
  */
 public class ItemContents {
-    private FeatureSetImpl features;
-    private FeatureSetImpl relations;
+    private TrackedFeatureSet features;
+    private TrackedFeatureSet relations;
 
     /**
      * Class Constructor.
      */
     public ItemContents() {
-	features = new FeatureSetImpl();
-	relations = new FeatureSetImpl();
+	features = new TrackedFeatureSet(null, false);
+	relations = new TrackedFeatureSet(null, true);
+    }
+
+    /**
+     * Sets the utterance that these contents belong to, which is told
+     * about reads of the features and changes to the features or
+     * relations.
+     *
+     * @param utterance the utterance
+     */
+    void setUtterance(Utterance utterance) {
+	features.setUtterance(utterance);
+	relations.setUtterance(utterance);
     }
     
     /**
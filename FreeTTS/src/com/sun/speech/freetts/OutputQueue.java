@@ -105,6 +105,30 @@ public class OutputQueue {
 	return utterance;
     }
 
+    /**
+     * Returns the number of consumer threads that drain this queue.
+     * Each consumer takes its utterances with <code>pend(int)</code>.
+     *
+     * @return the number of consumers
+     */
+    public int getConsumerCount() {
+	return 1;
+    }
+
+    /**
+     * Blocks until there is an utterance in the queue for the given
+     * consumer.
+     *
+     * @param consumer the consumer, from 0 to
+     *    <code>getConsumerCount() - 1</code>
+     *
+     * @return the next utterance. On a close or interrupt, a null is
+     * returned.
+     */
+    public Utterance pend(int consumer) {
+	return pend();
+    }
+
     /**
      * Removes all items from this OutputQueue.
      */
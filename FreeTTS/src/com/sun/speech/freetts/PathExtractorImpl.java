@@ -29,12 +29,19 @@ import com.sun.speech.freetts.util.Utilities;
  * <pre>
  *   com.sun.speech.freetts.interpretCartPaths - default false
  *   com.sun.speech.freetts.lazyCartCompile - default true
+ *   com.sun.speech.freetts.cacheFeatures - default true
  * </pre>
  *   com.sun.speech.freetts.interpretCartPaths
  *
  * Instances of this class will optionally pre-compile the paths.
  * Pre-compiling paths reduces the processing time and objects needed
  * to extract a feature or an item based upon a path.
+ *
+ * Features computed by a FeatureProcessor are optionally remembered
+ * by the item they were computed for, until the structure of the
+ * utterance or one of the features read to compute them changes.
+ * The voice gives each of its processors a slot, so remembered
+ * features are found by index.
  */
 public class PathExtractorImpl implements PathExtractor {
     /** Logger instance. */
@@ -55,16 +62,28 @@ public class PathExtractorImpl implements PathExtractor {
     public final static String LAZY_COMPILE_PROPERTY =
 	"com.sun.speech.freetts.lazyCartCompile";
 
+    /**
+     * If this system property is set to true, features computed by
+     * FeatureProcessors are remembered until what they were computed
+     * from changes.
+     */
+    public final static String CACHE_FEATURES_PROPERTY =
+	"com.sun.speech.freetts.cacheFeatures";
+
     private final static boolean INTERPRET_PATHS = 
 	Utilities.getProperty(INTERPRET_PATHS_PROPERTY, "false").equals("true");
     private final static boolean LAZY_COMPILE  = 
 	Utilities.getProperty(LAZY_COMPILE_PROPERTY, "true").equals("true");
+    private final static boolean CACHE_FEATURES =
+	Utilities.getProperty(CACHE_FEATURES_PROPERTY, "true").equals("true");
+
 
     private String pathAndFeature;
     private String path;
     private String feature;
     private Object[] compiledPath;
     private boolean wantFeature = false;
+    private volatile ResolvedProcessor resolved;
 
     /**
      * Creates a path for the given feature.
@@ -168,9 +187,9 @@ public class PathExtractorImpl implements PathExtractor {
 	                    + feature + "'");
 	        }
 
-	    FeatureProcessor fp =
-		pitem.getOwnerRelation().getUtterance().
-		    getVoice().getFeatureProcessor(feature);
+	    Utterance utterance = pitem.getOwnerRelation().getUtterance();
+	    ResolvedProcessor r = getFeatureProcessor(utterance.getVoice());
+	    FeatureProcessor fp = r.processor;
 
 	    if (fp != null) {
 	        if (LOGGER.isLoggable(Level.FINER)) {
@@ -178,11 +197,10 @@ public class PathExtractorImpl implements PathExtractor {
 	                    "findFeature: There is a feature processor for '" 
 	                    + feature + "'");
 	        }
-		try {
-		    results = fp.process(pitem);
-		} catch (ProcessException pe) {
-		    LOGGER.severe("trouble while processing " + fp);
-		     throw new Error(pe);
+		if (CACHE_FEATURES) {
+		    results = findCachedFeature(pitem, utterance, r);
+		} else {
+		    results = process(fp, pitem);
 		}
 	    } else {
 		results = pitem.getFeatures().getObject(feature);
@@ -197,6 +215,78 @@ public class PathExtractorImpl implements PathExtractor {
     }
 
 
+    /**
+     * Returns the feature computed for an item, computing it only if
+     * it has not been computed since what it was computed from last
+     * changed.
+     *
+     * @param item the item
+     * @param utterance the utterance of the item
+     * @param r the processor of the feature
+     *
+     * @return the feature
+     */
+    private Object findCachedFeature(Item item, Utterance utterance,
+	    ResolvedProcessor r) {
+	FeatureTracker tracker = utterance.getFeatureTracker();
+	Object results = tracker.getCachedFeature(item, r.slot);
+	if (results == null) {
+	    int structureCount = tracker.getStructureCount();
+	    int clock = tracker.getClock();
+	    int previous = tracker.startReading();
+	    try {
+		results = process(r.processor, item);
+		if (results != null) {
+		    tracker.setCachedFeature(item, r.slot, r.slots, results,
+			    structureCount, clock);
+		}
+	    } finally {
+		tracker.stopReading(previous);
+	    }
+	}
+	return results;
+    }
+
+    /**
+     * Computes the feature of an item.
+     *
+     * @param fp the processor of the feature
+     * @param item the item
+     *
+     * @return the feature
+     */
+    private Object process(FeatureProcessor fp, Item item) {
+	try {
+	    return fp.process(item);
+	} catch (ProcessException pe) {
+	    LOGGER.severe("trouble while processing " + fp);
+	    throw new Error(pe);
+	}
+    }
+
+    /**
+     * Returns the FeatureProcessor of the voice for the feature of
+     * this path.  The processor is looked up again only when another
+     * voice is used or a processor is added to the voice.
+     *
+     * @param voice the voice
+     *
+     * @return the processor, whose processor is null if the voice has
+     *    none
+     */
+    private ResolvedProcessor getFeatureProcessor(Voice voice) {
+	int version = voice.getFeatureProcessorsVersion();
+	ResolvedProcessor r = resolved;
+	if (r == null || r.voice != voice || r.version != version) {
+	    r = new ResolvedProcessor(voice, version,
+		    voice.getFeatureProcessor(feature),
+		    voice.getFeatureProcessorSlot(feature),
+		    voice.getFeatureProcessorSlots());
+	    resolved = r;
+	}
+	return r;
+    }
+
     /**
      * Compiles the given path into the compiled form
      * @param path the path to compile
@@ -241,6 +331,27 @@ public class PathExtractorImpl implements PathExtractor {
     public void writeBinary();
     public void readBinary();
     */
+
+    /**
+     * The FeatureProcessor of a voice for a feature and its slot, as
+     * looked up for a given version of the processors of the voice.
+     */
+    private static class ResolvedProcessor {
+	final Voice voice;
+	final int version;
+	final FeatureProcessor processor;
+	final int slot;
+	final int slots;
+
+	ResolvedProcessor(Voice voice, int version,
+		FeatureProcessor processor, int slot, int slots) {
+	    this.voice = voice;
+	    this.version = version;
+	    this.processor = processor;
+	    this.slot = slot;
+	    this.slots = slots;
+	}
+    }
 }
 
 
@@ -0,0 +1,279 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An output queue made of bounded ring buffers that are used without
+ * locks, one for each consumer thread.  Utterances are given to a
+ * consumer according to their audio player, so the utterances of one
+ * audio player stay in order while different audio players are fed
+ * in parallel, and a slow audio player only holds up the others that
+ * share its consumer.
+ *
+ * <p>Any number of threads may post utterances.  Each consumer should
+ * take its utterances with <code>pend(int)</code>.  A consumer that
+ * finds its ring empty parks until an utterance is posted to it; a
+ * producer that finds a ring full waits briefly and tries again.
+ */
+public class RingOutputQueue extends OutputQueue {
+    /**
+     * How long a producer waits for a full ring, in nanoseconds.
+     */
+    private final static long FULL_WAIT = 100000L;
+
+    private final Ring[] rings;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a queue.
+     *
+     * @param size the number of utterances each consumer can have
+     *   waiting, rounded up to a power of two
+     * @param consumers the number of consumer threads
+     */
+    public RingOutputQueue(int size, int consumers) {
+	rings = new Ring[Math.max(consumers, 1)];
+	for (int i = 0; i < rings.length; i++) {
+	    rings[i] = new Ring(size);
+	}
+    }
+
+    /**
+     * Posts the given utterance to the queue. This call will block if
+     * the ring of its consumer is full.
+     *
+     * @param utterance the utterance to post
+     *
+     * @throws IllegalStateException if the queue is closed
+     */
+    public void post(Utterance utterance) {
+	if (closed) {
+	    throw new IllegalStateException("output queue closed");
+	}
+	Ring ring = rings[getConsumer(utterance)];
+	while (!ring.offer(utterance)) {
+	    LockSupport.parkNanos(this, FULL_WAIT);
+	}
+	Thread waiter = ring.waiter.get();
+	if (waiter != null) {
+	    LockSupport.unpark(waiter);
+	}
+    }
+
+    /**
+     * Closes the queue.  The consumers get the utterances that are
+     * already queued, and then null.
+     */
+    public void close() {
+	closed = true;
+	for (int i = 0; i < rings.length; i++) {
+	    Thread waiter = rings[i].waiter.get();
+	    if (waiter != null) {
+		LockSupport.unpark(waiter);
+	    }
+	}
+    }
+
+    /**
+     * Determines if the queue is closed.
+     *
+     * @return  true the queue is closed; otherwise false
+     */
+    public boolean isClosed() {
+	return closed;
+    }
+
+    /**
+     * Returns the number of consumer threads that drain this queue.
+     *
+     * @return the number of consumers
+     */
+    public int getConsumerCount() {
+	return rings.length;
+    }
+
+    /**
+     * Blocks until there is an utterance for any consumer.  This
+     * should only be used by a single consumer thread.
+     *
+     * @return the next utterance. On a close or interrupt, a null is
+     * returned.
+     */
+    public Utterance pend() {
+	if (rings.length == 1) {
+	    return pend(0);
+	}
+	while (true) {
+	    for (int i = 0; i < rings.length; i++) {
+		Utterance utterance = rings[i].poll();
+		if (utterance != null) {
+		    return utterance;
+		}
+	    }
+	    if (closed || Thread.interrupted()) {
+		return null;
+	    }
+	    LockSupport.parkNanos(this, FULL_WAIT);
+	}
+    }
+
+    /**
+     * Blocks until there is an utterance for the given consumer.
+     *
+     * @param consumer the consumer
+     *
+     * @return the next utterance. On a close or interrupt, a null is
+     * returned.
+     */
+    public Utterance pend(int consumer) {
+	Ring ring = rings[consumer];
+	Thread current = Thread.currentThread();
+	while (true) {
+	    Utterance utterance = ring.poll();
+	    if (utterance != null) {
+		return utterance;
+	    }
+	    if (closed) {
+		return null;
+	    }
+	    ring.waiter.set(current);
+	    utterance = ring.poll();
+	    if (utterance == null && !closed) {
+		LockSupport.park(this);
+	    }
+	    ring.waiter.set(null);
+	    if (utterance != null) {
+		return utterance;
+	    }
+	    if (Thread.interrupted()) {
+		return null;
+	    }
+	}
+    }
+
+    /**
+     * Removes all items from this OutputQueue.
+     */
+    public void removeAll() {
+	for (int i = 0; i < rings.length; i++) {
+	    while (rings[i].poll() != null) {
+	    }
+	}
+    }
+
+    /**
+     * Returns the consumer of an utterance.  All utterances for the
+     * same audio player go to the same consumer.
+     *
+     * @param utterance the utterance
+     *
+     * @return the consumer
+     */
+    private int getConsumer(Utterance utterance) {
+	if (rings.length == 1) {
+	    return 0;
+	}
+	Object sink = utterance.getAudioPlayer();
+	if (sink == null) {
+	    sink = utterance.getVoice();
+	}
+	int h = System.identityHashCode(sink);
+	h ^= h >>> 16;
+	return (h & 0x7fffffff) % rings.length;
+    }
+
+    /**
+     * A bounded ring buffer that many threads can add to and take
+     * from without locking.  Each slot has a sequence number that
+     * tells whether it is ready to be filled or emptied at a given
+     * position of the ring.
+     */
+    private static class Ring {
+	final AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+	private final AtomicReferenceArray<Utterance> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final int mask;
+
+	/**
+	 * Creates a ring.
+	 *
+	 * @param size the size, rounded up to a power of two
+	 */
+	Ring(int size) {
+	    int capacity = 2;
+	    while (capacity < size) {
+		capacity <<= 1;
+	    }
+	    items = new AtomicReferenceArray<Utterance>(capacity);
+	    sequences = new AtomicLongArray(capacity);
+	    for (int i = 0; i < capacity; i++) {
+		sequences.set(i, i);
+	    }
+	    mask = capacity - 1;
+	}
+
+	/**
+	 * Adds an utterance at the tail of the ring.
+	 *
+	 * @param utterance the utterance
+	 *
+	 * @return false if the ring is full
+	 */
+	boolean offer(Utterance utterance) {
+	    long pos = tail.get();
+	    while (true) {
+		int slot = (int) pos & mask;
+		long diff = sequences.get(slot) - pos;
+		if (diff == 0) {
+		    if (tail.compareAndSet(pos, pos + 1)) {
+			items.set(slot, utterance);
+			sequences.set(slot, pos + 1);
+			return true;
+		    }
+		    pos = tail.get();
+		} else if (diff < 0) {
+		    return false;
+		} else {
+		    pos = tail.get();
+		}
+	    }
+	}
+
+	/**
+	 * Takes the utterance at the head of the ring.
+	 *
+	 * @return the utterance, or null if the ring is empty
+	 */
+	Utterance poll() {
+	    long pos = head.get();
+	    while (true) {
+		int slot = (int) pos & mask;
+		long diff = sequences.get(slot) - (pos + 1);
+		if (diff == 0) {
+		    if (head.compareAndSet(pos, pos + 1)) {
+			Utterance utterance = items.get(slot);
+			items.set(slot, null);
+			sequences.set(slot, pos + mask + 1);
+			return utterance;
+		    }
+		    pos = head.get();
+		} else if (diff < 0) {
+		    return null;
+		} else {
+		    pos = head.get();
+		}
+	    }
+	}
+    }
+}
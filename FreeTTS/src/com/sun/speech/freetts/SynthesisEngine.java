@@ -0,0 +1,371 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.speech.freetts.audio.AudioPlayer;
+import com.sun.speech.freetts.audio.PipedAudioPlayer;
+import com.sun.speech.freetts.util.BulkTimer;
+
+/**
+ * Synthesizes a number of independent requests in parallel against
+ * a single, already allocated <code>Voice</code>.
+ *
+ * <p>Each request is handled completely by one worker thread of a
+ * fixed size pool: the text is tokenized, each utterance is run
+ * through the <code>UtteranceProcessors</code> of the voice and the
+ * resulting audio is sent to the <code>AudioPlayer</code> given with
+ * the request.  The output queue and the audio player of the voice
+ * are not used.  The loaded voice data (lexicon, letter-to-sound
+ * rules, CARTs and unit database) is shared by all workers, while
+ * the state that is built up while processing a request lives in the
+ * utterance and in per-request copies kept by the processors.
+ *
+ * <p><b>Example</b>:
+ *
+ * <pre>
+ * Voice voice = VoiceManager.getInstance().getVoice("kevin16");
+ * voice.allocate();
+ *
+ * SynthesisEngine engine = new SynthesisEngine(voice);
+ * Future&lt;Boolean&gt; a = engine.submit("Hello.", new SingleFileAudioPlayer("a", type));
+ * Future&lt;Boolean&gt; b = engine.submit("Goodbye.", new SingleFileAudioPlayer("b", type));
+ * ...
+ * engine.shutdown();
+ * </pre>
+ *
+ * <p>Since the audio player of a request is only used by the worker
+ * that handles the request, the players need not be thread safe,
+ * but they must not be shared between requests that may run at the
+ * same time.
+ */
+public class SynthesisEngine {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(SynthesisEngine.class.getName());
+
+    private final Voice voice;
+    private final int numberOfWorkers;
+    private final ExecutorService workers;
+
+    /**
+     * Creates a synthesis engine with one worker per available
+     * processor.
+     *
+     * @param voice the allocated voice to synthesize with
+     *
+     * @throws IllegalStateException if the voice is not allocated
+     */
+    public SynthesisEngine(Voice voice) {
+	this(voice, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a synthesis engine with the given number of workers.
+     *
+     * @param voice the allocated voice to synthesize with
+     * @param numberOfWorkers the number of requests that are
+     *    synthesized at the same time
+     *
+     * @throws IllegalStateException if the voice is not allocated
+     * @throws IllegalArgumentException if numberOfWorkers is less
+     *    than one
+     */
+    public SynthesisEngine(Voice voice, int numberOfWorkers) {
+	if (!voice.isLoaded()) {
+	    throw new IllegalStateException("voice " + voice.getName()
+		    + " is not allocated");
+	}
+	if (numberOfWorkers < 1) {
+	    throw new IllegalArgumentException("numberOfWorkers must be > 0");
+	}
+	this.voice = voice;
+	this.numberOfWorkers = numberOfWorkers;
+	this.workers = Executors.newFixedThreadPool(numberOfWorkers,
+		new WorkerFactory(voice.getName()));
+    }
+
+    /**
+     * Returns the voice used by this engine.
+     *
+     * @return the voice
+     */
+    public Voice getVoice() {
+	return voice;
+    }
+
+    /**
+     * Returns the number of requests that are synthesized at the same
+     * time.
+     *
+     * @return the number of workers
+     */
+    public int getNumberOfWorkers() {
+	return numberOfWorkers;
+    }
+
+    /**
+     * Queues the given text for synthesis.
+     *
+     * @param text the text to speak
+     * @param player where to send the audio
+     *
+     * @return a future that yields <code>true</code> if the text was
+     *    spoken properly; otherwise <code>false</code>
+     */
+    public Future<Boolean> submit(String text, AudioPlayer player) {
+	return submit(new FreeTTSSpeakableImpl(text), player);
+    }
+
+    /**
+     * Queues the given speakable for synthesis.  The request can be
+     * cancelled by calling <code>cancelled</code> on the speakable.
+     *
+     * @param speakable the item to speak
+     * @param player where to send the audio
+     *
+     * @return a future that yields <code>true</code> if the item was
+     *    spoken properly; otherwise <code>false</code>
+     */
+    public Future<Boolean> submit(FreeTTSSpeakable speakable,
+	    AudioPlayer player) {
+	return workers.submit(new Request(speakable, player));
+    }
+
+    /**
+     * Queues the given text for synthesis and returns a player from
+     * which the audio can be read as it is produced.  The audio of
+     * the first utterance can be read while the rest of the text is
+     * still being synthesized; the stream ends after the last
+     * utterance.  If the request fails or is cancelled, reading
+     * the stream throws an <code>IOException</code> once the audio
+     * produced so far has been read.  Closing the stream cancels the
+     * request.
+     *
+     * @param text the text to speak
+     *
+     * @return the player to read the audio from
+     */
+    public PipedAudioPlayer stream(String text) {
+	return stream(new FreeTTSSpeakableImpl(text));
+    }
+
+    /**
+     * Queues the given speakable for synthesis and returns a player
+     * from which the audio can be read as it is produced.
+     *
+     * @param speakable the item to speak
+     *
+     * @return the player to read the audio from
+     *
+     * @see #stream(String)
+     */
+    public PipedAudioPlayer stream(FreeTTSSpeakable speakable) {
+	final PipedAudioPlayer player = new PipedAudioPlayer();
+	final Request request = new Request(speakable, player);
+	workers.submit(new Callable<Boolean>() {
+	    public Boolean call() {
+		Boolean ok = Boolean.FALSE;
+		try {
+		    ok = request.call();
+		    return ok;
+		} finally {
+		    if (ok.booleanValue()) {
+			player.close();
+		    } else {
+			player.fail(request.getFailure());
+		    }
+		}
+	    }
+	});
+	return player;
+    }
+
+    /**
+     * Speaks the given text using one of the workers and waits until
+     * it is completely spoken or cancelled.
+     *
+     * @param text the text to speak
+     * @param player where to send the audio
+     *
+     * @return <code>true</code> if the text was spoken properly;
+     *   otherwise <code>false</code>
+     */
+    public boolean speak(String text, AudioPlayer player) {
+	return waitFor(submit(text, player));
+    }
+
+    /**
+     * Waits for a request to complete.
+     *
+     * @param request the future of the request
+     *
+     * @return <code>true</code> if the request was spoken properly;
+     *   otherwise <code>false</code>
+     */
+    private boolean waitFor(Future<Boolean> request) {
+	try {
+	    return request.get().booleanValue();
+	} catch (InterruptedException ie) {
+	    request.cancel(true);
+	    return false;
+	} catch (ExecutionException ee) {
+	    LOGGER.warning("Synthesis failed: " + ee.getCause());
+	    return false;
+	}
+    }
+
+    /**
+     * Stops accepting new requests.  Requests that are already queued
+     * are still synthesized.
+     */
+    public void shutdown() {
+	workers.shutdown();
+    }
+
+    /**
+     * Determines if this engine has been shut down.
+     *
+     * @return <code>true</code> if the engine is shut down
+     */
+    public boolean isShutdown() {
+	return workers.isShutdown();
+    }
+
+    /**
+     * A single synthesis request.
+     */
+    private class Request implements Callable<Boolean> {
+	private final FreeTTSSpeakable speakable;
+	private final AudioPlayer player;
+	private volatile Throwable failure = null;
+
+	/**
+	 * Creates a request.
+	 *
+	 * @param speakable the item to speak
+	 * @param player where to send the audio
+	 */
+	Request(FreeTTSSpeakable speakable, AudioPlayer player) {
+	    this.speakable = speakable;
+	    this.player = player;
+	}
+
+	/**
+	 * Synthesizes the item in the calling worker thread.
+	 *
+	 * @return <code>true</code> if the item was spoken properly
+	 */
+	public Boolean call() {
+	    BulkTimer timer = new BulkTimer();
+	    boolean ok = true;
+	    boolean posted = false;
+
+	    AudioCache cache = voice.getAudioCache();
+	    String cacheKey = (cache == null)
+		? null : cache.getKey(voice, speakable);
+	    AudioCache.Recorder recorder = null;
+
+	    player.startFirstSampleTimer();
+	    try {
+		Utterance cached = (cacheKey == null) ? null
+		    : voice.getCachedUtterance(cache, cacheKey, speakable);
+		if (cached != null) {
+		    cached.setAudioPlayer(player);
+		    ok = voice.synthesizeUtterance(cached, timer);
+		    posted = true;
+		} else if (cacheKey != null) {
+		    recorder = new AudioCache.Recorder();
+		}
+		for (Iterator<Utterance> i = voice.tokenize(speakable);
+		     cached == null && ok && !speakable.isCompleted()
+			 && i.hasNext(); ) {
+		    Utterance utterance = i.next();
+		    if (utterance != null) {
+			utterance.setAudioPlayer(player);
+			if (recorder != null) {
+			    utterance.setObject(AudioCache.RECORDER, recorder);
+			}
+			ok = voice.synthesizeUtterance(utterance, timer);
+			posted = true;
+		    }
+		}
+	    } catch (ProcessException pe) {
+		LOGGER.warning("Processing Utterance: " + pe);
+		failure = pe;
+		ok = false;
+	    } catch (RuntimeException re) {
+		LOGGER.log(Level.WARNING,
+			"Trouble while processing utterance", re);
+		failure = re;
+		ok = false;
+	    }
+
+	    if (!ok) {
+		speakable.cancelled();
+		return Boolean.FALSE;
+	    }
+	    if (!posted && !speakable.isCompleted()) {
+		speakable.completed();
+	    }
+	    ok = speakable.waitCompleted();
+	    if (ok && recorder != null) {
+		cache.put(cacheKey, recorder);
+	    }
+	    return Boolean.valueOf(ok);
+	}
+
+	/**
+	 * Returns why the request failed.
+	 *
+	 * @return the exception that stopped the synthesis, or
+	 *    <code>null</code> if it did not fail or was cancelled
+	 */
+	Throwable getFailure() {
+	    return failure;
+	}
+    }
+
+    /**
+     * Creates the daemon threads of the worker pool.
+     */
+    private static class WorkerFactory implements ThreadFactory {
+	private final AtomicInteger count = new AtomicInteger();
+	private final String name;
+
+	/**
+	 * Creates a factory for workers of the given voice.
+	 *
+	 * @param voiceName the name of the voice
+	 */
+	WorkerFactory(String voiceName) {
+	    this.name = "FreeTTS " + voiceName + " synthesis worker ";
+	}
+
+	/**
+	 * Creates a new worker thread.
+	 *
+	 * @param r what the thread runs
+	 *
+	 * @return the thread
+	 */
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, name + count.incrementAndGet());
+	    t.setDaemon(true);
+	    return t;
+	}
+    }
+}
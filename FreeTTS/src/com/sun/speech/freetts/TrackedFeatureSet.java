@@ -0,0 +1,156 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+/**
+ * A feature set that tells its utterance whenever it is read or
+ * changed, so that features computed from it can be forgotten when
+ * it changes.  The relations of an utterance or an item are kept in
+ * a structural set, whose changes forget every computed feature.
+ */
+class TrackedFeatureSet extends FeatureSetImpl {
+    private final boolean structural;
+    private Utterance utterance;
+
+    /**
+     * Creates a new empty feature set of the given utterance.
+     *
+     * @param utterance the utterance, or null if it is not yet known
+     * @param structural true if the set holds relations rather than
+     *    features
+     */
+    TrackedFeatureSet(Utterance utterance, boolean structural) {
+	this.utterance = utterance;
+	this.structural = structural;
+    }
+
+    /**
+     * Sets the utterance of this feature set.
+     *
+     * @param utterance the utterance
+     */
+    void setUtterance(Utterance utterance) {
+	this.utterance = utterance;
+    }
+
+    /**
+     * Determines if the given feature is present.
+     *
+     * @param name the name of the feature of interest
+     *
+     * @return true if the named feature is present
+     */
+    public boolean isPresent(String name) {
+	read(name);
+	return super.isPresent(name);
+    }
+
+    /**
+     * Returns the named feature as an int.
+     *
+     * @param name the name of the feature
+     *
+     * @return the value associated with the name
+     */
+    public int getInt(String name) {
+	read(name);
+	return super.getInt(name);
+    }
+
+    /**
+     * Returns the named feature as a float.
+     *
+     * @param name the name of the feature
+     *
+     * @return the value associated with the name
+     */
+    public float getFloat(String name) {
+	read(name);
+	return super.getFloat(name);
+    }
+
+    /**
+     * Returns the named feature as an object.
+     *
+     * @param name the name of the feature
+     *
+     * @return the value associated with the name or null if the value
+     *   is not found
+     */
+    public Object getObject(String name) {
+	read(name);
+	return super.getObject(name);
+    }
+
+    /**
+     * Removes the named feature from this set of features.
+     *
+     * @param name the name of the feature of interest
+     */
+    public void remove(String name) {
+	super.remove(name);
+	modified(name);
+    }
+
+    /**
+     * Sets the named feature as an int.
+     *
+     * @param name the name of the feature
+     * @param value the value of the feature
+     */
+    public void setInt(String name, int value) {
+	super.setInt(name, value);
+	modified(name);
+    }
+
+    /**
+     * Sets the named feature as a float.
+     *
+     * @param name the name of the feature
+     * @param value the value of the feature
+     */
+    public void setFloat(String name, float value) {
+	super.setFloat(name, value);
+	modified(name);
+    }
+
+    /**
+     * Sets the named feature.
+     *
+     * @param name the name of the feature
+     * @param value the value of the feature
+     */
+    public void setObject(String name, Object value) {
+	super.setObject(name, value);
+	modified(name);
+    }
+
+    /**
+     * Tells the utterance that a feature of this set has been read.
+     *
+     * @param name the name of the feature
+     */
+    private void read(String name) {
+	if (utterance != null && !structural) {
+	    utterance.getFeatureTracker().featureRead(name);
+	}
+    }
+
+    /**
+     * Tells the utterance that this feature set has changed.
+     *
+     * @param name the name of the feature that has changed
+     */
+    private void modified(String name) {
+	if (utterance != null) {
+	    if (structural) {
+		utterance.getFeatureTracker().structureChanged();
+	    } else {
+		utterance.getFeatureTracker().featureChanged(name);
+	    }
+	}
+    }
+}
@@ -12,8 +12,11 @@ package com.sun.speech.freetts;
 
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import com.sun.speech.freetts.audio.AudioPlayer;
 import com.sun.speech.freetts.util.SegmentRelationUtils;
 
 /**
@@ -32,10 +35,13 @@ public class Utterance implements FeatureSet, Serializable {
 
     private Voice voice;
     private FeatureSet features;
-    private FeatureSet relations;
+    private TrackedFeatureSet relations;
     private boolean first;	// first in a connected series
     private boolean last;	// last in a connected series
     private FreeTTSSpeakable speakable;
+    private transient AudioPlayer audioPlayer;
+    private transient FeatureTracker featureTracker;
+    private transient List<UtteranceProcessor> processedBy;
 
     /**
      * Creates a new, empty utterance.
@@ -44,8 +50,8 @@ public class Utterance implements FeatureSet, Serializable {
      */
     public Utterance(Voice voice) {
 	this.voice = voice;
-	features = new FeatureSetImpl();
-	relations = new FeatureSetImpl();
+	features = new TrackedFeatureSet(this, false);
+	relations = new TrackedFeatureSet(this, true);
     }
 
     /**
@@ -113,6 +119,21 @@ public class Utterance implements FeatureSet, Serializable {
 	return relations.isPresent(name);
     }
 
+    /**
+     * Returns what keeps track of the reads and changes of the
+     * features and relations of this utterance and its items.  Adding
+     * an item to a relation always creates a new item, which counts
+     * as a change of the relations.
+     *
+     * @return the feature tracker
+     */
+    FeatureTracker getFeatureTracker() {
+	if (featureTracker == null) {
+	    featureTracker = new FeatureTracker();
+	}
+	return featureTracker;
+    }
+
     /**
      * Retrieves the Voice associated with this Utterance.
      *
@@ -122,6 +143,32 @@ public class Utterance implements FeatureSet, Serializable {
 	return voice;
     }
 
+    /**
+     * Sets the audio player that receives the audio for this
+     * utterance.  This allows utterances of the same voice that are
+     * synthesized concurrently to be sent to different players.
+     *
+     * @param audioPlayer the audio player, or <code>null</code> to
+     *    use the audio player of the voice
+     */
+    public void setAudioPlayer(AudioPlayer audioPlayer) {
+	this.audioPlayer = audioPlayer;
+    }
+
+    /**
+     * Retrieves the audio player that receives the audio for this
+     * utterance.  Unless one has been set for the utterance, this is
+     * the audio player of the voice.
+     *
+     * @return the audio player for this utterance
+     */
+    public AudioPlayer getAudioPlayer() {
+	if (audioPlayer == null) {
+	    return voice.getAudioPlayer();
+	}
+	return audioPlayer;
+    }
+
     /**
      * Dumps this utterance in textual form.
      *
@@ -465,6 +512,105 @@ public class Utterance implements FeatureSet, Serializable {
         }
     }
 
+    /**
+     * Drops everything after the given first tokens from this
+     * utterance, so that an utterance processed for a whole sentence
+     * can be kept for the start of it.  Each relation is cut after
+     * its last item that is, or has below it, a word of the kept
+     * tokens; relations without such items are left as they are.
+     *
+     * @param tokenList the first tokens of this utterance
+     */
+    void truncate(List<Token> tokenList) {
+	int count = 0;
+	for (Token token : tokenList) {
+	    String tokenWord = token.getWord();
+	    if (tokenWord != null && tokenWord.length() > 0) {
+		count++;
+	    }
+	}
+	Set<ItemContents> kept = new HashSet<ItemContents>();
+	Item token = getRelation(Relation.TOKEN).getHead();
+	for (int i = 0; i < count && token != null; i++) {
+	    addContents(token, kept);
+	    token = token.getNext();
+	}
+
+	for (String name : relations.getNames()) {
+	    Relation relation = getRelation(name);
+	    Item last = null;
+	    for (Item item = relation.getHead(); item != null;
+		    item = item.getNext()) {
+		if (holdsAny(item, kept)) {
+		    last = item;
+		}
+	    }
+	    if (last != null) {
+		last.cutAfter();
+		relation.setTail(last);
+	    }
+	}
+	setInputText(tokenList);
+	getFeatureTracker().structureChanged();
+    }
+
+    /**
+     * Adds the contents of an item and of all the items below it to a
+     * set.
+     *
+     * @param item the item
+     * @param contents the set
+     */
+    private static void addContents(Item item, Set<ItemContents> contents) {
+	contents.add(item.getSharedContents());
+	for (Item d = item.getDaughter(); d != null; d = d.getNext()) {
+	    addContents(d, contents);
+	}
+    }
+
+    /**
+     * Determines if an item, or an item below it, has one of the
+     * given contents.
+     *
+     * @param item the item
+     * @param contents the contents
+     *
+     * @return true if one of the contents is found
+     */
+    private static boolean holdsAny(Item item, Set<ItemContents> contents) {
+	if (contents.contains(item.getSharedContents())) {
+	    return true;
+	}
+	for (Item d = item.getDaughter(); d != null; d = d.getNext()) {
+	    if (holdsAny(d, contents)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Notes that the given processors have already been run on this
+     * utterance, so that the voice does not run them again.
+     *
+     * @param processors the processors
+     */
+    void setProcessedBy(List<UtteranceProcessor> processors) {
+	processedBy = processors;
+    }
+
+    /**
+     * Determines if the given processor has already been run on this
+     * utterance before it was handed to the voice.
+     *
+     * @param processor the processor
+     *
+     * @return true if the processor has been run
+     */
+    boolean isProcessedBy(UtteranceProcessor processor) {
+	return processedBy != null && processedBy.contains(processor);
+    }
+
     /**
      * Returns true if this utterance is the first is a series of
      * utterances.
@@ -0,0 +1,148 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.sun.speech.freetts.util.BulkTimer;
+
+/**
+ * Runs the utterance processors of a voice as a pipeline of stages,
+ * each on its own thread, so that the utterances of a long text are
+ * processed by several stages at once.  For example, while the
+ * prosody of one sentence is computed, the text of the next sentence
+ * is analyzed and the units of the previous sentence are selected.
+ * Each stage hands its utterances to the next one through a small
+ * bounded queue, so they stay in order.  The last stage passes them
+ * on to the output queue of the voice, whose thread produces the
+ * audio.
+ *
+ * <p>Each stage checks before every processor whether the speakable
+ * of the utterance has been completed, just as
+ * <code>Voice.processUtterance</code> does, so a cancelled speakable
+ * is dropped by whichever stage it has reached.
+ */
+class UtterancePipeline {
+    /**
+     * Marks the end of the utterances.
+     */
+    private final static Utterance END = new Utterance(null);
+
+    private final Stage[] stages;
+
+    /**
+     * Creates and starts a pipeline.
+     *
+     * @param voice the voice whose utterances are processed
+     * @param processors the processors of each stage
+     * @param queueSize the number of utterances that can wait for
+     *   each stage
+     */
+    UtterancePipeline(Voice voice, UtteranceProcessor[][] processors,
+	    int queueSize) {
+	stages = new Stage[processors.length];
+	for (int i = stages.length - 1; i >= 0; i--) {
+	    Stage next = i + 1 < stages.length ? stages[i + 1] : null;
+	    stages[i] = new Stage(voice, processors[i], next, queueSize);
+	    stages[i].setName("FreeTTS " + voice.getName() + " stage " + i);
+	    stages[i].setDaemon(true);
+	}
+	for (int i = 0; i < stages.length; i++) {
+	    stages[i].start();
+	}
+    }
+
+    /**
+     * Posts an utterance to the first stage.  This blocks while the
+     * first stage has a full queue.
+     *
+     * @param utterance the utterance
+     */
+    void post(Utterance utterance) {
+	stages[0].put(utterance);
+    }
+
+    /**
+     * Stops the stages once the utterances already posted have gone
+     * through.
+     */
+    void close() {
+	stages[0].put(END);
+    }
+
+    /**
+     * One stage of the pipeline.
+     */
+    private static class Stage extends Thread {
+	private final Voice voice;
+	private final UtteranceProcessor[] processors;
+	private final Stage next;
+	private final BlockingQueue<Utterance> queue;
+	private final BulkTimer timer = new BulkTimer();
+
+	/**
+	 * Creates a stage.
+	 *
+	 * @param voice the voice
+	 * @param processors the processors of the stage
+	 * @param next the next stage, or null for the last stage
+	 * @param queueSize the size of the queue of the stage
+	 */
+	Stage(Voice voice, UtteranceProcessor[] processors, Stage next,
+		int queueSize) {
+	    this.voice = voice;
+	    this.processors = processors;
+	    this.next = next;
+	    this.queue = new ArrayBlockingQueue<Utterance>(queueSize);
+	}
+
+	/**
+	 * Adds an utterance to the queue of this stage, waiting for
+	 * room if needed.
+	 *
+	 * @param utterance the utterance
+	 */
+	void put(Utterance utterance) {
+	    boolean interrupted = false;
+	    while (true) {
+		try {
+		    queue.put(utterance);
+		    break;
+		} catch (InterruptedException ie) {
+		    interrupted = true;
+		}
+	    }
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+
+	/**
+	 * Processes the utterances that arrive at this stage.
+	 */
+	public void run() {
+	    while (true) {
+		Utterance utterance;
+		try {
+		    utterance = queue.take();
+		} catch (InterruptedException ie) {
+		    continue;
+		}
+		if (utterance == END) {
+		    if (next != null) {
+			next.put(END);
+		    }
+		    return;
+		}
+		if (voice.runProcessors(processors, utterance, timer,
+			    next == null) && next != null) {
+		    next.put(utterance);
+		}
+	    }
+	}
+    }
+}
@@ -32,6 +32,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
 import com.sun.speech.freetts.audio.AudioPlayer;
+import com.sun.speech.freetts.cart.Phraser;
+import com.sun.speech.freetts.clunits.ClusterUnitSelector;
 import com.sun.speech.freetts.lexicon.Lexicon;
 import com.sun.speech.freetts.relp.LPCResult;
 import com.sun.speech.freetts.util.BulkTimer;
@@ -91,6 +93,8 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
     
     private List<UtteranceProcessor> utteranceProcessors;
     private Map featureProcessors;
+    private Map<String, Integer> featureProcessorSlots;
+    private volatile int featureProcessorsVersion;
     private FeatureSetImpl features;
     private boolean metrics = false;
     private boolean detailedMetrics = false;
@@ -106,6 +110,25 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
     private BulkTimer runTimer = new BulkTimer();
     private BulkTimer threadTimer = new BulkTimer();
     private boolean externalOutputQueue = false;
+    private List<Integer> pipelineStages = new ArrayList<Integer>();
+    private boolean pipelined = Utilities.getProperty(
+	    PROP_PREFIX + "pipeline", "false").equals("true");
+    private UtterancePipeline pipeline = null;
+    private boolean splitFirstUtterance = Utilities.getProperty(
+	    PROP_PREFIX + "splitFirstUtterance", "false").equals("true");
+    private AudioCache audioCache = AudioCache.getDefaultCache();
+
+    /**
+     * The least number of tokens in each part of a split first
+     * utterance.
+     */
+    private final static int MIN_PHRASE_TOKENS = 3;
+
+    /**
+     * The punctuation that ends a phrase at which the first utterance
+     * may be split.
+     */
+    private final static String PHRASE_PUNCTUATION = ",;:";
     private boolean externalAudioPlayer = false;
 
 
@@ -175,6 +198,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
         utteranceProcessors = Collections.synchronizedList(new ArrayList());
 	features = new FeatureSetImpl();
 	featureProcessors = new HashMap();
+	featureProcessorSlots = new HashMap<String, Integer>();
 
 	try {
 	    nominalRate = Float.parseFloat(
@@ -281,12 +305,35 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 
 	getAudioPlayer().startFirstSampleTimer();
 
-	for (Iterator i = tokenize(speakable); 
-             !speakable.isCompleted() && i.hasNext() ; ) {
+	AudioCache cache = audioCache;
+	String cacheKey = (cache == null) ? null : cache.getKey(this, speakable);
+	AudioCache.Recorder recorder = null;
+	boolean fromCache = false;
+	if (cacheKey != null) {
+	    Utterance cached = getCachedUtterance(cache, cacheKey, speakable);
+	    if (cached != null) {
+		ok = runProcessors(new UtteranceProcessor[0], cached,
+			runTimer, true);
+		posted = fromCache = true;
+	    } else {
+		recorder = new AudioCache.Recorder();
+	    }
+	}
+
+	UtterancePipeline pipeline = fromCache ? null : getPipeline();
+	for (Iterator<Utterance> i = tokenize(speakable); 
+             !fromCache && !speakable.isCompleted() && i.hasNext() ; ) {
 	    try {
-		Utterance utterance = (Utterance) i.next();
+		Utterance utterance = i.next();
 		if (utterance != null) {
-		    processUtterance(utterance);
+		    if (recorder != null) {
+			utterance.setObject(AudioCache.RECORDER, recorder);
+		    }
+		    if (pipeline != null) {
+			pipeline.post(utterance);
+		    } else {
+			processUtterance(utterance);
+		    }
 		    posted = true;
 		}
 	    } catch (ProcessException pe) {
@@ -298,6 +345,9 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
             ok = speakable.waitCompleted();
             runTimer.stop("WaitAudio");
 	}
+	if (ok && recorder != null) {
+	    cache.put(cacheKey, recorder);
+	}
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("speak(FreeTTSSpeakable) completed");
         }
@@ -316,7 +366,9 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
      * Allocate this Voice. It loads the lexicon and the
      * audio output handler, and creates an audio output thread by
      * invoking <code>createOutputThread()</code>, if
-     * one is not already created. It then calls the <code>loader()</code>
+     * one is not already created and no queue, not even
+     * <code>null</code>, has been set with <code>setOutputQueue</code>.
+     * It then calls the <code>loader()</code>
      * method to load Voice-specific data, which include utterance processors.
      */
     public void allocate() {
@@ -341,7 +393,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	    LOGGER.severe("Can't load audio output handler for voice " + ioe);
 	    throw new Error(ioe);
 	}
-	if (outputQueue == null) {
+	if (outputQueue == null && !externalOutputQueue) {
 	    outputQueue = createOutputThread();
 	}
 	try {
@@ -408,45 +460,220 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Processing Utterance: " + u.getString("input_text"));
         }
+	runProcessors(processors, u, runTimer, true);
+	runTimer.stop("processing");
+    }
+
+    /**
+     * Runs the given processors on an utterance, stopping if its
+     * speakable is completed.  The last processors of the voice also
+     * send the utterance to the output queue, or to the audio output
+     * if there is no queue.
+     *
+     * @param processors the processors to run
+     * @param u the utterance
+     * @param timer the timer for gathering performance metrics
+     * @param last <code>true</code> if these are the last processors
+     *
+     * @return <code>true</code> if the processors ran without error
+     */
+    boolean runProcessors(UtteranceProcessor[] processors, Utterance u,
+	    BulkTimer timer, boolean last) {
+	boolean ok = true;
 	try {
 	    for (int i = 0; i < processors.length && 
                      !u.getSpeakable().isCompleted(); i++) {
-                runProcessor(processors[i], u, runTimer);
+                runProcessor(processors[i], u, timer);
             }
-            if (!u.getSpeakable().isCompleted()) {
+            if (last && !u.getSpeakable().isCompleted()) {
                 if (outputQueue == null) {
                     if (LOGGER.isLoggable(Level.FINE)) {
                         LOGGER.fine("To AudioOutput");
                     }
-                    outputUtterance(u, runTimer);
+                    outputUtterance(u, timer);
                 } else {
-                    runTimer.start("..post");
+                    timer.start("..post");
                     outputQueue.post(u);
-                    runTimer.stop("..post");
+                    timer.stop("..post");
                 }
             }
 	}  catch (ProcessException pe) {
 	    System.err.println("Processing Utterance: " + pe);
+	    ok = false;
 	}  catch (Exception e) {
 	    System.err.println("Trouble while processing utterance " + e);
 	    e.printStackTrace();
 	    u.getSpeakable().cancelled();
+	    ok = false;
 	}
 
-        if (LOGGER.isLoggable(Level.FINE)) {
-            LOGGER.fine("Done Processing Utterance: " 
-                    + u.getString("input_text"));
-        }
-	runTimer.stop("processing");
+	if (last) {
+	    if (LOGGER.isLoggable(Level.FINE)) {
+		LOGGER.fine("Done Processing Utterance: " 
+			+ u.getString("input_text"));
+	    }
+
+	    if (dumpUtterance) {
+		u.dump("Utterance");
+	    }
+	    if (dumpRelations) {
+		u.dumpRelations("Utterance");
+	    }
+
+	    dumpASCII(u);
+	}
+	return ok;
+    }
+
+    /**
+     * Marks the start of a new stage of the pipeline at the next
+     * utterance processor that is added to this voice.  Voices call
+     * this while setting up their processors.
+     *
+     * @see #setPipelined
+     */
+    protected void startPipelineStage() {
+	int start = utteranceProcessors.size();
+	if (start > 0 && !pipelineStages.contains(new Integer(start))) {
+	    pipelineStages.add(new Integer(start));
+	}
+    }
+
+    /**
+     * Sets the pipeline mode.  In pipeline mode, the stages of
+     * utterance processors marked by the voice run on their own
+     * threads, so that several utterances of a text are processed at
+     * once.  This only takes effect if the voice has an output queue
+     * and more than one stage.  The default is given by the
+     * <code>com.sun.speech.freetts.voice.pipeline</code> property.
+     *
+     * @param pipelined true if pipeline mode should be on
+     */
+    public void setPipelined(boolean pipelined) {
+	this.pipelined = pipelined;
+    }
+
+    /**
+     * Gets the state of the pipeline mode.
+     *
+     * @return true if pipeline mode is on
+     */
+    public boolean isPipelined() {
+	return pipelined;
+    }
+
+    /**
+     * Sets the low latency mode.  In this mode, a long first sentence
+     * of a speakable is split after the first phrase that the Phraser
+     * of the voice finds, so the first phrase is played while the rest
+     * of the sentence is still being processed.  A voice without a
+     * Phraser splits after the first comma, semicolon or colon
+     * instead.  The phrase is then spoken as an utterance of its own,
+     * which can change its intonation a little.  The default is given by the
+     * <code>com.sun.speech.freetts.voice.splitFirstUtterance</code>
+     * property.
+     *
+     * @param split true if the first utterance should be split
+     */
+    public void setSplitFirstUtterance(boolean split) {
+	this.splitFirstUtterance = split;
+    }
 
-	if (dumpUtterance) {
-	    u.dump("Utterance");
+    /**
+     * Gets the state of the low latency mode.
+     *
+     * @return true if the first utterance is split
+     */
+    public boolean isSplitFirstUtterance() {
+	return splitFirstUtterance;
+    }
+
+    /**
+     * Returns the time from the start of the last call to
+     * <code>speak</code> to the first samples written to the audio
+     * player of this voice, as measured by the first sample timer of
+     * that player.
+     *
+     * @return the latency in milliseconds, or -1 if no samples have
+     *   been written yet or the audio player does not measure it
+     *
+     * @see AudioPlayer#getFirstSampleLatency
+     */
+    public long getFirstSampleLatency() {
+	AudioPlayer player = audioPlayer;
+	return player == null ? -1 : player.getFirstSampleLatency();
+    }
+
+    /**
+     * Returns the pipeline of this voice, starting it if needed.
+     *
+     * @return the pipeline, or null if the utterances should be
+     *   processed by the calling thread
+     */
+    private synchronized UtterancePipeline getPipeline() {
+	if (!pipelined || outputQueue == null || pipelineStages.isEmpty()) {
+	    return null;
 	}
-	if (dumpRelations) {
-	    u.dumpRelations("Utterance");
+	if (pipeline == null) {
+	    List<UtteranceProcessor[]> stages =
+		new ArrayList<UtteranceProcessor[]>();
+	    int start = 0;
+	    for (int i = 0; i <= pipelineStages.size(); i++) {
+		int end = i < pipelineStages.size()
+		    ? Math.min(pipelineStages.get(i).intValue(),
+			    utteranceProcessors.size())
+		    : utteranceProcessors.size();
+		if (end > start) {
+		    stages.add(utteranceProcessors.subList(start, end).toArray(
+				new UtteranceProcessor[end - start]));
+		    start = end;
+		}
+	    }
+	    pipeline = new UtterancePipeline(this,
+		    stages.toArray(new UtteranceProcessor[stages.size()][]),
+		    Utilities.getInteger(PROP_PREFIX + "pipelineQueueSize",
+			2).intValue());
 	}
+	return pipeline;
+    }
+
 
-	dumpASCII(u);
+    /**
+     * Processes the given utterance and sends its audio to the audio
+     * player of the utterance, all in the calling thread.  The
+     * output queue and the timers of this voice are not used, so
+     * this may be called by several threads at once, as long as
+     * each thread passes its own timer.
+     *
+     * @param u the utterance to process
+     * @param timer the timer for gathering performance metrics
+     *
+     * @return <code>true</code> if the utterance was output properly;
+     *   otherwise <code>false</code>
+     *
+     * @throws ProcessException if an exception occurred while performing
+     *   operations on the utterance
+     *
+     * @see SynthesisEngine
+     */
+    boolean synthesizeUtterance(Utterance u, BulkTimer timer)
+        throws ProcessException {
+        UtteranceProcessor[] processors;
+        processors = new UtteranceProcessor[utteranceProcessors.size()];
+        processors = utteranceProcessors.toArray(processors);
+
+        FreeTTSSpeakable speakable = u.getSpeakable();
+        if (u.getObject(AudioCache.CLIP) != null) {
+            processors = new UtteranceProcessor[0];
+        }
+        for (int i = 0; i < processors.length &&
+                 !speakable.isCompleted(); i++) {
+            runProcessor(processors[i], u, timer);
+        }
+        if (speakable.isCompleted()) {
+            return false;
+        }
+        return outputUtterance(u, timer);
     }
 
 
@@ -459,6 +686,9 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	if (waveDumpFile != null) {
 	    LPCResult lpcResult = 
 		(LPCResult) utterance.getObject("target_lpcres");
+	    if (lpcResult == null) {
+		return;		// played from the audio cache
+	    }
 	    try {
 		if (waveDumpFile.equals("-")) {
 		    lpcResult.dumpASCII();
@@ -477,16 +707,50 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
      * Creates an output thread that will asynchronously
      * output utterances that are generated by this voice (and other
      * voices).
+     * <p>
+     * The queue is controlled by the following system properties:
+     * <pre>
+     *   com.sun.speech.freetts.voice.outputQueue - "list" (default)
+     *       for an <code>OutputQueue</code>, or "ring" for a
+     *       <code>RingOutputQueue</code>
+     *   com.sun.speech.freetts.voice.outputQueueSize - default 5
+     *   com.sun.speech.freetts.voice.outputThreads - the number of
+     *       threads draining a "ring" queue, default 1
+     * </pre>
      * 
      * @return the queue where utterances should be placed.
      */
     public static OutputQueue createOutputThread() {
-	final OutputQueue queue =  new OutputQueue();
+	int size = Utilities.getInteger(
+		PROP_PREFIX + "outputQueueSize", 5).intValue();
+	OutputQueue queue;
+	if (Utilities.getProperty(PROP_PREFIX + "outputQueue",
+		    "list").equals("ring")) {
+	    queue = new RingOutputQueue(size, Utilities.getInteger(
+			PROP_PREFIX + "outputThreads", 1).intValue());
+	} else {
+	    queue = new OutputQueue(size);
+	}
+	for (int i = 0; i < queue.getConsumerCount(); i++) {
+	    startOutputThread(queue, i);
+	}
+	return queue;
+    }
+
+    /**
+     * Starts a thread that outputs the utterances of the given
+     * consumer of the queue.
+     *
+     * @param queue the queue
+     * @param consumer the consumer
+     */
+    private static void startOutputThread(final OutputQueue queue,
+	    final int consumer) {
 	Thread t = new Thread() {
 	    public void run() {
 		Utterance utterance = null;
 		do {
-		    utterance = queue.pend();
+		    utterance = queue.pend(consumer);
 		    if (utterance != null) {
 			Voice voice = utterance.getVoice();
 		        if (LOGGER.isLoggable(Level.FINE)) {
@@ -500,7 +764,6 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	};
 	t.setDaemon(true);
 	t.start();
-	return queue;
     }
 
 
@@ -523,7 +786,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 
 	if (!speakable.isCompleted())  {
 	    if (utterance.isFirst()) {
-		getAudioPlayer().reset();
+		utterance.getAudioPlayer().reset();
 		speakable.started();
 	        if (LOGGER.isLoggable(Level.FINE)) {
 	            LOGGER.fine(" --- started ---");
@@ -533,7 +796,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	    // log("   utt: " + utterance.getString("input_text"));
 	    try {
                 if (!speakable.isCompleted()) {
-                    runProcessor(audioOutput, utterance, timer);
+                    ok = outputAudio(utterance, timer);
                 } else {
                     ok = false;
                 }
@@ -541,7 +804,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 		ok = false;
 	    }
 	    if (ok && utterance.isLast()) {
-		getAudioPlayer().drain();
+		utterance.getAudioPlayer().drain();
                 speakable.completed();
                 if (LOGGER.isLoggable(Level.FINE)) {
                     LOGGER.fine(" --- completed ---");
@@ -573,11 +836,81 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
     }
 
 
+    /**
+     * Sends the audio of an utterance to its audio player.  The audio
+     * of an utterance from the audio cache is played as it is;
+     * otherwise the audio output processor is run, and the audio is
+     * recorded if the utterance has a recorder.
+     *
+     * @param utterance the utterance to be output
+     * @param timer the timer for gathering performance metrics
+     *
+     * @return <code>true</code> if the audio was played properly
+     *
+     * @throws ProcessException if the audio cannot be played
+     */
+    private boolean outputAudio(Utterance utterance, BulkTimer timer)
+        throws ProcessException {
+	AudioCache.Clip clip =
+	    (AudioCache.Clip) utterance.getObject(AudioCache.CLIP);
+	if (clip != null) {
+	    timer.start("..AudioCache");
+	    try {
+		return clip.play(utterance.getAudioPlayer());
+	    } catch (IOException ioe) {
+		throw new ProcessException(ioe.getMessage(), ioe);
+	    } finally {
+		timer.stop("..AudioCache");
+	    }
+	}
+
+	AudioCache.Recorder recorder =
+	    (AudioCache.Recorder) utterance.getObject(AudioCache.RECORDER);
+	if (recorder == null) {
+	    runProcessor(audioOutput, utterance, timer);
+	} else {
+	    AudioPlayer player = utterance.getAudioPlayer();
+	    utterance.setAudioPlayer(recorder.record(player));
+	    try {
+		runProcessor(audioOutput, utterance, timer);
+	    } finally {
+		utterance.setAudioPlayer(player);
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Creates an utterance that plays the cached audio of a speakable.
+     *
+     * @param cache the audio cache
+     * @param key the key of the speakable in the cache
+     * @param speakable the speakable
+     *
+     * @return the utterance, or <code>null</code> if the audio is not
+     *    in the cache
+     */
+    Utterance getCachedUtterance(AudioCache cache, String key,
+	    FreeTTSSpeakable speakable) {
+	AudioCache.Clip clip = cache.get(key);
+	if (clip == null) {
+	    return null;
+	}
+	Utterance utterance = new Utterance(this);
+	utterance.setSpeakable(speakable);
+	utterance.setString("input_text", speakable.getText());
+	utterance.setObject(AudioCache.CLIP, clip);
+	utterance.setFirst(true);
+	utterance.setLast(true);
+	return utterance;
+    }
+
     /**
      * Runs the given utterance processor.
      *
      * @param processor the processor to run.   If the processor
-     *    is null, it is ignored
+     *    is null, or has already been run on the utterance, it is
+     *    ignored
      * @param utterance the utterance to process
      *
      * @throws ProcessException if an exceptin occurs while processing
@@ -586,7 +919,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
     private void runProcessor(UtteranceProcessor processor, 
                               Utterance utterance, BulkTimer timer) 
         throws ProcessException {
-	if (processor != null) {
+	if (processor != null && !utterance.isProcessedBy(processor)) {
 	    String processorName = ".." + processor.toString();
 	        if (LOGGER.isLoggable(Level.FINE)) {
 	            LOGGER.fine("   Running " + processorName);
@@ -652,6 +985,16 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	    runTimer.show(getRunTitle() + " run");
 	    threadTimer.show(getRunTitle() + " thread");
 	    getAudioPlayer().showMetrics();
+	    if (audioCache != null) {
+		audioCache.showMetrics();
+	    }
+	    synchronized (utteranceProcessors) {
+		for (UtteranceProcessor processor : utteranceProcessors) {
+		    if (processor instanceof ClusterUnitSelector) {
+			((ClusterUnitSelector) processor).showMetrics();
+		    }
+		}
+	    }
 	    long totalMemory = Runtime.getRuntime().totalMemory();
 	    LOGGER.info
 		("Memory Use    : "
@@ -676,7 +1019,8 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
      *    creates a thread that waits on the queue and sends the
      *    output to the audio player associated with this voice. If
      *    the queue is null, the output is rendered in the calling
-     *    thread.
+     *    thread, and no output thread is created when the voice is
+     *    loaded.
      *
      * @param queue the output queue
      */
@@ -705,7 +1049,7 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
      *
      * @return an iterator that will yield a series of utterances
      */
-    private Iterator tokenize(FreeTTSSpeakable speakable) {
+    Iterator<Utterance> tokenize(FreeTTSSpeakable speakable) {
 	return new FreeTTSSpeakableTokenizer(speakable).iterator();
     }
     
@@ -882,6 +1226,46 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
      */
     public void addFeatureProcessor(String name, FeatureProcessor fp) {
 	featureProcessors.put(name, fp);
+	if (!featureProcessorSlots.containsKey(name)) {
+	    featureProcessorSlots.put(name,
+		    Integer.valueOf(featureProcessorSlots.size()));
+	}
+	featureProcessorsVersion++;
+    }
+
+    /**
+     * Returns the slot of a Feature Processor of this voice.  Each
+     * name that a processor has been added for gets the next slot, so
+     * that items can keep the features computed by the processors of
+     * their voice in a small array.
+     *
+     * @param name the name of the processor
+     *
+     * @return the slot of the processor, or -1 if there is none
+     */
+    int getFeatureProcessorSlot(String name) {
+	Integer slot = featureProcessorSlots.get(name);
+	return slot == null ? -1 : slot.intValue();
+    }
+
+    /**
+     * Returns the number of slots given to Feature Processors.
+     *
+     * @return the number of slots
+     */
+    int getFeatureProcessorSlots() {
+	return featureProcessorSlots.size();
+    }
+
+    /**
+     * Returns the number of times a Feature Processor has been added
+     * to this voice, so that a processor that has been looked up can
+     * be reused until another one is added.
+     *
+     * @return the version of the feature processors
+     */
+    int getFeatureProcessorsVersion() {
+	return featureProcessorsVersion;
     }
 
     /**
@@ -1015,6 +1399,13 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
             }
         }
         
+	synchronized (this) {
+	    if (pipeline != null) {
+		pipeline.close();
+		pipeline = null;
+	    }
+	}
+
 	if (!externalOutputQueue) {
 	    outputQueue.close();
 	}
@@ -1150,6 +1541,27 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 
     }
 
+    /**
+     * Sets the audio cache of this voice.  Several voices may share a
+     * cache.  By default, voices use the cache set up by the system
+     * properties described in {@link AudioCache}, if any.
+     *
+     * @param audioCache the cache, or <code>null</code> to turn caching
+     *    off
+     */
+    public void setAudioCache(AudioCache audioCache) {
+	this.audioCache = audioCache;
+    }
+
+    /**
+     * Gets the audio cache of this voice.
+     *
+     * @return the cache, or <code>null</code> if caching is off
+     */
+    public AudioCache getAudioCache() {
+	return audioCache;
+    }
+
     /**
      * Sets the dumpfile for this voice.
      *
@@ -1445,10 +1857,11 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 	/**
 	 * Returns an iterator for this text item.
 	 */
-	public Iterator iterator() {
-	    return new Iterator() {
+	public Iterator<Utterance> iterator() {
+	    return new Iterator<Utterance>() {
 		boolean first = true;
 		Token savedToken = null;
+		List<Token> restOfFirst = null;
 
 		/**
 		 * Determines if there are more utterances
@@ -1456,39 +1869,65 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 		 * @return true if there are more tokens
 		 */
 		public boolean hasNext() {
-		    return savedToken != null || tok.hasMoreTokens();
+		    return savedToken != null || restOfFirst != null
+			|| tok.hasMoreTokens();
 		}
 
 		/**
 		 * Returns the next utterance.
                  *
-		 * @return the next utterance (as an object) or
+		 * @return the next utterance or
 		 *    null if there is are no utterances left
 		 */
-		public Object next() {
-		    ArrayList tokenList = new ArrayList();
+		public Utterance next() {
+		    List<Token> tokenList = new ArrayList<Token>();
 		    Utterance utterance = null;
 
-		    if (savedToken != null) {
-			tokenList.add(savedToken);
-			savedToken = null;
-		    }
+		    if (restOfFirst != null) {
+			tokenList = restOfFirst;
+			restOfFirst = null;
+		    } else {
+			if (savedToken != null) {
+			    tokenList.add(savedToken);
+			    savedToken = null;
+			}
 
-		    while (tok.hasMoreTokens()) {
-			Token token = tok.getNextToken();
-			if ((token.getWord().length() == 0) ||
-			    (tokenList.size() > 500) ||
-			    tok.isBreak()) {
-			    savedToken = token;
-			    break;
+			while (tok.hasMoreTokens()) {
+			    Token token = tok.getNextToken();
+			    if ((token.getWord().length() == 0) ||
+				(tokenList.size() > 500) ||
+				tok.isBreak()) {
+				savedToken = token;
+				break;
+			    }
+			    tokenList.add(token);
+			}
+			if (first && splitFirstUtterance
+				&& tokenList.size() >= MIN_PHRASE_TOKENS * 2) {
+			    // the phrased sentence, cut after its first
+			    // phrase, is kept as the first utterance
+			    utterance = phrase(tokenList);
+			    int split = (utterance == null)
+				? findPunctuationEnd(tokenList)
+				: findPhraseEnd(utterance, tokenList);
+			    if (split > 0) {
+				restOfFirst = new ArrayList<Token>(
+					tokenList.subList(split, tokenList.size()));
+				tokenList = new ArrayList<Token>(
+					tokenList.subList(0, split));
+				if (utterance != null) {
+				    utterance.truncate(tokenList);
+				}
+			    }
 			}
-			tokenList.add(token);
 		    }
-		    utterance =  new Utterance(Voice.this, tokenList);
+		    if (utterance == null) {
+			utterance = new Utterance(Voice.this, tokenList);
+		    }
 		    utterance.setSpeakable(speakable);
 		    utterance.setFirst(first);
 		    first = false;
-                    boolean isLast = 
+                    boolean isLast = restOfFirst == null &&
                         (!tok.hasMoreTokens() && 
                          (savedToken == null || 
                           savedToken.getWord().length() == 0));
@@ -1501,6 +1940,122 @@ public abstract class Voice implements UtteranceProcessor, Dumpable {
 		}
 	    };
 	}
+
+	/**
+	 * Finds the end of the first phrase of a sentence that ends with
+	 * phrase punctuation, leaving at least MIN_PHRASE_TOKENS tokens
+	 * on each side.  This is used when the voice has no Phraser.
+	 *
+	 * @param tokenList the tokens of the sentence
+	 *
+	 * @return the number of tokens in the first phrase, or 0 if the
+	 *    sentence should not be split
+	 */
+	private int findPunctuationEnd(List<Token> tokenList) {
+	    for (int i = MIN_PHRASE_TOKENS - 1;
+		    i < tokenList.size() - MIN_PHRASE_TOKENS; i++) {
+		String punc = tokenList.get(i).getPostpunctuation();
+		for (int j = 0; j < punc.length(); j++) {
+		    if (PHRASE_PUNCTUATION.indexOf(punc.charAt(j)) >= 0) {
+			return i + 1;
+		    }
+		}
+	    }
+	    return 0;
+	}
+
+	/**
+	 * Runs the utterance processors of the voice, up to and
+	 * including its Phraser, on an utterance of the given tokens.
+	 * The utterance remembers them, so that they are not run on it
+	 * again.
+	 *
+	 * @param tokenList the tokens of the sentence
+	 *
+	 * @return the phrased utterance, or null if the voice has no
+	 *    Phraser or the tokens could not be phrased
+	 */
+	private Utterance phrase(List<Token> tokenList) {
+	    List<UtteranceProcessor> processors = getUtteranceProcessors();
+	    int last = -1;
+	    for (int i = 0; i < processors.size(); i++) {
+		if (processors.get(i) instanceof Phraser) {
+		    last = i;
+		    break;
+		}
+	    }
+	    if (last < 0) {
+		return null;
+	    }
+	    Utterance utterance = new Utterance(Voice.this, tokenList);
+	    try {
+		for (int i = 0; i <= last; i++) {
+		    processors.get(i).processUtterance(utterance);
+		}
+	    } catch (ProcessException pe) {
+		if (LOGGER.isLoggable(Level.FINE)) {
+		    LOGGER.fine("Can't phrase first sentence: " + pe);
+		}
+		return null;
+	    }
+	    if (utterance.getRelation(Relation.PHRASE) == null) {
+		return null;
+	    }
+	    utterance.setProcessedBy(new ArrayList<UtteranceProcessor>(
+			processors.subList(0, last + 1)));
+	    return utterance;
+	}
+
+	/**
+	 * Finds the end of the first phrase of a phrased sentence that
+	 * falls between two tokens and leaves at least MIN_PHRASE_TOKENS
+	 * tokens on each side.
+	 *
+	 * @param utterance the phrased sentence
+	 * @param tokenList the tokens of the sentence
+	 *
+	 * @return the number of tokens in the first phrase, or 0 if the
+	 *    sentence should not be split
+	 */
+	private int findPhraseEnd(Utterance utterance, List<Token> tokenList) {
+	    // the Token relation skips the tokens without words
+	    int[] index = new int[tokenList.size()];
+	    int count = 0;
+	    for (int i = 0; i < tokenList.size(); i++) {
+		String word = tokenList.get(i).getWord();
+		if (word != null && word.length() > 0) {
+		    index[count++] = i;
+		}
+	    }
+
+	    Relation tokens = utterance.getRelation(Relation.TOKEN);
+	    Item phrase = utterance.getRelation(Relation.PHRASE).getHead();
+	    for (; phrase != null && phrase.getNext() != null;
+		    phrase = phrase.getNext()) {
+		Item word = phrase.getLastDaughter();
+		Item wordInToken = word == null
+		    ? null : word.getItemAs(Relation.TOKEN);
+		if (wordInToken == null || wordInToken.getNext() != null) {
+		    continue;	// the phrase ends inside a token
+		}
+		Item token = wordInToken.getParent();
+		int position = 0;
+		Item item = tokens.getHead();
+		while (item != null && item != token) {
+		    item = item.getNext();
+		    position++;
+		}
+		if (item == null || position >= count) {
+		    continue;
+		}
+		int end = index[position] + 1;
+		if (end >= MIN_PHRASE_TOKENS
+			&& tokenList.size() - end >= MIN_PHRASE_TOKENS) {
+		    return end;
+		}
+	    }
+	    return 0;
+	}
     }
 }
 
@@ -158,6 +158,17 @@ public interface AudioPlayer {
      */
     void startFirstSampleTimer();
 
+    /**
+     * Returns the time from the last call to
+     * <code>startFirstSampleTimer</code> to the first audio written
+     * to this player after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    written since the timer was started, or if this player does
+     *    not measure it
+     */
+    long getFirstSampleLatency();
+
     /**
      * Writes the given bytes to the audio stream
      *
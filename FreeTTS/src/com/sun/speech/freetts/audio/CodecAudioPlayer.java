@@ -0,0 +1,619 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sun.speech.freetts.util.Utilities;
+import com.sun.speech.freetts.util.WaveUtils;
+
+
+/**
+ * An audio player that converts the audio of the voice to another
+ * format and passes it on to another player, so that players writing
+ * to a network or a telephony device get the audio in the form they
+ * send.
+ *
+ * <p>The voice writes 16-bit linear samples at its own sample rate.
+ * They are resampled to the sample rate of the output format, and
+ * encoded as 16-bit linear samples of either byte order, as
+ * &micro;-law, or as A-law.  The &micro;-law and A-law encodings are
+ * looked up in tables of every 16-bit sample.  If a frame length is
+ * given, the audio is written to the other player in frames of
+ * exactly that many milliseconds, such as the 20 millisecond packets
+ * of RTP; the last frame of an utterance is padded with silence.
+ *
+ * <p>The size given to <code>begin</code> is converted to the size of
+ * the output, so that the other player is told exactly how many bytes
+ * will follow.  All the conversion is done in buffers that are reused
+ * from one write to the next.  The other player must therefore not
+ * hold on to the arrays it is given.  When the output format is the
+ * format of the voice and no frame length is given, the audio is
+ * passed on as is.
+ *
+ * <p>When created with no arguments, the player is set up by the
+ * following system properties:
+ *
+ * <pre>
+ *   com.sun.speech.freetts.audio.CodecAudioPlayer.player - the class
+ *       of the player the audio is passed on to, default
+ *       com.sun.speech.freetts.audio.JavaStreamingAudioPlayer
+ *   com.sun.speech.freetts.audio.CodecAudioPlayer.encoding - pcm,
+ *       ulaw or alaw, default pcm
+ *   com.sun.speech.freetts.audio.CodecAudioPlayer.sampleRate - default
+ *       16000
+ *   com.sun.speech.freetts.audio.CodecAudioPlayer.bigEndian - the byte
+ *       order of pcm, default true
+ *   com.sun.speech.freetts.audio.CodecAudioPlayer.frameMillis - the
+ *       length of a frame, or 0 for no framing, default 20
+ * </pre>
+ */
+public class CodecAudioPlayer implements AudioPlayer {
+    private final static String PROP_PREFIX =
+	"com.sun.speech.freetts.audio.CodecAudioPlayer.";
+
+    private final static int PCM_BIG_ENDIAN = 0;
+    private final static int PCM_LITTLE_ENDIAN = 1;
+    private final static int ULAW = 2;
+    private final static int ALAW = 3;
+
+    private final AudioPlayer player;
+    private final AudioFormat outputFormat;
+    private final int encoding;
+    private final int bytesPerSample;
+    private final int frameBytes;
+    private AudioFormat inputFormat = null;
+    private boolean inputBigEndian = true;
+    private boolean passThrough = false;
+    private Resampler resampler = null;
+    private short[] samples = new short[1024];
+    private short[] resampled = new short[1024];
+    private byte[] buffer;
+    private int bufferLength = 0;
+    private int carry = -1;
+    private int remaining = -1;
+
+    /**
+     * Creates a player set up by the system properties.
+     *
+     * @throws IllegalArgumentException if the properties are not
+     *    valid
+     */
+    public CodecAudioPlayer() {
+	this(createPlayer(Utilities.getProperty(PROP_PREFIX + "player",
+			"com.sun.speech.freetts.audio.JavaStreamingAudioPlayer")),
+		createFormat(Utilities.getProperty(PROP_PREFIX + "encoding",
+			"pcm"),
+		    Utilities.getInteger(PROP_PREFIX + "sampleRate",
+			16000).intValue(),
+		    Utilities.getProperty(PROP_PREFIX + "bigEndian",
+			"true").equals("true")),
+		Utilities.getInteger(PROP_PREFIX + "frameMillis", 20).intValue());
+    }
+
+    /**
+     * Creates a player.
+     *
+     * @param player the player the converted audio is passed on to
+     * @param outputFormat the format of the converted audio: mono
+     *    16-bit signed PCM, &micro;-law or A-law, at any sample rate
+     * @param frameMillis the length of the frames written to
+     *    <code>player</code> in milliseconds, or 0 to write the audio
+     *    as it comes
+     *
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public CodecAudioPlayer(AudioPlayer player, AudioFormat outputFormat,
+	    int frameMillis) {
+	AudioFormat.Encoding e = outputFormat.getEncoding();
+	if (outputFormat.getChannels() != 1) {
+	    throw new IllegalArgumentException("not mono: " + outputFormat);
+	} else if (e.equals(AudioFormat.Encoding.PCM_SIGNED)
+		&& outputFormat.getSampleSizeInBits() == 16) {
+	    encoding = outputFormat.isBigEndian()
+		? PCM_BIG_ENDIAN : PCM_LITTLE_ENDIAN;
+	    bytesPerSample = 2;
+	} else if (e.equals(AudioFormat.Encoding.ULAW)
+		&& outputFormat.getSampleSizeInBits() == 8) {
+	    encoding = ULAW;
+	    bytesPerSample = 1;
+	} else if (e.equals(AudioFormat.Encoding.ALAW)
+		&& outputFormat.getSampleSizeInBits() == 8) {
+	    encoding = ALAW;
+	    bytesPerSample = 1;
+	} else {
+	    throw new IllegalArgumentException("unsupported format: "
+		    + outputFormat);
+	}
+
+	int frameSamples = (int) outputFormat.getSampleRate()
+	    * frameMillis / 1000;
+	if (frameMillis < 0 || (frameMillis > 0 && frameSamples == 0)) {
+	    throw new IllegalArgumentException("bad frame length: "
+		    + frameMillis);
+	}
+	this.player = player;
+	this.outputFormat = outputFormat;
+	this.frameBytes = frameSamples * bytesPerSample;
+	this.buffer = new byte[frameBytes > 0 ? frameBytes : 2048];
+    }
+
+    /**
+     * Sets the format of the audio written to this player.  The audio
+     * must be mono 16-bit signed PCM.
+     *
+     * @param format the audio format
+     *
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public synchronized void setAudioFormat(AudioFormat format) {
+	if (format.getChannels() != 1 || format.getSampleSizeInBits() != 16
+		|| !format.getEncoding().equals(
+		    AudioFormat.Encoding.PCM_SIGNED)) {
+	    throw new IllegalArgumentException("unsupported format: "
+		    + format);
+	}
+	int inputRate = (int) format.getSampleRate();
+	int outputRate = (int) outputFormat.getSampleRate();
+	if (inputRate == outputRate) {
+	    resampler = null;
+	} else if (resampler == null
+		|| resampler.getInputRate() != inputRate) {
+	    resampler = new Resampler(inputRate, outputRate);
+	}
+	inputFormat = format;
+	inputBigEndian = format.isBigEndian();
+	passThrough = resampler == null && frameBytes == 0
+	    && encoding == (inputBigEndian
+		    ? PCM_BIG_ENDIAN : PCM_LITTLE_ENDIAN);
+	player.setAudioFormat(outputFormat);
+    }
+
+    /**
+     * Retrieves the format of the audio written to this player.
+     *
+     * @return the current audio format
+     */
+    public synchronized AudioFormat getAudioFormat() {
+	return inputFormat;
+    }
+
+    /**
+     * Retrieves the format of the audio passed on to the other
+     * player.
+     *
+     * @return the output format
+     */
+    public AudioFormat getOutputFormat() {
+	return outputFormat;
+    }
+
+    /**
+     * Pauses the audio output.
+     */
+    public void pause() {
+	player.pause();
+    }
+
+    /**
+     * Resumes the audio output.
+     */
+    public void resume() {
+	player.resume();
+    }
+
+    /**
+     * Prepares for another batch of output.
+     */
+    public void reset() {
+	player.reset();
+    }
+
+    /**
+     * Waits for all of the audio to be played.
+     *
+     * @return <code>true</code> if the audio played to completion,
+     *    <code>false</code> if it was cancelled
+     */
+    public boolean drain() {
+	return player.drain();
+    }
+
+    /**
+     * Starts the output of a set of data.  The other player is told
+     * the size of the converted audio.
+     *
+     * @param size the size of the audio written to this player in
+     *    bytes, or 0 if not known
+     *
+     * @throws IOException if the other player fails
+     */
+    public synchronized void begin(int size) throws IOException {
+	carry = -1;
+	bufferLength = 0;
+	if (resampler != null) {
+	    resampler.reset();
+	}
+	if (passThrough || size <= 0) {
+	    remaining = -1;
+	    player.begin(size);
+	    return;
+	}
+
+	int count = size / 2;
+	if (resampler != null) {
+	    count = resampler.getOutputCount(count);
+	}
+	int bytes = count * bytesPerSample;
+	if (frameBytes > 0) {
+	    bytes = (bytes + frameBytes - 1) / frameBytes * frameBytes;
+	}
+	remaining = bytes;
+	player.begin(bytes);
+    }
+
+    /**
+     * Marks the end of a set of data.  The audio held back by the
+     * resampler is written, and the output is padded with silence to
+     * the size given to <code>begin</code> and to a whole frame.
+     *
+     * @return <code>true</code> if the audio was output properly
+     *
+     * @throws IOException if the other player fails
+     */
+    public synchronized boolean end() throws IOException {
+	if (passThrough) {
+	    return player.end();
+	}
+
+	boolean ok = true;
+	if (resampler != null) {
+	    int count = resampler.getMaxOutputCount(
+		    resampler.getFlushCount());
+	    if (resampled.length < count) {
+		resampled = new short[count];
+	    }
+	    ok = output(resampled, resampler.flush(resampled, 0));
+	}
+
+	int silence = 0;
+	if (remaining > 0) {
+	    silence = remaining / bytesPerSample;
+	} else if (frameBytes > 0 && bufferLength > 0) {
+	    silence = (frameBytes - bufferLength) / bytesPerSample;
+	}
+	if (silence > 0) {
+	    if (samples.length < silence) {
+		samples = new short[silence];
+	    }
+	    for (int i = 0; i < silence; i++) {
+		samples[i] = 0;
+	    }
+	    ok &= output(samples, silence);
+	}
+	remaining = -1;
+	return player.end() && ok;
+    }
+
+    /**
+     * Cancels all queued output.
+     */
+    public void cancel() {
+	player.cancel();
+    }
+
+    /**
+     * Closes this player and the other player.
+     *
+     * @throws IOException if the other player fails
+     */
+    public void close() throws IOException {
+	player.close();
+    }
+
+    /**
+     * Returns the current volume.
+     *
+     * @return the current volume (between 0 and 1)
+     */
+    public float getVolume() {
+	return player.getVolume();
+    }
+
+    /**
+     * Sets the current volume.
+     *
+     * @param volume the current volume (between 0 and 1)
+     */
+    public void setVolume(float volume) {
+	player.setVolume(volume);
+    }
+
+    /**
+     * Gets the amount of played since the last resetTime.
+     *
+     * @return the amount of audio in milliseconds
+     */
+    public long getTime() {
+	return player.getTime();
+    }
+
+    /**
+     * Resets the audio clock.
+     */
+    public void resetTime() {
+	player.resetTime();
+    }
+
+    /**
+     * Starts the first sample timer.
+     */
+    public void startFirstSampleTimer() {
+	player.startFirstSampleTimer();
+    }
+
+    /**
+     * Returns the first sample latency of the player the audio is
+     * passed on to.
+     *
+     * @return the latency in milliseconds, or -1 if it is not known
+     */
+    public long getFirstSampleLatency() {
+	return player.getFirstSampleLatency();
+    }
+
+    /**
+     * Shows metrics for this audio player.
+     */
+    public void showMetrics() {
+	player.showMetrics();
+    }
+
+    /**
+     * Converts audio and passes it on.
+     *
+     * @param audioData the audio data
+     *
+     * @return <code>true</code> if the audio was passed on properly
+     *
+     * @throws IOException if the other player fails
+     */
+    public boolean write(byte[] audioData) throws IOException {
+	return write(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Converts audio and passes it on.  An odd byte at the end is
+     * kept for the next write.
+     *
+     * @param bytes the audio data
+     * @param offset the offset of the data in the array
+     * @param size the number of bytes of data
+     *
+     * @return <code>true</code> if the audio was passed on properly
+     *
+     * @throws IOException if the other player fails
+     */
+    public synchronized boolean write(byte[] bytes, int offset, int size)
+	throws IOException {
+	if (passThrough) {
+	    return player.write(bytes, offset, size);
+	}
+
+	int count = (size + (carry >= 0 ? 1 : 0)) / 2;
+	if (samples.length < count) {
+	    samples = new short[count];
+	}
+	int end = offset + size;
+	int n = 0;
+	if (carry >= 0 && offset < end) {
+	    samples[n++] = toShort((byte) carry, bytes[offset++]);
+	    carry = -1;
+	}
+	for (; offset + 1 < end; offset += 2) {
+	    samples[n++] = toShort(bytes[offset], bytes[offset + 1]);
+	}
+	if (offset < end) {
+	    carry = bytes[offset] & 0xFF;
+	}
+
+	if (resampler == null) {
+	    return output(samples, n);
+	}
+	int max = resampler.getMaxOutputCount(n);
+	if (resampled.length < max) {
+	    resampled = new short[max];
+	}
+	return output(resampled, resampler.process(samples, 0, n,
+		    resampled, 0));
+    }
+
+    /**
+     * Returns a string representation of this player.
+     *
+     * @return the string
+     */
+    public String toString() {
+	return "CodecAudioPlayer(" + outputFormat + ") -> " + player;
+    }
+
+    /**
+     * Makes a sample from two bytes in the byte order of the input.
+     *
+     * @param first the first byte
+     * @param second the second byte
+     *
+     * @return the sample
+     */
+    private short toShort(byte first, byte second) {
+	return inputBigEndian ? WaveUtils.bytesToShort(first, second)
+	    : WaveUtils.bytesToShort(second, first);
+    }
+
+    /**
+     * Encodes samples and writes them to the other player, a frame
+     * at a time if there are frames.  No more is written than was
+     * announced to <code>begin</code>.
+     *
+     * @param data the samples
+     * @param count the number of samples
+     *
+     * @return <code>true</code> if the audio was written properly
+     *
+     * @throws IOException if the other player fails
+     */
+    private boolean output(short[] data, int count) throws IOException {
+	if (remaining >= 0) {
+	    count = Math.min(count, remaining / bytesPerSample);
+	    remaining -= count * bytesPerSample;
+	}
+	if (frameBytes == 0) {
+	    if (buffer.length < count * bytesPerSample) {
+		buffer = new byte[count * bytesPerSample];
+	    }
+	    encode(data, 0, count, buffer, 0);
+	    return count == 0 || player.write(buffer, 0, count * bytesPerSample);
+	}
+
+	int frameSamples = frameBytes / bytesPerSample;
+	int i = 0;
+	while (i < count) {
+	    int n = Math.min(count - i,
+		    frameSamples - bufferLength / bytesPerSample);
+	    encode(data, i, n, buffer, bufferLength);
+	    bufferLength += n * bytesPerSample;
+	    i += n;
+	    if (bufferLength == frameBytes) {
+		bufferLength = 0;
+		if (!player.write(buffer, 0, frameBytes)) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Encodes samples in the output encoding.
+     *
+     * @param data the samples
+     * @param offset the first sample to encode
+     * @param count the number of samples
+     * @param dest where the encoded samples go
+     * @param destOffset where they start in <code>dest</code>
+     */
+    private void encode(short[] data, int offset, int count,
+	    byte[] dest, int destOffset) {
+	int end = offset + count;
+	int d = destOffset;
+	switch (encoding) {
+	case PCM_BIG_ENDIAN:
+	    for (int i = offset; i < end; i++) {
+		dest[d++] = (byte) (data[i] >> 8);
+		dest[d++] = (byte) data[i];
+	    }
+	    break;
+	case PCM_LITTLE_ENDIAN:
+	    for (int i = offset; i < end; i++) {
+		dest[d++] = (byte) data[i];
+		dest[d++] = (byte) (data[i] >> 8);
+	    }
+	    break;
+	case ULAW:
+	    byte[] ulaw = UlawTable.TABLE;
+	    for (int i = offset; i < end; i++) {
+		dest[d++] = ulaw[data[i] & 0xFFFF];
+	    }
+	    break;
+	case ALAW:
+	    byte[] alaw = AlawTable.TABLE;
+	    for (int i = offset; i < end; i++) {
+		dest[d++] = alaw[data[i] & 0xFFFF];
+	    }
+	    break;
+	}
+    }
+
+    /**
+     * Creates the player that the audio is passed on to.
+     *
+     * @param className the class of the player
+     *
+     * @return the player
+     *
+     * @throws IllegalArgumentException if the player can't be created
+     */
+    private static AudioPlayer createPlayer(String className) {
+	try {
+	    return (AudioPlayer) Class.forName(className).newInstance();
+	} catch (ClassNotFoundException e) {
+	    throw new IllegalArgumentException("Can't find class " + className);
+	} catch (InstantiationException e) {
+	    throw new IllegalArgumentException("Can't create " + className);
+	} catch (IllegalAccessException e) {
+	    throw new IllegalArgumentException("Can't create " + className);
+	} catch (ClassCastException e) {
+	    throw new IllegalArgumentException(className + " cannot be cast "
+		    + "to AudioPlayer");
+	}
+    }
+
+    /**
+     * Creates an output format.
+     *
+     * @param encoding pcm, ulaw or alaw
+     * @param sampleRate the sample rate
+     * @param bigEndian the byte order of pcm
+     *
+     * @return the format
+     *
+     * @throws IllegalArgumentException if the encoding is not known
+     */
+    private static AudioFormat createFormat(String encoding,
+	    int sampleRate, boolean bigEndian) {
+	if (encoding.equals("pcm")) {
+	    return new AudioFormat(sampleRate, 16, 1, true, bigEndian);
+	} else if (encoding.equals("ulaw")) {
+	    return new AudioFormat(AudioFormat.Encoding.ULAW,
+		    sampleRate, 8, 1, 1, sampleRate, false);
+	} else if (encoding.equals("alaw")) {
+	    return new AudioFormat(AudioFormat.Encoding.ALAW,
+		    sampleRate, 8, 1, 1, sampleRate, false);
+	}
+	throw new IllegalArgumentException("unknown encoding: " + encoding);
+    }
+
+    /**
+     * The &micro;-law encoding of every 16-bit sample, built when it is
+     * first needed.
+     */
+    private static class UlawTable {
+	final static byte[] TABLE = new byte[65536];
+
+	static {
+	    // shortToUlaw gives the code offset by 128
+	    for (int i = 0; i < TABLE.length; i++) {
+		TABLE[i] = (byte) (WaveUtils.shortToUlaw((short) i) + 128);
+	    }
+	}
+    }
+
+    /**
+     * The A-law encoding of every 16-bit sample, built when it is
+     * first needed.
+     */
+    private static class AlawTable {
+	final static byte[] TABLE = new byte[65536];
+
+	static {
+	    for (int i = 0; i < TABLE.length; i++) {
+		TABLE[i] = WaveUtils.shortToAlaw((short) i);
+	    }
+	}
+    }
+}
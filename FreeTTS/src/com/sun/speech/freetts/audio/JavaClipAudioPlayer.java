@@ -54,6 +54,7 @@ public class JavaClipAudioPlayer implements AudioPlayer {
     	new AudioFormat(8000f, 16, 1, true, true);
     private AudioFormat currentFormat = defaultFormat;
     private boolean firstSample = true;
+    private volatile long firstSampleLatency = -1;
     private boolean firstPlay = true;
     private int curIndex = 0;
     /** Data buffer to write the pure audio data to. */
@@ -432,6 +433,8 @@ public class JavaClipAudioPlayer implements AudioPlayer {
         if (firstSample) {
             firstSample = false;
             timer.stop("firstAudio");
+            firstSampleLatency =
+                timer.getTimer("firstAudio").getCurrentTime();
             if (audioMetrics) {
                 Timer.showTimesShortTitle("");
                 timer.getTimer("firstAudio").showTimesShort(0);
@@ -466,12 +469,24 @@ public class JavaClipAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
         timer.start("firstAudio");
         firstSample = true;
+        firstSampleLatency = -1;
         if (audioMetrics) {
             timer.start("firstPlay");
             firstPlay = true;
         }
     }
 
+    /**
+     * Returns the time from the last start of the first sample timer
+     * to the first audio written after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    written since the timer was started
+     */
+    public long getFirstSampleLatency() {
+        return firstSampleLatency;
+    }
+
 
     /**
      * Provides a LineListener for this clas.
@@ -88,6 +88,7 @@ public class JavaStreamingAudioPlayer implements AudioPlayer {
     private boolean debug = false;
     private boolean audioMetrics = false;
     private boolean firstSample = true;
+    private volatile long firstSampleLatency = -1;
 
     private long cancelDelay;
     private long drainDelay;
@@ -166,6 +167,18 @@ public class JavaStreamingAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
 	timer.start("firstAudio");
 	firstSample = true;
+	firstSampleLatency = -1;
+    }
+
+    /**
+     * Returns the time from the last start of the first sample timer
+     * to the first audio written after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    written since the timer was started
+     */
+    public long getFirstSampleLatency() {
+	return firstSampleLatency;
     }
 
 
@@ -518,6 +531,8 @@ public class JavaStreamingAudioPlayer implements AudioPlayer {
 	if (firstSample) {
 	    firstSample = false;
 	    timer.stop("firstAudio");
+	    firstSampleLatency =
+		timer.getTimer("firstAudio").getCurrentTime();
 	    if (audioMetrics) {
 		Timer.showTimesShortTitle("");
 		timer.getTimer("firstAudio").showTimesShort(0);
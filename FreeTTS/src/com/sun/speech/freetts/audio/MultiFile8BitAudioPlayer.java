@@ -103,6 +103,16 @@ public class MultiFile8BitAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * Returns the first sample latency, which this player does not
+     * measure.
+     *
+     * @return -1
+     */
+    public long getFirstSampleLatency() {
+	return -1;
+    }
+
 
     /**
      * Cancels currently playing audio
@@ -97,6 +97,16 @@ public class MultiFileAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * Returns the first sample latency, which this player does not
+     * measure.
+     *
+     * @return -1
+     */
+    public long getFirstSampleLatency() {
+	return -1;
+    }
+
 
     /**
      * Cancels currently playing audio
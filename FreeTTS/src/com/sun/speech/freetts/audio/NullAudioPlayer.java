@@ -28,6 +28,7 @@ public class NullAudioPlayer implements AudioPlayer {
     private float volume = 1.0f;
     private AudioFormat audioFormat;
     private boolean firstSound = true;
+    private volatile long firstSampleLatency = -1;
     private int totalBytes = 0;
     private int totalWrites = 0;
     private BulkTimer timer = new BulkTimer();
@@ -165,6 +166,8 @@ public class NullAudioPlayer implements AudioPlayer {
 	if (firstSound) {
 	    timer.stop("AudioFirstSound");
 	    firstSound = false;
+	    firstSampleLatency =
+		timer.getTimer("AudioFirstSound").getCurrentTime();
 	    if (LOGGER.isLoggable(Level.FINER)) {
 		timer.show("Null Trace");
 	    }
@@ -180,9 +183,21 @@ public class NullAudioPlayer implements AudioPlayer {
      */
     public void startFirstSampleTimer() {
 	firstSound = true;
+	firstSampleLatency = -1;
 	timer.start("AudioFirstSound");
     }
 
+    /**
+     * Returns the time from the last start of the first sample timer
+     * to the first audio written after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    written since the timer was started
+     */
+    public long getFirstSampleLatency() {
+	return firstSampleLatency;
+    }
+
     /**
      * Waits for all queued audio to be played
      *
@@ -0,0 +1,524 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import com.sun.speech.freetts.util.BulkTimer;
+import com.sun.speech.freetts.util.Utilities;
+
+
+/**
+ * Provides an implementation of <code>AudioPlayer</code> that lets
+ * the synthesized audio be pulled by the caller instead of pushed to
+ * a device.  Each <code>write</code> hands a copy of the samples to a
+ * bounded queue; the audio is read back through the
+ * <code>InputStream</code>, <code>ReadableByteChannel</code> or
+ * <code>AudioInputStream</code> views of this player.  Since the
+ * vocoder writes small blocks as it goes, the first audio can be read
+ * as soon as the first utterance is being vocoded.
+ *
+ * <p>When the queue is full, <code>write</code> blocks until the
+ * reader catches up, so a slow reader slows down the synthesis
+ * instead of buffering the whole text.  When the reader closes its
+ * stream, all further writes return <code>false</code>, which
+ * cancels the synthesis.
+ *
+ * <p>The synthesizing side signals the end of the audio by calling
+ * <code>close</code>; after the queued audio has been read, the
+ * streams report end of stream.  If it calls <code>fail</code>
+ * instead, the streams throw an <code>IOException</code> at that
+ * point, so that a reader can't take truncated audio for the whole.
+ *
+ * <p>The number of queued blocks can be set with the
+ * "com.sun.speech.freetts.audio.PipedAudioPlayer.capacity"
+ * property; the default is 16.
+ */
+public class PipedAudioPlayer implements AudioPlayer {
+    /**
+     * The default number of audio blocks that can be queued.
+     */
+    private final static int DEFAULT_CAPACITY =
+	Utilities.getInteger(
+	    "com.sun.speech.freetts.audio.PipedAudioPlayer.capacity",
+	    16).intValue();
+
+    /**
+     * How long a blocked write waits before it rechecks for a
+     * cancel or a closed reader.
+     */
+    private final static long POLL_MS = 100;
+
+    /**
+     * Marks the end of the audio in the queue.
+     */
+    private final static byte[] END_OF_AUDIO = new byte[0];
+
+    private final BlockingQueue<byte[]> queue;
+    private final CountDownLatch formatKnown = new CountDownLatch(1);
+    private final InputStream inputStream = new PipedInputStream();
+    private volatile AudioFormat audioFormat;
+    private volatile boolean cancelled = false;
+    private volatile boolean readerClosed = false;
+    private volatile boolean writerClosed = false;
+    private volatile boolean failed = false;
+    private volatile Throwable failure = null;
+    private float volume = 1.0f;
+    private long totalBytes = 0;
+    private boolean firstSound = true;
+    private volatile long firstSampleLatency = -1;
+    private BulkTimer timer = new BulkTimer();
+
+
+    /**
+     * Creates a PipedAudioPlayer with the default capacity.
+     */
+    public PipedAudioPlayer() {
+	this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a PipedAudioPlayer that queues at most the given
+     * number of audio blocks.
+     *
+     * @param capacity the number of blocks that can be queued
+     *   before writes block
+     */
+    public PipedAudioPlayer(int capacity) {
+	queue = new ArrayBlockingQueue<byte[]>(capacity);
+    }
+
+    /**
+     * Returns the stream from which the synthesized audio is read.
+     * The data is in the format returned by
+     * <code>getAudioFormat</code>.  Closing the stream cancels any
+     * further output.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream() {
+	return inputStream;
+    }
+
+    /**
+     * Returns a channel from which the synthesized audio is read.
+     *
+     * @return the channel
+     */
+    public ReadableByteChannel getChannel() {
+	return Channels.newChannel(inputStream);
+    }
+
+    /**
+     * Returns an audio stream from which the synthesized audio is
+     * read.  This waits until the audio format of the first utterance
+     * is known.
+     *
+     * @return the audio input stream, or <code>null</code> if the
+     *    output ended before any audio format was set
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public AudioInputStream getAudioInputStream()
+	throws InterruptedException {
+	formatKnown.await();
+	if (audioFormat == null) {
+	    return null;
+	}
+	return new AudioInputStream(inputStream, audioFormat,
+		AudioSystem.NOT_SPECIFIED);
+    }
+
+    /**
+     * Sets the audio format for this player
+     *
+     * @param format the audio format
+     */
+    public void setAudioFormat(AudioFormat format) {
+	this.audioFormat = format;
+	formatKnown.countDown();
+    }
+
+    /**
+     * Retrieves the audio format for this player
+     *
+     * @return the current audio format.
+     */
+    public AudioFormat getAudioFormat() {
+	return audioFormat;
+    }
+
+    /**
+     * Cancels all queued output. All 'write' calls until the next
+     * reset will return false.  If no more audio will be written, the
+     * end of the audio stays queued, so the reader is not left
+     * waiting; if queued audio was dropped, the reader gets an
+     * <code>IOException</code> there, as after <code>fail</code>.
+     */
+    public void cancel() {
+	cancelled = true;
+	boolean dropped = false;
+	byte[] chunk;
+	while ((chunk = queue.poll()) != null) {
+	    if (chunk != END_OF_AUDIO) {
+		dropped = true;
+	    }
+	}
+	if (writerClosed) {
+	    // close() queues the end of the audio only once
+	    if (dropped) {
+		failed = true;
+	    }
+	    while (!queue.offer(END_OF_AUDIO)) {
+		queue.poll();
+	    }
+	}
+    }
+
+    /**
+     * Pauses the audio output.  Not supported; the reader controls
+     * the pace of the output.
+     */
+    public void pause() {
+    }
+
+    /**
+     * Resumes audio output.  Not supported; the reader controls
+     * the pace of the output.
+     */
+    public void resume() {
+    }
+
+    /**
+     * Prepares for another batch of output. Larger groups of output
+     * (such as all output associated with a single FreeTTSSpeakable)
+     * should be grouped between a reset/drain pair.
+     */
+    public void reset() {
+	cancelled = false;
+	timer.start("AudioOutput");
+    }
+
+    /**
+     * Signals that no more audio will be written.  The reader sees
+     * the end of the stream after it has read the queued audio.
+     */
+    public void close() {
+	if (writerClosed) {
+	    return;
+	}
+	writerClosed = true;
+	formatKnown.countDown();
+	try {
+	    enqueue(END_OF_AUDIO);
+	} catch (InterruptedException ie) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Signals that no more audio will be written because the output
+     * failed or was cancelled.  The reader gets an
+     * <code>IOException</code> after it has read the queued audio.
+     *
+     * @param cause why the output failed, or <code>null</code> if it
+     *    was cancelled
+     */
+    public void fail(Throwable cause) {
+	if (writerClosed) {
+	    return;
+	}
+	failure = cause;
+	failed = true;
+	close();
+    }
+
+    /**
+     * Returns the current volume.
+     *
+     * @return the current volume (between 0 and 1)
+     */
+    public float getVolume() {
+	return volume;
+    }
+
+    /**
+     * Sets the current volume.
+     *
+     * @param volume  the current volume (between 0 and 1)
+     */
+    public void setVolume(float volume) {
+	this.volume = volume;
+    }
+
+    /**
+     *  Starts the output of a set of data
+     *
+     * @param size the size of data between now and the end
+     */
+    public void begin(int size) {
+    }
+
+    /**
+     *  Marks the end of a set of data
+     *
+     * @return <code>true</code> if the audio was output properly,
+     *    <code>false</code> if the output was cancelled
+     */
+    public boolean end()  {
+	return !cancelled && !readerClosed;
+    }
+
+    /**
+     * Writes the given bytes to the audio stream
+     *
+     * @param audioData array of audio data
+     *
+     * @return <code>true</code> of the write completed successfully,
+     *       	<code> false </code>if the write was cancelled.
+     *
+     * @throws IOException if the player has been closed
+     */
+    public boolean write(byte[] audioData) throws IOException {
+	return write(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Writes the given bytes to the audio stream.  Blocks while the
+     * queue is full.
+     *
+     * @param bytes audio data to write to the device
+     * @param offset the offset into the buffer
+     * @param size the size into the buffer
+     *
+     * @return <code>true</code> of the write completed successfully,
+     *       	<code> false </code>if the write was cancelled.
+     *
+     * @throws IOException if the player has been closed
+     */
+    public boolean write(byte[] bytes, int offset, int size)
+	throws IOException {
+	if (writerClosed) {
+	    throw new IOException("PipedAudioPlayer is closed");
+	}
+	if (cancelled || readerClosed) {
+	    return false;
+	}
+	if (size == 0) {
+	    return true;
+	}
+	if (firstSound) {
+	    timer.stop("AudioFirstSound");
+	    firstSound = false;
+	    firstSampleLatency =
+		timer.getTimer("AudioFirstSound").getCurrentTime();
+	}
+	byte[] chunk = new byte[size];
+	System.arraycopy(bytes, offset, chunk, 0, size);
+	try {
+	    if (!enqueue(chunk)) {
+		return false;
+	    }
+	} catch (InterruptedException ie) {
+	    throw new InterruptedIOException();
+	}
+	totalBytes += size;
+	return true;
+    }
+
+    /**
+     * Puts the given block on the queue, waiting for room if
+     * necessary.
+     *
+     * @param chunk the block to queue
+     *
+     * @return <code>false</code> if the output was cancelled or the
+     *    reader went away while waiting
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean enqueue(byte[] chunk) throws InterruptedException {
+	while (!queue.offer(chunk, POLL_MS, TimeUnit.MILLISECONDS)) {
+	    if (readerClosed || (cancelled && chunk != END_OF_AUDIO)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Starts the first sample timer
+     */
+    public void startFirstSampleTimer() {
+	firstSound = true;
+	firstSampleLatency = -1;
+	timer.start("AudioFirstSound");
+    }
+
+    /**
+     * Returns the time from the last start of the first sample timer
+     * to the first audio written after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    written since the timer was started
+     */
+    public long getFirstSampleLatency() {
+	return firstSampleLatency;
+    }
+
+    /**
+     * Waits for all queued audio to be played.  The audio is played
+     * by whoever reads the stream, so this does not wait.
+     *
+     * @return <code>true</code> if the audio was not cancelled
+     */
+    public boolean drain()  {
+	timer.stop("AudioOutput");
+	return !cancelled && !readerClosed;
+    }
+
+    /**
+     * Gets the amount of audio written since the last resetTime.
+     *
+     * @return the amount of audio in milliseconds
+     */
+    public long getTime()  {
+	AudioFormat format = audioFormat;
+	if (format == null) {
+	    return 0L;
+	}
+	float bytesPerSecond = format.getFrameSize() * format.getFrameRate();
+	return (long) (totalBytes * 1000 / bytesPerSecond);
+    }
+
+    /**
+     * Resets the audio clock
+     */
+    public void resetTime() {
+	totalBytes = 0;
+    }
+
+    /**
+     * Shows metrics for this audio player
+     */
+    public void showMetrics() {
+	timer.show("PipedAudioPlayer");
+    }
+
+    /**
+     * The reading end of the pipe.
+     */
+    private class PipedInputStream extends InputStream {
+	private byte[] current = null;
+	private int position = 0;
+	private boolean eof = false;
+
+	/**
+	 * Makes sure there is unread data in the current block,
+	 * waiting for the next block if necessary.
+	 *
+	 * @return <code>false</code> at the end of the audio
+	 *
+	 * @throws IOException if the stream is closed or interrupted,
+	 *    or the output failed
+	 */
+	private boolean fill() throws IOException {
+	    if (readerClosed) {
+		throw new IOException("Stream closed");
+	    }
+	    while (!eof && (current == null || position >= current.length)) {
+		try {
+		    current = queue.take();
+		} catch (InterruptedException ie) {
+		    throw new InterruptedIOException();
+		}
+		position = 0;
+		if (current == END_OF_AUDIO) {
+		    eof = true;
+		}
+	    }
+	    if (eof && failed) {
+		throw new IOException(failure == null
+			? "Synthesis was cancelled" : "Synthesis failed",
+			failure);
+	    }
+	    return !eof;
+	}
+
+	/**
+	 * Reads the next byte of audio.
+	 *
+	 * @return the byte, or -1 at the end of the audio
+	 *
+	 * @throws IOException if the stream is closed or the output failed
+	 */
+	public int read() throws IOException {
+	    if (!fill()) {
+		return -1;
+	    }
+	    return current[position++] & 0xff;
+	}
+
+	/**
+	 * Reads up to <code>len</code> bytes of audio.  Returns as
+	 * soon as some audio is available.
+	 *
+	 * @param b the buffer to read into
+	 * @param off the offset in the buffer
+	 * @param len the maximum number of bytes to read
+	 *
+	 * @return the number of bytes read, or -1 at the end of the
+	 *    audio
+	 *
+	 * @throws IOException if the stream is closed or the output failed
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if (len == 0) {
+		return 0;
+	    }
+	    if (!fill()) {
+		return -1;
+	    }
+	    int count = Math.min(len, current.length - position);
+	    System.arraycopy(current, position, b, off, count);
+	    position += count;
+	    return count;
+	}
+
+	/**
+	 * Returns the number of bytes that can be read without
+	 * blocking.
+	 *
+	 * @return the number of bytes left in the current block
+	 */
+	public int available() {
+	    if (current == null || eof) {
+		return 0;
+	    }
+	    return current.length - position;
+	}
+
+	/**
+	 * Closes the stream.  Any further output is cancelled.
+	 */
+	public void close() {
+	    readerClosed = true;
+	    queue.clear();
+	}
+    }
+}
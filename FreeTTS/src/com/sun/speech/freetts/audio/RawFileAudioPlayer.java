@@ -170,6 +170,16 @@ public class RawFileAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * Returns the first sample latency, which this player does not
+     * measure.
+     *
+     * @return -1
+     */
+    public long getFirstSampleLatency() {
+	return -1;
+    }
+
     /**
      * Waits for all queued audio to be played
      *
@@ -0,0 +1,294 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+
+/**
+ * Converts a stream of 16-bit samples from one sample rate to another
+ * with a polyphase filter.
+ *
+ * <p>The ratio of the rates is reduced to <code>up / down</code>.
+ * The samples are conceptually stuffed with <code>up - 1</code> zeros
+ * each, low pass filtered, and every <code>down</code>th sample is
+ * kept.  Only the filter coefficients that meet a real sample are
+ * applied: they are split into <code>up</code> phases of
+ * <code>taps</code> coefficients each, and each output sample is the
+ * dot product of one phase with the last <code>taps</code> input
+ * samples.
+ *
+ * <p>The stream can be fed in pieces of any size; the output is the
+ * same as if it had all been fed at once.  The filter delays the
+ * output by about half its length, and {@link #flush flush} returns
+ * what is held back at the end of the stream.
+ *
+ * <p>A resampler keeps the state of one stream and must be used by
+ * one thread at a time.
+ */
+public class Resampler {
+    /**
+     * The number of taps of each phase when the rate goes up.
+     */
+    private final static int TAPS = 24;
+
+    /**
+     * The largest number of phases, which bounds the size of the
+     * filter.
+     */
+    private final static int MAX_PHASES = 1024;
+
+    /**
+     * How much of the band below the lower Nyquist frequency is
+     * passed.
+     */
+    private final static double PASSBAND = 0.9;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final float[][] phases;
+    private float[] work;
+    private int index;
+    private int phase;
+
+    /**
+     * Creates a resampler.
+     *
+     * @param inputRate the sample rate of the input
+     * @param outputRate the sample rate of the output
+     *
+     * @throws IllegalArgumentException if a rate is not positive, or
+     *    the rates don't have a small enough common multiple
+     */
+    public Resampler(int inputRate, int outputRate) {
+	if (inputRate <= 0 || outputRate <= 0) {
+	    throw new IllegalArgumentException("bad sample rate: "
+		    + inputRate + " to " + outputRate);
+	}
+	int divisor = gcd(inputRate, outputRate);
+	this.inputRate = inputRate;
+	this.outputRate = outputRate;
+	this.up = outputRate / divisor;
+	this.down = inputRate / divisor;
+	if (up > MAX_PHASES) {
+	    throw new IllegalArgumentException("can't resample "
+		    + inputRate + " to " + outputRate);
+	}
+	this.taps = TAPS * Math.max(1, (down + up - 1) / up);
+	this.phases = createPhases(up, down, taps);
+	this.work = new float[taps - 1 + 1024];
+	reset();
+    }
+
+    /**
+     * Returns the sample rate of the input.
+     *
+     * @return the sample rate
+     */
+    public int getInputRate() {
+	return inputRate;
+    }
+
+    /**
+     * Returns the sample rate of the output.
+     *
+     * @return the sample rate
+     */
+    public int getOutputRate() {
+	return outputRate;
+    }
+
+    /**
+     * Starts a new stream.
+     */
+    public void reset() {
+	for (int i = 0; i < taps - 1; i++) {
+	    work[i] = 0.0f;
+	}
+	index = taps - 1;
+	phase = 0;
+    }
+
+    /**
+     * Returns the number of samples that a stream of the given length
+     * is converted to, including what {@link #flush flush} returns.
+     *
+     * @param count the number of input samples of the stream
+     *
+     * @return the number of output samples
+     */
+    public int getOutputCount(int count) {
+	long total = (long) (count + getFlushCount()) * up;
+	return (int) ((total + down - 1) / down);
+    }
+
+    /**
+     * Returns the most samples that the given number of input samples
+     * can be converted to by one call to <code>process</code> or
+     * <code>flush</code>.
+     *
+     * @param count the number of input samples
+     *
+     * @return the most output samples
+     */
+    public int getMaxOutputCount(int count) {
+	return (int) (((long) count * up + down - 1) / down) + 1;
+    }
+
+    /**
+     * Converts a piece of the stream.
+     *
+     * @param input the input samples
+     * @param offset where the samples start in <code>input</code>
+     * @param count the number of input samples
+     * @param output where the output samples go; must have room for
+     *    <code>getMaxOutputCount(count)</code> samples
+     * @param outputOffset where the output starts in
+     *    <code>output</code>
+     *
+     * @return the number of output samples
+     */
+    public int process(short[] input, int offset, int count,
+	    short[] output, int outputOffset) {
+	float[] w = prepare(count);
+	for (int i = 0; i < count; i++) {
+	    w[taps - 1 + i] = input[offset + i];
+	}
+	return filter(taps - 1 + count, output, outputOffset);
+    }
+
+    /**
+     * Returns the samples held back by the filter at the end of the
+     * stream.  The resampler is ready for a new stream afterwards.
+     *
+     * @param output where the output samples go; must have room for
+     *    <code>getMaxOutputCount(getFlushCount())</code> samples
+     * @param outputOffset where the output starts in
+     *    <code>output</code>
+     *
+     * @return the number of output samples
+     */
+    public int flush(short[] output, int outputOffset) {
+	int count = getFlushCount();
+	float[] w = prepare(count);
+	for (int i = 0; i < count; i++) {
+	    w[taps - 1 + i] = 0.0f;
+	}
+	int n = filter(taps - 1 + count, output, outputOffset);
+	reset();
+	return n;
+    }
+
+    /**
+     * Returns the number of input samples that the output lags
+     * behind, which is what <code>flush</code> feeds to the filter.
+     *
+     * @return the number of samples
+     */
+    public int getFlushCount() {
+	return taps / 2;
+    }
+
+    /**
+     * Makes room for the given number of new samples after the
+     * samples kept from before.
+     *
+     * @param count the number of new samples
+     *
+     * @return the work buffer
+     */
+    private float[] prepare(int count) {
+	if (work.length < taps - 1 + count) {
+	    float[] larger = new float[taps - 1 + count];
+	    System.arraycopy(work, 0, larger, 0, taps - 1);
+	    work = larger;
+	}
+	return work;
+    }
+
+    /**
+     * Filters the samples in the work buffer, and keeps the last of
+     * them for the next piece of the stream.
+     *
+     * @param end the number of samples in the work buffer
+     * @param output where the output samples go
+     * @param outputOffset where the output starts in
+     *    <code>output</code>
+     *
+     * @return the number of output samples
+     */
+    private int filter(int end, short[] output, int outputOffset) {
+	float[] w = work;
+	int o = outputOffset;
+	while (index < end) {
+	    float[] coefficients = phases[phase];
+	    float sum = 0.0f;
+	    for (int k = 0, i = index; k < taps; k++, i--) {
+		sum += coefficients[k] * w[i];
+	    }
+	    int sample = Math.round(sum);
+	    if (sample > Short.MAX_VALUE) {
+		sample = Short.MAX_VALUE;
+	    } else if (sample < Short.MIN_VALUE) {
+		sample = Short.MIN_VALUE;
+	    }
+	    output[o++] = (short) sample;
+
+	    phase += down;
+	    index += phase / up;
+	    phase %= up;
+	}
+	System.arraycopy(w, end - (taps - 1), w, 0, taps - 1);
+	index -= end - (taps - 1);
+	return o - outputOffset;
+    }
+
+    /**
+     * Designs the low pass filter and splits it into phases.  The
+     * filter is a windowed sinc with its cutoff just below the lower
+     * of the two Nyquist frequencies.
+     *
+     * @param up the factor the rate goes up by
+     * @param down the factor the rate goes down by
+     * @param taps the number of coefficients of each phase
+     *
+     * @return the coefficients of each phase
+     */
+    private static float[][] createPhases(int up, int down, int taps) {
+	int length = up * taps;
+	double cutoff = PASSBAND * 0.5 / Math.max(up, down);
+	double center = (length - 1) / 2.0;
+	float[][] phases = new float[up][taps];
+	for (int n = 0; n < length; n++) {
+	    double x = n - center;
+	    double sinc = (x == 0.0) ? 2.0 * cutoff
+		: Math.sin(2.0 * Math.PI * cutoff * x) / (Math.PI * x);
+	    double window = 0.42
+		- 0.5 * Math.cos(2.0 * Math.PI * n / (length - 1))
+		+ 0.08 * Math.cos(4.0 * Math.PI * n / (length - 1));
+	    phases[n % up][n / up] = (float) (sinc * window * up);
+	}
+	return phases;
+    }
+
+    /**
+     * Returns the greatest common divisor of two numbers.
+     *
+     * @param a a positive number
+     * @param b a positive number
+     *
+     * @return the greatest common divisor
+     */
+    private static int gcd(int a, int b) {
+	while (b != 0) {
+	    int t = a % b;
+	    a = b;
+	    b = t;
+	}
+	return a;
+    }
+}
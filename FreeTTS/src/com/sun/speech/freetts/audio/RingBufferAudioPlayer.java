@@ -0,0 +1,725 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import com.sun.speech.freetts.util.BulkTimer;
+import com.sun.speech.freetts.util.Utilities;
+
+
+/**
+ * Streams audio to java audio through a ring buffer.  This is a
+ * low latency alternative to <code>JavaStreamingAudioPlayer</code>:
+ * the synthesizing thread copies the samples into a ring buffer
+ * without taking any lock, and a thread of the player moves them from
+ * the ring buffer to the <code>SourceDataLine</code>.  Writes only
+ * block when the ring buffer is full.
+ *
+ * <p>The line is opened once and kept open between utterances, so
+ * there is no gap at the start of each utterance.  Nothing waits by
+ * sleeping: <code>drain</code> returns when the player thread has
+ * handed all the audio to the line and the line has played it, and
+ * <code>cancel</code> stops and flushes the line at once.  A line
+ * that is stopped or closed by someone else releases the waiting
+ * threads through its <code>LineListener</code>.
+ *
+ * <p>The player keeps live statistics: the number of underruns (the
+ * line ran out of audio in the middle of an utterance), the number of
+ * bytes waiting in the ring buffer and in the line, and the time from
+ * <code>startFirstSampleTimer</code> to the first audio handed to
+ * the line.
+ *
+ * <p>The player is set up by the following system properties:
+ * <pre>
+ *   com.sun.speech.freetts.audio.AudioPlayer.bufferSize - the size
+ *       of the line buffer in bytes, default 8192
+ *   com.sun.speech.freetts.audio.RingBufferAudioPlayer.ringSize -
+ *       the size of the ring buffer in bytes, rounded up to a power
+ *       of two, default 65536
+ *   com.sun.speech.freetts.audio.RingBufferAudioPlayer.chunkSize -
+ *       the most bytes handed to the line at once, default 640
+ * </pre>
+ *
+ * <p>The player can be made the default audio player of the voices
+ * by setting "com.sun.speech.freetts.voice.defaultAudioPlayer" to
+ * "com.sun.speech.freetts.audio.RingBufferAudioPlayer".
+ */
+public class RingBufferAudioPlayer implements AudioPlayer {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(RingBufferAudioPlayer.class.getName());
+
+    private final static int LINE_BUFFER_SIZE = Utilities.getInteger(
+	    "com.sun.speech.freetts.audio.AudioPlayer.bufferSize",
+	    8192).intValue();
+    private final static int RING_SIZE = Utilities.getInteger(
+	    "com.sun.speech.freetts.audio.RingBufferAudioPlayer.ringSize",
+	    65536).intValue();
+    private final static int CHUNK_SIZE = Utilities.getInteger(
+	    "com.sun.speech.freetts.audio.RingBufferAudioPlayer.chunkSize",
+	    640).intValue();
+
+    private final byte[] ring;
+    private final int mask;
+
+    // The producer advances head, the player thread advances tail.
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile Thread waitingProducer = null;
+    private volatile boolean writerIdle = false;
+
+    // Requests to the player thread and their acknowledgements.
+    private volatile int drainRequests = 0;
+    private volatile int drainsDone = 0;
+    private volatile int discardRequests = 0;
+    private volatile int discardsDone = 0;
+
+    private volatile boolean cancelled = false;
+    private volatile boolean paused = false;
+    private volatile boolean closed = false;
+    private volatile boolean lineFailed = false;
+    private volatile boolean inUtterance = false;
+
+    private volatile AudioFormat currentFormat =
+	new AudioFormat(8000f, 16, 1, true, true);
+    private volatile AudioFormat lineFormat = null;
+    private volatile SourceDataLine line = null;
+    private volatile float volume = 1.0f;
+    private Thread writer = null;
+
+    private volatile long firstSampleStart = 0;
+    private volatile long firstSampleLatency = -1;
+    private volatile int underruns = 0;
+    private long timeOffset = 0L;
+    private BulkTimer timer = new BulkTimer();
+
+
+    /**
+     * Creates a player with the default ring buffer size.
+     */
+    public RingBufferAudioPlayer() {
+	this(RING_SIZE);
+    }
+
+    /**
+     * Creates a player with the given ring buffer size.
+     *
+     * @param ringSize the size of the ring buffer in bytes; it is
+     *    rounded up to a power of two
+     */
+    public RingBufferAudioPlayer(int ringSize) {
+	int size = 1;
+	while (size < ringSize) {
+	    size <<= 1;
+	}
+	ring = new byte[size];
+	mask = size - 1;
+    }
+
+    /**
+     * Sets the audio format of the following audio.  If the format
+     * changes, the line is opened again with the new format once the
+     * audio already written has been played.
+     *
+     * @param format the audio format
+     */
+    public void setAudioFormat(AudioFormat format) {
+	currentFormat = format;
+    }
+
+    /**
+     * Gets the audio format for this player
+     *
+     * @return format the audio format
+     */
+    public AudioFormat getAudioFormat() {
+	return currentFormat;
+    }
+
+    /**
+     * Pauses audio output
+     */
+    public synchronized void pause() {
+	if (!paused) {
+	    paused = true;
+	    SourceDataLine l = line;
+	    if (l != null) {
+		l.stop();
+	    }
+	}
+    }
+
+    /**
+     * Resumes audio output
+     */
+    public synchronized void resume() {
+	if (paused) {
+	    paused = false;
+	    SourceDataLine l = line;
+	    if (!cancelled && l != null) {
+		l.start();
+	    }
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Cancels currently playing audio.  The line is stopped and
+     * flushed at once, and the audio in the ring buffer is dropped.
+     */
+    public void cancel() {
+	cancelled = true;
+	SourceDataLine l = line;
+	if (l != null) {
+	    l.stop();
+	    l.flush();
+	}
+	wakeWriter();
+	wakeProducer();
+	synchronized (this) {
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Prepares for another batch of output.  A line that could not be
+     * opened is tried again.  If the output was cancelled, waits for
+     * the player thread to drop what was written before the cancel,
+     * and starts the line again.
+     */
+    public void reset() {
+	timer.start("audioOut");
+	lineFailed = false;
+	if (cancelled) {
+	    int request = requestDiscard();
+	    synchronized (this) {
+		while (discardsDone != request && !closed) {
+		    try {
+			wait();
+		    } catch (InterruptedException ie) {
+			break;
+		    }
+		}
+		cancelled = false;
+		SourceDataLine l = line;
+		if (l != null && !paused) {
+		    l.start();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Closes this audio player.  Audio that has not been played yet
+     * is dropped.
+     */
+    public void close() {
+	closed = true;
+	SourceDataLine l = line;
+	if (l != null) {
+	    l.stop();
+	    l.flush();
+	}
+	wakeWriter();
+	wakeProducer();
+	synchronized (this) {
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Returns the current volume.
+     *
+     * @return the current volume (between 0 and 1)
+     */
+    public float getVolume() {
+	return volume;
+    }
+
+    /**
+     * Sets the current volume.
+     *
+     * @param volume  the current volume (between 0 and 1)
+     */
+    public void setVolume(float volume) {
+	if (volume > 1.0f) {
+	    volume = 1.0f;
+	}
+	if (volume < 0.0f) {
+	    volume = 0.0f;
+	}
+	this.volume = volume;
+	setVolume(line, volume);
+    }
+
+    /**
+     * Starts the output of a set of data.  Audio data for a single
+     * utterance should be grouped between begin/end pairs.  If the
+     * audio format has changed, waits for the audio of the old format
+     * to be played first.
+     *
+     * @param size the size of data between now and the end; not used
+     */
+    public void begin(int size) {
+	if (lineFormat != null && !currentFormat.matches(lineFormat)) {
+	    drain();
+	}
+	startWriter();
+	inUtterance = true;
+    }
+
+    /**
+     * Marks the end of a set of data.  The line is kept open, and the
+     * audio keeps playing while the next utterance is synthesized.
+     *
+     * @return <code>true</code> if the audio was output properly,
+     *    <code>false</code> if the output was cancelled
+     */
+    public boolean end() {
+	inUtterance = false;
+	return !cancelled && !closed && !lineFailed;
+    }
+
+    /**
+     * Waits for all queued audio to be played.
+     *
+     * @return <code>true</code> if the audio played to completion,
+     *    <code>false</code> if the audio was stopped
+     */
+    public boolean drain() {
+	if (writer != null && !cancelled && !closed) {
+	    int request = ++drainRequests;
+	    wakeWriter();
+	    synchronized (this) {
+		while (drainsDone - request < 0 && !cancelled && !closed
+			&& !lineFailed) {
+		    try {
+			wait();
+		    } catch (InterruptedException ie) {
+			break;
+		    }
+		}
+	    }
+	}
+	timer.stop("audioOut");
+	return !cancelled && !closed;
+    }
+
+    /**
+     * Gets the amount of audio played since the last resetTime.
+     *
+     * @return the amount of audio in milliseconds
+     */
+    public synchronized long getTime() {
+	SourceDataLine l = line;
+	if (l == null) {
+	    return 0L;
+	}
+	return (l.getMicrosecondPosition() - timeOffset) / 1000L;
+    }
+
+    /**
+     * Resets the audio clock
+     */
+    public synchronized void resetTime() {
+	SourceDataLine l = line;
+	timeOffset = (l == null) ? 0L : l.getMicrosecondPosition();
+    }
+
+    /**
+     * Writes the given bytes to the audio stream
+     *
+     * @param audioData audio data to write to the device
+     *
+     * @return <code>true</code> of the write completed successfully,
+     *       	<code> false </code>if the write was cancelled.
+     */
+    public boolean write(byte[] audioData) {
+	return write(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Writes the given bytes to the audio stream.  The bytes are
+     * copied into the ring buffer; the call only waits when the ring
+     * buffer is full.
+     *
+     * @param bytes audio data to write to the device
+     * @param offset the offset into the buffer
+     * @param size the size into the buffer
+     *
+     * @return <code>true</code> of the write completed successfully,
+     *       	<code> false </code>if the write was cancelled.
+     */
+    public boolean write(byte[] bytes, int offset, int size) {
+	startWriter();
+	while (size > 0) {
+	    if (cancelled || closed || lineFailed) {
+		return false;
+	    }
+	    long h = head;
+	    int free = ring.length - (int) (h - tail);
+	    if (free == 0) {
+		waitForRoom();
+		continue;
+	    }
+	    int start = (int) (h & mask);
+	    int count = Math.min(Math.min(size, free), ring.length - start);
+	    System.arraycopy(bytes, offset, ring, start, count);
+	    head = h + count;
+	    offset += count;
+	    size -= count;
+	    if (writerIdle) {
+		wakeWriter();
+	    }
+	}
+	return !cancelled && !closed && !lineFailed;
+    }
+
+    /**
+     * Starts the first sample timer
+     */
+    public void startFirstSampleTimer() {
+	timer.start("firstAudio");
+	firstSampleLatency = -1;
+	firstSampleStart = System.nanoTime();
+    }
+
+    /**
+     * Returns the time from the last call to
+     * <code>startFirstSampleTimer</code> to the first audio that was
+     * handed to the line after it.
+     *
+     * @return the latency in milliseconds, or -1 if no audio has been
+     *    handed to the line since the timer was started
+     */
+    public long getFirstSampleLatency() {
+	long latency = firstSampleLatency;
+	return latency < 0 ? -1 : latency / 1000L;
+    }
+
+    /**
+     * Returns the number of times the line ran out of audio in the
+     * middle of an utterance.
+     *
+     * @return the number of underruns
+     */
+    public int getUnderrunCount() {
+	return underruns;
+    }
+
+    /**
+     * Returns the number of bytes waiting in the ring buffer.
+     *
+     * @return the number of bytes
+     */
+    public int getBufferedBytes() {
+	return (int) (head - tail);
+    }
+
+    /**
+     * Returns the size of the ring buffer.
+     *
+     * @return the size in bytes
+     */
+    public int getBufferSize() {
+	return ring.length;
+    }
+
+    /**
+     * Returns the number of bytes waiting in the line buffer.
+     *
+     * @return the number of bytes
+     */
+    public int getLineBufferedBytes() {
+	SourceDataLine l = line;
+	if (l == null || !l.isOpen()) {
+	    return 0;
+	}
+	return l.getBufferSize() - l.available();
+    }
+
+    /**
+     * Shows metrics for this audio player
+     */
+    public void showMetrics() {
+	timer.show("RingBufferAudioPlayer");
+	if (LOGGER.isLoggable(Level.INFO)) {
+	    LOGGER.info("RingBufferAudioPlayer: underruns " + underruns
+		    + ", first sample " + firstSampleLatency + " us"
+		    + ", buffered " + getBufferedBytes() + " of " + ring.length
+		    + " bytes, line " + getLineBufferedBytes() + " bytes");
+	}
+    }
+
+    /**
+     * Returns the name of this audioplayer
+     *
+     * @return the name of the audio player
+     */
+    public String toString() {
+	return "RingBufferAudioPlayer";
+    }
+
+    /**
+     * Opens a line for the given format.  The line is started by the
+     * caller.  Subclasses can override this to use another line.
+     *
+     * @param format the format of the audio
+     * @param listener the listener to add to the line
+     *
+     * @return the opened line
+     *
+     * @throws LineUnavailableException if no line can be opened
+     */
+    protected SourceDataLine openLine(AudioFormat format,
+	    LineListener listener) throws LineUnavailableException {
+	DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+	SourceDataLine l = (SourceDataLine) AudioSystem.getLine(info);
+	l.addLineListener(listener);
+	l.open(format, LINE_BUFFER_SIZE);
+	return l;
+    }
+
+    /**
+     * Starts the player thread if it is not running yet.
+     */
+    private synchronized void startWriter() {
+	if (writer == null && !closed) {
+	    writer = new Thread(new LineWriter(), "FreeTTS audio writer");
+	    writer.setDaemon(true);
+	    writer.start();
+	}
+    }
+
+    /**
+     * Asks the player thread to drop the audio in the ring buffer.
+     *
+     * @return the number of the request
+     */
+    private int requestDiscard() {
+	int request = ++discardRequests;
+	wakeWriter();
+	return request;
+    }
+
+    /**
+     * Waits until there is room in the ring buffer, or the output is
+     * stopped.  Called by the producer.
+     */
+    private void waitForRoom() {
+	waitingProducer = Thread.currentThread();
+	while (head - tail == ring.length && !cancelled && !closed
+		&& !lineFailed) {
+	    LockSupport.park(this);
+	}
+	waitingProducer = null;
+    }
+
+    /**
+     * Wakes the producer if it waits for room.
+     */
+    private void wakeProducer() {
+	Thread t = waitingProducer;
+	if (t != null) {
+	    LockSupport.unpark(t);
+	}
+    }
+
+    /**
+     * Wakes the player thread.
+     */
+    private void wakeWriter() {
+	Thread t = writer;
+	if (t != null) {
+	    LockSupport.unpark(t);
+	}
+    }
+
+    /**
+     * Sets the volume on the given line
+     *
+     * @param line the line to set the volume on
+     * @param vol the volume (range 0 to 1)
+     */
+    private void setVolume(SourceDataLine line, float vol) {
+	if (line != null &&
+            line.isControlSupported (FloatControl.Type.MASTER_GAIN)) {
+	    FloatControl volumeControl =
+		(FloatControl) line.getControl (FloatControl.Type.MASTER_GAIN);
+	    float range = volumeControl.getMaximum() -
+			  volumeControl.getMinimum();
+	    volumeControl.setValue(vol * range + volumeControl.getMinimum());
+	}
+    }
+
+    /**
+     * Moves the audio from the ring buffer to the line, and carries
+     * out the drain and discard requests.
+     */
+    private class LineWriter implements Runnable, LineListener {
+	private boolean wrote = false;
+
+	/**
+	 * Runs until the player is closed.
+	 */
+	public void run() {
+	    while (!closed) {
+		if (discardsDone != discardRequests) {
+		    int request = discardRequests;
+		    tail = head;
+		    discardsDone = request;
+		    signal();
+		    continue;
+		}
+		long available = head - tail;
+		if (available == 0 || cancelled) {
+		    if (cancelled) {
+			tail = head;
+			wakeProducer();
+		    } else if (drainsDone != drainRequests) {
+			int request = drainRequests;
+			SourceDataLine l = line;
+			if (l != null && l.isOpen()) {
+			    l.drain();
+			}
+			drainsDone = request;
+			wrote = false;
+			signal();
+			continue;
+		    }
+		    idle();
+		    continue;
+		}
+		if (!ensureLine()) {
+		    continue;
+		}
+		writeChunk((int) Math.min(available, CHUNK_SIZE));
+	    }
+	    SourceDataLine l = line;
+	    line = null;
+	    if (l != null) {
+		l.close();
+	    }
+	    signal();
+	}
+
+	/**
+	 * Hands the next bytes of the ring buffer to the line.
+	 *
+	 * @param count the most bytes to hand over
+	 */
+	private void writeChunk(int count) {
+	    SourceDataLine l = line;
+	    if (wrote && inUtterance && l.available() >= l.getBufferSize()) {
+		underruns++;
+		if (LOGGER.isLoggable(Level.FINE)) {
+		    LOGGER.fine("underrun");
+		}
+	    }
+	    long t = tail;
+	    int start = (int) (t & mask);
+	    count = Math.min(count, ring.length - start);
+	    int written = l.write(ring, start, count);
+	    if (written > 0) {
+		if (firstSampleStart != 0) {
+		    firstSampleLatency =
+			(System.nanoTime() - firstSampleStart) / 1000L;
+		    firstSampleStart = 0;
+		    timer.stop("firstAudio");
+		}
+		wrote = true;
+		tail = t + written;
+		wakeProducer();
+	    }
+	}
+
+	/**
+	 * Makes sure a line is open for the current format.
+	 *
+	 * @return <code>true</code> if a line is open
+	 */
+	private boolean ensureLine() {
+	    AudioFormat format = currentFormat;
+	    SourceDataLine l = line;
+	    if (l != null && l.isOpen() && format.matches(lineFormat)) {
+		return true;
+	    }
+	    if (l != null) {
+		line = null;
+		l.close();
+	    }
+	    try {
+		l = openLine(format, this);
+		lineFormat = format;
+		setVolume(l, volume);
+		line = l;
+		resetTime();
+		if (!paused) {
+		    l.start();
+		}
+		lineFailed = false;
+		wrote = false;
+		return true;
+	    } catch (LineUnavailableException lue) {
+		LOGGER.warning("LINE UNAVAILABLE: Format is " + format);
+	    } catch (IllegalArgumentException iae) {
+		LOGGER.warning("Unsupported audio format " + format);
+	    }
+	    lineFailed = true;
+	    tail = head;
+	    wakeProducer();
+	    signal();
+	    return false;
+	}
+
+	/**
+	 * Waits until there is something to do.
+	 */
+	private void idle() {
+	    writerIdle = true;
+	    if (head == tail && discardsDone == discardRequests
+		    && drainsDone == drainRequests && !closed) {
+		LockSupport.park(this);
+	    }
+	    writerIdle = false;
+	}
+
+	/**
+	 * Wakes the threads waiting for a request to be done.
+	 */
+	private void signal() {
+	    synchronized (RingBufferAudioPlayer.this) {
+		RingBufferAudioPlayer.this.notifyAll();
+	    }
+	}
+
+	/**
+	 * Releases the waiting threads when the line is stopped or
+	 * closed, so that they can check why.
+	 *
+	 * @param event the line event
+	 */
+	public void update(LineEvent event) {
+	    if (event.getType().equals(LineEvent.Type.CLOSE)
+		    || event.getType().equals(LineEvent.Type.STOP)) {
+		wakeWriter();
+		signal();
+	    }
+	}
+    }
+}
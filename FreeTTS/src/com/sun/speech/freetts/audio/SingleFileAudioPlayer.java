@@ -127,6 +127,16 @@ public class SingleFileAudioPlayer implements AudioPlayer {
     public void startFirstSampleTimer() {
     }
 
+    /**
+     * Returns the first sample latency, which this player does not
+     * measure.
+     *
+     * @return -1
+     */
+    public long getFirstSampleLatency() {
+	return -1;
+    }
+
     /**
      * Closes this audio player
      */
@@ -0,0 +1,399 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.cart;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.sun.speech.freetts.Item;
+import com.sun.speech.freetts.PathExtractor;
+import com.sun.speech.freetts.PathExtractorImpl;
+
+/**
+ * A CART that has been compiled into flat arrays for fast
+ * interpretation.  A <code>CompiledCART</code> is built from a
+ * {@link CARTImpl} and gives exactly the same interpretations, but
+ * instead of walking <code>Node</code> objects that convert the
+ * feature and the node value for every comparison, it works on
+ * arrays that hold, for each node, its type, the index of its
+ * feature, its value in a form ready for comparison and the index of
+ * the node to go to if the comparison fails:
+ *
+ * <ul>
+ *   <li>Each distinct feature path is extracted by one shared
+ *     <code>PathExtractor</code>.
+ *   <li>The values of <code>&lt;</code> and <code>&gt;</code> nodes
+ *     are parsed to floats once.  Integer features are compared
+ *     without being converted to strings.
+ *   <li>The values of <code>=</code> nodes are interned and
+ *     numbered.  Integer and Float features are compared with the
+ *     number the value stands for, if any, without creating a string.
+ *   <li>The regular expressions of <code>MATCHES</code> nodes are
+ *     compiled once; those without special characters are compared as
+ *     plain strings.
+ * </ul>
+ *
+ * <p>When the CART logger is set to <code>FINER</code>, the original
+ * nodes are interpreted instead so that each decision is traced.
+ */
+public class CompiledCART implements CART {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(CARTImpl.class.getName());
+
+    /**
+     * Node types.
+     */
+    private final static byte LEAF = 0;
+    private final static byte LESS_THAN = 1;
+    private final static byte GREATER_THAN = 2;
+    private final static byte EQUALS = 3;
+    private final static byte MATCHES = 4;
+    private final static byte LITERAL = 5;
+    private final static byte INTERPRETED = 6;
+
+    /**
+     * Flags of an <code>=</code> node: the value is the string form
+     * of an Integer or of a Float.
+     */
+    private final static byte INTEGER_FORM = 1;
+    private final static byte FLOAT_FORM = 2;
+
+    /**
+     * The regular expression characters that make a MATCHES value
+     * more than a literal string.
+     */
+    private final static String REGEX_CHARS = "\\[](){}.*+?^$|";
+
+    private final CARTImpl source;
+
+    private final byte[] types;
+    private final int[] features;
+    private final int[] values;
+    private final int[] qfalse;
+    private final float[] numbers;
+    private final int[] integers;
+    private final byte[] forms;
+
+    private final PathExtractor[] paths;
+    private final String[] strings;
+    private final Pattern[] patterns;
+    private final Object[] leaves;
+
+    /**
+     * Compiles the given CART.
+     *
+     * @param cart the CART to compile
+     */
+    public CompiledCART(CARTImpl cart) {
+	source = cart;
+	CARTImpl.Node[] nodes = cart.cart;
+	int numNodes = nodes.length;
+
+	types = new byte[numNodes];
+	features = new int[numNodes];
+	values = new int[numNodes];
+	qfalse = new int[numNodes];
+	numbers = new float[numNodes];
+	integers = new int[numNodes];
+	forms = new byte[numNodes];
+
+	Map<String, Integer> pathIndex = new HashMap<String, Integer>();
+	List<PathExtractor> pathList = new ArrayList<PathExtractor>();
+	Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+	List<String> stringList = new ArrayList<String>();
+	List<Pattern> patternList = new ArrayList<Pattern>();
+	List<Object> leafList = new ArrayList<Object>();
+
+	for (int i = 0; i < numNodes; i++) {
+	    CARTImpl.Node node = nodes[i];
+	    if (node instanceof CARTImpl.LeafNode) {
+		types[i] = LEAF;
+		values[i] = leafList.size();
+		leafList.add(node.getValue());
+		continue;
+	    }
+
+	    CARTImpl.DecisionNode decision = (CARTImpl.DecisionNode) node;
+	    qfalse[i] = decision.qfalse;
+
+	    String feature = decision.getFeature();
+	    Integer index = pathIndex.get(feature);
+	    if (index == null) {
+		index = new Integer(pathList.size());
+		pathIndex.put(feature, index);
+		pathList.add(new PathExtractorImpl(feature, true));
+	    }
+	    features[i] = index.intValue();
+
+	    if (decision.qtrue != i + 1) {
+		types[i] = INTERPRETED;
+	    } else if (decision instanceof CARTImpl.MatchingNode) {
+		String regex = node.getValue().toString();
+		if (isLiteral(regex)) {
+		    types[i] = LITERAL;
+		    values[i] = intern(regex, stringIndex, stringList);
+		} else {
+		    types[i] = MATCHES;
+		    values[i] = patternList.size();
+		    patternList.add(((CARTImpl.MatchingNode) decision).pattern);
+		}
+	    } else {
+		compileComparison(i, (CARTImpl.ComparisonNode) decision,
+			stringIndex, stringList);
+	    }
+	}
+
+	paths = pathList.toArray(new PathExtractor[pathList.size()]);
+	strings = stringList.toArray(new String[stringList.size()]);
+	patterns = patternList.toArray(new Pattern[patternList.size()]);
+	leaves = leafList.toArray();
+    }
+
+    /**
+     * Creates a compiled CART by reading the text form of a CART from
+     * the given URL.
+     *
+     * @param url the location of the CART data
+     *
+     * @throws IOException if errors occur while reading the data
+     */
+    public CompiledCART(URL url) throws IOException {
+	this(new CARTImpl(url));
+    }
+
+    /**
+     * Loads a CART from the input byte buffer and compiles it.  The
+     * binary form is the one written by <code>dumpBinary</code>.
+     *
+     * @param bb the byte buffer
+     *
+     * @return the compiled CART
+     *
+     * @throws IOException if an error occurs during input
+     */
+    public static CART loadBinary(ByteBuffer bb) throws IOException {
+	return new CompiledCART((CARTImpl) CARTImpl.loadBinary(bb));
+    }
+
+    /**
+     * Loads a CART from the input stream and compiles it.  The binary
+     * form is the one written by <code>dumpBinary</code>.
+     *
+     * @param is the input stream
+     *
+     * @return the compiled CART
+     *
+     * @throws IOException if an error occurs during input
+     */
+    public static CART loadBinary(DataInputStream is) throws IOException {
+	return new CompiledCART((CARTImpl) CARTImpl.loadBinary(is));
+    }
+
+    /**
+     * Dumps this CART to the output stream, in the same form as
+     * the CART it was compiled from.
+     *
+     * @param os the output stream
+     *
+     * @throws IOException if an error occurs during output
+     */
+    public void dumpBinary(DataOutputStream os) throws IOException {
+	source.dumpBinary(os);
+    }
+
+    /**
+     * Passes the given item through this CART and returns the
+     * interpretation.
+     *
+     * @param item the item to analyze
+     *
+     * @return the interpretation
+     */
+    public Object interpret(Item item) {
+	if (LOGGER.isLoggable(Level.FINER)) {
+	    return source.interpret(item);
+	}
+
+	int i = 0;
+	while (true) {
+	    byte type = types[i];
+	    if (type == LEAF) {
+		return leaves[values[i]];
+	    }
+	    Object val = paths[features[i]].findFeature(item);
+	    boolean yes;
+
+	    switch (type) {
+	    case LESS_THAN:
+		yes = toFloat(val) < numbers[i];
+		break;
+	    case GREATER_THAN:
+		yes = toFloat(val) > numbers[i];
+		break;
+	    case EQUALS:
+		yes = isEqual(i, val);
+		break;
+	    case LITERAL:
+		yes = strings[values[i]].equals((String) val);
+		break;
+	    case MATCHES:
+		yes = patterns[values[i]].matcher((String) val).matches();
+		break;
+	    default:
+		i = ((CARTImpl.DecisionNode) source.cart[i]).getNextNode(val);
+		continue;
+	    }
+	    i = yes ? i + 1 : qfalse[i];
+	}
+    }
+
+    /**
+     * Converts a feature to a float the way
+     * <code>CARTImpl.ComparisonNode</code> does.
+     *
+     * @param val the feature
+     *
+     * @return the float value of the feature
+     */
+    private static float toFloat(Object val) {
+	if (val instanceof Float) {
+	    return ((Float) val).floatValue();
+	} else if (val instanceof Integer) {
+	    // the same as parsing the string form
+	    return (float) ((Integer) val).intValue();
+	} else {
+	    return Float.parseFloat(val.toString());
+	}
+    }
+
+    /**
+     * Determines if the string form of a feature is the value of
+     * the given <code>=</code> node.
+     *
+     * @param i the node
+     * @param val the feature
+     *
+     * @return <code>true</code> if the feature equals the value
+     */
+    private boolean isEqual(int i, Object val) {
+	if (val instanceof String) {
+	    return strings[values[i]].equals(val);
+	} else if (val instanceof Integer) {
+	    return (forms[i] & INTEGER_FORM) != 0
+		&& ((Integer) val).intValue() == integers[i];
+	} else if (val instanceof Float) {
+	    return (forms[i] & FLOAT_FORM) != 0
+		&& Float.floatToIntBits(((Float) val).floatValue())
+		    == Float.floatToIntBits(numbers[i]);
+	} else {
+	    return strings[values[i]].equals(val.toString());
+	}
+    }
+
+    /**
+     * Compiles a comparison node.
+     *
+     * @param i the index of the node
+     * @param node the node
+     * @param stringIndex the ids of the interned strings
+     * @param stringList the interned strings
+     */
+    private void compileComparison(int i, CARTImpl.ComparisonNode node,
+	    Map<String, Integer> stringIndex, List<String> stringList) {
+	Object value = node.getValue();
+	String comparisonType = node.comparisonType;
+
+	if (comparisonType.equals(CARTImpl.ComparisonNode.EQUALS)) {
+	    String s = value.toString();
+	    types[i] = EQUALS;
+	    values[i] = intern(s, stringIndex, stringList);
+	    try {
+		int n = Integer.parseInt(s);
+		if (Integer.toString(n).equals(s)) {
+		    integers[i] = n;
+		    forms[i] |= INTEGER_FORM;
+		}
+	    } catch (NumberFormatException nfe) {
+		// not an Integer
+	    }
+	    try {
+		float f = Float.parseFloat(s);
+		if (Float.toString(f).equals(s)) {
+		    numbers[i] = f;
+		    forms[i] |= FLOAT_FORM;
+		}
+	    } catch (NumberFormatException nfe) {
+		// not a Float
+	    }
+	    return;
+	}
+
+	try {
+	    if (value instanceof Float) {
+		numbers[i] = ((Float) value).floatValue();
+	    } else {
+		numbers[i] = Float.parseFloat(value.toString());
+	    }
+	} catch (NumberFormatException nfe) {
+	    // fails every time the node is reached; leave it to the node
+	    types[i] = INTERPRETED;
+	    return;
+	}
+	if (comparisonType.equals(CARTImpl.ComparisonNode.LESS_THAN)) {
+	    types[i] = LESS_THAN;
+	} else {
+	    types[i] = GREATER_THAN;
+	}
+    }
+
+    /**
+     * Returns the id of a string, adding it to the strings if it is
+     * new.
+     *
+     * @param s the string
+     * @param stringIndex the ids of the interned strings
+     * @param stringList the interned strings
+     *
+     * @return the id of the string
+     */
+    private static int intern(String s, Map<String, Integer> stringIndex,
+	    List<String> stringList) {
+	Integer id = stringIndex.get(s);
+	if (id == null) {
+	    id = new Integer(stringList.size());
+	    stringIndex.put(s, id);
+	    stringList.add(s.intern());
+	}
+	return id.intValue();
+    }
+
+    /**
+     * Determines if a regular expression only matches itself.
+     *
+     * @param regex the regular expression
+     *
+     * @return <code>true</code> if there are no special characters
+     */
+    private static boolean isLiteral(String regex) {
+	for (int i = 0; i < regex.length(); i++) {
+	    if (REGEX_CHARS.indexOf(regex.charAt(i)) >= 0) {
+		return false;
+	    }
+	}
+	return true;
+    }
+}
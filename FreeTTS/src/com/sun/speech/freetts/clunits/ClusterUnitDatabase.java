@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -34,6 +35,7 @@ import java.util.StringTokenizer;
 
 import com.sun.speech.freetts.cart.CART;
 import com.sun.speech.freetts.cart.CARTImpl;
+import com.sun.speech.freetts.cart.CompiledCART;
 import com.sun.speech.freetts.relp.SampleInfo;
 import com.sun.speech.freetts.relp.SampleSet;
 import com.sun.speech.freetts.util.BulkTimer;
@@ -50,6 +52,36 @@ import com.sun.speech.freetts.util.Utilities;
  * source. The binary form of the database loads much faster and
  * therefore is generally used in a deployed system.
  *
+ * <p>When the binary database is a file, it is mapped into memory
+ * and, by default, the units, unit types and samples are read in
+ * place from the mapped file instead of being copied to the heap.
+ * This makes loading fast, keeps the heap small for large voices and
+ * lets several processes share the voice data through the page
+ * cache.  To copy the data to the heap instead, use:
+ *
+ * <pre>
+ *   -Dcom.sun.speech.freetts.clunits.readInPlace=false
+ * </pre>
+ *
+ * <p>The join costs computed during unit selection are remembered
+ * for the most recently used pairs of units.  The number of pairs
+ * can be set with the following property; 0 turns the cache off:
+ *
+ * <pre>
+ *   -Dcom.sun.speech.freetts.clunits.joinCostCacheSize=65536
+ * </pre>
+ *
+ * <p>The units selected for recent phrases can also be remembered,
+ * so that phrases that recur in different utterances are not
+ * searched for again.  A reused phrase keeps the units it was given
+ * the first time, and only its joins to the neighbouring segments
+ * are chosen anew, so the selection may differ slightly from a full
+ * search.  The cache is off by default; it is turned on by giving
+ * the number of phrases to keep:
+ *
+ * <pre>
+ *   -Dcom.sun.speech.freetts.clunits.phraseCacheSize=1024
+ * </pre>
  */
 public class ClusterUnitDatabase {
 
@@ -57,8 +89,19 @@ public class ClusterUnitDatabase {
 
     private DatabaseClusterUnit[] units;
     private UnitType[] unitTypes;
+
+    /**
+     * When reading in place, the units as six ints each, and the
+     * unit types with the offset of each one; otherwise null.
+     */
+    private IntBuffer unitData;
+    private ByteBuffer unitTypeData;
+    private int[] unitTypeOffsets;
+
     private SampleSet sts;
     private SampleSet mcep;
+    private JoinCostCache joinCostCache;
+    private PhraseCache phraseCache;
     
     private UnitOriginInfo[] unitOrigins; // for debugging
 
@@ -69,7 +112,7 @@ public class ClusterUnitDatabase {
     private int[] joinWeights;
     private int joinWeightShift;
 
-    private Map cartMap = new HashMap();
+    private Map<String, CART> cartMap = new HashMap<String, CART>();
     private CART defaultCart = null;
 
     private transient List unitList;
@@ -79,6 +122,34 @@ public class ClusterUnitDatabase {
     private final static int MAGIC = 0xf0cacc1a;
     private final static int VERSION = 0x1000;
 
+    /**
+     * The number of ints stored for each unit.
+     */
+    private final static int UNIT_INTS = 6;
+
+    /**
+     * Read mapped databases in place?
+     */
+    private final static boolean READ_IN_PLACE =
+	Utilities.getProperty("com.sun.speech.freetts.clunits.readInPlace",
+		"true").equals("true");
+
+    /**
+     * The number of unit pairs whose join cost is remembered.
+     */
+    private final static int JOIN_COST_CACHE_SIZE =
+	Utilities.getInteger(
+		"com.sun.speech.freetts.clunits.joinCostCacheSize",
+		65536).intValue();
+
+    /**
+     * The number of phrases whose units are remembered.
+     */
+    private final static int PHRASE_CACHE_SIZE =
+	Utilities.getInteger(
+		"com.sun.speech.freetts.clunits.phraseCacheSize",
+		0).intValue();
+
 
     /**
      * Creates the UnitDatabase from the given input stream.
@@ -107,6 +178,13 @@ public class ClusterUnitDatabase {
     } catch (IOException ioe) {
         // Silently ignore if you cannot load the debug info
     }
+	if ((optimalCoupling == 1 || optimalCoupling == 2)
+		&& JOIN_COST_CACHE_SIZE > 0) {
+	    joinCostCache = new JoinCostCache(JOIN_COST_CACHE_SIZE);
+	}
+	if (PHRASE_CACHE_SIZE > 0) {
+	    phraseCache = new PhraseCache(PHRASE_CACHE_SIZE);
+	}
 	BulkTimer.LOAD.stop("ClusterUnitDatabase");
     }
 
@@ -120,6 +198,9 @@ public class ClusterUnitDatabase {
      * @return the begininning sample index
      */
     int getStart(int unitEntry) {
+	if (unitData != null) {
+	    return unitData.get(unitEntry * UNIT_INTS + 2);
+	}
 	return units[unitEntry].start;
     }
 
@@ -132,6 +213,9 @@ public class ClusterUnitDatabase {
      * @return the ending sample index
      */
     int getEnd(int unitEntry) {
+	if (unitData != null) {
+	    return unitData.get(unitEntry * UNIT_INTS + 3);
+	}
 	return units[unitEntry].end;
     }
 
@@ -143,6 +227,9 @@ public class ClusterUnitDatabase {
      * @return the phone for the entry
      */
     int getPhone(int unitEntry) {
+	if (unitData != null) {
+	    return unitData.get(unitEntry * UNIT_INTS + 1);
+	}
 	return units[unitEntry].phone;
     }
 
@@ -154,7 +241,7 @@ public class ClusterUnitDatabase {
      * @return the cart 
      */
     CART getTree(String unitType) {
-	CART cart =  (CART) cartMap.get(unitType);
+	CART cart =  cartMap.get(unitType);
 
 	if (cart == null) {
 	    System.err.println("ClusterUnitDatabase: can't find tree for " 
@@ -176,11 +263,11 @@ public class ClusterUnitDatabase {
 	int start, end, mid, c;
 
 	start = 0;
-	end = unitTypes.length;
+	end = getNumberOfUnitTypes();
 
 	while (start < end) {
 	    mid = (start + end) / 2;
-	    c = unitTypes[mid].getName().compareTo(name);
+	    c = compareUnitTypeName(mid, name);
 	    if (c == 0) {
 		return mid;
 	    } else if (c > 0) {
@@ -206,12 +293,100 @@ public class ClusterUnitDatabase {
 	    error("getUnitIndex: can't find unit type " + unitType);
 	    i = 0;
 	}
-	if (instance >= unitTypes[i].getCount()) {
+	if (instance >= getUnitTypeCount(i)) {
 	    error("getUnitIndex: can't find instance " 
 		    + instance + " of " + unitType);
 	    instance = 0;
 	}
-	return unitTypes[i].getStart() + instance;
+	return getUnitTypeStart(i) + instance;
+    }
+
+    /**
+     * Returns the number of unit types.
+     *
+     * @return the number of unit types
+     */
+    private int getNumberOfUnitTypes() {
+	return unitTypeOffsets != null
+	    ? unitTypeOffsets.length : unitTypes.length;
+    }
+
+    /**
+     * Returns the name of a unit type.
+     *
+     * @param type the index of the unit type
+     *
+     * @return the name
+     */
+    private String getUnitTypeName(int type) {
+	if (unitTypeOffsets == null) {
+	    return unitTypes[type].getName();
+	}
+	int offset = unitTypeOffsets[type];
+	int length = unitTypeData.getShort(offset);
+	char[] chars = new char[length];
+	for (int i = 0; i < length; i++) {
+	    chars[i] = unitTypeData.getChar(offset + 2 + 2 * i);
+	}
+	return new String(chars);
+    }
+
+    /**
+     * Compares the name of a unit type with the given name, the same
+     * way <code>String.compareTo</code> does, without creating the
+     * name of the unit type.
+     *
+     * @param type the index of the unit type
+     * @param name the name to compare to
+     *
+     * @return less than, equal to or greater than zero if the name of
+     *    the unit type is less than, equal to or greater than the
+     *    given name
+     */
+    private int compareUnitTypeName(int type, String name) {
+	if (unitTypeOffsets == null) {
+	    return unitTypes[type].getName().compareTo(name);
+	}
+	int offset = unitTypeOffsets[type];
+	int length = unitTypeData.getShort(offset);
+	int common = Math.min(length, name.length());
+	for (int i = 0; i < common; i++) {
+	    int c = unitTypeData.getChar(offset + 2 + 2 * i) - name.charAt(i);
+	    if (c != 0) {
+		return c;
+	    }
+	}
+	return length - name.length();
+    }
+
+    /**
+     * Returns the index of the first unit of a unit type.
+     *
+     * @param type the index of the unit type
+     *
+     * @return the index of the first unit
+     */
+    private int getUnitTypeStart(int type) {
+	if (unitTypeOffsets == null) {
+	    return unitTypes[type].getStart();
+	}
+	int offset = unitTypeOffsets[type];
+	return unitTypeData.getInt(offset + 2 + 2 * unitTypeData.getShort(offset));
+    }
+
+    /**
+     * Returns the number of units of a unit type.
+     *
+     * @param type the index of the unit type
+     *
+     * @return the number of units
+     */
+    private int getUnitTypeCount(int type) {
+	if (unitTypeOffsets == null) {
+	    return unitTypes[type].getCount();
+	}
+	int offset = unitTypeOffsets[type];
+	return unitTypeData.getInt(offset + 6 + 2 * unitTypeData.getShort(offset));
     }
 
 
@@ -248,6 +423,9 @@ public class ClusterUnitDatabase {
      * @return the next unit
      */
     int getNextUnit(int which) {
+	if (unitData != null) {
+	    return unitData.get(which * UNIT_INTS + 5);
+	}
 	return units[which].next;
     }
 
@@ -259,6 +437,9 @@ public class ClusterUnitDatabase {
      * @return the previous unit
      */
     int getPrevUnit(int which) {
+	if (unitData != null) {
+	    return unitData.get(which * UNIT_INTS + 4);
+	}
 	return units[which].prev;
     }
 
@@ -273,6 +454,10 @@ public class ClusterUnitDatabase {
      *     equal; otherwise return <code>false</code> 
      */
     boolean isUnitTypeEqual(int unitA, int unitB)  {
+	if (unitData != null) {
+	    return unitData.get(unitA * UNIT_INTS)
+		== unitData.get(unitB * UNIT_INTS);
+	}
 	return units[unitA].type == units[unitB].type;
 	// String nameA = units[unitA].getName();
 	// String nameB = units[unitB].getName();
@@ -328,9 +513,25 @@ public class ClusterUnitDatabase {
      * @return the unit 
      */
     DatabaseClusterUnit getUnit(int which) {
+	if (unitData != null) {
+	    int i = which * UNIT_INTS;
+	    return new DatabaseClusterUnit(unitData.get(i),
+		    unitData.get(i + 1), unitData.get(i + 2),
+		    unitData.get(i + 3), unitData.get(i + 4),
+		    unitData.get(i + 5));
+	}
 	return units[which];
     }
 
+    /**
+     * Returns the number of units in the database.
+     *
+     * @return the number of units
+     */
+    int getNumberOfUnits() {
+	return unitData != null ? unitData.limit() / UNIT_INTS : units.length;
+    }
+
     /**
      * Looks up the origin info for the unit with the given index.
      *
@@ -383,6 +584,25 @@ public class ClusterUnitDatabase {
 	return mcep;
     }
 
+    /**
+     * Gets the cache of join costs.
+     *
+     * @return the join cost cache, or null if join costs are not
+     *    cached
+     */
+    JoinCostCache getJoinCostCache() {
+	return joinCostCache;
+    }
+
+    /**
+     * Gets the cache of the units selected for phrases.
+     *
+     * @return the phrase cache, or null if phrases are not cached
+     */
+    PhraseCache getPhraseCache() {
+	return phraseCache;
+    }
+
     /**
      * Determines if the application of the given join weights could
      * be applied  as a simple right-shift. If so return the shift
@@ -513,7 +733,7 @@ public class ClusterUnitDatabase {
 	    } else if (tag.equals("CART")) {
 		String name = tokenizer.nextToken();
 		int nodes = Integer.parseInt(tokenizer.nextToken());
-		CART cart = new CARTImpl(reader, nodes);
+		CART cart = new CompiledCART(new CARTImpl(reader, nodes));
 		cartMap.put(name, cart);
 
 		if (defaultCart == null) {
@@ -553,14 +773,83 @@ public class ClusterUnitDatabase {
 
 	    MappedByteBuffer bb = 
 		fc.map(FileChannel.MapMode.READ_ONLY, 0, (int) fc.size());
-	    bb.load();
-	    loadBinary(bb);
+	    if (READ_IN_PLACE) {
+		mapBinary(bb);
+	    } else {
+		bb.load();
+		loadBinary(bb);
+	    }
 	    is.close();
 	} else {
 	    loadBinary(new DataInputStream(is));
 	}
     }
 
+    /**
+     * Reads the database in place from the given byte buffer.  Only
+     * the settings, the offsets of the unit types and samples, and the
+     * CARTs are loaded onto the heap; everything else is read from the
+     * buffer when it is needed.
+     *
+     * @param bb the byte buffer holding the db; its contents must not
+     *    change
+     *
+     * @throws IOException if there is trouble opening the DB
+     */
+    private void mapBinary(ByteBuffer bb) throws IOException {
+
+	if (bb.getInt() != MAGIC)  {
+	    throw new Error("Bad magic in db");
+	}
+	if (bb.getInt() != VERSION)  {
+	    throw new Error("Bad VERSION in db");
+	}
+
+	continuityWeight = bb.getInt();
+	optimalCoupling = bb.getInt();
+	extendSelections = bb.getInt();
+	joinMethod = bb.getInt();
+	joinWeightShift = bb.getInt();
+
+	int weightLength = bb.getInt();
+	joinWeights = new int[weightLength];
+	for (int i = 0; i < joinWeights.length; i++) {
+	    joinWeights[i] = bb.getInt();
+	}
+
+	int unitsLength = bb.getInt();
+	ByteBuffer unitBytes = bb.slice();
+	unitBytes.limit(unitsLength * UNIT_INTS * 4);
+	unitData = unitBytes.asIntBuffer();
+	bb.position(bb.position() + unitsLength * UNIT_INTS * 4);
+
+	int unitTypesLength = bb.getInt();
+	unitTypeData = bb.slice();
+	unitTypeOffsets = new int[unitTypesLength];
+	int offset = 0;
+	for (int i = 0; i < unitTypesLength; i++) {
+	    unitTypeOffsets[i] = offset;
+	    offset += 2 + 2 * unitTypeData.getShort(offset) + 8;
+	}
+	unitTypeData.limit(offset);
+	bb.position(bb.position() + offset);
+
+	sts = SampleSet.mapBinary(bb);
+	mcep = SampleSet.mapBinary(bb);
+
+	int numCarts = bb.getInt();
+	cartMap = new HashMap<String, CART>();
+	for (int i = 0; i < numCarts; i++) {
+	    String name = Utilities.getString(bb);
+	    CART cart = CompiledCART.loadBinary(bb);
+	    cartMap.put(name, cart);
+
+	    if (defaultCart == null) {
+		defaultCart = cart;
+	    }
+	}
+    }
+
     /**
      * Loads the database from the given byte buffer.
      *
@@ -604,10 +893,10 @@ public class ClusterUnitDatabase {
 	mcep = new SampleSet(bb);
 
 	int numCarts = bb.getInt();
-	cartMap = new HashMap();
+	cartMap = new HashMap<String, CART>();
 	for (int i = 0; i < numCarts; i++) {
 	    String name = Utilities.getString(bb);
-	    CART cart = CARTImpl.loadBinary(bb);
+	    CART cart = CompiledCART.loadBinary(bb);
 	    cartMap.put(name, cart);
 
 	    if (defaultCart == null) {
@@ -659,10 +948,10 @@ public class ClusterUnitDatabase {
 	mcep = new SampleSet(is);
 
 	int numCarts = is.readInt();
-	cartMap = new HashMap();
+	cartMap = new HashMap<String, CART>();
 	for (int i = 0; i < numCarts; i++) {
 	    String name = Utilities.getString(is);
-	    CART cart = CARTImpl.loadBinary(is);
+	    CART cart = CompiledCART.loadBinary(is);
 	    cartMap.put(name, cart);
 
 	    if (defaultCart == null) {
@@ -682,7 +971,7 @@ public class ClusterUnitDatabase {
      */
     private void loadUnitOrigins(InputStream is)  throws IOException
     {
-        unitOrigins = new UnitOriginInfo[units.length];
+        unitOrigins = new UnitOriginInfo[getNumberOfUnits()];
         BufferedReader in = new BufferedReader(new InputStreamReader(is));
         
         String currentLine = null;
@@ -728,22 +1017,24 @@ public class ClusterUnitDatabase {
 		os.writeInt(joinWeights[i]);
 	    }
 
-	    os.writeInt(units.length);
-	    for (int i = 0; i < units.length; i++) {
-		units[i].dumpBinary(os);
+	    os.writeInt(getNumberOfUnits());
+	    for (int i = 0; i < getNumberOfUnits(); i++) {
+		getUnit(i).dumpBinary(os);
 	    }
 
-	    os.writeInt(unitTypes.length);
-	    for (int i = 0; i < unitTypes.length; i++) {
-		unitTypes[i].dumpBinary(os);
+	    os.writeInt(getNumberOfUnitTypes());
+	    for (int i = 0; i < getNumberOfUnitTypes(); i++) {
+		Utilities.outString(os, getUnitTypeName(i));
+		os.writeInt(getUnitTypeStart(i));
+		os.writeInt(getUnitTypeCount(i));
 	    }
 	    sts.dumpBinary(os);
 	    mcep.dumpBinary(os);
 
 	    os.writeInt(cartMap.size());
-	    for (Iterator i = cartMap.keySet().iterator(); i.hasNext();) {
-		String name = (String) i.next();
-		CART cart =  (CART) cartMap.get(name);
+	    for (Iterator<String> i = cartMap.keySet().iterator(); i.hasNext();) {
+		String name = i.next();
+		CART cart =  cartMap.get(name);
 
 		Utilities.outString(os, name);
 		cart.dumpBinary(os);
@@ -960,7 +1251,7 @@ public class ClusterUnitDatabase {
 	 * @return the name
 	 */
 	String getName() {
-	    return unitTypes[type].getName();
+	    return getUnitTypeName(type);
 	}
 
 	/**
@@ -11,11 +11,13 @@
 package com.sun.speech.freetts.clunits;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.sun.speech.freetts.FeatureSet;
-import com.sun.speech.freetts.FeatureSetImpl;
 import com.sun.speech.freetts.Item;
 import com.sun.speech.freetts.PathExtractor;
 import com.sun.speech.freetts.PathExtractorImpl;
@@ -89,6 +91,17 @@ public class ClusterUnitSelector implements UtteranceProcessor {
     }
     
 
+    /**
+     * Shows the hits and misses of the phrase cache of the database,
+     * if it has one.
+     */
+    public void showMetrics() {
+	PhraseCache cache = clunitDB.getPhraseCache();
+	if (cache != null) {
+	    cache.showMetrics();
+	}
+    }
+
     /**
      * Get the sample info for the underlying database.
      * @return the sample info object
@@ -139,6 +152,14 @@ public class ClusterUnitSelector implements UtteranceProcessor {
 	    setUnitName(s);
 	}
 
+    // Reuse the units of phrases that have been selected before.
+	if (clunitDB.getPhraseCache() != null) {
+	    String silenceSymbol =
+		utterance.getVoice().getPhoneFeature("silence", "symbol");
+	    vd.usePhraseCache(clunitDB.getPhraseCache(),
+		    silenceSymbol == null ? "pau" : silenceSymbol);
+	}
+
     // Carry out the CART lookup for the target costs, and the viterbi
     // search for finding the best path (join costs) through the candidates.
 	vd.decode();
@@ -298,450 +319,524 @@ public class ClusterUnitSelector implements UtteranceProcessor {
      * <p>
      * 
      * Move to the next unit and repeat the process.
+     * <p>
+     *
+     * The candidates of all the points (segments) are kept in a single
+     * set of int arrays, indexed by candidate.  The candidates of point
+     * <code>t</code> are those from <code>candidateStart[t]</code> up
+     * to <code>candidateStart[t + 1]</code>.  For each candidate, only
+     * the best path leading to it is kept, as its score, the index of
+     * the candidate it comes from and the join points chosen by
+     * optimal coupling.  No objects are created per candidate or path.
+     * <p>
+     *
+     * With a phrase cache, the points of a phrase whose units are in
+     * the cache each get the cached unit as their only candidate, so
+     * the search through the phrase is a single path, and only the
+     * joins at its ends are chosen between candidates.
     */
     static class Viterbi {
-	private int numStates = -1;
-	private boolean bigIsGood = false;
-	private ViterbiPoint timeline = null;
-	private ViterbiPoint lastPoint = null;
-	private FeatureSet f = null;
-	private ClusterUnitDatabase clunitDB;
+	/**
+	 * The "from" value of a candidate that no path leads to.
+	 */
+	private final static int NO_PATH = -2;
+
+	/**
+	 * The "from" value of a candidate at the first point.
+	 */
+	private final static int START = -1;
+
+	/**
+	 * The value of a join point that was not moved.
+	 */
+	private final static int NO_MOVE = -1;
+
+	/**
+	 * The fixed unit of a point that is not in a cached phrase.
+	 */
+	private final static int NO_UNIT = -1;
+
+	/**
+	 * The least number of points in a phrase that is cached.
+	 */
+	private final static int MIN_PHRASE_POINTS = 2;
+
+	private final ClusterUnitDatabase clunitDB;
+	private final JoinCostCache joinCostCache;
+	private final SampleSet mcep;
+	private Item[] items;
+	private int[] candidateStart;
+	private int numberOfCandidates = 0;
+	private int[] units;
+	private int[] scores;
+	private int[] from;
+	private int[] prevMoves;
+	private int[] thisMoves;
+	private PhraseCache phraseCache = null;
+	private String silence;
+	private int[][] clusters;
+	private int[] fixedUnits;
+	private List<int[]> newPhrases;
 
 	/**
 	 * Creates a Viterbi class to process the given utterance.
-     * A queue of ViterbiPoints corresponding to the Items in the Relation segs 
-     * is built up.
-     * 
+	 * There is one point per item in the Relation segs.
+	 *
+	 * @param segs the segments to find units for
+	 * @param db the unit database
 	 */
 	public Viterbi(Relation segs, ClusterUnitDatabase db) {
-	    ViterbiPoint last = null;
 	    clunitDB = db;
-	    f = new FeatureSetImpl();
-	    for (Item s = segs.getHead(); true; s = s.getNext()) {
-		ViterbiPoint n = new ViterbiPoint(s);
-        // The number of ViterbiPaths associated with each ViterbiPoint
-        // is determined using the variable numStates.
-        // TODO: Where can numStates be set?
-		if (numStates > 0) {
-		    n.initPathArray(numStates);
-		}
-		if (last != null) { // continue to build up the queue
-		    last.next = n;
-		} else { // timeline is the start of the queue
-		    timeline = n;
-		}
-		last = n;
+	    joinCostCache = db.getJoinCostCache();
+	    mcep = db.getMcep();
 
-		if (s == null) { // no further segments, leave loop
-		    lastPoint = n;
-		    break;
-		}
+	    int numberOfPoints = 0;
+	    for (Item s = segs.getHead(); s != null; s = s.getNext()) {
+		numberOfPoints++;
 	    }
-
-	    if (LOGGER.isLoggable(Level.FINE)) {
-		LOGGER.fine("num states " + numStates);
-	    }
-
-	    if (numStates == 0) {    	// its a  general beam search
-		timeline.paths = new ViterbiPath();
-	    }
-
-	    if (numStates == -1) {	// dynamic number of states (# cands)
-		timeline.initPathArray(1);
+	    items = new Item[numberOfPoints];
+	    int t = 0;
+	    for (Item s = segs.getHead(); s != null; s = s.getNext()) {
+		items[t++] = s;
 	    }
+	    candidateStart = new int[numberOfPoints + 1];
+
+	    int capacity = Math.max(16, numberOfPoints * 8);
+	    units = new int[capacity];
+	    scores = new int[capacity];
+	    from = new int[capacity];
+	    prevMoves = new int[capacity];
+	    thisMoves = new int[capacity];
 	}
 
 	/**
-	 * Sets the given feature to the given value.
+	 * Makes sure there is room for the given number of
+	 * candidates.
 	 *
-	 * @param name the name of the feature
-	 * @param obj the new value.
+	 * @param size the number of candidates needed
 	 */
-	public void setFeature(String name, Object obj) {
-	    f.setObject(name, obj);
+	private void ensureCapacity(int size) {
+	    if (size > units.length) {
+		int capacity = Math.max(size, units.length * 2);
+		units = grow(units, capacity);
+		scores = grow(scores, capacity);
+		from = grow(from, capacity);
+		prevMoves = grow(prevMoves, capacity);
+		thisMoves = grow(thisMoves, capacity);
+	    }
 	}
 
 	/**
-	 * Gets the value for the given feature.
+	 * Returns a copy of the given array with a greater length.
 	 *
-	 * @param name the name of the feature
+	 * @param array the array
+	 * @param length the new length
 	 *
-	 * @return the value of the feature
+	 * @return the copy
 	 */
-	public Object getFeature(String name) {
-	    return f.getObject(name);
+	private static int[] grow(int[] array, int length) {
+	    int[] copy = new int[length];
+	    System.arraycopy(array, 0, copy, 0, array.length);
+	    return copy;
 	}
 
 	/**
-     * Carry out a Viterbi search in for a prepared queue of ViterbiPoints.
-     * In a nutshell, each Point represents a target item (a target segment);
-     * for each target Point, a number of Candidate units in the voice database 
-     * are determined; a Path structure is built up, based on local best transitions.
-     * Concretely, a Path consists of a (possibly empty) previous Path, a current Candidate,
-     * and a Score. This Score is a quality measure of the Path; it is calculated as the
-     * sum of the previous Path's score, the Candidate's score, and the Cost of joining
-     * the Candidate to the previous Path's Candidate. At each step, only one Path 
-     * leading to each Candidate is retained, viz. the Path with the best Score.
-     * All that is left to do is to call result() to get the best-rated
-     * path from among the paths associated with the last Point, and to associate
-     * the resulting Candidates with the segment items they will realise. 
+	 * Carry out a Viterbi search over the points.  For each point
+	 * (target segment), the candidate units are determined; then
+	 * each candidate is joined to every candidate of the previous
+	 * point that can be reached.  The score of such a path is the
+	 * score of the path to the previous candidate plus the cost of
+	 * joining the two units.  For each candidate only the path with
+	 * the best score is retained.  All that is left to do is to
+	 * call result() to get the best-rated path ending at the last
+	 * point, and to associate the resulting candidates with the
+	 * segment items they will realise.
 	 */
 	void decode() {
-	    for (ViterbiPoint p = timeline; p.next != null; p = p.next) {
-            // The candidates for the current item:
-		p.cands = getCandidate(p.item);
+	    if (phraseCache != null) {
+		findCachedPhrases();
+	    }
+	    for (int t = 0; t < items.length; t++) {
+		addCandidates(t);
+		int first = candidateStart[t];
+		int end = candidateStart[t + 1];
+
 		if (LOGGER.isLoggable(Level.FINE)) {
-		    LOGGER.fine("decode " + p.cands);
+		    LOGGER.fine("decode " + (end - first) + " candidates");
 		}
-		if (numStates != 0) {
-		    if (numStates == -1) {
-                // put as many (empty) path elements into p.next as there are candidates in p
-			p.next.initDynamicPathArray(p.cands);
+
+		if (t == 0) {
+		    // all paths start here, at no cost
+		    for (int c = first; c < end; c++) {
+			scores[c] = 0;
+			from[c] = START;
+			prevMoves[c] = NO_MOVE;
+			thisMoves[c] = NO_MOVE;
 		    }
+		    continue;
+		}
 
-            // Now go through all existing paths and all candidates for the current item;
-            // tentatively extend each existing path to each of the candidates,
-            // but only retain the 
-            // Attention: p.numStates is not numStates!
-            // numStates = a general flag indicating which type of viterbi search
-            //             to use (only -1 seems to be implemented);
-            // p.numStates = the number of paths in p.statePaths, i.e. p.numStates==p.statePaths.length
-            for (int i = 0; i < p.numStates; i++) {
-			if ((p == timeline && i == 0) || 
-				(p.statePaths[i] != null)) {
-                // We are at the very beginning of the search, or have a usable path to extend
-			    // debug("   dc p " + p);
-			    for (ViterbiCandidate c = p.cands; 
-					c != null; c = c.next) {
-                    // For the candidate c, create a path extending the previous path
-                    // p.statePaths[i] to that candidate: 
-				ViterbiPath np = getPath(p.statePaths[i], c);
-                // Compare this path to the existing best path (if any) leading to
-                // candidate c; only retain the one with the better score.
-                // TODO: why should the paths leading to the candidates realising p
-                // be stored in p.next?
-				addPaths(p.next, np);
-			    }
+		for (int c = first; c < end; c++) {
+		    from[c] = NO_PATH;
+		}
+		int coupling = clunitDB.getOptimalCoupling();
+
+		// extend each path to the previous point to each of the
+		// candidates, retaining only the best path to each one
+		for (int i = candidateStart[t - 1]; i < first; i++) {
+		    if (from[i] == NO_PATH) {
+			continue;
+		    }
+		    int u0 = units[i];
+		    for (int c = first; c < end; c++) {
+			int u1 = units[c];
+			int cost;
+			int prevMove = NO_MOVE;
+			int thisMove = NO_MOVE;
+
+			if (coupling == 1 || coupling == 2) {
+			    Cost oCost = getJoinCost(u0, u1);
+			    prevMove = oCost.u0Move;
+			    thisMove = oCost.u1Move;
+			    cost = oCost.cost;
+			} else {
+			    cost = 0;
+			}
+
+			// cost *= clunitDB.getContinuityWeight();
+			cost *= 5;	// magic number ("continuity weight") from flite
+			int score = cost + scores[i];
+
+			if (from[c] == NO_PATH || score < scores[c]) {
+			    scores[c] = score;
+			    from[c] = i;
+			    prevMoves[c] = prevMove;
+			    thisMoves[c] = thisMove;
 			}
 		    }
-		} else {
-		    System.err.println(
-			"Viterbi.decode: general beam search not implemented");
 		}
 	    }
+	    if (phraseCache != null) {
+		cacheNewPhrases();
+	    }
 	}
 
-
 	/**
-	 * Try to add paths to the given point.
+	 * Reuses the units of phrases that have been selected before.
+	 * The phrases are the runs of points between silences.
 	 *
-	 * @param point the point to add the paths to
-	 * @param paths the path
+	 * @param cache the phrase cache
+	 * @param silence the name of the silence segment
+	 */
+	void usePhraseCache(PhraseCache cache, String silence) {
+	    this.phraseCache = cache;
+	    this.silence = silence;
+	}
+
+	/**
+	 * Finds the clusters of candidates of all the points, and fixes
+	 * the units of the points in the phrases that are in the phrase
+	 * cache.  The other phrases are remembered, so that their units
+	 * can be cached once they are selected.
 	 */
-	void addPaths(ViterbiPoint point, ViterbiPath path) {
-	    ViterbiPath nextPath;
-	    for (ViterbiPath p = path; p != null; p = nextPath) {
-		nextPath = p.next;
-		addPath(point, p);
+	private void findCachedPhrases() {
+	    clusters = new int[items.length][];
+	    fixedUnits = new int[items.length];
+	    Arrays.fill(fixedUnits, NO_UNIT);
+	    newPhrases = new ArrayList<int[]>();
+
+	    for (int t = 0; t < items.length; t++) {
+		clusters[t] = getCluster(t);
+	    }
+	    for (int start = 0; start < items.length; ) {
+		if (isSilence(start)) {
+		    start++;
+		    continue;
+		}
+		int end = start + 1;
+		while (end < items.length && !isSilence(end)) {
+		    end++;
+		}
+		if (end - start >= MIN_PHRASE_POINTS) {
+		    int[] key = new int[(end - start) * 2];
+		    for (int t = start, k = 0; t < end; t++) {
+			key[k++] = clunitDB.getUnitTypeIndex(getUnitType(t));
+			key[k++] = phraseCache.getClusterId(clusters[t]);
+		    }
+		    int[] cached = phraseCache.get(key);
+		    if (cached != null) {
+			System.arraycopy(cached, 0, fixedUnits, start,
+				end - start);
+		    } else {
+			newPhrases.add(new int[] {start, end});
+			newPhrases.add(key);
+		    }
+		}
+		start = end;
 	    }
 	}
 
 	/**
-	 * Add the new path to the state path if it is
-	 * better than the current path. In this, state means
-     * the position of the candidate associated with this
-     * path in the candidate queue
-     * for the corresponding segment item. In other words,
-     * this method uses newPath as the one path leading to
-     * the candidate newPath.candidate, if it has a better
-     * score than the previously best path leading to that candidate.
-	 *
-	 * @param point where the path is added
-	 * @param newPath the path to add if its score is best
+	 * Puts the units selected for the phrases that were not in the
+	 * phrase cache into the cache.
 	 */
-	void addPath(ViterbiPoint point, ViterbiPath newPath) {
-	    if (point.statePaths[newPath.state] == null) {
-		// we don't have one yet, so this is best
-		point.statePaths[newPath.state] = newPath;
-	    } else if (isBetterThan(newPath.score,
-			point.statePaths[newPath.state].score)) {
-		// its better than what we already have 
-		point.statePaths[newPath.state] = newPath;
-	    } else {
-		// its not better that what we already have
-		// so we just forget about it.
+	private void cacheNewPhrases() {
+	    if (newPhrases.isEmpty() || items.length == 0) {
+		return;
+	    }
+	    int c = findBestPath();
+	    if (c == NO_PATH) {
+		return;
 	    }
-    	}
+	    int[] path = new int[items.length];
+	    for (int t = items.length - 1; t >= 0; t--) {
+		path[t] = units[c];
+		c = from[c];
+	    }
+	    for (int i = 0; i < newPhrases.size(); i += 2) {
+		int[] range = newPhrases.get(i);
+		int[] selected = new int[range[1] - range[0]];
+		System.arraycopy(path, range[0], selected, 0, selected.length);
+		phraseCache.put(newPhrases.get(i + 1), selected);
+	    }
+	}
 
 	/**
-	 * See if a is better than b. Goodness is defined
-	 * by 'bigIsGood'.
+	 * Determines if the item at a point is a silence.
 	 *
-	 * @param a value to check
-	 * @param b value to check.
+	 * @param t the point
 	 *
-	 * return true if a is better than b.
+	 * @return <code>true</code> if the item is a silence
 	 */
-	private boolean isBetterThan(int a, int b) {
-	    if (bigIsGood) {
-		return a > b;
-	    } else {
-		return a < b;
-	    }
+	private boolean isSilence(int t) {
+	    return silence.equals(items[t].getFeatures().getString("name"));
 	}
 
 	/**
-	 * Find the best path through the decoder, adding the feature
-	 * name to the candidate.
+	 * Returns the unit type of the item at a point.
 	 *
-	 * @param feature the feature to add
-	 * @return true if a best path was found
+	 * @param t the point
+	 *
+	 * @return the unit type
 	 */
-	boolean  result(String feature) {
-	    ViterbiPath path;
-
-	    if (timeline == null || timeline.next == null) {
-		return true; // null case succeeds
-	    }
-	    path = findBestPath();
-
-	    if (path == null) {
-		return false;
-	    }
-
-	    for (; path != null; path = path.from) {
-		if (path.candidate != null) {
-		    path.candidate.item.getFeatures().setObject(feature,
-			    	path.candidate.value);
-		}
-	    }
-	    return true;
+	private String getUnitType(int t) {
+	    return items[t].getFeatures().getString("clunit_name");
 	}
 
 	/**
-	 * Given a feature, copy the value associated with feature
-	 * name from the path to each item in the path.
+	 * Returns the cluster of candidates for the item at a point.
+	 * This traverses a CART tree for target cluster selection as
+	 * described in the paper introducing the clunits algorithm.
+	 * This corresponds to the "target costs" described for general
+	 * unit selection.
 	 *
-	 * @param feature the name of the feature.
+	 * @param t the point
+	 *
+	 * @return the instance numbers of the candidate units
 	 */
-	void copyFeature(String feature) {
-	    ViterbiPath path = findBestPath();
-	    if (path == null) { 
-		return;  // nothing to copy, empty stream or no solution
-	    }
-
-	    for (; path != null; path = path.from) {
-		if (path.candidate != null && path.isPresent(feature)) {
-		    path.candidate.item.getFeatures().setObject(feature,
-			    path.getFeature(feature));
-		}
+	private int[] getCluster(int t) {
+	    if (clusters != null && clusters[t] != null) {
+		return clusters[t];
 	    }
+	    CART cart = clunitDB.getTree(getUnitType(t));
+	    return (int[]) cart.interpret(items[t]);
 	}
 
 	/**
-	 * Finds the best (queue of) candidate(s) for a given (segment) item.
-     * This traverses a CART tree for target cluster selection as described in 
-     * the paper introducing the clunits algorithm. This corresponds to the
-     * "target costs" described for general unit selection.
-     * @return the first candidate in the queue of candidate units for this item.
+	 * Finds the best candidates for the item at the given point and
+	 * adds them to the candidate arrays.  A point in a cached phrase
+	 * has its cached unit as its only candidate.
+	 *
+	 * @param t the point
 	 */
-	private ViterbiCandidate getCandidate(Item item) {
-        // TODO: This should better be called getCandidates() (plural form),
-        // because what it does is find all the candidates for the item
-        // and return the head of the queue.
-	    String unitType = item.getFeatures().getString("clunit_name");
-	    CART cart = clunitDB.getTree(unitType);
-        // Here, the unit candidates are selected.
-	    int[] clist = (int[]) cart.interpret(item);
-        // Now, clist is an array of instance numbers for the units of type
-        // unitType that belong to the best cluster according to the CART.
-        
-	    ViterbiCandidate p;
-	    ViterbiCandidate all;
-	    ViterbiCandidate gt;
-
-	    all = null;
+	private void addCandidates(int t) {
+	    if (fixedUnits != null && fixedUnits[t] != NO_UNIT) {
+		ensureCapacity(numberOfCandidates + 1);
+		units[numberOfCandidates++] = fixedUnits[t];
+		candidateStart[t + 1] = numberOfCandidates;
+		return;
+	    }
+	    String unitType = getUnitType(t);
+	    // Here, the unit candidates are selected.
+	    int[] clist = getCluster(t);
+	    // Now, clist is an array of instance numbers for the units of
+	    // type unitType that belong to the best cluster according to
+	    // the CART.
+	    int first = numberOfCandidates;
+	    int extend = clunitDB.getExtendSelections();
+
+	    ensureCapacity(first + clist.length + extend);
 	    for (int i = 0; i < clist.length; i++) {
-		p = new ViterbiCandidate();
-		p.next = all; // link them reversely: the first in clist will be at the end of the queue
-		p.item = item; // The item is the same for all these candidates in the queue.
-		p.score = 0;
-        // remember the absolute unit index:
-		p.setInt(clunitDB.getUnitIndex(unitType,  clist[i]));
-		all = p;
-		// this is OK
+		// remember the absolute unit index:
+		units[numberOfCandidates++] =
+		    clunitDB.getUnitIndex(unitType, clist[i]);
 		if (LOGGER.isLoggable(Level.FINE)) {
 		    LOGGER.fine("    gc adding " + clist[i]);
 		}
 	    }
 
-        // Take into account candidates for previous item?
-        // Depending on the setting of EXTEND_SELECTIONS in the database,
-        // look the first candidates for the preceding item,
-        // and add the units following these (which are not yet candidates)
-        // as candidates. EXTEND_SELECTIONS indicates how many of these
-        // are added. A high setting will add candidates which don't fit the
-        // target well, but which can be smoothly concatenated with the context.
-        // In a sense, this means trading target costs against join costs.
-	    if (clunitDB.getExtendSelections() > 0 &&
-		    item.getPrevious() != null) {
-            // Get the candidates for the preceding (segment) item
-		ViterbiCandidate lc = (ViterbiCandidate) (item.
-		    getPrevious().getFeatures().getObject("clunit_cands"));
-		if (LOGGER.isLoggable(Level.FINE)) {
-		    LOGGER.fine("      lc " + lc);
-		}
-		for (int e = 0; lc != null && 
-			(e < clunitDB.getExtendSelections());
-			lc = lc.next) {
-		    int nu = clunitDB.getNextUnit(lc.ival);
-		    if (LOGGER.isLoggable(Level.FINE)) {
-			LOGGER.fine("      e: " + e + " nu: " + nu);
-		    }
+	    // Take into account candidates for previous item?
+	    // Depending on the setting of EXTEND_SELECTIONS in the
+	    // database, look at the first candidates for the preceding
+	    // item, and add the units following these (which are not yet
+	    // candidates) as candidates. EXTEND_SELECTIONS indicates how
+	    // many of these are added. A high setting will add candidates
+	    // which don't fit the target well, but which can be smoothly
+	    // concatenated with the context. In a sense, this means
+	    // trading target costs against join costs.
+	    if (extend > 0 && t > 0 && numberOfCandidates > first) {
+		for (int lc = candidateStart[t - 1], e = 0;
+			lc < first && e < extend; lc++) {
+		    int nu = clunitDB.getNextUnit(units[lc]);
 		    if (nu == ClusterUnitDatabase.CLUNIT_NONE) {
 			continue;
 		    }
-		    
-            // Look through the list of candidates for the current item:
-		    for (gt = all; gt != null; gt = gt.next) {
+		    if (!isCandidate(nu, first)
+			    && clunitDB.isUnitTypeEqual(nu,
+				units[numberOfCandidates - 1])) {
+			// nu is of the right unit type and is not yet one
+			// of the candidates.
 			if (LOGGER.isLoggable(Level.FINE)) {
-			    LOGGER.fine("       gt " + gt.ival + " nu " + nu);
-			}
-			if (nu == gt.ival) {
-                // The unit following one of the candidates for the preceding
-                // item already is a candidate for the current item.
-			    break;
+			    LOGGER.fine("      e: " + e + " nu: " + nu);
 			}
-		    }
-
-		    if (LOGGER.isLoggable(Level.FINE)) {
-			LOGGER.fine("nu " + clunitDB.getUnit(nu).getName() + " all " +
-			      clunitDB.getUnit(all.ival).getName() +
-			      " " + all.ival);
-		    }
-		    if ((gt == null)&&clunitDB.isUnitTypeEqual(nu, all.ival)) {
-                // nu is of the right unit type and is not yet one of the candidates.
-                // add it to the queue of candidates for the current item:
-			p = new ViterbiCandidate();
-			p.next = all;
-			p.item = item;
-			p.score = 0;
-			p.setInt(nu);
-			all = p;
+			units[numberOfCandidates++] = nu;
 			e++;
 		    }
 		}
 	    }
-	    item.getFeatures().setObject("clunit_cands", all);
-	    return all;
+
+	    // The candidates are tried in the reverse order in which
+	    // they were found, the most recently found first.
+	    for (int i = first, j = numberOfCandidates - 1; i < j; i++, j--) {
+		int unit = units[i];
+		units[i] = units[j];
+		units[j] = unit;
+	    }
+	    candidateStart[t + 1] = numberOfCandidates;
 	}
 
 	/**
-	 * Construct a new path element linking a previous path to the given candidate.
-     * The (penalty) score associated with the new path is calculated as the sum of
-     * the score of the old path plus the score of the candidate itself plus the
-     * join cost of appending the candidate to the nearest candidate in the given path.
-     * This join cost takes into account optimal coupling if the database has
-     * OPTIMAL_COUPLING set to 1. The join position is saved in the new path, as
-     * the features "unit_prev_move" and "unit_this_move".
+	 * Determines if a unit is already a candidate for the current
+	 * point.
 	 *
-	 * @param path the previous path, or null if this candidate starts a new path
-	 * @param candiate the candidate to add to the path
+	 * @param unit the unit
+	 * @param first the first candidate of the current point
 	 *
-	 * @return a new path, consisting of this candidate appended to the previous path, and
-     * with the cumulative (penalty) score calculated. 
+	 * @return <code>true</code> if the unit is a candidate
 	 */
-	private ViterbiPath getPath(ViterbiPath path, 
-		ViterbiCandidate candidate) {
-	    int cost;
-	    ViterbiPath newPath = new ViterbiPath();
-
-	    newPath.candidate = candidate;
-	    newPath.from = path;
-	//
-	// Flite 1.1 has some logic here to test to see
-	// if  the unit database is fully populated or not and if not
-	// load fixed residuals and calculate distance with a
-	// different distance algorithm that is designed for fixed
-	// point. FreeTTS doesn't really need to do that.
-	//
-
-	    if (path == null || path.candidate == null) {
-		cost = 0;
-	    } else {
-		int u0 = path.candidate.ival;
-		int u1 = candidate.ival;
-		if (clunitDB.getOptimalCoupling() == 1) {
-		    Cost oCost = getOptimalCouple(u0, u1);
-		    if (oCost.u0Move != -1) {
-			newPath.setFeature("unit_prev_move", new
-				Integer(oCost.u0Move));
-		    }
-		    if (oCost.u1Move != -1) { 
-			newPath.setFeature("unit_this_move", new
-				Integer(oCost.u1Move));
-		    }
-		    cost = oCost.cost;
-		} else if (clunitDB.getOptimalCoupling() == 2) {
-		    cost = getOptimalCoupleFrame(u0, u1);
-		} else {
-		    cost = 0;
+	private boolean isCandidate(int unit, int first) {
+	    for (int c = first; c < numberOfCandidates; c++) {
+		if (units[c] == unit) {
+		    return true;
 		}
 	    }
+	    return false;
+	}
 
-	    // cost *= clunitDB.getContinuityWeight();
-	    cost *= 5;	// magic number ("continuity weight") from flite
-	    // TODO: remove the state attribute from ViterbiPath, as it is simply path.candidate.pos!
-        newPath.state = candidate.pos;
-	    if (path == null) {
-		newPath.score = cost + candidate.score;
-	    } else {
-		newPath.score = cost + candidate.score + path.score;
+	/**
+	 * Find the best path through the decoder, adding the feature
+	 * name to the candidate.
+	 *
+	 * @param feature the feature to add
+	 * @return true if a best path was found
+	 */
+	boolean  result(String feature) {
+	    if (items.length == 0) {
+		return true; // null case succeeds
 	    }
-
-	    return newPath;
+	    int c = findBestPath();
+	    if (c == NO_PATH) {
+		return false;
+	    }
+	    for (int t = items.length - 1; t >= 0; t--) {
+		items[t].getFeatures().setInt(feature, units[c]);
+		c = from[c];
+	    }
+	    return true;
 	}
 
 	/**
-	 * Find the best path. This requires decode() to have been run.
+	 * Given a feature, copy the value associated with feature
+	 * name from the path to each item in the path.  The features
+	 * of a path are the join points chosen by optimal coupling,
+	 * "unit_prev_move" and "unit_this_move".
 	 *
-	 * @return the best path.
+	 * @param feature the name of the feature.
 	 */
-	private ViterbiPath findBestPath() {
-	    ViterbiPoint t;
-	    int best;
-	    int worst;
-	    ViterbiPath bestPath = null;
-
-	    if (bigIsGood) {
-		worst = Integer.MIN_VALUE;
+	void copyFeature(String feature) {
+	    int[] values;
+	    if (feature.equals("unit_prev_move")) {
+		values = prevMoves;
+	    } else if (feature.equals("unit_this_move")) {
+		values = thisMoves;
 	    } else {
-		worst = Integer.MAX_VALUE;
+		return;
 	    }
 
-	    best = worst;
-
-        // TODO: do not need t, can use lastPoint throughout
-	    t = lastPoint;
+	    int c = items.length == 0 ? NO_PATH : findBestPath();
+	    if (c == NO_PATH) {
+		return;  // nothing to copy, empty stream or no solution
+	    }
+	    for (int t = items.length - 1; t >= 0; t--) {
+		if (values[c] != NO_MOVE) {
+		    items[t].getFeatures().setInt(feature, values[c]);
+		}
+		c = from[c];
+	    }
+	}
 
-	    if (numStates != 0) {
-		if (LOGGER.isLoggable(Level.FINE)) {
-		    LOGGER.fine("fbp ns " + numStates + " t " 
-			    + t.numStates + " best " + best);
+	/**
+	 * Find the best path. This requires decode() to have been run.
+	 *
+	 * @return the last candidate of the best path, or NO_PATH if
+	 *     there is none
+	 */
+	private int findBestPath() {
+	    int best = Integer.MAX_VALUE;
+	    int bestCandidate = NO_PATH;
+
+	    // All paths end at the last point, and take into account
+	    // previous path segment's scores. Therefore, it is
+	    // sufficient to find the best path from among the
+	    // paths to the candidates of the last point.
+	    for (int c = candidateStart[items.length - 1];
+		    c < candidateStart[items.length]; c++) {
+		if (from[c] != NO_PATH && scores[c] < best) {
+		    best = scores[c];
+		    bestCandidate = c;
 		}
-        // All paths end in lastPoint, and take into account
-        // previous path segment's scores. Therefore, it is
-        // sufficient to find the best path from among the
-        // paths for lastPoint.
-		for (int i = 0; i < t.numStates; i++) {
-		    if (t.statePaths[i] != null && 
-			(isBetterThan(t.statePaths[i].score, best))) {
-			best = t.statePaths[i].score;
-			bestPath = t.statePaths[i];
-		    }
+	    }
+	    return bestCandidate;
+	}
+
+	/**
+	 * Returns the cost of joining two units, as determined by the
+	 * optimal coupling setting of the database.  The costs are taken
+	 * from the join cost cache of the database when possible.
+	 *
+	 * @param u0 the first unit
+	 * @param u1 the unit that follows it
+	 *
+	 * @return the cost of the join; must not be modified
+	 */
+	private Cost getJoinCost(int u0, int u1) {
+	    Cost cost = null;
+	    if (joinCostCache != null) {
+		cost = joinCostCache.get(u0, u1);
+		if (cost != null) {
+		    return cost;
 		}
 	    }
-	    return bestPath;
+	    if (clunitDB.getOptimalCoupling() == 1) {
+		cost = getOptimalCouple(u0, u1);
+	    } else {
+		cost = new Cost();
+		cost.cost = getOptimalCoupleFrame(u0, u1);
+	    }
+	    if (joinCostCache != null) {
+		joinCostCache.put(u0, u1, cost);
+	    }
+	    return cost;
 	}
 
 	/**
@@ -880,206 +975,12 @@ public class ClusterUnitSelector implements UtteranceProcessor {
 	    if (LOGGER.isLoggable(Level.FINE)) {
 		LOGGER.fine(" gfd  a " + a   + " b " + b + " or " + order);
 	    }
-	    int r, i;
-	    short[] bv = clunitDB.getMcep().getSample(b).getFrameData();
-	    short[] av = clunitDB.getMcep().getSample(a).getFrameData();
-
-	    for (r = 0, i = 0; i < order; i++) {
-		int diff = av[i] - bv[i];
-		r += Math.abs(diff) * joinWeights[i] / 65536;
-	    }
-	    return r;
-	}
-
-    }
-
-
-    /**
-     * Represents a point in the Viterbi path. A point corresponds to an item,
-     * e.g. a Segment.
-     * Each ViterbiPoint knows
-     * about its next ViterbiPoint, i.e. they can form a queue.
-     */
-    static class ViterbiPoint {
-	Item item = null;
-    // TODO: remove the numStates attribute from ViterbiPoint, as this is only statePaths.length
-	int numStates = 0;
-	int numPaths = 0;
-	ViterbiCandidate cands = null;
-	ViterbiPath paths = null;
-	ViterbiPath[] statePaths = null;
-	ViterbiPoint next = null;
-
-	/**
-	 * Creates a ViterbiPoint for the given item. A typical item of choice is a Segment item.
-	 *
-	 * @param item the item of interest
-	 */
-	public ViterbiPoint(Item item) {
-	    this.item = item;
-	}
-
-	/**
-	 * Initialize the path array to the given size.
-	 *
-	 * @param size the size of the path array
-	 */
-	public void initPathArray(int size) {
-	    if (LOGGER.isLoggable(Level.FINE)) {
-		LOGGER.fine("init_path_array: " + size);
-	    }
-	    numStates = size;
-	    statePaths = new ViterbiPath[size];
-	}
-
-	/**
-	 * Initializes the dynamic path array. The path array will have
-     * as many ViterbiPath members as there are candidates in the
-     * queue starting with candidate.
-     * Side effect on parameter: This will set the pos member of the
-     * candidates in the queue starting with candidate to the position
-     * in the queue.  
-	 *
-	 * @param candidate the first candidate of interest
-	 */
-	public void initDynamicPathArray(ViterbiCandidate candidate) {
-	    int i = 0;
-	    for (ViterbiCandidate cc = candidate; cc != null; 
-		    				i++, cc = cc.next) {
-		cc.pos = i;
-	    }
-	    if (LOGGER.isLoggable(Level.FINE)) {
-		LOGGER.fine("init_dynamic_ path_array: " + i);
-	    }
-	    initPathArray(i);
-	}
-
-	public String toString() {
-	    return " pnt: " + numStates + " paths " + numPaths;
-	}
-    }
-
-    /**
-     * Represents a candidate for the Viterbi algorthm.
-     * Each candidate knows about its next candidate, i.e. they can form
-     * a queue.
-     */
-    static class ViterbiCandidate {
-	int score = 0;
-	Object value = null;
-	int ival = 0;
-	int pos = 0;
-	Item item = null;
-	ViterbiCandidate next = null;
-
-	/**
-	 * Sets the object for this candidate.
-	 * 
-	 * @param obj the object
-	 */
-	void set(Object obj) {
-	    value = obj;
-	}
-
-	/**
-	 * Sets the integer value  for this candidate. This can be used for saving
-     * the unit index of the candidate unit represented by this ViterbiCandidate.
-	 * 
-	 * @param ival the integer value
-	 */
-	void setInt(int ival) {
-	    this.ival = ival;
-	    set(new Integer(ival));
-	}
-
-	/**
-	 * Converts this object to a string.
-	 *
-	 * @return the string form of this object
-	 */
-	public String toString() {
-	    return "VC: Score " + score + " ival " + ival + " Pos " + pos;
-	}
-    }
-
-    /**
-     * Describes a Viterbi path.
-     */
-    static class ViterbiPath {
-	int score = 0;
-	int state = 0;
-	ViterbiCandidate candidate = null;
-	private FeatureSet f = null;
-	ViterbiPath from = null;
-	ViterbiPath next = null;
-
-	/**
-	 * Sets a feature with the given name to the given value.
-	 *
-	 * @param name the name of the feature
-	 * @param value the new value for the feature
-	 */
-	void setFeature(String name, Object value) {
-	    if (f == null) {
-		f = new FeatureSetImpl();
-	    }
-	    f.setObject(name, value);
-	}
-
-	/**
-	 * Retrieves a feature.
-	 *
-	 * @param name the name of the feature
-	 * 
-	 * @return the feature
-	 */
-	Object getFeature(String name) {
-	    Object value = null;
-	    if (f != null) {
-		value = f.getObject(name);
-	    }
-	    return value;
-	}
-
-	/**
-	 * Determines if the feature with the given name
-	 * exsists.
-	 *
-	 * @param name the feature to look for
-	 *
-	 * @return <code>true</code> if the feature is present;
-	 * 	otherwise <code>false</code>.
-	 */
-	boolean isPresent(String name) {
-	    if (f == null) {
-		return false;
-	    } else {
-		return getFeature(name) != null;
-	    }
-	}
-
-	/**
-	 * Converts this object to a string.
-	 *
-	 * @return the string form of this object
-	 */
-	public String toString() {
-	    return "ViterbiPath score " + score + " state " + state;
+	    return mcep.getFrameDistance(a, b, joinWeights, order);
 	}
     }
 }
 
 
-/**
- * Information returned from getOptimalCoupling.
- */
-class Cost {
-    int cost = 0;
-    int u0Move = -1;
-    int u1Move = -1;
-}
-
-
 /**
  * A Cluster Unit.
  */
@@ -1155,12 +1056,11 @@ class ClusterUnit implements com.sun.speech.freetts.Unit {
 
 	// loop through all the Samples in this unit
 	for (i = start; i < end; i++) {
-	    Sample sample = sts.getSample(i);
-	    nSize = iSize + sample.getResidualSize();
+	    nSize = iSize + sts.getFrameSize(i);
 
 	    if (Math.abs(index - (float) iSize) <
 		Math.abs(index - (float) nSize)) {
-		return sample;
+		return sts.getSample(i);
 	    }
 	    iSize = nSize;
 	}
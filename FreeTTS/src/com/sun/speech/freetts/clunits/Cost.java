@@ -0,0 +1,16 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.clunits;
+
+
+/**
+ * Information returned from getOptimalCoupling.
+ */
+class Cost {
+    int cost = 0;
+    int u0Move = -1;
+    int u1Move = -1;
+}
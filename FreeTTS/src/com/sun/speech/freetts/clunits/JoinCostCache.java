@@ -0,0 +1,107 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.clunits;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Remembers the join costs of pairs of units of a cluster unit
+ * database.  The join cost of two units only depends on the
+ * database, so the same pairs that are compared again and again
+ * while selecting units for different utterances are only computed
+ * once.
+ *
+ * <p>The cache is a fixed size table in which each pair of units has
+ * exactly one slot; a new pair simply replaces the pair that used
+ * the slot before.  The table never grows, and it can be used by
+ * several threads at once without locking.  The cached
+ * <code>Cost</code> objects must not be modified.
+ */
+class JoinCostCache {
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+
+    /**
+     * Creates a cache with room for at least the given number of
+     * pairs.
+     *
+     * @param size the number of pairs, rounded up to a power of two
+     */
+    JoinCostCache(int size) {
+	int capacity = 1;
+	while (capacity < size) {
+	    capacity <<= 1;
+	}
+	table = new AtomicReferenceArray<Entry>(capacity);
+	mask = capacity - 1;
+    }
+
+    /**
+     * Looks up the cost of joining two units.
+     *
+     * @param u0 the first unit
+     * @param u1 the unit that follows it
+     *
+     * @return the cost, or <code>null</code> if it is not in the cache
+     */
+    Cost get(int u0, int u1) {
+	Entry entry = table.get(slot(u0, u1));
+	if (entry != null && entry.u0 == u0 && entry.u1 == u1) {
+	    return entry.cost;
+	}
+	return null;
+    }
+
+    /**
+     * Remembers the cost of joining two units.
+     *
+     * @param u0 the first unit
+     * @param u1 the unit that follows it
+     * @param cost the cost of the join
+     */
+    void put(int u0, int u1, Cost cost) {
+	table.set(slot(u0, u1), new Entry(u0, u1, cost));
+    }
+
+    /**
+     * Returns the slot of a pair of units.
+     *
+     * @param u0 the first unit
+     * @param u1 the unit that follows it
+     *
+     * @return the index in the table
+     */
+    private int slot(int u0, int u1) {
+	int h = u0 * 0x9e3779b1 + u1;
+	h ^= h >>> 16;
+	h *= 0x85ebca6b;
+	h ^= h >>> 13;
+	return h & mask;
+    }
+
+    /**
+     * A pair of units and the cost of joining them.
+     */
+    private static class Entry {
+	final int u0;
+	final int u1;
+	final Cost cost;
+
+	/**
+	 * Creates an entry.
+	 *
+	 * @param u0 the first unit
+	 * @param u1 the unit that follows it
+	 * @param cost the cost of the join
+	 */
+	Entry(int u0, int u1, Cost cost) {
+	    this.u0 = u0;
+	    this.u1 = u1;
+	    this.cost = cost;
+	}
+    }
+}
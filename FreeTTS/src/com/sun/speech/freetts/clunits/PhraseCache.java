@@ -0,0 +1,138 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.clunits;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+
+/**
+ * Remembers the units selected for recent phrases of a cluster unit
+ * database, so that a phrase that occurs again, alone or in a larger
+ * utterance, reuses its units instead of searching for them again.
+ *
+ * <p>A phrase is a run of segments between two silences.  It is
+ * identified by the unit type of each of its segments and the
+ * cluster of candidates that the CART of the unit type chooses for
+ * the segment, which holds everything that the target features of
+ * the segment contribute to the selection.  Both are stored as small
+ * ints, and the units as an <code>int[]</code>.
+ *
+ * <p>The cache holds a fixed number of phrases and drops the least
+ * recently used one to make room.  It can be used by several threads
+ * at once.
+ */
+class PhraseCache {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(PhraseCache.class.getName());
+
+    private final int size;
+    private final Map<Object, Integer> clusterIds =
+	new IdentityHashMap<Object, Integer>();
+    private final LinkedHashMap<Key, int[]> phrases;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache with room for the given number of phrases.
+     *
+     * @param size the number of phrases
+     */
+    PhraseCache(int size) {
+	this.size = size;
+	this.phrases = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<Key, int[]> e) {
+		return size() > PhraseCache.this.size;
+	    }
+	};
+    }
+
+    /**
+     * Returns the id of a cluster of candidates.  The clusters are
+     * the leaves of the CARTs of the database, and the same cluster
+     * is always the same object.
+     *
+     * @param cluster the cluster
+     *
+     * @return the id
+     */
+    synchronized int getClusterId(Object cluster) {
+	Integer id = clusterIds.get(cluster);
+	if (id == null) {
+	    id = new Integer(clusterIds.size());
+	    clusterIds.put(cluster, id);
+	}
+	return id.intValue();
+    }
+
+    /**
+     * Looks up the units of a phrase.
+     *
+     * @param key the unit type and cluster id of each segment of the
+     *    phrase, one after the other
+     *
+     * @return the units, one per segment, or <code>null</code> if the
+     *    phrase is not in the cache; must not be modified
+     */
+    synchronized int[] get(int[] key) {
+	int[] units = phrases.get(new Key(key));
+	if (units == null) {
+	    misses++;
+	} else {
+	    hits++;
+	}
+	return units;
+    }
+
+    /**
+     * Remembers the units of a phrase.
+     *
+     * @param key the unit type and cluster id of each segment of the
+     *    phrase
+     * @param units the units, one per segment
+     */
+    synchronized void put(int[] key, int[] units) {
+	phrases.put(new Key(key), units);
+    }
+
+    /**
+     * Shows the hits and misses of the cache.
+     */
+    synchronized void showMetrics() {
+	LOGGER.info("Phrase cache  : " + hits + " hits, " + misses
+		+ " misses, " + phrases.size() + " of " + size + " phrases");
+    }
+
+    /**
+     * The key of a phrase.
+     */
+    private static class Key {
+	private final int[] data;
+	private final int hash;
+
+	/**
+	 * Creates a key.
+	 *
+	 * @param data the key data
+	 */
+	Key(int[] data) {
+	    this.data = data;
+	    this.hash = Arrays.hashCode(data);
+	}
+
+	public int hashCode() {
+	    return hash;
+	}
+
+	public boolean equals(Object o) {
+	    return o instanceof Key && Arrays.equals(data, ((Key) o).data);
+	}
+    }
+}
@@ -333,9 +333,12 @@ public class DiphoneUnitDatabase {
 	    if (diphone == null) {
 		int index = getIndex(unitName);
 		if (index != -1) {
-		    mbb.position(index);
+		    // read through a private view of the mapped buffer
+		    // so that concurrent lookups don't share a position
+		    ByteBuffer bb = mbb.duplicate();
+		    bb.position(index);
 		    try {
-			diphone = Diphone.loadBinary(mbb);
+			diphone = Diphone.loadBinary(bb);
 			if (diphone != null) {
                 // If diphone is an alias, must also get the original
                 if (diphone instanceof AliasDiphone) {
@@ -395,7 +398,7 @@ public class DiphoneUnitDatabase {
      *
      * @return the diphone or <code> null </code>  if not in the cache
      */
-    private Diphone getFromCache(String name) {
+    private synchronized Diphone getFromCache(String name) {
 	if (diphoneMap == null) {
 	    return null;
 	}
@@ -422,7 +425,8 @@ public class DiphoneUnitDatabase {
      * @param diphoneName the name of the diphone 
      * @param diphone the diphone to put in the cache
      */
-    private void putIntoCache(String diphoneName, Diphone diphone) {
+    private synchronized void putIntoCache(String diphoneName,
+                                           Diphone diphone) {
 	if (diphoneMap == null) {
 	    return ;
 	}
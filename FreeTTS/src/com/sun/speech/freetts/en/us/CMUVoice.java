@@ -11,6 +11,7 @@
 package com.sun.speech.freetts.en.us;
 
 import java.io.IOException;
+import java.net.URL;
 import java.util.List;
 import java.util.Locale;
 
@@ -27,7 +28,8 @@ import com.sun.speech.freetts.Segmenter;
 import com.sun.speech.freetts.Tokenizer;
 import com.sun.speech.freetts.UtteranceProcessor;
 import com.sun.speech.freetts.Voice;
-import com.sun.speech.freetts.cart.CARTImpl;
+import com.sun.speech.freetts.cart.CART;
+import com.sun.speech.freetts.cart.CompiledCART;
 import com.sun.speech.freetts.cart.Durator;
 import com.sun.speech.freetts.cart.Intonator;
 import com.sun.speech.freetts.cart.Phraser;
@@ -42,6 +44,7 @@ import com.sun.speech.freetts.util.BulkTimer;
  */
 public abstract class CMUVoice extends Voice {
     private PhoneSet phoneSet;
+    private VoiceSnapshot snapshot;
 
     /**
      * Creates a simple voice
@@ -66,6 +69,53 @@ public abstract class CMUVoice extends Voice {
         setLexicon(lexicon);
     }
 
+    /**
+     * Sets the snapshot this voice is loaded from, or that records
+     * the data the voice reads while it is allocated.  Without one,
+     * the voice looks for a snapshot in the directory named by the
+     * <code>com.sun.speech.freetts.snapshotDir</code> property.
+     *
+     * @param snapshot the snapshot
+     *
+     * @throws IllegalArgumentException if the snapshot was built from
+     *   another voice
+     */
+    public void setSnapshot(VoiceSnapshot snapshot) {
+	if (!snapshot.isRecording() && !snapshot.isSnapshotOf(this)) {
+	    throw new IllegalArgumentException(
+		    "Snapshot is not of voice " + getName());
+	}
+	this.snapshot = snapshot;
+    }
+
+    /**
+     * Gets the snapshot of this voice.
+     *
+     * @return the snapshot, or null if there is none
+     */
+    public VoiceSnapshot getSnapshot() {
+	return snapshot;
+    }
+
+    /**
+     * Allocates this voice.  If there is a snapshot of the voice, the
+     * lexicon and the data of the voice are read from it.
+     */
+    public void allocate() {
+	if (!isLoaded()) {
+	    if (snapshot == null) {
+		snapshot = VoiceSnapshot.find(this);
+	    }
+	    if (snapshot != null && !snapshot.isRecording()) {
+		CMULexicon lexicon = snapshot.getLexicon();
+		if (lexicon != null) {
+		    setLexicon(lexicon);
+		}
+	    }
+	}
+	super.allocate();
+    }
+
     // overrides Voice.loader
 
     /**
@@ -103,11 +153,11 @@ public abstract class CMUVoice extends Voice {
 	List<UtteranceProcessor> processors = getUtteranceProcessors();
 
 	BulkTimer.LOAD.start("CartLoading");
-	CARTImpl numbersCart = new CARTImpl(getResource("nums_cart.txt"));
-	CARTImpl phrasingCart = new CARTImpl(getResource("phrasing_cart.txt"));
-        CARTImpl accentCart = new CARTImpl(getResource("int_accent_cart.txt"));
-        CARTImpl toneCart = new CARTImpl(getResource("int_tone_cart.txt"));
-        CARTImpl durzCart = new CARTImpl(getResource("durz_cart.txt"));
+	CART numbersCart = getCART("nums_cart.txt");
+	CART phrasingCart = getCART("phrasing_cart.txt");
+        CART accentCart = getCART("int_accent_cart.txt");
+        CART toneCart = getCART("int_tone_cart.txt");
+        CART durzCart = getCART("durz_cart.txt");
 	BulkTimer.LOAD.stop("CartLoading");
 
 	BulkTimer.LOAD.start("UtteranceProcessors");
@@ -125,17 +175,68 @@ public abstract class CMUVoice extends Voice {
 	processors.add(new PauseGenerator());
 	processors.add(new Intonator(accentCart, toneCart));
 	processors.add(getPostLexicalAnalyzer());
+	startPipelineStage();
 	processors.add(new Durator(durzCart, phoneDurations));
 	processors.add(new ContourGenerator
 	   (getResource("f0_lr_terms.txt"), 170.0f, 34.0f));
 
 
+	startPipelineStage();
 	processors.add(getUnitSelector());
 	processors.add(getPitchmarkGenerator());
 	processors.add(getUnitConcatenator());
 	BulkTimer.LOAD.stop("UtteranceProcessors");
     }
 
+    /**
+     * Gets a resource for this voice, from the snapshot if there is
+     * one.
+     *
+     * @param resource the name of the resource
+     *
+     * @return the URL of the resource
+     */
+    protected URL getResource(String resource) {
+	URL url = null;
+	if (snapshot != null && !snapshot.isRecording()) {
+	    url = snapshot.getResource(resource);
+	}
+	if (url == null) {
+	    url = super.getResource(resource);
+	    if (snapshot != null && snapshot.isRecording() && url != null) {
+		try {
+		    snapshot.addResource(resource, url);
+		} catch (IOException ioe) {
+		    throw new Error("Can't record " + resource, ioe);
+		}
+	    }
+	}
+	return url;
+    }
+
+    /**
+     * Loads a CART of this voice, from the snapshot if there is one.
+     *
+     * @param resource the name of the resource holding the CART
+     *
+     * @return the CART
+     *
+     * @throws IOException if the CART cannot be read
+     */
+    protected CART getCART(String resource) throws IOException {
+	if (snapshot != null && !snapshot.isRecording()) {
+	    CART cart = snapshot.getCART(resource);
+	    if (cart != null) {
+		return cart;
+	    }
+	}
+	CART cart = new CompiledCART(getResource(resource));
+	if (snapshot != null && snapshot.isRecording()) {
+	    snapshot.addCART(resource, cart);
+	}
+	return cart;
+    }
+
     // [[[TODO: currently a CMUVoice only allows customization of
     // the postlex, unit selector and wave synthesizer. This may 
     // grow as time goes on ]]]
@@ -250,10 +250,12 @@ public class TokenToWords implements UtteranceProcessor {
 
     // class variables
 
-    // the word relation that we are building
+    // the word relation that we are building.  Only set on the
+    // per-utterance copy created by processUtterance.
     private WordRelation wordRelation;
 
-    // the current token Item
+    // the current token Item.  Only set on the per-utterance copy
+    // created by processUtterance.
     private Item tokenItem;
 
     // a CART for classifying numbers
@@ -275,6 +277,18 @@ public class TokenToWords implements UtteranceProcessor {
     }
 
 
+    /**
+     * Creates a TokenToWords that shares the (read-only) CART and
+     * finite state machines of the given TokenToWords.  Used to give
+     * each utterance its own copy of the per-token state.
+     *
+     * @param shared the TokenToWords whose resources are shared
+     */
+    private TokenToWords(TokenToWords shared) {
+	this(shared.cart, shared.prefixFSM, shared.suffixFSM);
+    }
+
+
     /**
      * Returns the currently processing token Item.
      *
@@ -294,6 +308,21 @@ public class TokenToWords implements UtteranceProcessor {
      *         processing of the utterance
      */
     public void processUtterance(Utterance utterance) throws ProcessException {
+	// The current token and word relation are kept in fields, so
+	// do the work on a private copy.  This lets a single
+	// TokenToWords be shared by utterances that are processed
+	// concurrently.
+	new TokenToWords(this).expandTokens(utterance);
+    }
+
+
+    /**
+     * Converts the tokens of the given utterance into words.  This
+     * must only be called on a per-utterance copy.
+     *
+     * @param  utterance  the utterance contain the tokens
+     */
+    private void expandTokens(Utterance utterance) {
 	Relation tokenRelation;
 	if ((tokenRelation = utterance.getRelation(Relation.TOKEN)) == null) {
 	    throw new IllegalStateException
@@ -0,0 +1,528 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.en.us;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.VoiceManager;
+import com.sun.speech.freetts.cart.CART;
+import com.sun.speech.freetts.cart.CompiledCART;
+import com.sun.speech.freetts.lexicon.LexiconImpl;
+import com.sun.speech.freetts.util.Utilities;
+
+/**
+ * A single file holding everything a <code>CMUVoice</code> reads
+ * while it is allocated: the text resources of the front end, the
+ * CARTs in binary form and the lexicon and letter-to-sound rules in
+ * their binary forms.  Loading a voice from a snapshot maps one file
+ * and reads it in one pass, instead of finding and parsing each
+ * resource separately.  The unit database is not part of the
+ * snapshot; it is already a binary file that is mapped in place.
+ *
+ * <p>A snapshot is built by allocating a voice while it records what
+ * it reads:
+ *
+ * <pre>
+ *   java com.sun.speech.freetts.en.us.VoiceSnapshot kevin16 kevin16.snapshot
+ * </pre>
+ *
+ * and is used by setting the system property
+ *
+ * <pre>
+ *   com.sun.speech.freetts.snapshotDir
+ * </pre>
+ *
+ * to the directory that holds <code>VOICE_NAME.snapshot</code> files,
+ * or by giving the snapshot to {@link CMUVoice#setSnapshot}.  A
+ * snapshot must be rebuilt whenever the voice data changes.  For the
+ * shortest start up, also run with a class data sharing archive of
+ * the FreeTTS classes.
+ *
+ * <p>The file holds:
+ *
+ * <pre>
+ * (int) MAGIC
+ * (int) VERSION
+ * (String) voiceName
+ * (String) voiceClassName
+ * (int) numSections
+ * for each section: (String) name (byte) type (int) length data
+ * </pre>
+ */
+public class VoiceSnapshot {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(VoiceSnapshot.class.getName());
+
+    /**
+     * The name of the system property that names the directory of
+     * the snapshots.
+     */
+    public final static String SNAPSHOT_DIR_PROPERTY =
+	"com.sun.speech.freetts.snapshotDir";
+
+    private final static int MAGIC = 0xf5ea5a9;
+    private final static int VERSION = 1;
+
+    /**
+     * Section types.
+     */
+    private final static byte RESOURCE = 0;
+    private final static byte CART_DATA = 1;
+
+    /**
+     * The names of the lexicon sections.
+     */
+    private final static String LEXICON_COMPILED = "lexicon:compiled";
+    private final static String LEXICON_ADDENDA = "lexicon:addenda";
+    private final static String LEXICON_LTS = "lexicon:lts";
+
+    /**
+     * Numbers the snapshots that are not read from a URL.
+     */
+    private final static AtomicInteger serial = new AtomicInteger();
+
+    private final String voiceName;
+    private final String voiceClassName;
+    private final boolean recording;
+    private final String source;
+    private final Map<String, Section> sections =
+	new LinkedHashMap<String, Section>();
+    private final URLStreamHandler handler = new SectionHandler();
+
+    /**
+     * Creates an empty snapshot that records the data read by the
+     * given voice.
+     *
+     * @param voice the voice
+     */
+    public VoiceSnapshot(Voice voice) {
+	this.voiceName = voice.getName();
+	this.voiceClassName = voice.getClass().getName();
+	this.recording = true;
+	this.source = "new-" + serial.incrementAndGet();
+    }
+
+    /**
+     * Creates a snapshot from its binary form.
+     *
+     * @param bb the buffer holding the snapshot
+     * @param source where the snapshot was read from
+     *
+     * @throws IOException if the data is not a snapshot
+     */
+    private VoiceSnapshot(ByteBuffer bb, String source) throws IOException {
+	this.source = source;
+	if (bb.getInt() != MAGIC) {
+	    throw new IOException("not a voice snapshot");
+	}
+	if (bb.getInt() != VERSION) {
+	    throw new IOException("bad version number in voice snapshot");
+	}
+	voiceName = Utilities.getString(bb);
+	voiceClassName = Utilities.getString(bb);
+	recording = false;
+	int numSections = bb.getInt();
+	for (int i = 0; i < numSections; i++) {
+	    String name = Utilities.getString(bb);
+	    byte type = bb.get();
+	    int length = bb.getInt();
+	    ByteBuffer data = bb.slice();
+	    data.limit(length);
+	    bb.position(bb.position() + length);
+	    sections.put(name, new Section(type, data));
+	}
+    }
+
+    /**
+     * Loads a snapshot.  If the snapshot is a file, it is mapped into
+     * memory.
+     *
+     * @param url the location of the snapshot
+     *
+     * @return the snapshot
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static VoiceSnapshot load(URL url) throws IOException {
+	InputStream is = Utilities.getInputStream(url);
+	try {
+	    ByteBuffer bb;
+	    if (is instanceof FileInputStream) {
+		FileChannel fc = ((FileInputStream) is).getChannel();
+		bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+	    } else {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = is.read(buffer)) != -1) {
+		    bytes.write(buffer, 0, count);
+		}
+		bb = ByteBuffer.wrap(bytes.toByteArray());
+	    }
+	    return new VoiceSnapshot(bb, url.toExternalForm());
+	} finally {
+	    is.close();
+	}
+    }
+
+    /**
+     * Finds the snapshot of a voice in the directory named by the
+     * <code>com.sun.speech.freetts.snapshotDir</code> property.
+     *
+     * @param voice the voice
+     *
+     * @return the snapshot, or null if there is none that can be used
+     */
+    static VoiceSnapshot find(Voice voice) {
+	String dir = Utilities.getProperty(SNAPSHOT_DIR_PROPERTY, null);
+	if (dir == null) {
+	    return null;
+	}
+	File file = new File(dir, voice.getName() + ".snapshot");
+	if (!file.isFile()) {
+	    return null;
+	}
+	try {
+	    VoiceSnapshot snapshot = load(file.toURI().toURL());
+	    if (snapshot.isSnapshotOf(voice)) {
+		return snapshot;
+	    }
+	    LOGGER.warning(file + " is not a snapshot of " + voice.getName());
+	} catch (IOException ioe) {
+	    LOGGER.warning("Can't load snapshot " + file + ": " + ioe);
+	}
+	return null;
+    }
+
+    /**
+     * Determines if this snapshot was built from a voice with the
+     * same name and class as the given voice.
+     *
+     * @param voice the voice
+     *
+     * @return <code>true</code> if the snapshot is of the voice
+     */
+    public boolean isSnapshotOf(Voice voice) {
+	return voiceName.equals(voice.getName())
+	    && voiceClassName.equals(voice.getClass().getName());
+    }
+
+    /**
+     * Determines if this snapshot is recording the data read by a
+     * voice, rather than providing it.
+     *
+     * @return <code>true</code> if the snapshot is recording
+     */
+    public boolean isRecording() {
+	return recording;
+    }
+
+    /**
+     * Returns a URL from which a resource of the voice can be read.
+     * The URL names the snapshot as well as the resource, since the
+     * lexicon caches what it loads by URL: the same resource of
+     * different snapshots must not give equal URLs.
+     *
+     * @param name the name of the resource
+     *
+     * @return the URL, or null if the resource is not in the snapshot
+     */
+    public URL getResource(String name) {
+	Section section = sections.get(name);
+	if (section == null || section.type != RESOURCE) {
+	    return null;
+	}
+	try {
+	    return new URL(null, "freetts-snapshot:" + source + "!/" + name,
+		    handler);
+	} catch (MalformedURLException mue) {
+	    return null;
+	}
+    }
+
+    /**
+     * Adds a resource of the voice.
+     *
+     * @param name the name of the resource
+     * @param url the location of the resource
+     *
+     * @throws IOException if the resource cannot be read
+     */
+    public void addResource(String name, URL url) throws IOException {
+	InputStream is = url.openStream();
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    byte[] buffer = new byte[8192];
+	    int count;
+	    while ((count = is.read(buffer)) != -1) {
+		bytes.write(buffer, 0, count);
+	    }
+	    add(name, RESOURCE, bytes);
+	} finally {
+	    is.close();
+	}
+    }
+
+    /**
+     * Returns a CART of the voice.
+     *
+     * @param name the name of the resource the CART was read from
+     *
+     * @return the CART, or null if it is not in the snapshot
+     *
+     * @throws IOException if the CART cannot be read
+     */
+    public CART getCART(String name) throws IOException {
+	Section section = sections.get(name);
+	if (section == null || section.type != CART_DATA) {
+	    return null;
+	}
+	return CompiledCART.loadBinary(section.data.duplicate());
+    }
+
+    /**
+     * Adds a CART of the voice, in place of the resource it was read
+     * from.
+     *
+     * @param name the name of the resource the CART was read from
+     * @param cart the CART
+     *
+     * @throws IOException if the CART cannot be written
+     */
+    public void addCART(String name, CART cart) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream dos = new DataOutputStream(bytes);
+	cart.dumpBinary(dos);
+	dos.flush();
+	add(name, CART_DATA, bytes);
+    }
+
+    /**
+     * Returns the lexicon of the voice.
+     *
+     * @return a new lexicon that reads its data from this snapshot,
+     *   or null if the snapshot has no lexicon
+     */
+    public CMULexicon getLexicon() {
+	URL compiled = getResource(LEXICON_COMPILED);
+	URL addenda = getResource(LEXICON_ADDENDA);
+	URL lts = getResource(LEXICON_LTS);
+	if (compiled == null || addenda == null || lts == null) {
+	    return null;
+	}
+	return new CMULexicon(compiled, addenda, lts, true);
+    }
+
+    /**
+     * Adds the lexicon of the voice, in its binary form.  The lexicon
+     * must be loaded.
+     *
+     * @param lexicon the lexicon
+     *
+     * @throws IOException if the lexicon cannot be written
+     */
+    public void addLexicon(LexiconImpl lexicon) throws IOException {
+	File dir = File.createTempFile("snapshot", "");
+	dir.delete();
+	if (!dir.mkdir()) {
+	    throw new IOException("can't create " + dir);
+	}
+	try {
+	    String path = new File(dir, "lex").getPath();
+	    lexicon.dumpBinary(path);
+	    lexicon.dumpLetterToSoundBinary(path + "_lts.bin");
+	    addFile(LEXICON_COMPILED, new File(path + "_compiled.bin"));
+	    addFile(LEXICON_ADDENDA, new File(path + "_addenda.bin"));
+	    addFile(LEXICON_LTS, new File(path + "_lts.bin"));
+	} finally {
+	    File[] files = dir.listFiles();
+	    for (int i = 0; files != null && i < files.length; i++) {
+		files[i].delete();
+	    }
+	    dir.delete();
+	}
+    }
+
+    /**
+     * Writes this snapshot to a file.
+     *
+     * @param path the path of the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void dump(String path) throws IOException {
+	DataOutputStream dos = new DataOutputStream(new
+		BufferedOutputStream(new FileOutputStream(path)));
+	try {
+	    dos.writeInt(MAGIC);
+	    dos.writeInt(VERSION);
+	    Utilities.outString(dos, voiceName);
+	    Utilities.outString(dos, voiceClassName);
+	    dos.writeInt(sections.size());
+	    for (Iterator<Map.Entry<String, Section>> i =
+		     sections.entrySet().iterator(); i.hasNext(); ) {
+		Map.Entry<String, Section> entry = i.next();
+		Section section = entry.getValue();
+		ByteBuffer data = section.data.duplicate();
+		Utilities.outString(dos, entry.getKey());
+		dos.writeByte(section.type);
+		dos.writeInt(data.remaining());
+		while (data.hasRemaining()) {
+		    dos.writeByte(data.get());
+		}
+	    }
+	} finally {
+	    dos.close();
+	}
+    }
+
+    /**
+     * Adds a section.
+     *
+     * @param name the name of the section
+     * @param type the type of the section
+     * @param bytes the data of the section
+     */
+    private void add(String name, byte type, ByteArrayOutputStream bytes) {
+	sections.put(name,
+		new Section(type, ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    /**
+     * Adds the contents of a file as a resource.
+     *
+     * @param name the name of the section
+     * @param file the file
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private void addFile(String name, File file) throws IOException {
+	addResource(name, file.toURI().toURL());
+    }
+
+    /**
+     * Builds the snapshot of a voice.
+     *
+     * @param args the name of the voice and the file to write
+     */
+    public static void main(String[] args) {
+	if (args.length != 2) {
+	    System.out.println(
+		    "Usage: java com.sun.speech.freetts.en.us.VoiceSnapshot "
+		    + "voiceName snapshotFile");
+	    System.exit(1);
+	}
+	Voice voice = VoiceManager.getInstance().getVoice(args[0]);
+	if (!(voice instanceof CMUVoice)) {
+	    System.out.println("Can't find a CMU voice named " + args[0]);
+	    System.exit(1);
+	}
+	try {
+	    VoiceSnapshot snapshot = new VoiceSnapshot(voice);
+	    ((CMUVoice) voice).setSnapshot(snapshot);
+	    voice.allocate();
+	    if (voice.getLexicon() instanceof LexiconImpl) {
+		snapshot.addLexicon((LexiconImpl) voice.getLexicon());
+	    }
+	    snapshot.dump(args[1]);
+	    voice.deallocate();
+	} catch (IOException ioe) {
+	    System.out.println("Can't write snapshot: " + ioe);
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * A section of a snapshot.
+     */
+    private static class Section {
+	final byte type;
+	final ByteBuffer data;
+
+	Section(byte type, ByteBuffer data) {
+	    this.type = type;
+	    this.data = data;
+	}
+    }
+
+    /**
+     * Opens the URLs of the resources in the snapshot.
+     */
+    private class SectionHandler extends URLStreamHandler {
+	protected URLConnection openConnection(URL url) throws IOException {
+	    String path = url.getFile();
+	    String name = path.substring(path.lastIndexOf("!/") + 2);
+	    final Section section = sections.get(name);
+	    if (section == null) {
+		throw new IOException("no " + name + " in snapshot");
+	    }
+	    return new URLConnection(url) {
+		public void connect() {
+		    connected = true;
+		}
+
+		public int getContentLength() {
+		    return section.data.remaining();
+		}
+
+		public InputStream getInputStream() {
+		    return new SectionInputStream(section.data.duplicate());
+		}
+	    };
+	}
+    }
+
+    /**
+     * Reads the data of a section.
+     */
+    private static class SectionInputStream extends InputStream {
+	private final ByteBuffer data;
+
+	SectionInputStream(ByteBuffer data) {
+	    this.data = data;
+	}
+
+	public int read() {
+	    return data.hasRemaining() ? data.get() & 0xff : -1;
+	}
+
+	public int read(byte[] b, int off, int len) {
+	    if (len == 0) {
+		return 0;
+	    }
+	    if (!data.hasRemaining()) {
+		return -1;
+	    }
+	    len = Math.min(len, data.remaining());
+	    data.get(b, off, len);
+	    return len;
+	}
+
+	public int available() {
+	    return data.remaining();
+	}
+    }
+}
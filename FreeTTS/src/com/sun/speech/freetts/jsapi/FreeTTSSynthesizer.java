@@ -9,32 +9,86 @@ package com.sun.speech.freetts.jsapi;
 
 import java.beans.PropertyVetoException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.speech.EngineException;
 import javax.speech.EngineStateError;
+import javax.speech.synthesis.JSMLException;
+import javax.speech.synthesis.SpeakableListener;
 import javax.speech.synthesis.SynthesizerModeDesc;
 
+import org.w3c.dom.Document;
+
 import com.sun.speech.engine.BaseEngineProperties;
 import com.sun.speech.engine.synthesis.BaseSynthesizer;
 import com.sun.speech.engine.synthesis.BaseSynthesizerProperties;
 import com.sun.speech.engine.synthesis.BaseSynthesizerQueueItem;
 import com.sun.speech.engine.synthesis.BaseVoice;
+import com.sun.speech.freetts.FreeTTSSpeakable;
 import com.sun.speech.freetts.OutputQueue;
 import com.sun.speech.freetts.audio.AudioPlayer;
+import com.sun.speech.freetts.util.Utilities;
 
 /**
  * Provides  partial support for a JSAPI 1.0 synthesizer for the 
  * FreeTTS speech synthesis system.
+ * <p>
+ * By default each synthesizer has a thread that takes items off its
+ * queue and an output thread that plays them.  When many
+ * synthesizers are used at once they can instead share a pool of
+ * threads:  an item is then synthesized and played by a pool thread,
+ * and a synthesizer with nothing to speak holds no thread at all.
+ * The pool bounds the number of synthesizers speaking at once, since
+ * a synthesizer holds its thread while its audio is played or
+ * paused.  The mode is controlled by the following system properties:
+ * <pre>
+ *   com.sun.speech.freetts.jsapi.sharedThreads - "true" to share
+ *       a pool of threads, default "false"
+ *   com.sun.speech.freetts.jsapi.sharedThreadCount - the number of
+ *       threads in the pool, default twice the number of processors
+ * </pre>
+ * <p>
+ * Items can be given a priority when they are queued.  The queue is
+ * kept in order of priority, and an item with a higher priority than
+ * the one being spoken interrupts it at once:  the synthesis and the
+ * audio of the interrupted item are stopped, and it is spoken again
+ * from its start after the more urgent items.  Its listeners see it
+ * paused when it is interrupted and resumed when it is spoken again.
  */
 public class FreeTTSSynthesizer extends BaseSynthesizer {
     /** Logger instance. */
     private static final Logger LOGGER =
         Logger.getLogger(FreeTTSSynthesizer.class.getName());
 
+    /**
+     * The priority of the items queued without one.
+     */
+    public final static int NORMAL_PRIORITY = 0;
+
+    private final static String PROP_PREFIX =
+	"com.sun.speech.freetts.jsapi.";
+
+    /**
+     * The threads shared by the synthesizers, created when first
+     * needed.
+     */
+    private static ExecutorService sharedThreads = null;
+
+    /**
+     * Whether this synthesizer runs on the shared threads.
+     */
+    private final boolean shared = Utilities.getProperty(
+	    PROP_PREFIX + "sharedThreads", "false").equals("true");
+
     /**
      * Reference to output thread.
      */
@@ -47,6 +101,12 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 
     private AudioPlayer audio;
 
+    /**
+     * The time the audio of the last interrupted item took to stop,
+     * in microseconds.
+     */
+    private volatile long bargeInLatency = -1;
+
     /**
      * All voice output for this synthesizer goes through
      * this central utterance queue
@@ -68,7 +128,8 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
     /**
      * Starts the output thread. The output thread is responsible for
      * taking items off of the queue and sending them to the audio
-     * player.
+     * player.  When the shared threads are used, no thread is started
+     * and the audio is played by the thread that synthesizes it.
      *
      * @throws EngineException if an allocation error occurs
      */
@@ -79,7 +140,9 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 	    getEngineModeDesc();
 
 
-	outputQueue = com.sun.speech.freetts.Voice.createOutputThread();
+	if (!shared) {
+	    outputQueue = com.sun.speech.freetts.Voice.createOutputThread();
+	}
 
 	if (desc.getVoices().length > 0) {
 	    FreeTTSVoice freettsVoice = (FreeTTSVoice) desc.getVoices()[0];
@@ -96,7 +159,9 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 			     : QUEUE_NOT_EMPTY);
 		states = setEngineState(CLEAR_ALL_STATE, newState);
 	    }
-	    outputHandler.start();
+	    if (!shared) {
+		outputHandler.start();
+	    }
 	    postEngineAllocated(states[0], states[1]);
 	} else {
 	    throw new EngineException("Can't allocate FreeTTS synthesizer");
@@ -162,7 +227,9 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
             }
         }
 
-        outputQueue.close();
+        if (outputQueue != null) {
+            outputQueue.close();
+        }
 
         postEngineDeallocated(states[0], states[1]);
     }
@@ -199,6 +266,73 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
         outputHandler.appendQueue((FreeTTSSynthesizerQueueItem) item);
     }
 
+    /**
+     * Speaks JSML text with the given priority.  The item is queued
+     * ahead of the items with a lower priority, and interrupts the
+     * item being spoken if that has a lower priority.
+     *
+     * @param jsmlText the JSML text to speak
+     * @param listener the listener for the events of the item, or
+     *    <code>null</code>
+     * @param priority the priority of the item; items queued without
+     *    one have the priority <code>NORMAL_PRIORITY</code>
+     *
+     * @throws JSMLException if the JSML text is not valid
+     * @throws EngineStateError if the synthesizer is not in the
+     * 				proper state
+     */
+    public void speak(String jsmlText, SpeakableListener listener,
+	    int priority) throws JSMLException, EngineStateError {
+        checkEngineState(DEALLOCATED | DEALLOCATING_RESOURCES);
+	FreeTTSSynthesizerQueueItem item =
+	    (FreeTTSSynthesizerQueueItem) createQueueItem();
+	item.setText(this, jsmlText, false, listener);
+	item.setPriority(priority);
+	appendQueue(item);
+    }
+
+    /**
+     * Speaks plain text with the given priority.  The item is queued
+     * ahead of the items with a lower priority, and interrupts the
+     * item being spoken if that has a lower priority.
+     *
+     * @param text the text to speak
+     * @param listener the listener for the events of the item, or
+     *    <code>null</code>
+     * @param priority the priority of the item; items queued without
+     *    one have the priority <code>NORMAL_PRIORITY</code>
+     *
+     * @throws EngineStateError if the synthesizer is not in the
+     * 				proper state
+     */
+    public void speakPlainText(String text, SpeakableListener listener,
+	    int priority) throws EngineStateError {
+        checkEngineState(DEALLOCATED | DEALLOCATING_RESOURCES);
+	FreeTTSSynthesizerQueueItem item =
+	    (FreeTTSSynthesizerQueueItem) createQueueItem();
+	try {
+	    item.setText(this, text, true, listener);
+	} catch (JSMLException je) {
+	    throw new RuntimeException("JSMLException should never occur");
+	}
+	item.setPriority(priority);
+	appendQueue(item);
+    }
+
+    /**
+     * Returns how long it took the audio of the last interrupted item
+     * to stop: the time from the arrival of the more urgent item
+     * until the <code>cancel</code> of the audio player returned.
+     * The synthesis of the interrupted item may still be winding
+     * down at that point, but no more of its audio is played.
+     *
+     * @return the latency in microseconds, or -1 if no item has been
+     *    interrupted yet
+     */
+    public long getBargeInLatency() {
+	return bargeInLatency;
+    }
+
     /**
      * Cancels the item at the top of the queue.
      *
@@ -479,12 +613,65 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
      }
 
 
+    /**
+     * Returns the threads shared by the synthesizers, creating them
+     * if needed.
+     *
+     * @return the shared threads
+     */
+    private static synchronized ExecutorService getSharedThreads() {
+	if (sharedThreads == null) {
+	    int count = Utilities.getInteger(PROP_PREFIX + "sharedThreadCount",
+		    Runtime.getRuntime().availableProcessors() * 2).intValue();
+	    sharedThreads = Executors.newFixedThreadPool(count,
+		    new ThreadFactory() {
+		private final AtomicInteger number = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "FreeTTS shared output "
+			    + number.incrementAndGet());
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+	}
+	return sharedThreads;
+    }
+
+
     /**
      * The OutputHandler is responsible for taking items off of the
-     * input queue and sending them to the current voice.
+     * input queue and sending them to the current voice.  It either
+     * runs as a thread of its own or, when the threads are shared,
+     * hands itself to a shared thread whenever items are added to an
+     * empty queue, and gives the thread back once the queue is empty.
      */
     class OutputHandler extends Thread {
         protected boolean done = false;
+
+        /**
+         * Whether the handler has been handed to a shared thread.
+         */
+        private boolean scheduled = false;
+
+        /**
+         * The item being spoken, if any.
+         */
+        private Attempt current = null;
+        
+        /**
+         * Empties the queue in a shared thread.
+         */
+        private final Runnable drainer = new Runnable() {
+            public void run() {
+                FreeTTSSynthesizerQueueItem item;
+                while ((item = getSharedQueueItem()) != null) {
+                    if (outputItem(item)) {
+                        removeQueueItem(item);
+                    }
+                }
+            }
+        };
         
         /**
          * Internal speech output queue that will contain a set of 
@@ -492,13 +679,13 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
          *
          * @see BaseSynthesizerQueueItem
          */
-        protected Vector queue;
+        protected Vector<FreeTTSSynthesizerQueueItem> queue;
 
         /**
          * Create a new OutputHandler for the given Synthesizer.
          */
         public OutputHandler() {
-            queue = new Vector();
+            queue = new Vector<FreeTTSSynthesizerQueueItem>();
         }
 
         /**
@@ -534,23 +721,61 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
         }
         
         /**
-         * Add an item to be spoken to the output queue. Fires the
-	 * appropriate queue events
+         * Add an item to be spoken to the output queue, after the
+	 * items with the same or a higher priority. If the item has a
+	 * higher priority than the item at the top of the queue, it
+	 * goes to the top and the item being spoken is interrupted.
+	 * Fires the appropriate queue events
 	 *
 	 * @param item the item to add to the queue
          */
         public void appendQueue(FreeTTSSynthesizerQueueItem item) {
             boolean topOfQueueChanged;
+            boolean schedule = false;
             synchronized(queue) {
-                topOfQueueChanged = (queue.size() == 0);
-                queue.addElement(item);
+                int priority = item.getPriority();
+                int index = queue.size();
+                if (index > 0 && priority > getPriority(0)) {
+                    index = 0;
+                    if (current != null && current.interrupt()) {
+                        audio.cancel();
+                        current.audioStopped();
+                        bargeInLatency = current.getStopTime() / 1000L;
+                    }
+                } else {
+                    for (int i = 1; i < queue.size(); i++) {
+                        if (priority > getPriority(i)) {
+                            index = i;
+                            break;
+                        }
+                    }
+                }
+                topOfQueueChanged = (index == 0);
+                queue.insertElementAt(item, index);
                 queue.notifyAll();
+                if (shared && !scheduled && !done) {
+                    scheduled = schedule = true;
+                }
             }            
             if (topOfQueueChanged) {
                 long[] states = setEngineState(QUEUE_EMPTY,
                                                QUEUE_NOT_EMPTY);
                 postQueueUpdated(topOfQueueChanged, states[0], states[1]);
             }
+            if (schedule) {
+                getSharedThreads().execute(drainer);
+            }
+        }
+
+        /**
+         * Returns the priority of an item of the queue.
+	 *
+	 * @param index the index of the item
+	 *
+	 * @return the priority
+         */
+        private int getPriority(int index) {
+            return queue.elementAt(index).getPriority();
         }
 
         /**
@@ -562,7 +787,7 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 	    synchronized(queue) {
 	        audio.cancel();
 		if (queue.size() != 0) {
-		    item = (FreeTTSSynthesizerQueueItem) queue.remove(0);
+		    item = queue.remove(0);
 		    if (item != null) {
 			// item.postSpeakableCancelled();
 			item.cancelled();
@@ -577,16 +802,17 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
          */
         protected void cancelAllItems() {
 	    FreeTTSSynthesizerQueueItem item = null;
-	    Vector copy;
+	    Vector<FreeTTSSynthesizerQueueItem> copy;
 
 	    synchronized(queue) {
 	        audio.cancel();
-	    	copy = (Vector) queue.clone();
+	    	copy = new Vector<FreeTTSSynthesizerQueueItem>(queue);
 		queue.clear();
 		queueDrained();
 	    }
-	    for (Iterator i = copy.iterator(); i.hasNext(); ) {
-		item = (FreeTTSSynthesizerQueueItem) i.next();
+	    for (Iterator<FreeTTSSynthesizerQueueItem> i = copy.iterator();
+		    i.hasNext(); ) {
+		item = i.next();
 		// item.postSpeakableCancelled();
                 item.cancelled();
 	    }
@@ -605,7 +831,7 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 		if (index == 0) {
 		    cancelItem();
 		} else {
-		    item = (FreeTTSSynthesizerQueueItem) queue.remove(index);
+		    item = queue.remove(index);
 		    if (item != null) {
 			// item.postSpeakableCancelled();
 			item.cancelled();
@@ -622,8 +848,7 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
             FreeTTSSynthesizerQueueItem item;
             while (!done) {
                 item = getQueueItem();
-		if (item != null) {
-		    outputItem(item);
+		if (item != null && outputItem(item)) {
 		    removeQueueItem(item); 
 		}
             }
@@ -650,7 +875,28 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 		if (done) {
 		    return null;
 		}
-                item = (FreeTTSSynthesizerQueueItem) queue.elementAt(0);
+                item = queue.elementAt(0);
+            }
+	    item.postTopOfQueue();
+	    return item;
+        }
+
+        /**
+         * Return, but do not remove, the first item on the queue,
+         * without waiting for one.  If there is none, the shared
+         * thread is given back.
+	 *
+	 * @return a queue item, or <code>null</code> if the queue is
+	 *    empty or the handler has been terminated
+         */
+        private FreeTTSSynthesizerQueueItem getSharedQueueItem() {
+	    FreeTTSSynthesizerQueueItem item;
+            synchronized(queue) {
+		if (done || queue.size() == 0) {
+		    scheduled = false;
+		    return null;
+		}
+                item = queue.elementAt(0);
             }
 	    item.postTopOfQueue();
 	    return item;
@@ -690,13 +936,206 @@ public class FreeTTSSynthesizer extends BaseSynthesizer {
 	}
 
         /**
-         * Outputs the given queue item to the current voice
+         * Outputs the given queue item to the current voice, unless
+	 * a more urgent item has been queued ahead of it.
 	 *
 	 * @param item the item to output
+	 *
+	 * @return <code>true</code> if the item is done with, or
+	 *    <code>false</code> if it was interrupted and stays on the
+	 *    queue
          */
-        protected void outputItem(FreeTTSSynthesizerQueueItem item) {
+        protected boolean outputItem(FreeTTSSynthesizerQueueItem item) {
 	    com.sun.speech.freetts.Voice voice = curVoice.getVoice();
-	    voice.speak(item);
+	    Attempt attempt = new Attempt(item);
+	    synchronized (queue) {
+		if (queue.size() == 0 || queue.elementAt(0) != item) {
+		    return false;
+		}
+		current = attempt;
+	    }
+	    voice.speak(attempt);
+	    synchronized (queue) {
+		current = null;
+	    }
+	    if (attempt.isInterrupted()) {
+		item.setInterrupted();
+		item.postSpeakablePaused();
+		if (LOGGER.isLoggable(Level.FINE)) {
+		    LOGGER.fine("item interrupted, audio stopped after "
+			    + attempt.getStopTime() / 1000L + " us");
+		}
+		return false;
+	    }
+	    return true;
         }
     }
+
+    /**
+     * One attempt at speaking a queue item.  The attempt ends when
+     * the item is spoken or cancelled, or when it is interrupted by a
+     * more urgent item, which leaves the item on the queue to be
+     * spoken again.  The waits and notifications of the attempt use
+     * the lock of the item, so that cancelling the item also ends the
+     * attempt.
+     */
+    private static class Attempt implements FreeTTSSpeakable {
+	private final FreeTTSSynthesizerQueueItem item;
+	private boolean done = false;
+	private boolean interrupted = false;
+	private long interruptTime;
+	private long stopTime;
+
+	/**
+	 * Creates an attempt at speaking the given item.
+	 *
+	 * @param item the item
+	 */
+	Attempt(FreeTTSSynthesizerQueueItem item) {
+	    this.item = item;
+	}
+
+	/**
+	 * Interrupts this attempt, unless it has ended.
+	 *
+	 * @return <code>true</code> if the attempt was interrupted
+	 */
+	boolean interrupt() {
+	    synchronized (item) {
+		if (done || item.isCompleted()) {
+		    return false;
+		}
+		done = true;
+		interrupted = true;
+		interruptTime = System.nanoTime();
+		item.notifyAll();
+		return true;
+	    }
+	}
+
+	/**
+	 * Determines if this attempt was interrupted.
+	 *
+	 * @return <code>true</code> if the attempt was interrupted
+	 */
+	boolean isInterrupted() {
+	    synchronized (item) {
+		return interrupted;
+	    }
+	}
+
+	/**
+	 * Notes that the audio of this interrupted attempt has been
+	 * cancelled.
+	 */
+	void audioStopped() {
+	    synchronized (item) {
+		stopTime = System.nanoTime() - interruptTime;
+	    }
+	}
+
+	/**
+	 * Returns the time the audio of this attempt took to stop once
+	 * it was interrupted.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	long getStopTime() {
+	    synchronized (item) {
+		return stopTime;
+	    }
+	}
+
+	/**
+	 * Indicates that the item has started, or started again after
+	 * an interruption.
+	 */
+	public void started() {
+	    if (item.isInterrupted()) {
+		item.postSpeakableResumed();
+	    } else {
+		item.started();
+	    }
+	}
+
+	/**
+	 * Indicates that the item has been spoken.
+	 */
+	public void completed() {
+	    synchronized (item) {
+		if (done) {
+		    return;
+		}
+		done = true;
+	    }
+	    item.completed();
+	}
+
+	/**
+	 * Indicates that the item has been cancelled.  An interrupted
+	 * attempt is not cancelled; the item is spoken again.
+	 */
+	public void cancelled() {
+	    synchronized (item) {
+		if (done) {
+		    return;
+		}
+		done = true;
+	    }
+	    item.cancelled();
+	}
+
+	/**
+	 * Determines if this attempt has ended.
+	 *
+	 * @return <code>true</code> if the attempt has ended
+	 */
+	public boolean isCompleted() {
+	    synchronized (item) {
+		return done || item.isCompleted();
+	    }
+	}
+
+	/**
+	 * Waits for this attempt to end.
+	 *
+	 * @return <code>true</code> if the item was spoken properly
+	 */
+	public boolean waitCompleted() {
+	    synchronized (item) {
+		while (!isCompleted()) {
+		    try {
+			item.wait();
+		    } catch (InterruptedException ie) {
+			return false;
+		    }
+		}
+		return !interrupted && item.waitCompleted();
+	    }
+	}
+
+	public boolean isPlainText() {
+	    return item.isPlainText();
+	}
+
+	public boolean isStream() {
+	    return item.isStream();
+	}
+
+	public boolean isDocument() {
+	    return item.isDocument();
+	}
+
+	public String getText() {
+	    return item.getText();
+	}
+
+	public Document getDocument() {
+	    return item.getDocument();
+	}
+
+	public InputStream getInputStream() {
+	    return item.getInputStream();
+	}
+    }
 }
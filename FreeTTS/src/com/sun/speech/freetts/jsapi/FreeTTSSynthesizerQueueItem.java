@@ -9,8 +9,12 @@ package com.sun.speech.freetts.jsapi;
 
 import java.io.InputStream;
 
+import javax.speech.synthesis.JSMLException;
+import javax.speech.synthesis.SpeakableListener;
+
 import org.w3c.dom.Document;
 
+import com.sun.speech.engine.synthesis.BaseSynthesizer;
 import com.sun.speech.engine.synthesis.BaseSynthesizerQueueItem;
 import com.sun.speech.freetts.FreeTTSSpeakable;
 
@@ -18,11 +22,14 @@ import com.sun.speech.freetts.FreeTTSSpeakable;
  * Represents an object on the speech output queue of a
  * <code>FreeTTSSynthesizer</code>.
  * Extends the BaseSynthesizerQueueItem by allowing access to the DOM
- * document.
+ * document, and gives the item a priority.
  */
 
 public class FreeTTSSynthesizerQueueItem extends BaseSynthesizerQueueItem 
 		implements FreeTTSSpeakable {
+    private volatile int priority = FreeTTSSynthesizer.NORMAL_PRIORITY;
+    private volatile boolean interrupted = false;
+
     /**
      * Construct a queue item.
      */
@@ -30,6 +37,59 @@ public class FreeTTSSynthesizerQueueItem extends BaseSynthesizerQueueItem
         super();
     }
 
+    /**
+     * Sets the text of this item.
+     *
+     * @param synth the synthesizer that speaks the item
+     * @param text the text
+     * @param plainText <code>true</code> if the text is plain text,
+     *    <code>false</code> if it is JSML
+     * @param listener the listener for the events of the item, or
+     *    <code>null</code>
+     *
+     * @throws JSMLException if the JSML text is not valid
+     */
+    void setText(BaseSynthesizer synth, String text, boolean plainText,
+	    SpeakableListener listener) throws JSMLException {
+	setData(synth, text, plainText, listener);
+    }
+
+    /**
+     * Gets the priority of this item.  Items with a higher priority
+     * are spoken first, and interrupt items with a lower priority.
+     *
+     * @return the priority
+     */
+    public int getPriority() {
+	return priority;
+    }
+
+    /**
+     * Sets the priority of this item.
+     *
+     * @param priority the priority
+     */
+    void setPriority(int priority) {
+	this.priority = priority;
+    }
+
+    /**
+     * Determines if this item has been interrupted by an item with a
+     * higher priority, and will be spoken again.
+     *
+     * @return <code>true</code> if the item was interrupted
+     */
+    boolean isInterrupted() {
+	return interrupted;
+    }
+
+    /**
+     * Notes that this item has been interrupted.
+     */
+    void setInterrupted() {
+	interrupted = true;
+    }
+
     /**
      * Gets the DOM document for this object.
      *
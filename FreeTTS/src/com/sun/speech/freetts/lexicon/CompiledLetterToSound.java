@@ -0,0 +1,286 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.lexicon;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Letter-to-sound rules compiled into parallel arrays.  The rules
+ * are those of a {@link LetterToSoundImpl}, and the phones are the
+ * same, but the state machine is held as arrays of ints and chars
+ * indexed by state instead of <code>State</code> objects, the phones
+ * of the final states are phone ids, and the start states of the
+ * letters are found without a map.  The context of a letter is read
+ * from the word itself rather than from a padded copy, so the only
+ * objects created for a word are its result and a scratch array.
+ *
+ * <p>An instance can be shared by several threads.
+ */
+public class CompiledLetterToSound implements LetterToSound {
+    /**
+     * The 'window size' of the LTS rules.
+     */
+    private final static int WINDOW_SIZE = 4;
+
+    /**
+     * The start states of the letters below this value are kept in
+     * a table.
+     */
+    private final static int TABLE_LETTERS = 128;
+
+    /**
+     * No phones.
+     */
+    private final static String[] NO_PHONES = new String[0];
+
+    /**
+     * For each decision state, the index into the context window;
+     * -1 for the final states.
+     */
+    private final int[] windowIndex;
+
+    /**
+     * For each decision state, the character to match.
+     */
+    private final char[] stateChar;
+
+    /**
+     * For each decision state, the states to go to on a match and
+     * on no match.  For a final state, the offset and the number of
+     * its phones in <code>phoneIds</code>.
+     */
+    private final int[] qtrue;
+    private final int[] qfalse;
+
+    private final int[] phoneIds;
+    private final String[] phones;
+
+    /**
+     * The start states of the letters below TABLE_LETTERS, -1 if
+     * none, and of the other letters, sorted by letter.
+     */
+    private final int[] startStates = new int[TABLE_LETTERS];
+    private final char[] otherLetters;
+    private final int[] otherStartStates;
+
+    /**
+     * Loads the LTS rules from the given URL and compiles them.
+     *
+     * @param ltsRules a URL pointing to the rules
+     * @param binary if true, the URL is a binary source
+     *
+     * @throws IOException if errors are encountered while reading the
+     *   rules
+     */
+    public CompiledLetterToSound(URL ltsRules, boolean binary)
+	throws IOException {
+	this(new LetterToSoundImpl(ltsRules, binary));
+    }
+
+    /**
+     * Compiles the rules of the given letter-to-sound rules.
+     *
+     * @param lts the rules to compile
+     */
+    public CompiledLetterToSound(LetterToSoundImpl lts) {
+	int numStates = lts.getNumberOfStates();
+	windowIndex = new int[numStates];
+	stateChar = new char[numStates];
+	qtrue = new int[numStates];
+	qfalse = new int[numStates];
+
+	Map<String, Integer> phoneIndex = new HashMap<String, Integer>();
+	List<String> phoneList = new ArrayList<String>();
+	int[] ids = new int[numStates * 2];
+	int numIds = 0;
+
+	for (int i = 0; i < numStates; i++) {
+	    LetterToSoundImpl.State state = lts.getState(i);
+	    if (state instanceof LetterToSoundImpl.DecisionState) {
+		LetterToSoundImpl.DecisionState decision =
+		    (LetterToSoundImpl.DecisionState) state;
+		windowIndex[i] = decision.index;
+		stateChar[i] = decision.c;
+		qtrue[i] = decision.qtrue;
+		qfalse[i] = decision.qfalse;
+	    } else {
+		String[] list = ((LetterToSoundImpl.FinalState) state).phoneList;
+		int count = list == null ? 0 : list.length;
+		windowIndex[i] = -1;
+		qtrue[i] = numIds;
+		qfalse[i] = count;
+		if (numIds + count > ids.length) {
+		    ids = Arrays.copyOf(ids, (numIds + count) * 2);
+		}
+		for (int j = 0; j < count; j++) {
+		    Integer id = phoneIndex.get(list[j]);
+		    if (id == null) {
+			id = new Integer(phoneList.size());
+			phoneIndex.put(list[j], id);
+			phoneList.add(list[j]);
+		    }
+		    ids[numIds++] = id.intValue();
+		}
+	    }
+	}
+	phoneIds = Arrays.copyOf(ids, numIds);
+	phones = phoneList.toArray(new String[phoneList.size()]);
+
+	Arrays.fill(startStates, -1);
+	List<String> others = new ArrayList<String>();
+	for (Iterator<?> i = lts.letterIndex.keySet().iterator(); i.hasNext(); ) {
+	    String letter = (String) i.next();
+	    if (letter.length() != 1) {
+		continue;	// never looked up
+	    }
+	    int start = ((Integer) lts.letterIndex.get(letter)).intValue();
+	    if (letter.charAt(0) < TABLE_LETTERS) {
+		startStates[letter.charAt(0)] = start;
+	    } else {
+		others.add(letter);
+	    }
+	}
+	String[] sorted = others.toArray(new String[others.size()]);
+	Arrays.sort(sorted);
+	otherLetters = new char[sorted.length];
+	otherStartStates = new int[sorted.length];
+	for (int i = 0; i < sorted.length; i++) {
+	    otherLetters[i] = sorted[i].charAt(0);
+	    otherStartStates[i] =
+		((Integer) lts.letterIndex.get(sorted[i])).intValue();
+	}
+    }
+
+    /**
+     * Calculates the phone list for a given word.  This particular
+     * implementation ignores the part of speech.
+     *
+     * @param word the word to find
+     * @param partOfSpeech the part of speech.
+     *
+     * @return the list of phones for word
+     */
+    public String[] getPhones(String word, String partOfSpeech) {
+	return getPhones(word, new int[word.length()]);
+    }
+
+    /**
+     * Calculates the phone lists for a number of words.  This
+     * particular implementation ignores the part of speech.
+     *
+     * @param words the words to find
+     * @param partOfSpeech the part of speech.
+     *
+     * @return the list of phones for each word
+     */
+    public String[][] getPhones(String[] words, String partOfSpeech) {
+	int longest = 0;
+	for (int i = 0; i < words.length; i++) {
+	    longest = Math.max(longest, words[i].length());
+	}
+	int[] finals = new int[longest];
+	String[][] result = new String[words.length][];
+	for (int i = 0; i < words.length; i++) {
+	    result[i] = getPhones(words[i], finals);
+	}
+	return result;
+    }
+
+    /**
+     * Calculates the phone list for a given word.
+     *
+     * @param word the word to find
+     * @param finals scratch space for the final state of each letter;
+     *    at least as long as the word
+     *
+     * @return the list of phones for word
+     */
+    private String[] getPhones(String word, int[] finals) {
+	int length = word.length();
+	int numPhones = 0;
+
+	// Run the state machine for each letter of the word, from
+	// beginning to end, and remember the final state reached.
+	//
+	for (int pos = 0; pos < length; pos++) {
+	    int state = getStartState(word.charAt(pos));
+	    if (state < 0) {
+		finals[pos] = -1;
+		continue;
+	    }
+	    int index;
+	    while ((index = windowIndex[state]) >= 0) {
+		state = getContext(word, pos, index) == stateChar[state]
+		    ? qtrue[state]
+		    : qfalse[state];
+	    }
+	    finals[pos] = state;
+	    numPhones += qfalse[state];
+	}
+
+	if (numPhones == 0) {
+	    return NO_PHONES;
+	}
+	String[] result = new String[numPhones];
+	for (int pos = 0, n = 0; pos < length; pos++) {
+	    int state = finals[pos];
+	    if (state >= 0) {
+		for (int i = qtrue[state], end = i + qfalse[state];
+			i < end; i++) {
+		    result[n++] = phones[phoneIds[i]];
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Returns the start state of a letter.
+     *
+     * @param c the letter
+     *
+     * @return the start state, or -1 if there are no rules for it
+     */
+    private int getStartState(char c) {
+	if (c < TABLE_LETTERS) {
+	    return startStates[c];
+	}
+	int i = Arrays.binarySearch(otherLetters, c);
+	return i < 0 ? -1 : otherStartStates[i];
+    }
+
+    /**
+     * Returns a character of the context window of a letter.  The
+     * window holds the WINDOW_SIZE characters before and after the
+     * letter in the word padded as "000#word#000".
+     *
+     * @param word the word
+     * @param pos the position of the letter in the word
+     * @param index the index into the context window
+     *
+     * @return the character
+     */
+    private static char getContext(String word, int pos, int index) {
+	int i = pos + index - WINDOW_SIZE;
+	if (index >= WINDOW_SIZE) {
+	    i++;
+	}
+	if (i >= 0 && i < word.length()) {
+	    return word.charAt(i);
+	} else if (i == -1 || i == word.length()) {
+	    return '#';
+	} else {
+	    return '0';
+	}
+    }
+}
@@ -184,15 +184,6 @@ public class LetterToSoundImpl implements LetterToSound {
      */
     private final static int WINDOW_SIZE = 4;
         
-    /**
-     * An array of characters to hold a string for checking against a
-     * rule.  This will be reused over and over again, so the goal
-     * was just to have a single area instead of new'ing up a new one
-     * for every word.  The name choice is to match that in Flite's
-     * <code>cst_lts.c</code>.
-     */
-    private char[] fval_buff = new char[WINDOW_SIZE * 2];
-    
     /**
      * The indexes of the starting points for letters in the state machine.
      */
@@ -420,6 +411,15 @@ public class LetterToSoundImpl implements LetterToSound {
     }
 
 
+    /**
+     * Returns the number of states in the state machine.
+     *
+     * @return the number of states
+     */
+    int getNumberOfStates() {
+	return stateMachine.length;
+    }
+
     /**
      * Gets the <code>State</code> at the given index.  This may
      * replace a <code>String</code> at
@@ -520,6 +520,14 @@ public class LetterToSoundImpl implements LetterToSound {
         int stateIndex;
         char c;
 
+        // An array of characters to hold a string for checking
+        // against a rule.  It is reused for every letter of the word,
+        // and is local so that a single LetterToSoundImpl can be
+        // shared by concurrent synthesis threads.  The name choice is
+        // to match that in Flite's cst_lts.c.
+        //
+        char[] fval_buff = new char[WINDOW_SIZE * 2];
+
         // Create "000#word#000"
         //
         char[] full_buff = getFullBuff(word);
@@ -13,6 +13,7 @@ package com.sun.speech.freetts.lexicon;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
@@ -78,6 +79,13 @@ import com.sun.speech.freetts.util.Utilities;
  * Where &lt;URLToUserAddenda> is a URL pointing to an ASCII file
  * containing addenda entries.
  *
+ * <p>The compiled lexicon is dumped in an indexed binary form.  When
+ * it is loaded, only the phonemes and the parts of speech are read;
+ * the words are looked up directly in the (usually mapped) binary
+ * data, so the entries of the lexicon take no heap space.  Binary
+ * lexicons in the older form, which are read into a <code>Map</code>,
+ * can still be loaded.
+ *
  * <p>[[[TODO: support multiple homographs with the same part of speech.]]] 
  */
 abstract public class LexiconImpl implements Lexicon {
@@ -106,6 +114,11 @@ abstract public class LexiconImpl implements Lexicon {
      */
     private final static int VERSION = 1;
 
+    /**
+     * Version of the indexed binary form, which is read in place.
+     */
+    private final static int INDEXED_VERSION = 2;
+
     /**
      * URL for the compiled form.
      */
@@ -139,7 +152,7 @@ abstract public class LexiconImpl implements Lexicon {
     /**
      * Parts of Speech.
      */
-    private ArrayList partsOfSpeech = new ArrayList();
+    private ArrayList<String> partsOfSpeech = new ArrayList<String>();
 
     /**
      * A static directory of compiledURL URL objects and associated
@@ -307,7 +320,7 @@ abstract public class LexiconImpl implements Lexicon {
         
 	loaded = true;
 	BulkTimer.LOAD.stop("Lexicon");
-	letterToSound = new LetterToSoundImpl(letterToSoundURL, binary);
+	letterToSound = new CompiledLetterToSound(letterToSoundURL, binary);
     }
 
     /**
@@ -459,9 +472,9 @@ abstract public class LexiconImpl implements Lexicon {
         for (int i = 0;
              (i < partsOfSpeech.size()) && (phones == null);
              i++) {
-            if (!partOfSpeech.equals((String) partsOfSpeech.get(i))) {
+            if (!partOfSpeech.equals(partsOfSpeech.get(i))) {
                 phones = getPhones(lexicon,
-                                   word + (String) partsOfSpeech.get(i));
+                                   word + partsOfSpeech.get(i));
             }
         }
         return phones;
@@ -673,7 +686,6 @@ abstract public class LexiconImpl implements Lexicon {
 
 	MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 
 		0, (int) fc.size());
-	bb.load();
 	int size = 0;
 	int numEntries = 0;
 	List phonemeList = new ArrayList();
@@ -688,9 +700,14 @@ abstract public class LexiconImpl implements Lexicon {
 	    throw new Error("bad magic number in lexicon");
 	}
 
-	if (bb.getInt() != VERSION) {
+	int version = bb.getInt();
+	if (version == INDEXED_VERSION) {
+	    fc.close();
+	    return loadIndexedLexicon(bb);
+	} else if (version != VERSION) {
 	    throw new Error("bad version number in lexicon");
 	}
+	bb.load();
 
 	size = bb.getInt();
 	for (int i = 0; i < size; i++) {
@@ -747,7 +764,17 @@ abstract public class LexiconImpl implements Lexicon {
 	    throw new Error("bad magic number in lexicon");
 	}
 
-	if (dis.readInt() != VERSION) {
+	int version = dis.readInt();
+	if (version == INDEXED_VERSION) {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    byte[] buffer = new byte[8192];
+	    int count;
+	    while ((count = dis.read(buffer)) > 0) {
+		bytes.write(buffer, 0, count);
+	    }
+	    dis.close();
+	    return loadIndexedLexicon(ByteBuffer.wrap(bytes.toByteArray()));
+	} else if (version != VERSION) {
 	    throw new Error("bad version number in lexicon");
 	}
 
@@ -778,6 +805,112 @@ abstract public class LexiconImpl implements Lexicon {
 	return lexicon;
     }
 
+    /**
+     * Creates a lexicon that reads the indexed binary form in place.
+     *
+     * @param bb the buffer holding the lexicon, positioned after the
+     *    version
+     *
+     * @return a <code>Map</code> containing the lexicon
+     */
+    private Map<String, String[]> loadIndexedLexicon(ByteBuffer bb) {
+	MappedLexicon lexicon = new MappedLexicon(bb);
+	List<String> pos = lexicon.getPartsOfSpeech();
+	for (int i = 0; i < pos.size(); i++) {
+	    if (!partsOfSpeech.contains(pos.get(i))) {
+		partsOfSpeech.add(pos.get(i));
+	    }
+	}
+	return lexicon;
+    }
+
+    /**
+     * Dumps the indexed binary form of the database, which can be
+     * read in place.  This method is not thread-safe.
+     *
+     * <p>Binary format is:
+     * <pre>
+     * MAGIC
+     * INDEXED_VERSION
+     * </pre>
+     * followed by the data described in {@link MappedLexicon}.
+     *
+     * @param lexicon the lexicon to dump 
+     * @param path the path to dump the file to
+     */
+    private void dumpIndexedLexicon(Map<?, ?> lexicon, String path) {
+	try {
+	    List<String> phonemeList = findPhonemes(lexicon);
+	    List<String> posList = new ArrayList<String>();
+	    int numEntries = lexicon.size();
+	    int numSlots = 1;
+	    while (numSlots < numEntries * 2) {
+		numSlots <<= 1;
+	    }
+	    int mask = numSlots - 1;
+	    int[] slots = new int[numSlots];
+	    for (int i = 0; i < numSlots; i++) {
+		slots[i] = -1;
+	    }
+
+	    ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+	    DataOutputStream entries = new DataOutputStream(entryBytes);
+	    for (Iterator<?> i = lexicon.keySet().iterator(); i.hasNext(); ) {
+		String key = (String) i.next();
+		String pos = key.substring(key.length() - 1);
+		if (!posList.contains(pos)) {
+		    posList.add(pos);
+		}
+
+		int slot = MappedLexicon.getSlot(key.hashCode(), mask);
+		while (slots[slot] != -1) {
+		    slot = (slot + 1) & mask;
+		}
+		slots[slot] = entries.size();
+
+		outString(entries, key);
+		String[] phonemes = getPhones(lexicon, key);
+		entries.writeByte((byte) phonemes.length);
+		for (int index = 0; index < phonemes.length; index++) {
+		    int phonemeIndex = phonemeList.indexOf(phonemes[index]);
+		    if (phonemeIndex == -1) {
+			throw new Error("Can't find phoneme index");
+		    }
+		    entries.writeByte((byte) phonemeIndex);
+		}
+	    }
+	    entries.close();
+
+	    FileOutputStream fos = new FileOutputStream(path);
+	    DataOutputStream dos = new DataOutputStream(new
+		    BufferedOutputStream(fos));
+	    dos.writeInt(MAGIC);
+	    dos.writeInt(INDEXED_VERSION);
+	    dos.writeInt(phonemeList.size());
+	    for (int i = 0; i < phonemeList.size(); i++) {
+		outString(dos, phonemeList.get(i));
+	    }
+	    dos.writeInt(posList.size());
+	    for (int i = 0; i < posList.size(); i++) {
+		outString(dos, posList.get(i));
+	    }
+	    dos.writeInt(numEntries);
+	    dos.writeInt(numSlots);
+	    dos.writeInt(entryBytes.size());
+	    for (int i = 0; i < numSlots; i++) {
+		dos.writeInt(slots[i]);
+	    }
+	    entryBytes.writeTo(dos);
+	    dos.close();
+	} catch (FileNotFoundException fe) {
+	    throw new Error("Can't dump binary database " +
+		    fe.getMessage());
+	} catch (IOException ioe) {
+	    throw new Error("Can't write binary database " +
+		    ioe.getMessage());
+	}
+    }
+
     /**
      * Dumps this lexicon (just the compiled form). Lexicon will be
      * dumped to two binary files PATH_compiled.bin and
@@ -789,10 +922,22 @@ abstract public class LexiconImpl implements Lexicon {
         String compiledPath = path + "_compiled.bin";
         String addendaPath = path + "_addenda.bin";
         
-        dumpBinaryLexicon(compiled, compiledPath);
+        dumpIndexedLexicon(compiled, compiledPath);
         dumpBinaryLexicon(addenda, addendaPath);
     }
 
+    /**
+     * Dumps the letter-to-sound rules of this lexicon to a binary
+     * file.
+     *
+     * @param path the path to dump the file to
+     *
+     * @throws IOException if a problem occurs during the dump
+     */
+    public void dumpLetterToSoundBinary(String path) throws IOException {
+	new LetterToSoundImpl(letterToSoundURL, binary).dumpBinary(path);
+    }
+
     /**
      * Returns a list of the unique phonemes in the lexicon.
      *
@@ -800,9 +945,9 @@ abstract public class LexiconImpl implements Lexicon {
      *
      * @return list the unique set of phonemes
      */
-    private List findPhonemes(Map lexicon) {
-	List phonemeList = new ArrayList();
-	for (Iterator i = lexicon.keySet().iterator(); i.hasNext(); ) {
+    private List<String> findPhonemes(Map<?, ?> lexicon) {
+	List<String> phonemeList = new ArrayList<String>();
+	for (Iterator<?> i = lexicon.keySet().iterator(); i.hasNext(); ) {
 	    String key = (String) i.next();
 	    String[] phonemes = getPhones(lexicon, key);
 	    for (int index = 0; index < phonemes.length; index++) {
@@ -0,0 +1,296 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.lexicon;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only lexicon that looks up words directly in the indexed
+ * binary form of a compiled lexicon, without decoding the entries
+ * into objects.  The data is usually a file mapped into memory, so
+ * loading the lexicon only reads the header, and the entries take
+ * no heap space.
+ *
+ * <p>The indexed binary form follows the magic number and version
+ * written by <code>LexiconImpl</code>:
+ *
+ * <pre>
+ * (int) numPhonemes
+ * (String) phoneme0 ... phonemeN
+ * (int) numPartsOfSpeech
+ * (String) partOfSpeech0 ... partOfSpeechN
+ * (int) numEntries
+ * (int) numSlots
+ * (int) entriesSize
+ * (int) slot0 ... slotN
+ * entries
+ * </pre>
+ *
+ * <p>Each entry is stored as <code>(String) nameWithPOS (byte)
+ * numPhonemes</code> followed by one byte per phoneme, holding the
+ * index of the phoneme.  The slots form an open addressing hash
+ * table of the entries: each slot holds the offset of an entry in
+ * the entries, or -1 if it is empty.  An entry is found by probing
+ * the slots, starting with the one given by <code>getSlot</code>,
+ * until the entry or an empty slot is found.
+ *
+ * <p>Maps the name and part of speech of each word to its phonemes as
+ * a <code>String[]</code>; a new array is returned by each lookup.
+ */
+class MappedLexicon extends AbstractMap<String, String[]> {
+    private final String[] phonemes;
+    private final List<String> partsOfSpeech;
+    private final int numEntries;
+    private final IntBuffer slots;
+    private final ByteBuffer entries;
+    private final int mask;
+
+    /**
+     * Creates a lexicon from the indexed binary form.  The buffer must
+     * be positioned just after the version, and its contents must not
+     * change.
+     *
+     * @param bb the buffer holding the lexicon
+     */
+    MappedLexicon(ByteBuffer bb) {
+	int size = bb.getInt();
+	phonemes = new String[size];
+	for (int i = 0; i < size; i++) {
+	    phonemes[i] = getString(bb);
+	}
+
+	size = bb.getInt();
+	partsOfSpeech = new ArrayList<String>(size);
+	for (int i = 0; i < size; i++) {
+	    partsOfSpeech.add(getString(bb));
+	}
+
+	numEntries = bb.getInt();
+	int numSlots = bb.getInt();
+	int entriesSize = bb.getInt();
+	mask = numSlots - 1;
+
+	ByteBuffer slotBytes = bb.slice();
+	slotBytes.limit(numSlots * 4);
+	slots = slotBytes.asIntBuffer();
+	bb.position(bb.position() + numSlots * 4);
+
+	entries = bb.slice();
+	entries.limit(entriesSize);
+    }
+
+    /**
+     * Returns the parts of speech used by the entries.
+     *
+     * @return the list of parts of speech, as strings
+     */
+    List<String> getPartsOfSpeech() {
+	return partsOfSpeech;
+    }
+
+    /**
+     * Returns the first slot to probe for a key.
+     *
+     * @param hash the hash code of the key
+     * @param mask the number of slots minus one; the number of slots
+     *    is a power of two
+     *
+     * @return the index of the slot
+     */
+    static int getSlot(int hash, int mask) {
+	return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the phonemes of the given name and part of speech.
+     *
+     * @param key the word and part of speech concatenated together
+     *
+     * @return the phonemes as a <code>String[]</code>, or
+     *    <code>null</code> if the word is not in the lexicon
+     */
+    public String[] get(Object key) {
+	int entry = find(key);
+	return entry < 0 ? null : getPhonemes(entry);
+    }
+
+    /**
+     * Determines if the lexicon has an entry for the given key.
+     *
+     * @param key the word and part of speech concatenated together
+     *
+     * @return <code>true</code> if there is an entry
+     */
+    public boolean containsKey(Object key) {
+	return find(key) >= 0;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+	return numEntries;
+    }
+
+    /**
+     * Returns the entries, in the order in which they were stored.
+     *
+     * @return the entries
+     */
+    public Set<Map.Entry<String, String[]>> entrySet() {
+	return new AbstractSet<Map.Entry<String, String[]>>() {
+	    public int size() {
+		return numEntries;
+	    }
+
+	    public Iterator<Map.Entry<String, String[]>> iterator() {
+		return new EntryIterator();
+	    }
+	};
+    }
+
+    /**
+     * Finds the entry for a key.
+     *
+     * @param key the key
+     *
+     * @return the offset of the entry, or -1 if there is none
+     */
+    private int find(Object key) {
+	if (!(key instanceof String)) {
+	    return -1;
+	}
+	String s = (String) key;
+	for (int slot = getSlot(s.hashCode(), mask); ;
+		slot = (slot + 1) & mask) {
+	    int entry = slots.get(slot);
+	    if (entry < 0 || isKey(entry, s)) {
+		return entry;
+	    }
+	}
+    }
+
+    /**
+     * Determines if the entry at the given offset is for the key.
+     *
+     * @param entry the offset of the entry
+     * @param key the key
+     *
+     * @return <code>true</code> if the entry has the key as its name
+     */
+    private boolean isKey(int entry, String key) {
+	int length = entries.get(entry);
+	if (length != key.length()) {
+	    return false;
+	}
+	for (int i = 0, pos = entry + 1; i < length; i++, pos += 2) {
+	    if (entries.getChar(pos) != key.charAt(i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Returns the name of the entry at the given offset.
+     *
+     * @param entry the offset of the entry
+     *
+     * @return the word and part of speech of the entry
+     */
+    private String getKey(int entry) {
+	int length = entries.get(entry);
+	char[] chars = new char[length];
+	for (int i = 0, pos = entry + 1; i < length; i++, pos += 2) {
+	    chars[i] = entries.getChar(pos);
+	}
+	return new String(chars);
+    }
+
+    /**
+     * Returns the phonemes of the entry at the given offset.
+     *
+     * @param entry the offset of the entry
+     *
+     * @return the phonemes
+     */
+    private String[] getPhonemes(int entry) {
+	int pos = entry + 1 + entries.get(entry) * 2;
+	String[] result = new String[entries.get(pos++)];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = phonemes[entries.get(pos++) & 0xff];
+	}
+	return result;
+    }
+
+    /**
+     * Returns the offset of the entry that follows the given entry.
+     *
+     * @param entry the offset of the entry
+     *
+     * @return the offset of the next entry
+     */
+    private int getNextEntry(int entry) {
+	int pos = entry + 1 + entries.get(entry) * 2;
+	return pos + 1 + entries.get(pos);
+    }
+
+    /**
+     * Reads a string in the form written by <code>LexiconImpl</code>.
+     *
+     * @param bb the buffer
+     *
+     * @return the string
+     */
+    private static String getString(ByteBuffer bb) {
+	int size = bb.get();
+	char[] chars = new char[size];
+	for (int i = 0; i < size; i++) {
+	    chars[i] = bb.getChar();
+	}
+	return new String(chars);
+    }
+
+    /**
+     * Iterates over the entries in the order in which they were
+     * stored.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, String[]>> {
+	private int entry = 0;
+	private int count = 0;
+
+	public boolean hasNext() {
+	    return count < numEntries;
+	}
+
+	public Map.Entry<String, String[]> next() {
+	    if (!hasNext()) {
+		throw new NoSuchElementException();
+	    }
+	    final String key = getKey(entry);
+	    final String[] value = getPhonemes(entry);
+	    entry = getNextEntry(entry);
+	    count++;
+	    return new AbstractMap.SimpleImmutableEntry<String, String[]>(
+		    key, value);
+	}
+
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+}
@@ -54,7 +54,7 @@ public class AudioOutput implements UtteranceProcessor {
 	LPCResult lpcResult = (LPCResult) utterance.getObject("target_lpcres");
 	SampleInfo sampleInfo = 
 	    (SampleInfo) utterance.getObject(SampleInfo.UTT_NAME);
-	AudioPlayer audioPlayer = utterance.getVoice().getAudioPlayer();
+	AudioPlayer audioPlayer = utterance.getAudioPlayer();
 
 	audioPlayer.setAudioFormat(getAudioFormat(sampleInfo));
 	audioPlayer.setVolume(utterance.getVoice().getVolume());
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 
 import javax.sound.sampled.AudioFormat;
@@ -71,6 +72,17 @@ public class LPCResult {
 	residualToFloatMap[128] = (float) WaveUtils.ulawToShort((short) 255);
     }
 
+    /**
+     * The vocoder state of each thread.  Synthesizing reuses the
+     * buffers kept here, so no garbage is created per utterance.
+     */
+    private final static ThreadLocal<Vocoder> VOCODER =
+	new ThreadLocal<Vocoder>() {
+	protected Vocoder initialValue() {
+	    return new Vocoder();
+	}
+    };
+
     
     public LPCResult() {
 	residualFold = 1;
@@ -410,76 +422,70 @@ public class LPCResult {
     }
 
 
+    /**
+     * Synthesizes the samples of this LPCResult.
+     *
+     * @return the samples as 16 bit signed big endian values
+     */
     public byte[] getWaveSamples()
     {
-        return getWaveSamples(2*getNumberOfSamples(), null);
+        byte[] samples = new byte[2 * getNumberOfSamples()];
+        getWaveSamples(samples, 0);
+        return samples;
     }
 
     /**
-     * get the samples for this utterance
+     * Synthesizes the samples of this LPCResult into the given
+     * buffer.  The buffer must have room for
+     * <code>2 * getNumberOfSamples()</code> bytes after the offset.
      *
-     * @param numberSamples the number of samples desirred
-     * @param utterance the utterance
+     * @param buffer where the 16 bit signed big endian samples go
+     * @param offset where in the buffer to start
      *
-     * [[[ TODO: well there is a bunch of duplicated code here ..
-     *     these should be combined into one routine.
-     *  ]]]
+     * @return the number of bytes written
      */
-    private byte[] getWaveSamples(int numberSamples,
-				  Utterance utterance) {
-	int numberChannels = getNumberOfChannels();
-	int pmSizeSamples;
-	float pp = 0;
-
-	byte[] samples = new byte[numberSamples];
-	byte[] residuals = getResiduals();
-	int[] residualSizes = getResidualSizes();
-	
-	FloatList outBuffer = FloatList.createList(numberChannels + 1);
-	FloatList lpcCoefficients = FloatList.createList(numberChannels);
-	
-	double multiplier = (double) getLPCRange() / 65535.0;
-	int s = 0;
-
-	// for each frame in the LPC result
-	for (int r = 0, i = 0; i < numberOfFrames; i++) {
-	    
-	    // unpack the LPC coefficients
-	    short[] frame =  getFrame(i);
-
-	    FloatList lpcCoeffs = lpcCoefficients;
-	    for (int k = 0; k < numberChannels; k++) {
-		lpcCoeffs.value = (float) ( (frame[k] + 32768.0) 
-		    * multiplier) + lpcMinimum;
-		lpcCoeffs = lpcCoeffs.next;
-	    }
-	    
-	    pmSizeSamples = residualSizes[i];
-
-	    // resynthesis the signal, pmSizeSamples ~= 90
-	    // what's in the loop is done for each residual
-	    for (int j = 0; j < pmSizeSamples; j++, r++) {
-
-		FloatList backBuffer = outBuffer.prev;
-		float ob = residualToFloatMap[residuals[r] + 128];
-
-		lpcCoeffs = lpcCoefficients;
-		do {
-		    ob += lpcCoeffs.value * backBuffer.value;
-		    backBuffer = backBuffer.prev;
-		    lpcCoeffs = lpcCoeffs.next;
-		} while (lpcCoeffs != lpcCoefficients);
-
-		int sample = (int) (ob + (pp * POST_EMPHASIS));
-		samples[s++] = (byte) hibyte(sample);
-		samples[s++] = (byte) lobyte(sample);
-
+    public int getWaveSamples(byte[] buffer, int offset) {
+	Vocoder vocoder = VOCODER.get();
+	vocoder.start(this);
+	try {
+	    return vocoder.synthesize(buffer, offset, buffer.length - offset);
+	} finally {
+	    vocoder.finish();
+	}
+    }
 
-		outBuffer.value = pp = ob;
-		outBuffer = outBuffer.next;
+    /**
+     * Synthesizes the samples of this LPCResult into the given
+     * buffer, starting at its current position.  The buffer must have
+     * room for <code>2 * getNumberOfSamples()</code> bytes.
+     *
+     * @param buffer where the 16 bit signed big endian samples go
+     *
+     * @return the number of bytes written
+     */
+    public int getWaveSamples(ByteBuffer buffer) {
+	if (buffer.hasArray()) {
+	    int position = buffer.position();
+	    int count = getWaveSamples(buffer.array(),
+		    buffer.arrayOffset() + position);
+	    buffer.position(position + count);
+	    return count;
+	}
+	Vocoder vocoder = VOCODER.get();
+	byte[] samples = vocoder.samples;
+	int total = 0;
+	int count;
+	vocoder.start(this);
+	try {
+	    while ((count = vocoder.synthesize(samples, 0, samples.length))
+		    > 0) {
+		buffer.put(samples, 0, count);
+		total += count;
 	    }
+	} finally {
+	    vocoder.finish();
 	}
-	return samples;
+	return total;
     }
 
     /**
@@ -494,75 +500,24 @@ public class LPCResult {
                                     FreeTTSSpeakable speakable,
                                     int numberSamples) throws IOException {
 	boolean ok = true;
-	int numberChannels = getNumberOfChannels();
-	int pmSizeSamples;
-	float pp = 0;
-
-	byte[] samples = new byte[MAX_SAMPLE_SIZE];
-	byte[] residuals = getResiduals();
-	int[] residualSizes = getResidualSizes();
-	
-	FloatList outBuffer = FloatList.createList(numberChannels + 1);
-	FloatList lpcCoefficients = FloatList.createList(numberChannels);
-	
-	double multiplier = (double) getLPCRange() / 65535.0;
-	int s = 0;
-
-	// for each frame in the LPC result
+	Vocoder vocoder = VOCODER.get();
+	byte[] samples = vocoder.samples;
+	int count;
+
 	player.begin(numberSamples);
-	for (int r = 0, i = 0;
-             (ok &= !speakable.isCompleted()) && 
-                 i < numberOfFrames; i++) {
-	    
-	    // unpack the LPC coefficients
-	    short[] frame =  getFrame(i);
-
-	    FloatList lpcCoeffs = lpcCoefficients;
-	    for (int k = 0; k < numberChannels; k++) {
-		lpcCoeffs.value = (float) ( (frame[k] + 32768.0) 
-		    * multiplier) + lpcMinimum;
-		lpcCoeffs = lpcCoeffs.next;
-	    }
-	    
-	    pmSizeSamples = residualSizes[i];
-
-	    // resynthesis the signal, pmSizeSamples ~= 90
-	    // what's in the loop is done for each residual
-	    for (int j = 0; j < pmSizeSamples; j++, r++) {
-
-		FloatList backBuffer = outBuffer.prev;
-		float ob = residualToFloatMap[residuals[r] + 128];
-
-		lpcCoeffs = lpcCoefficients;
-		do {
-		    ob += lpcCoeffs.value * backBuffer.value;
-		    backBuffer = backBuffer.prev;
-		    lpcCoeffs = lpcCoeffs.next;
-		} while (lpcCoeffs != lpcCoefficients);
-
-		int sample = (int) (ob + (pp * POST_EMPHASIS));
-		samples[s++] = hibyte(sample);
-		samples[s++] = lobyte(sample);
-
-		if (s >= MAX_SAMPLE_SIZE) {
-		    if ((ok &= !speakable.isCompleted()) && 
-                        !player.write(samples)) {
-			ok = false;
-		    }
-		    s = 0;
+	vocoder.start(this);
+	try {
+	    while ((ok &= !speakable.isCompleted()) &&
+		    (count = vocoder.synthesize(samples, 0, samples.length))
+		    > 0) {
+		if (!player.write(samples, 0, count)) {
+		    ok = false;
 		}
-
-		outBuffer.value = pp = ob;
-		outBuffer = outBuffer.next;
 	    }
+	} finally {
+	    vocoder.finish();
 	}
 
-        // write out the very last samples
-        if ((ok &= !speakable.isCompleted()) && s > 0) {
-            ok = player.write(samples, 0, s);
-            s = 0;
-        }
-
         // tell the AudioPlayer it is the end of Utterance
 	if (ok &= !speakable.isCompleted()) {
             ok = player.end();
@@ -667,7 +622,7 @@ public class LPCResult {
 	     Wave.DEFAULT_SAMPLE_SIZE_IN_BITS, 1,
 	     Wave.DEFAULT_SIGNED, true);
 	return new Wave(audioFormat,
-		getWaveSamples( getNumberOfSamples() * 2, null));
+		getWaveSamples());
     }
 
     /**
@@ -680,6 +635,151 @@ public class LPCResult {
 	wave.dump(writer);
     }
 
+    /**
+     * Resynthesizes the wave of an LPCResult by running its residuals
+     * through the LPC filter.  The output history of the filter is a
+     * float array used as a circular buffer, whose size is a power of
+     * two so the indices can be wrapped by masking.  Synthesis can be
+     * stopped when the output buffer is full and continued later with
+     * the next buffer.
+     *
+     * <p>A Vocoder is not thread safe; each thread gets its own
+     * through <code>VOCODER</code>.
+     */
+    private final static class Vocoder {
+	/**
+	 * The scratch buffer for audio that is sent to a player.
+	 */
+	final byte[] samples = new byte[Math.max(2, MAX_SAMPLE_SIZE & ~1)];
+
+	private float[] history = new float[0];
+	private float[] coefficients = new float[0];
+	private int mask;
+	private int position;
+	private float pp;
+
+	private LPCResult lpc;
+	private int numberOfChannels;
+	private double multiplier;
+	private int frame;
+	private int residual;
+	private int remaining;
+
+	/**
+	 * Starts the synthesis of the given LPCResult.
+	 *
+	 * @param lpc the LPCResult to synthesize
+	 */
+	void start(LPCResult lpc) {
+	    this.lpc = lpc;
+	    numberOfChannels = lpc.getNumberOfChannels();
+	    multiplier = (double) lpc.getLPCRange() / 65535.0;
+
+	    int size = Integer.highestOneBit(numberOfChannels) << 1;
+	    if (size == 0) {
+		size = 1;
+	    }
+	    if (history.length < size) {
+		history = new float[size];
+	    } else {
+		for (int i = 0; i < size; i++) {
+		    history[i] = 0.0f;
+		}
+	    }
+	    if (coefficients.length < numberOfChannels) {
+		coefficients = new float[numberOfChannels];
+	    }
+	    mask = size - 1;
+	    position = 0;
+	    pp = 0;
+	    frame = 0;
+	    residual = 0;
+	    remaining = 0;
+	}
+
+	/**
+	 * Ends the synthesis of the current LPCResult.  The vocoder
+	 * lives as long as its thread, so it must not keep the result
+	 * and its residuals reachable once they have been synthesized.
+	 */
+	void finish() {
+	    lpc = null;
+	}
+
+	/**
+	 * Unpacks the LPC coefficients of the next frame that has
+	 * residuals.
+	 *
+	 * @return <code>false</code> if there are no more frames
+	 */
+	private boolean nextFrame() {
+	    int[] residualSizes = lpc.sizes;
+	    float lpcMinimum = lpc.lpcMinimum;
+	    while (remaining == 0) {
+		if (frame >= lpc.numberOfFrames) {
+		    return false;
+		}
+		short[] lpcFrame = lpc.frames[frame];
+		for (int k = 0; k < numberOfChannels; k++) {
+		    coefficients[k] = (float) ((lpcFrame[k] + 32768.0)
+			    * multiplier) + lpcMinimum;
+		}
+		remaining = residualSizes[frame];
+		frame++;
+	    }
+	    return true;
+	}
+
+	/**
+	 * Synthesizes up to <code>length</code> bytes of audio into the
+	 * given buffer.
+	 *
+	 * @param buffer where the 16 bit signed big endian samples go
+	 * @param offset where in the buffer to start
+	 * @param length the room in the buffer
+	 *
+	 * @return the number of bytes written, or 0 if all the audio has
+	 *    been synthesized
+	 */
+	int synthesize(byte[] buffer, int offset, int length) {
+	    byte[] residuals = lpc.residuals;
+	    float[] history = this.history;
+	    float[] coefficients = this.coefficients;
+	    int numberOfChannels = this.numberOfChannels;
+	    int mask = this.mask;
+	    int position = this.position;
+	    int residual = this.residual;
+	    float pp = this.pp;
+	    int s = offset;
+	    int last = offset + (length & ~1);
+
+	    while (s < last && (remaining > 0 || nextFrame())) {
+		int count = Math.min(remaining, (last - s) >> 1);
+		remaining -= count;
+
+		// resynthesis the signal, ~90 samples per pitch period
+		for (int j = 0; j < count; j++) {
+		    float ob = residualToFloatMap[residuals[residual++] + 128];
+		    int h = position - 1;
+		    for (int k = 0; k < numberOfChannels; k++) {
+			ob += coefficients[k] * history[(h - k) & mask];
+		    }
+
+		    int sample = (int) (ob + (pp * POST_EMPHASIS));
+		    buffer[s++] = hibyte(sample);
+		    buffer[s++] = lobyte(sample);
+
+		    history[position] = pp = ob;
+		    position = (position + 1) & mask;
+		}
+	    }
+	    this.position = position;
+	    this.residual = residual;
+	    this.pp = pp;
+	    return s - offset;
+	}
+    }
+
     /**
      * A Wave is an immutable class that contains the AudioFormat and
      * the actual wave samples, which currently is in the form 
@@ -741,70 +841,3 @@ public class LPCResult {
     }
 }
 
-    
-
-/**
- * FloatList is used to maintain a circular buffer of float values.
- * It is essentially an index-free array of floats that can easily be
- * iterated through forwards or backwards. Keeping values in an index
- * free list like this eliminates index bounds checking which can
- * save us some time.
- */
-class FloatList {
-    float value;
-    FloatList next;
-    FloatList prev;
-
-    /**
-     * Creates a new node
-     */
-    FloatList() {
-	value = 0.0F;
-	next = null;
-	prev = null;
-    }
-
-    /**
-     * Creates a circular list of nodes of the given size
-     *
-     * @param size the number of nodes in the list
-     *
-     * @return an entry in the list.
-     */
-    static FloatList createList(int size) {
-	FloatList prev = null;
-	FloatList first = null;
-
-	for (int i = 0; i < size; i++) {
-	    FloatList cur = new FloatList();
-	    cur.prev = prev;
-	    if (prev == null) {
-		first = cur;
-	    } else {
-		prev.next = cur;
-	    }
-	    prev = cur;
-	}
-	first.prev = prev;
-	prev.next = first;
-
-	return first;
-    }
-
-    /**
-     * prints out the contents of this list
-     * 
-     * @param title the title of the dump
-     * @param list the list to dump
-     */
-    static void dump(String title, FloatList list) {
-	System.out.println(title);
-
-	FloatList cur = list;
-	do {
-	    System.out.println("Item: " + cur.value);
-	    cur = cur.next;
-	} while (cur != list);
-    }
-}
-
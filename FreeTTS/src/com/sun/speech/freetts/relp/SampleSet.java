@@ -22,11 +22,22 @@ import java.util.StringTokenizer;
  * Represents the frame and residual data
  * used by the diphone database
  * used Residual Excited Linear Predictive synthesizer
+ *
+ * <p>A SampleSet created with <code>mapBinary</code> reads its
+ * samples in place from a (mapped) byte buffer; a
+ * <code>Sample</code> is then only created when one is asked for.
  */
 public class SampleSet {
     private Sample[] samples;
     private SampleInfo sampleInfo;
 
+    /**
+     * When the samples are read in place, the buffer that holds them
+     * and the offset of each sample in that buffer; otherwise null.
+     */
+    private ByteBuffer data;
+    private int[] offsets;
+
     /**
      * Reads a SampleSet from the input reader. 
      *
@@ -72,6 +83,50 @@ public class SampleSet {
 	}
     }
 
+    /**
+     * Creates a SampleSet that reads its samples in place from the
+     * given buffer.
+     *
+     * @param sampleInfo the info on the samples
+     * @param data the buffer holding the samples
+     * @param offsets the offset of each sample in the buffer
+     */
+    private SampleSet(SampleInfo sampleInfo, ByteBuffer data, int[] offsets) {
+	this.sampleInfo = sampleInfo;
+	this.data = data;
+	this.offsets = offsets;
+    }
+
+    /**
+     * Creates a SampleSet that reads its samples in place from the
+     * given byte buffer, which is typically a mapped file.  Unlike
+     * <code>SampleSet(ByteBuffer)</code> the frame and residual data
+     * is not copied to the heap; only the offset of each sample is
+     * kept.  The position of the buffer is moved past the SampleSet.
+     *
+     * @param bb source of the Unit data; its contents must not change
+     *
+     * @return the sample set
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public static SampleSet mapBinary(ByteBuffer bb) throws IOException {
+	SampleInfo sampleInfo = new SampleInfo(bb);
+	int numSamples = bb.getInt();
+	ByteBuffer data = bb.slice();
+	int[] offsets = new int[numSamples];
+	int offset = 0;
+
+	for (int i = 0; i < numSamples; i++) {
+	    offsets[i] = offset;
+	    offset += 4 + 2 * data.getInt(offset);
+	    offset += 4 + data.getInt(offset);
+	}
+	bb.position(bb.position() + offset);
+	data.limit(offset);
+	return new SampleSet(sampleInfo, data, offsets);
+    }
+
     /**
      * Creates a SampleSet by reading it from the given input stream
      *
@@ -98,12 +153,21 @@ public class SampleSet {
      */
     public void dumpBinary(DataOutputStream os) throws IOException {
 	sampleInfo.dumpBinary(os);
-	os.writeInt(samples.length);
-	for (int i = 0; i < samples.length; i++) {
-	    samples[i].dumpBinary(os);
+	os.writeInt(getNumberOfSamples());
+	for (int i = 0; i < getNumberOfSamples(); i++) {
+	    getSample(i).dumpBinary(os);
 	}
     }
 
+    /**
+     * Returns the number of samples in this set.
+     *
+     * @return the number of samples
+     */
+    public int getNumberOfSamples() {
+	return data == null ? samples.length : offsets.length;
+    }
+
 
     /**
      * return the sample associated with the index
@@ -113,7 +177,66 @@ public class SampleSet {
      * @return the sample.
      */
     public Sample getSample(int index) {
-	return samples[index];
+	if (data == null) {
+	    return samples[index];
+	}
+	ByteBuffer bb = data.duplicate();
+	bb.position(offsets[index]);
+	try {
+	    return Sample.loadBinary(bb);
+	} catch (IOException ioe) {
+	    throw new Error("Can't read sample " + index);
+	}
+    }
+
+    /**
+     * Returns one value of the frame data of the sample with the
+     * given index, without creating the Sample.
+     *
+     * @param index the index of the sample
+     * @param channel which value of the frame data
+     *
+     * @return the frame data value
+     */
+    public short getFrameData(int index, int channel) {
+	if (data == null) {
+	    return samples[index].getFrameData()[channel];
+	}
+	return data.getShort(offsets[index] + 4 + 2 * channel);
+    }
+
+    /**
+     * Returns the weighted distance between the frame data of two
+     * samples: the sum over the channels of the difference of the
+     * values times the weight of the channel divided by 65536.  The
+     * frame data is read where it is, without creating the Samples.
+     *
+     * @param a the index of the first sample
+     * @param b the index of the second sample
+     * @param weights the weight of each channel
+     * @param order the number of channels to compare
+     *
+     * @return the distance
+     */
+    public int getFrameDistance(int a, int b, int[] weights, int order) {
+	int r = 0;
+	if (data == null) {
+	    short[] fa = samples[a].getFrameData();
+	    short[] fb = samples[b].getFrameData();
+	    for (int i = 0; i < order; i++) {
+		int diff = fa[i] - fb[i];
+		r += (diff < 0 ? -diff : diff) * weights[i] / 65536;
+	    }
+	} else {
+	    ByteBuffer bb = data;
+	    int oa = offsets[a] + 4;
+	    int ob = offsets[b] + 4;
+	    for (int i = 0; i < order; i++) {
+		int diff = bb.getShort(oa + 2 * i) - bb.getShort(ob + 2 * i);
+		r += (diff < 0 ? -diff : diff) * weights[i] / 65536;
+	    }
+	}
+	return r;
     }
 
     /**
@@ -153,7 +276,11 @@ public class SampleSet {
      * @return the size of the frame
      */
     public int getFrameSize(int frame) {
-	return  samples[frame].getResidualSize();
+	if (data == null) {
+	    return  samples[frame].getResidualSize();
+	}
+	int offset = offsets[frame];
+	return data.getInt(offset + 4 + 2 * data.getInt(offset));
     }
 }
     
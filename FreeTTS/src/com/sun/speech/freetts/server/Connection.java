@@ -0,0 +1,481 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+import com.sun.speech.freetts.FreeTTSSpeakableImpl;
+import com.sun.speech.freetts.audio.AudioPlayer;
+import com.sun.speech.freetts.audio.NullAudioPlayer;
+
+
+/**
+ * One client of a {@link SynthesisServer}.
+ *
+ * <p>The requests of the client are read and parsed by the server
+ * thread, which also writes the queued output to the client.  The
+ * audio is queued by the worker that synthesizes the request through
+ * the audio player of the connection.  A worker that queues audio
+ * while more than <code>HIGH_WATER</code> bytes are waiting to be
+ * sent waits until fewer than <code>LOW_WATER</code> bytes are left.
+ * Only one request of a client is synthesized at a time; the input
+ * that follows it is parsed when it is done.
+ */
+class Connection {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(Connection.class.getName());
+
+    private final static int COMMAND = 0;
+    private final static int RATE = 1;
+    private final static int TEXT = 2;
+    private final static int BUSY = 3;
+    private final static int CLOSING = 4;
+
+    private final static int MAX_LINE = 64 * 1024;
+    private final static int HIGH_WATER = 256 * 1024;
+    private final static int LOW_WATER = 64 * 1024;
+    private final static int MAX_GATHER = 16;
+
+    private final static byte[] READY = ascii("READY\n");
+    private final static byte[] DONE = ascii("-1\n");
+    private final static byte[] ERROR = ascii("-2\n");
+
+    private final SynthesisServer server;
+    private final SocketChannel channel;
+    private final AudioPlayer audioPlayer = new ConnectionAudioPlayer();
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private SelectionKey key;
+    private ByteBuffer input = ByteBuffer.allocate(1024);
+    private int state = COMMAND;
+    private int sampleRate;
+    private int pendingBytes = 0;
+    private boolean closed = false;
+    private volatile boolean requestDone = false;
+
+    /**
+     * Creates a connection.
+     *
+     * @param server the server of the connection
+     * @param channel the channel to the client
+     */
+    Connection(SynthesisServer server, SocketChannel channel) {
+	this.server = server;
+	this.channel = channel;
+    }
+
+    /**
+     * Sets the key of the connection with the selector of the server.
+     *
+     * @param key the key
+     */
+    void setKey(SelectionKey key) {
+	this.key = key;
+    }
+
+    /**
+     * Returns the audio player that sends audio to the client.
+     *
+     * @return the audio player
+     */
+    AudioPlayer getAudioPlayer() {
+	return audioPlayer;
+    }
+
+    /**
+     * Greets the client.  Called by the server thread.
+     */
+    void start() {
+	send(READY);
+    }
+
+    /**
+     * Reads what the client has sent and handles the complete lines.
+     * Called by the server thread.
+     *
+     * @throws IOException if the client can't be read from or has
+     *    closed the connection
+     */
+    void read() throws IOException {
+	if (channel.read(input) < 0) {
+	    throw new IOException("end of stream");
+	}
+	if (!input.hasRemaining()) {
+	    if (input.capacity() >= MAX_LINE) {
+		throw new IOException("line too long");
+	    }
+	    ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+	    input.flip();
+	    larger.put(input);
+	    input = larger;
+	}
+	parse();
+    }
+
+    /**
+     * Handles the complete lines that have been read, until a request
+     * is being synthesized or the input runs out.
+     *
+     * @throws IOException if the client sent something wrong
+     */
+    private void parse() throws IOException {
+	String line;
+	while (state != BUSY && state != CLOSING
+		&& (line = nextLine()) != null) {
+	    switch (state) {
+	    case COMMAND:
+		if (line.equals("TTS")) {
+		    state = RATE;
+		} else if (line.equals("DONE")) {
+		    state = CLOSING;
+		    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		    updateInterest();
+		} else {
+		    throw new IOException("unknown command: " + line);
+		}
+		break;
+	    case RATE:
+		try {
+		    sampleRate = Integer.parseInt(line.trim());
+		} catch (NumberFormatException nfe) {
+		    sampleRate = -1;
+		}
+		if (!server.hasVoice(sampleRate)) {
+		    LOGGER.warning("unsupported sample rate: " + line);
+		    send(ERROR);
+		    state = CLOSING;
+		    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		} else {
+		    state = TEXT;
+		}
+		break;
+	    case TEXT:
+		state = BUSY;
+		requestDone = false;
+		if (!server.submit(sampleRate, new Request(line), this)) {
+		    send(ERROR);
+		    state = COMMAND;
+		}
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Returns the next complete line of input, without the line end.
+     *
+     * @return the line, or <code>null</code> if there is none
+     *
+     * @throws IOException if the line is not valid UTF-8
+     */
+    private String nextLine() throws IOException {
+	int end = input.position();
+	byte[] data = input.array();
+	for (int i = 0; i < end; i++) {
+	    if (data[i] == '\n') {
+		int length = i;
+		if (length > 0 && data[length - 1] == '\r') {
+		    length--;
+		}
+		String line = new String(data, 0, length, "UTF-8");
+		System.arraycopy(data, i + 1, data, 0, end - i - 1);
+		input.position(end - i - 1);
+		return line;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Writes as much of the queued output as the client will take.
+     * Called by the server thread.
+     *
+     * @throws IOException if the client can't be written to
+     */
+    void write() throws IOException {
+	int count;
+	synchronized (this) {
+	    count = 0;
+	    for (ByteBuffer buffer : output) {
+		if (count == MAX_GATHER) {
+		    break;
+		}
+		gather[count++] = buffer;
+	    }
+	}
+	if (count > 0) {
+	    long written = channel.write(gather, 0, count);
+	    synchronized (this) {
+		while (!output.isEmpty() && !output.peek().hasRemaining()) {
+		    output.poll();
+		}
+		pendingBytes -= (int) written;
+		if (pendingBytes < LOW_WATER) {
+		    notifyAll();
+		}
+	    }
+	    for (int i = 0; i < count; i++) {
+		gather[i] = null;
+	    }
+	}
+	updateInterest();
+    }
+
+    /**
+     * Catches up with a change made by a worker: new output, or the
+     * end of the request.  Called by the server thread.
+     */
+    void update() {
+	if (closed) {
+	    return;
+	}
+	if (state == BUSY && requestDone) {
+	    state = COMMAND;
+	    try {
+		parse();
+	    } catch (IOException ioe) {
+		LOGGER.fine("closing connection: " + ioe);
+		close();
+		return;
+	    }
+	}
+	updateInterest();
+    }
+
+    /**
+     * Asks the selector for write events while there is output, and
+     * closes the connection once the client is done and the output
+     * has been sent.  Called by the server thread.
+     */
+    private void updateInterest() {
+	boolean empty;
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    empty = output.isEmpty();
+	}
+	if (empty && state == CLOSING) {
+	    close();
+	} else if (empty) {
+	    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+	} else {
+	    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+    }
+
+    /**
+     * Closes the connection.  Workers sending audio to the connection
+     * are released, and the request being synthesized is cancelled.
+     * Called by the server thread.
+     */
+    void close() {
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	    output.clear();
+	    pendingBytes = 0;
+	    notifyAll();
+	}
+	key.cancel();
+	try {
+	    channel.close();
+	} catch (IOException ioe) {
+	    LOGGER.fine("can't close connection: " + ioe);
+	}
+	server.connectionClosed();
+    }
+
+    /**
+     * Queues data to be sent to the client.  Called by the server
+     * thread.
+     *
+     * @param data the data; must not be modified
+     */
+    private void send(byte[] data) {
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    output.add(ByteBuffer.wrap(data));
+	    pendingBytes += data.length;
+	}
+	updateInterest();
+    }
+
+    /**
+     * Queues data to be sent to the client, waiting for the client to
+     * catch up if too much is already queued.  Called by a worker.
+     *
+     * @param buffer the data
+     *
+     * @return <code>true</code> if the data was queued, or
+     *    <code>false</code> if the connection has been closed
+     */
+    private boolean post(ByteBuffer buffer) {
+	synchronized (this) {
+	    while (!closed && pendingBytes > HIGH_WATER) {
+		try {
+		    wait();
+		} catch (InterruptedException ie) {
+		    return false;
+		}
+	    }
+	    if (closed) {
+		return false;
+	    }
+	    boolean wasEmpty = output.isEmpty();
+	    output.add(buffer);
+	    pendingBytes += buffer.remaining();
+	    if (!wasEmpty) {
+		return true;
+	    }
+	}
+	server.changed(this);
+	return true;
+    }
+
+    /**
+     * Ends the request being synthesized.  Called by a worker.
+     *
+     * @param ok <code>true</code> if the request was spoken properly
+     */
+    private void finish(boolean ok) {
+	server.requestFinished();
+	post(ByteBuffer.wrap(ok ? DONE : ERROR));
+	requestDone = true;
+	server.changed(this);
+    }
+
+    /**
+     * Returns the ASCII bytes of a string.
+     *
+     * @param s the string
+     *
+     * @return the bytes
+     */
+    private static byte[] ascii(String s) {
+	try {
+	    return s.getBytes("US-ASCII");
+	} catch (UnsupportedEncodingException uee) {
+	    throw new Error("no US-ASCII: " + uee);
+	}
+    }
+
+    /**
+     * A request of the client.  The end of the request is sent to the
+     * client when the request is completed or cancelled.
+     */
+    private class Request extends FreeTTSSpeakableImpl {
+	private boolean finished = false;
+
+	/**
+	 * Creates a request.
+	 *
+	 * @param text the text to speak
+	 */
+	Request(String text) {
+	    super(text);
+	}
+
+	/**
+	 * Indicates that the request has been completed.
+	 */
+	public void completed() {
+	    super.completed();
+	    end(true);
+	}
+
+	/**
+	 * Indicates that the request has been cancelled.
+	 */
+	public void cancelled() {
+	    super.cancelled();
+	    end(false);
+	}
+
+	/**
+	 * Ends the request, once.
+	 *
+	 * @param ok <code>true</code> if the request was spoken properly
+	 */
+	private void end(boolean ok) {
+	    synchronized (this) {
+		if (finished) {
+		    return;
+		}
+		finished = true;
+	    }
+	    finish(ok);
+	}
+    }
+
+    /**
+     * Sends audio to the client in the framing of the protocol: the
+     * size of each piece of audio on a line, then the audio.
+     */
+    private class ConnectionAudioPlayer extends NullAudioPlayer {
+	private int remaining = 0;
+
+	/**
+	 * Starts a piece of audio.
+	 *
+	 * @param size the number of bytes of the piece
+	 */
+	public void begin(int size) {
+	    remaining = size;
+	    post(ByteBuffer.wrap(ascii(size + "\n")));
+	}
+
+	/**
+	 * Ends a piece of audio, padding it with silence if fewer bytes
+	 * were written than announced.
+	 *
+	 * @return <code>true</code> if the audio was sent
+	 */
+	public boolean end() {
+	    boolean ok = true;
+	    if (remaining > 0) {
+		ok = post(ByteBuffer.allocate(remaining));
+	    }
+	    remaining = 0;
+	    return ok;
+	}
+
+	/**
+	 * Sends audio to the client.
+	 *
+	 * @param bytes the audio
+	 * @param offset the offset of the audio in the array
+	 * @param size the number of bytes of audio
+	 *
+	 * @return <code>true</code> if the audio was queued, or
+	 *    <code>false</code> if the client has gone
+	 */
+	public boolean write(byte[] bytes, int offset, int size) {
+	    super.write(bytes, offset, size);
+	    if (size > remaining) {
+		size = remaining;
+	    }
+	    if (size <= 0) {
+		return true;
+	    }
+	    byte[] copy = new byte[size];
+	    System.arraycopy(bytes, offset, copy, 0, size);
+	    remaining -= size;
+	    return post(ByteBuffer.wrap(copy));
+	}
+    }
+}
@@ -0,0 +1,355 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.speech.freetts.FreeTTSSpeakable;
+import com.sun.speech.freetts.SynthesisEngine;
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.VoiceManager;
+import com.sun.speech.freetts.util.Utilities;
+
+/**
+ * A text-to-speech server that speaks the protocol of the
+ * Client/Server demo (see <code>demo/freetts/ClientServer/Protocol.txt</code>)
+ * to any number of clients from a single thread.
+ *
+ * <p>All connections are served by one thread that waits on a
+ * <code>Selector</code>, reads the requests and writes the audio.
+ * The requests are synthesized by a {@link SynthesisEngine} for each
+ * sample rate, so the voices are allocated once and shared by all the
+ * connections, and the number of requests synthesized at once is
+ * bounded by the workers of the engines.  The audio is queued on the
+ * connection as it is produced and sent with gathering writes.
+ *
+ * <p>The load is limited in three ways:
+ *
+ * <ul>
+ *   <li>Connections beyond the most allowed are closed as soon as
+ *     they are accepted.
+ *   <li>A request that arrives while the most allowed requests are
+ *     waiting or being synthesized is answered with "-2".
+ *   <li>When a client reads its audio more slowly than it is
+ *     synthesized, the worker that synthesizes it waits until the
+ *     audio queued on the connection has been sent.
+ * </ul>
+ *
+ * <p>The server is set up by the following system properties when it
+ * is started from the command line:
+ *
+ * <pre>
+ *   com.sun.speech.freetts.server.port - default 5555
+ *   com.sun.speech.freetts.server.voice8kName - default kevin
+ *   com.sun.speech.freetts.server.voice16kName - default kevin16
+ *   com.sun.speech.freetts.server.workers - the number of requests
+ *       synthesized at once for each voice, default one per processor
+ *   com.sun.speech.freetts.server.maxConnections - default 1000
+ *   com.sun.speech.freetts.server.maxRequests - default 4 per worker
+ * </pre>
+ */
+public class SynthesisServer implements Runnable {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(SynthesisServer.class.getName());
+
+    private final static String PROP_PREFIX =
+	"com.sun.speech.freetts.server.";
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Map<Integer, SynthesisEngine> engines =
+	new HashMap<Integer, SynthesisEngine>();
+    private final int maxConnections;
+    private final int maxRequests;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Connection> changed =
+	new ConcurrentLinkedQueue<Connection>();
+    private int connections = 0;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a server listening on the given port.
+     *
+     * @param port the port, or 0 for any free port
+     * @param maxConnections the most connections served at once
+     * @param maxRequests the most requests waiting or being
+     *    synthesized at once
+     *
+     * @throws IOException if the port cannot be opened
+     */
+    public SynthesisServer(int port, int maxConnections, int maxRequests)
+	throws IOException {
+	this.maxConnections = maxConnections;
+	this.maxRequests = maxRequests;
+	selector = Selector.open();
+	serverChannel = ServerSocketChannel.open();
+	serverChannel.socket().setReuseAddress(true);
+	serverChannel.socket().bind(new InetSocketAddress(port));
+	serverChannel.configureBlocking(false);
+	serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Adds the voice that speaks requests with the given sample rate.
+     * The voice is allocated if needed.
+     *
+     * @param sampleRate the sample rate asked for by clients
+     * @param voice the voice
+     * @param workers the number of requests synthesized at once
+     */
+    public synchronized void addVoice(int sampleRate, Voice voice,
+	    int workers) {
+	if (!voice.isLoaded()) {
+	    voice.allocate();
+	}
+	engines.put(new Integer(sampleRate),
+		new SynthesisEngine(voice, workers));
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+	return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of requests waiting or being synthesized.
+     *
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+	return requests.get();
+    }
+
+    /**
+     * Serves the clients until the server is closed.
+     */
+    public void run() {
+	while (running) {
+	    try {
+		selector.select();
+	    } catch (IOException ioe) {
+		LOGGER.severe("select failed: " + ioe);
+		break;
+	    }
+
+	    Connection connection;
+	    while ((connection = changed.poll()) != null) {
+		connection.update();
+	    }
+
+	    Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+	    while (i.hasNext()) {
+		SelectionKey key = i.next();
+		i.remove();
+		if (!key.isValid()) {
+		    continue;
+		}
+		if (key.isAcceptable()) {
+		    accept();
+		    continue;
+		}
+		connection = (Connection) key.attachment();
+		try {
+		    if (key.isReadable()) {
+			connection.read();
+		    }
+		    if (key.isValid() && key.isWritable()) {
+			connection.write();
+		    }
+		} catch (IOException ioe) {
+		    if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine("closing connection: " + ioe);
+		    }
+		    connection.close();
+		}
+	    }
+	}
+	closeAll();
+    }
+
+    /**
+     * Stops serving clients.  The connections are closed, and requests
+     * that are being synthesized are cancelled.
+     */
+    public void close() {
+	running = false;
+	selector.wakeup();
+    }
+
+    /**
+     * Accepts a new connection.
+     */
+    private void accept() {
+	SocketChannel channel;
+	try {
+	    channel = serverChannel.accept();
+	    if (channel == null) {
+		return;
+	    }
+	    if (connections >= maxConnections) {
+		LOGGER.warning("too many connections, refusing "
+			+ channel.socket().getRemoteSocketAddress());
+		channel.close();
+		return;
+	    }
+	    channel.configureBlocking(false);
+	    channel.socket().setTcpNoDelay(true);
+	    Connection connection = new Connection(this, channel);
+	    connection.setKey(channel.register(selector,
+			SelectionKey.OP_READ, connection));
+	    connections++;
+	    connection.start();
+	} catch (IOException ioe) {
+	    LOGGER.warning("can't accept connection: " + ioe);
+	}
+    }
+
+    /**
+     * Closes all the connections and the server socket.
+     */
+    private void closeAll() {
+	for (SelectionKey key : selector.keys()) {
+	    if (key.attachment() instanceof Connection) {
+		((Connection) key.attachment()).close();
+	    }
+	}
+	try {
+	    serverChannel.close();
+	    selector.close();
+	} catch (IOException ioe) {
+	    LOGGER.warning("can't close server: " + ioe);
+	}
+	synchronized (this) {
+	    for (SynthesisEngine engine : engines.values()) {
+		engine.shutdown();
+	    }
+	}
+    }
+
+    /**
+     * Queues a request for synthesis, unless the server is too busy.
+     *
+     * @param sampleRate the sample rate of the request
+     * @param speakable the text of the request
+     * @param connection the connection that the audio is sent to
+     *
+     * @return <code>true</code> if the request was queued
+     */
+    boolean submit(int sampleRate, FreeTTSSpeakable speakable,
+	    Connection connection) {
+	SynthesisEngine engine;
+	synchronized (this) {
+	    engine = engines.get(new Integer(sampleRate));
+	}
+	if (engine == null) {
+	    return false;
+	}
+	if (requests.incrementAndGet() > maxRequests) {
+	    requests.decrementAndGet();
+	    LOGGER.warning("too many requests, refusing one");
+	    return false;
+	}
+	try {
+	    engine.submit(speakable, connection.getAudioPlayer());
+	    return true;
+	} catch (RejectedExecutionException ree) {
+	    requests.decrementAndGet();
+	    return false;
+	}
+    }
+
+    /**
+     * Determines if requests with the given sample rate can be served.
+     *
+     * @param sampleRate the sample rate
+     *
+     * @return <code>true</code> if there is a voice for the rate
+     */
+    synchronized boolean hasVoice(int sampleRate) {
+	return engines.containsKey(new Integer(sampleRate));
+    }
+
+    /**
+     * Notes that a request has been synthesized or cancelled.
+     */
+    void requestFinished() {
+	requests.decrementAndGet();
+    }
+
+    /**
+     * Notes that a connection has been closed.  Called by the server
+     * thread.
+     */
+    void connectionClosed() {
+	connections--;
+    }
+
+    /**
+     * Asks the server thread to update a connection whose output or
+     * request has changed.
+     *
+     * @param connection the connection
+     */
+    void changed(Connection connection) {
+	changed.add(connection);
+	selector.wakeup();
+    }
+
+    /**
+     * Starts a server, configured by the system properties.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) {
+	int workers = Utilities.getInteger(PROP_PREFIX + "workers",
+		Runtime.getRuntime().availableProcessors()).intValue();
+	try {
+	    SynthesisServer server = new SynthesisServer(
+		    Utilities.getInteger(PROP_PREFIX + "port", 5555).intValue(),
+		    Utilities.getInteger(PROP_PREFIX + "maxConnections",
+			1000).intValue(),
+		    Utilities.getInteger(PROP_PREFIX + "maxRequests",
+			workers * 4).intValue());
+	    VoiceManager voiceManager = VoiceManager.getInstance();
+	    String[] names = {
+		Utilities.getProperty(PROP_PREFIX + "voice8kName", "kevin"),
+		Utilities.getProperty(PROP_PREFIX + "voice16kName", "kevin16")
+	    };
+	    int[] rates = {8000, 16000};
+	    for (int i = 0; i < names.length; i++) {
+		Voice voice = voiceManager.getVoice(names[i]);
+		if (voice == null) {
+		    System.err.println("Unknown voice " + names[i]);
+		    System.exit(1);
+		}
+		server.addVoice(rates[i], voice, workers);
+	    }
+	    System.out.println("Serving on port " + server.getPort());
+	    server.run();
+	} catch (IOException ioe) {
+	    System.err.println("Can't start server: " + ioe);
+	    System.exit(1);
+	}
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps local copies of data files that are packaged in jars, so
+ * that voice data shipped as jars can be memory mapped like data
+ * shipped as plain files.  Only the large binary databases, whose
+ * names end in <code>.bin</code>, are copied; other resources are
+ * read from the jar.  Each jar entry is extracted once, the first
+ * time it is used, into a cache directory.  The copy is named after
+ * the CRC-32 and size that the jar records for the entry, so a
+ * changed entry gets a new copy and several versions of a voice can
+ * share the directory.  The data is checked against the CRC-32 as it
+ * is extracted, and a copy only gets its name once it is complete, so
+ * an existing copy of the right length is used without reading it
+ * again; one of the wrong length is extracted again.
+ *
+ * <p>The cache is controlled by the following system properties:
+ *
+ * <pre>
+ *   com.sun.speech.freetts.useDataCache - default true
+ *   com.sun.speech.freetts.dataCacheDir - default
+ *       ${user.home}/.freetts/cache
+ * </pre>
+ *
+ * The default directory belongs to the user rather than being in a
+ * shared temporary directory, where another user could create it
+ * first.  When the cache creates the directory, it makes it
+ * accessible to its owner only.  If the directory cannot be written,
+ * the data is read from the jar as before.
+ */
+public class DataCache {
+    /** Logger instance. */
+    private static final Logger LOGGER =
+        Logger.getLogger(DataCache.class.getName());
+
+    /**
+     * The name of the system property that turns the cache on or off.
+     */
+    public final static String USE_DATA_CACHE_PROPERTY =
+	"com.sun.speech.freetts.useDataCache";
+
+    /**
+     * The name of the system property that names the cache directory.
+     */
+    public final static String DATA_CACHE_DIR_PROPERTY =
+	"com.sun.speech.freetts.dataCacheDir";
+
+    private final static boolean USE_DATA_CACHE =
+	Utilities.getProperty(USE_DATA_CACHE_PROPERTY, "true").equals("true");
+
+    /**
+     * The smallest jar entry that is worth copying.
+     */
+    private final static long MIN_SIZE = 256 * 1024;
+
+    /**
+     * Avoid construction.
+     */
+    private DataCache() {
+    }
+
+    /**
+     * Returns a local copy of the data at the given URL, extracting
+     * it first if needed.  Only large binary databases in jars are
+     * copied.
+     *
+     * @param url the location of the data
+     *
+     * @return the local copy, or null if the data is not a large
+     *   binary database in a jar or cannot be copied
+     */
+    public static File getLocalFile(URL url) {
+	if (!USE_DATA_CACHE || !url.getProtocol().equals("jar")
+		|| !url.getPath().endsWith(".bin")) {
+	    return null;
+	}
+	try {
+	    JarURLConnection connection =
+		(JarURLConnection) url.openConnection();
+	    JarEntry entry = connection.getJarEntry();
+	    if (entry == null || entry.isDirectory()
+		    || entry.getSize() < MIN_SIZE || entry.getCrc() < 0) {
+		return null;
+	    }
+	    File file = new File(getDirectory(), getCacheName(entry));
+	    if (file.length() != entry.getSize()) {
+		extract(connection.getInputStream(), file, entry.getCrc());
+	    } else {
+		// the jar stays open otherwise
+		connection.getInputStream().close();
+	    }
+	    return file;
+	} catch (IOException ioe) {
+	    if (LOGGER.isLoggable(Level.FINE)) {
+		LOGGER.fine("can't cache " + url + ": " + ioe);
+	    }
+	    return null;
+	}
+    }
+
+    /**
+     * Returns the cache directory, creating it if needed.
+     *
+     * @return the directory
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    private static File getDirectory() throws IOException {
+	String name = Utilities.getProperty(DATA_CACHE_DIR_PROPERTY, null);
+	File dir;
+	if (name != null) {
+	    dir = new File(name);
+	} else {
+	    dir = new File(new File(System.getProperty("user.home"),
+			".freetts"), "cache");
+	}
+	if (!dir.isDirectory()) {
+	    if (!dir.mkdirs() && !dir.isDirectory()) {
+		throw new IOException("can't create " + dir);
+	    }
+	    // only the owner may read or add copies
+	    dir.setReadable(false, false);
+	    dir.setWritable(false, false);
+	    dir.setExecutable(false, false);
+	    if (!dir.setReadable(true, true) || !dir.setWritable(true, true)
+		    || !dir.setExecutable(true, true)) {
+		throw new IOException("can't restrict access to " + dir);
+	    }
+	}
+	return dir;
+    }
+
+    /**
+     * Returns the name of the local copy of a jar entry.
+     *
+     * @param entry the jar entry
+     *
+     * @return the file name
+     */
+    private static String getCacheName(JarEntry entry) {
+	String name = entry.getName();
+	name = name.substring(name.lastIndexOf('/') + 1);
+	return Long.toHexString(entry.getCrc()) + "-" + entry.getSize()
+	    + "-" + name;
+    }
+
+    /**
+     * Copies a stream to a file.  The data is written to a temporary
+     * file first, so other threads or processes never see a partial
+     * copy.
+     *
+     * @param is the stream to copy; it is closed
+     * @param file the file to create
+     * @param expectedCrc the CRC-32 the data must have
+     *
+     * @throws IOException if the copy fails or the data does not
+     *   have the expected CRC-32
+     */
+    private static void extract(InputStream is, File file, long expectedCrc)
+	throws IOException {
+	File temp = File.createTempFile("extract", ".tmp",
+		file.getParentFile());
+	try {
+	    CRC32 crc = new CRC32();
+	    OutputStream os = new FileOutputStream(temp);
+	    try {
+		byte[] buffer = new byte[64 * 1024];
+		int count;
+		while ((count = is.read(buffer)) != -1) {
+		    crc.update(buffer, 0, count);
+		    os.write(buffer, 0, count);
+		}
+	    } finally {
+		os.close();
+	    }
+	    if (crc.getValue() != expectedCrc) {
+		throw new IOException("bad CRC extracting " + file);
+	    }
+	    if (!temp.renameTo(file)) {
+		// another process got there first, or an old copy is
+		// in the way
+		file.delete();
+		if (!temp.renameTo(file) && !file.exists()) {
+		    throw new IOException("can't create " + file);
+		}
+	    }
+	} finally {
+	    is.close();
+	    temp.delete();
+	}
+	if (LOGGER.isLoggable(Level.FINE)) {
+	    LOGGER.fine("extracted " + file);
+	}
+    }
+}
@@ -9,6 +9,7 @@ package com.sun.speech.freetts.util;
 
 import java.io.PrintWriter;
 import java.net.URL;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -102,9 +103,10 @@ public class Utilities {
 
     /**
      * Returns an input stream for the given URL. If the URL
-     * is pointing to a local file, returns a file input stream
-     * suitable for MemoryMapped IO, otherwise, returns a buffered
-     * input stream.
+     * is pointing to a local file, or to a large binary database in
+     * a jar that can be copied to the {@link DataCache}, returns a
+     * file input stream suitable for MemoryMapped IO, otherwise,
+     * returns a buffered input stream.
      *
      * @param url the url to open as a stream
      * @return the stream associated with the URL
@@ -114,6 +116,10 @@ public class Utilities {
     public static InputStream getInputStream(URL url) throws IOException {
 	if (url.getProtocol().equals("file")) {
 	    return new FileInputStream(url.getFile());
+	}
+	File file = DataCache.getLocalFile(url);
+	if (file != null) {
+	    return new FileInputStream(file);
 	} else {
 	    return url.openStream();
 	}
@@ -38,7 +38,10 @@ public class WaveUtils {
         
     private final static int[] expLut = { 0, 132, 396, 924, 1980, 4092, 
 					  8316, 16764 };
-    
+
+    private final static int[] alawSegmentEnd = { 0x1F, 0x3F, 0x7F, 0xFF,
+						  0x1FF, 0x3FF, 0x7FF, 0xFFF };
+
     /**
      * Converts a raw short to ulaw.
      *
@@ -108,6 +111,63 @@ public class WaveUtils {
 	return (short) sample;
     }
 
+    /**
+     * Converts a raw short to A-law, as in CCITT Recommendation G.711.
+     * Unlike <code>shortToUlaw</code>, the result is not normalized,
+     * so it can be sent as is wherever A-law is expected.
+     *
+     * @param sampleData signed 16-bit linear sample
+     *
+     * @return 8-bit A-law sample
+     */
+    public static final byte shortToAlaw(short sampleData) {
+	int mask, segment;
+	int sample = sampleData >> 3;
+
+	if (sample >= 0) {
+	    mask = 0xD5;
+	} else {
+	    mask = 0x55;
+	    sample = -sample - 1;
+	}
+	for (segment = 0; segment < alawSegmentEnd.length; segment++) {
+	    if (sample <= alawSegmentEnd[segment]) {
+		break;
+	    }
+	}
+	if (segment == alawSegmentEnd.length) {
+	    return (byte) (0x7F ^ mask);
+	}
+
+	int alawByte = segment << 4;
+	if (segment < 2) {
+	    alawByte |= (sample >> 1) & 0x0F;
+	} else {
+	    alawByte |= (sample >> segment) & 0x0F;
+	}
+	return (byte) (alawByte ^ mask);
+    }
+
+    /**
+     * Converts from A-law to 16 bit linear.
+     *
+     * @param aByte 8 bit A-law sample
+     *
+     * @return signed 16 bit linear sample
+     */
+    public static final short alawToShort(short aByte) {
+	int alawByte = (aByte ^ 0x55) & 0xFF;
+	int sample = (alawByte & 0x0F) << 4;
+	int segment = (alawByte & 0x70) >> 4;
+
+	if (segment == 0) {
+	    sample += 8;
+	} else {
+	    sample = (sample + 0x108) << (segment - 1);
+	}
+	return (short) ((alawByte & 0x80) != 0 ? sample : -sample);
+    }
+
     /**
      * Reconstructs a short from its hi and low bytes.
      *
@@ -64,7 +64,7 @@ public class MbrolaAudioOutput implements UtteranceProcessor {
                                  utterance.getString("input_text"));
         }
 
-        AudioPlayer audioPlayer = utterance.getVoice().getAudioPlayer();
+        AudioPlayer audioPlayer = utterance.getAudioPlayer();
 
 	audioPlayer.setAudioFormat(MBROLA_AUDIO);
 	audioPlayer.setVolume(utterance.getVoice().getVolume());
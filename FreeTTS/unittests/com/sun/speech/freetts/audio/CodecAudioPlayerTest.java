@@ -0,0 +1,247 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.Test;
+
+import com.sun.speech.freetts.util.WaveUtils;
+
+/**
+ * Checks the G.711 encodings, the output length and the framing of
+ * the codec player.
+ */
+public class CodecAudioPlayerTest {
+    private final static AudioFormat.Encoding ULAW =
+        AudioFormat.Encoding.ULAW;
+    private final static AudioFormat.Encoding ALAW =
+        AudioFormat.Encoding.ALAW;
+
+    /** Samples and their codes in the G.711 reference tables. */
+    private final static short[] SAMPLES = {
+        0, 100, -100, 1000, -1000, 4096, -4096, 32767, -32768};
+    private final static int[] ULAW_CODES = {
+        0xFF, 0xF2, 0x72, 0xCE, 0x4E, 0xAF, 0x2F, 0x80, 0x00};
+    private final static int[] ALAW_CODES = {
+        0xD5, 0xD3, 0x53, 0xFA, 0x7A, 0x85, 0x1A, 0xAA, 0x2A};
+    private final static short[] ULAW_DECODED = {
+        0, 104, -104, 988, -988, 4092, -4092, 32124, -32124};
+    private final static short[] ALAW_DECODED = {
+        8, 104, -104, 1008, -1008, 4224, -4032, 32256, -32256};
+
+    @Test
+    public void testUlawKnownValues() throws IOException {
+        byte[] codes = encode(ULAW, SAMPLES);
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertEquals("ulaw code of " + SAMPLES[i],
+                    ULAW_CODES[i], codes[i] & 0xFF);
+            assertEquals("ulaw value of " + ULAW_CODES[i], ULAW_DECODED[i],
+                    WaveUtils.ulawToShort((short) ULAW_CODES[i]));
+        }
+    }
+
+    @Test
+    public void testAlawKnownValues() throws IOException {
+        byte[] codes = encode(ALAW, SAMPLES);
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertEquals("alaw code of " + SAMPLES[i],
+                    ALAW_CODES[i], codes[i] & 0xFF);
+            assertEquals("alaw value of " + ALAW_CODES[i], ALAW_DECODED[i],
+                    WaveUtils.alawToShort((short) ALAW_CODES[i]));
+        }
+    }
+
+    /**
+     * Every 16-bit sample comes back within the quantization step
+     * of its segment, and every code comes back as itself, except
+     * the negative zero of u-law.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        short[] all = new short[65536];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (short) (i - 32768);
+        }
+        byte[] ulaw = encode(ULAW, all);
+        byte[] alaw = encode(ALAW, all);
+        for (int i = 0; i < all.length; i++) {
+            int bound = Math.max(16, Math.abs(all[i]) / 16);
+            int u = WaveUtils.ulawToShort((short) (ulaw[i] & 0xFF));
+            int a = WaveUtils.alawToShort((short) (alaw[i] & 0xFF));
+            assertTrue("ulaw round trip of " + all[i] + " gives " + u,
+                    Math.abs(u - all[i]) <= bound);
+            assertTrue("alaw round trip of " + all[i] + " gives " + a,
+                    Math.abs(a - all[i]) <= bound);
+        }
+
+        short[] ulawValues = new short[256];
+        short[] alawValues = new short[256];
+        for (int code = 0; code < 256; code++) {
+            ulawValues[code] = WaveUtils.ulawToShort((short) code);
+            alawValues[code] = WaveUtils.alawToShort((short) code);
+        }
+        byte[] ulawCodes = encode(ULAW, ulawValues);
+        byte[] alawCodes = encode(ALAW, alawValues);
+        for (int code = 0; code < 256; code++) {
+            if (code != 0x7F) {
+                assertEquals(code, ulawCodes[code] & 0xFF);
+            }
+            assertEquals(code, alawCodes[code] & 0xFF);
+        }
+    }
+
+    /**
+     * After end, the player has written exactly what the resampler
+     * predicts for the input, which is also the size given to the
+     * other player in begin.
+     */
+    @Test
+    public void testOutputCount() throws IOException {
+        int[][] rates = {
+            {8000, 16000}, {16000, 8000}, {8000, 22050}, {16000, 48000}};
+        int samples = 3333;
+        for (int i = 0; i < rates.length; i++) {
+            CapturePlayer capture = new CapturePlayer();
+            CodecAudioPlayer player = new CodecAudioPlayer(capture,
+                    new AudioFormat(rates[i][1], 16, 1, true, false), 0);
+            player.setAudioFormat(
+                    new AudioFormat(rates[i][0], 16, 1, true, true));
+            write(player, new byte[samples * 2], 777);
+
+            int expected = new Resampler(rates[i][0], rates[i][1])
+                .getOutputCount(samples) * 2;
+            String pair = rates[i][0] + " to " + rates[i][1];
+            assertEquals(pair, expected, capture.getSize());
+            assertEquals(pair, expected, capture.getBytes().length);
+        }
+    }
+
+    /**
+     * With a frame length, every write to the other player is one
+     * whole frame, and the last frame is padded with silence, both
+     * when the size is given to begin and when it is not.
+     */
+    @Test
+    public void testFramePadding() throws IOException {
+        int frameBytes = 160; // 20 ms of 8 kHz u-law
+        int samples = 3333;
+        byte[] data = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            data[2 * i + 1] = 100;
+        }
+        int[] sizes = {data.length, 0};
+        for (int s = 0; s < sizes.length; s++) {
+            CapturePlayer capture = new CapturePlayer();
+            CodecAudioPlayer player = new CodecAudioPlayer(capture,
+                    new AudioFormat(ULAW, 8000, 8, 1, 1, 8000, false), 20);
+            player.setAudioFormat(new AudioFormat(8000, 16, 1, true, true));
+            player.begin(sizes[s]);
+            for (int i = 0; i < data.length; i += 777) {
+                assertTrue(player.write(data, i,
+                            Math.min(777, data.length - i)));
+            }
+            assertTrue(player.end());
+
+            byte[] output = capture.getBytes();
+            int padded = (samples + frameBytes - 1) / frameBytes * frameBytes;
+            assertEquals(padded, output.length);
+            if (sizes[s] > 0) {
+                assertEquals(padded, capture.getSize());
+            }
+            for (int i = 0; i < capture.writes.size(); i++) {
+                assertEquals(frameBytes, capture.writes.get(i).intValue());
+            }
+            for (int i = 0; i < samples; i++) {
+                assertEquals(0xF2, output[i] & 0xFF);
+            }
+            for (int i = samples; i < padded; i++) {
+                assertEquals(0xFF, output[i] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Encodes 8 kHz samples to 8 kHz u-law or A-law with the codec
+     * player.
+     *
+     * @param encoding u-law or A-law
+     * @param samples the samples
+     *
+     * @return the codes
+     */
+    private byte[] encode(AudioFormat.Encoding encoding, short[] samples)
+        throws IOException {
+        CapturePlayer capture = new CapturePlayer();
+        CodecAudioPlayer player = new CodecAudioPlayer(capture,
+                new AudioFormat(encoding, 8000, 8, 1, 1, 8000, false), 0);
+        player.setAudioFormat(new AudioFormat(8000, 16, 1, true, true));
+        byte[] data = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            data[2 * i] = (byte) (samples[i] >> 8);
+            data[2 * i + 1] = (byte) samples[i];
+        }
+        write(player, data, 1001);
+        byte[] codes = capture.getBytes();
+        assertEquals(samples.length, codes.length);
+        return codes;
+    }
+
+    /**
+     * Writes one utterance to a player in pieces of an odd size.
+     *
+     * @param player the player
+     * @param data the audio
+     * @param piece the size of the pieces
+     */
+    private void write(AudioPlayer player, byte[] data, int piece)
+        throws IOException {
+        player.begin(data.length);
+        for (int i = 0; i < data.length; i += piece) {
+            assertTrue(player.write(data, i,
+                        Math.min(piece, data.length - i)));
+        }
+        assertTrue(player.end());
+    }
+
+    /**
+     * A player that keeps what is written to it.
+     */
+    private static class CapturePlayer extends NullAudioPlayer {
+        private final ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream();
+        private final List<Integer> writes = new ArrayList<Integer>();
+        private int size;
+
+        public void begin(int size) {
+            this.size = size;
+            bytes.reset();
+            writes.clear();
+        }
+
+        public boolean write(byte[] data, int offset, int length) {
+            bytes.write(data, offset, length);
+            writes.add(Integer.valueOf(length));
+            return true;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        byte[] getBytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Checks that the reader of a piped player always reaches the end of
+ * the audio, whichever way the output ends.
+ */
+public class PipedAudioPlayerTest {
+    private final static long TIMEOUT = 5000;
+
+    /**
+     * The queued audio is read, then the end of the stream.
+     */
+    @Test
+    public void testClose() throws Exception {
+        PipedAudioPlayer player = new PipedAudioPlayer(4);
+        player.reset();
+        assertTrue(player.write(new byte[] {1, 2, 3}));
+        player.close();
+
+        InputStream in = player.getInputStream();
+        byte[] b = new byte[10];
+        assertEquals(3, in.read(b, 0, b.length));
+        assertEquals(-1, in.read(b, 0, b.length));
+    }
+
+    /**
+     * A cancel after the synthesis has finished drops the queued
+     * audio, and the reader gets an exception instead of waiting for
+     * an end that was dropped with it.
+     */
+    @Test
+    public void testCancelAfterClose() throws Exception {
+        PipedAudioPlayer player = new PipedAudioPlayer(4);
+        player.reset();
+        assertTrue(player.write(new byte[] {1, 2, 3}));
+        assertTrue(player.write(new byte[] {4, 5, 6}));
+        player.close();
+        player.cancel();
+
+        Reader reader = new Reader(player.getInputStream());
+        reader.start();
+        reader.join(TIMEOUT);
+        assertFalse("reader hangs", reader.isAlive());
+        assertEquals(0, reader.count);
+        assertTrue(reader.exception != null);
+    }
+
+    /**
+     * A cancel after all the audio has been read leaves the reader
+     * at a clean end of the stream.
+     */
+    @Test
+    public void testCancelAfterRead() throws Exception {
+        PipedAudioPlayer player = new PipedAudioPlayer(4);
+        player.reset();
+        assertTrue(player.write(new byte[] {1, 2, 3}));
+        InputStream in = player.getInputStream();
+        byte[] b = new byte[10];
+        assertEquals(3, in.read(b, 0, b.length));
+        player.close();
+        player.cancel();
+
+        Reader reader = new Reader(in);
+        reader.start();
+        reader.join(TIMEOUT);
+        assertFalse("reader hangs", reader.isAlive());
+        assertEquals(0, reader.count);
+        assertTrue(reader.exception == null);
+    }
+
+    /**
+     * Reads a stream to its end.
+     */
+    private static class Reader extends Thread {
+        private final InputStream in;
+        private volatile int count = 0;
+        private volatile IOException exception = null;
+
+        Reader(InputStream in) {
+            this.in = in;
+            setDaemon(true);
+        }
+
+        public void run() {
+            byte[] b = new byte[10];
+            try {
+                int n;
+                while ((n = in.read(b, 0, b.length)) >= 0) {
+                    count += n;
+                }
+            } catch (IOException ioe) {
+                exception = ioe;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.audio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the drain and cancel handshake of the ring buffer player
+ * against a mock line that plays a fixed number of bytes per
+ * millisecond while it is running.
+ */
+public class RingBufferAudioPlayerTest {
+    private final static long TIMEOUT = 5000;
+
+    private MockLine line;
+    private RingBufferAudioPlayer player;
+
+    @Before
+    public void setUp() {
+        line = new MockLine(1024, 32);
+        player = new RingBufferAudioPlayer(4096) {
+            protected SourceDataLine openLine(AudioFormat format,
+                    LineListener listener) {
+                line.addLineListener(listener);
+                line.open(format);
+                return line;
+            }
+        };
+        player.setAudioFormat(new AudioFormat(16000f, 16, 1, true, true));
+    }
+
+    @After
+    public void tearDown() {
+        player.close();
+    }
+
+    /**
+     * Drain returns only once all the audio has been played, and the
+     * line gets every byte in order.
+     */
+    @Test
+    public void testDrainPlaysEverything() {
+        byte[] data = new byte[20000];
+        new Random(1).nextBytes(data);
+
+        assertEquals(-1, player.getFirstSampleLatency());
+        player.startFirstSampleTimer();
+        player.reset();
+        player.begin(data.length);
+        for (int i = 0; i < data.length; i += 333) {
+            assertTrue(player.write(data, i, Math.min(333, data.length - i)));
+        }
+        assertTrue(player.end());
+        assertTrue(player.drain());
+
+        assertEquals(0, line.getBufferedBytes());
+        assertEquals(data.length, line.getPlayedBytes());
+        assertArrayEquals(data, line.getWrittenBytes());
+        assertTrue(player.getFirstSampleLatency() >= 0);
+    }
+
+    /**
+     * Cancel releases a producer that waits for room in the full ring
+     * buffer, and a thread that waits in drain.
+     */
+    @Test
+    public void testCancelReleasesWaitingThreads() throws Exception {
+        player.reset();
+        player.begin(0);
+        player.pause();
+
+        final boolean[] results = new boolean[2];
+        Thread producer = new Thread() {
+            public void run() {
+                byte[] data = new byte[100000];
+                boolean ok = true;
+                for (int i = 0; i < data.length && ok; i += 500) {
+                    ok = player.write(data, i, 500);
+                }
+                results[0] = ok;
+            }
+        };
+        producer.start();
+        waitForFullRing();
+
+        Thread drainer = new Thread() {
+            public void run() {
+                results[1] = player.drain();
+            }
+        };
+        drainer.start();
+
+        player.cancel();
+        producer.join(TIMEOUT);
+        drainer.join(TIMEOUT);
+        assertFalse(producer.isAlive());
+        assertFalse(drainer.isAlive());
+        assertFalse(results[0]);
+        assertFalse(results[1]);
+        assertFalse(player.end());
+    }
+
+    /**
+     * After a cancel, reset drops the audio written before it, so
+     * that only the following audio is played.
+     */
+    @Test
+    public void testResetAfterCancel() throws Exception {
+        player.reset();
+        player.begin(0);
+        player.pause();
+        player.write(new byte[3000]);
+        player.cancel();
+        player.resume();
+
+        line.clearWrittenBytes();
+        player.reset();
+        player.begin(3);
+        byte[] data = {1, 2, 3};
+        assertTrue(player.write(data));
+        assertTrue(player.end());
+        assertTrue(player.drain());
+
+        assertArrayEquals(data, line.getWrittenBytes());
+        assertEquals(0, player.getBufferedBytes());
+    }
+
+    /**
+     * Waits until the ring buffer is full.
+     */
+    private void waitForFullRing() throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (player.getBufferedBytes() < player.getBufferSize()) {
+            assertTrue("ring buffer never filled",
+                    System.currentTimeMillis() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * A line that plays a fixed number of bytes per millisecond while
+     * it is running.  Writes block while the line buffer is full,
+     * until the line plays, is flushed or is closed.
+     */
+    private static class MockLine implements SourceDataLine {
+        private final int bufferSize;
+        private final int bytesPerMs;
+        private final List<LineListener> listeners =
+            new ArrayList<LineListener>();
+        private final ByteArrayOutputStream written =
+            new ByteArrayOutputStream();
+        private int fill = 0;
+        private long played = 0;
+        private boolean running = false;
+        private boolean flushed = false;
+        private volatile boolean open = false;
+
+        MockLine(int bufferSize, int bytesPerMs) {
+            this.bufferSize = bufferSize;
+            this.bytesPerMs = bytesPerMs;
+        }
+
+        synchronized int getBufferedBytes() {
+            return fill;
+        }
+
+        synchronized long getPlayedBytes() {
+            return played;
+        }
+
+        synchronized byte[] getWrittenBytes() {
+            return written.toByteArray();
+        }
+
+        synchronized void clearWrittenBytes() {
+            written.reset();
+        }
+
+        private synchronized void play() {
+            if (running && fill > 0) {
+                int count = Math.min(fill, bytesPerMs);
+                fill -= count;
+                played += count;
+                notifyAll();
+            }
+        }
+
+        public void open(AudioFormat format, int size) {
+            open = true;
+            Thread clock = new Thread() {
+                public void run() {
+                    while (open) {
+                        play();
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            };
+            clock.setDaemon(true);
+            clock.start();
+            fire(LineEvent.Type.OPEN);
+        }
+
+        public void open(AudioFormat format) {
+            open(format, bufferSize);
+        }
+
+        public void open() {
+            open(null, bufferSize);
+        }
+
+        public synchronized int write(byte[] b, int off, int len) {
+            int count = 0;
+            flushed = false;
+            while (count < len && open && !flushed) {
+                int room = bufferSize - fill;
+                if (room == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = Math.min(room, len - count);
+                written.write(b, off + count, n);
+                fill += n;
+                count += n;
+            }
+            return count;
+        }
+
+        public synchronized void drain() {
+            while (open && running && fill > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+
+        public synchronized void flush() {
+            fill = 0;
+            flushed = true;
+            notifyAll();
+        }
+
+        public void start() {
+            synchronized (this) {
+                running = true;
+                notifyAll();
+            }
+            fire(LineEvent.Type.START);
+        }
+
+        public void stop() {
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+            fire(LineEvent.Type.STOP);
+        }
+
+        public void close() {
+            open = false;
+            synchronized (this) {
+                notifyAll();
+            }
+            fire(LineEvent.Type.CLOSE);
+        }
+
+        public synchronized boolean isRunning() {
+            return running;
+        }
+
+        public synchronized boolean isActive() {
+            return running && fill > 0;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public synchronized int available() {
+            return bufferSize - fill;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public AudioFormat getFormat() {
+            return null;
+        }
+
+        public synchronized int getFramePosition() {
+            return (int) (played / 2);
+        }
+
+        public synchronized long getLongFramePosition() {
+            return played / 2;
+        }
+
+        public synchronized long getMicrosecondPosition() {
+            return played * 1000 / bytesPerMs;
+        }
+
+        public float getLevel() {
+            return 0;
+        }
+
+        public Line.Info getLineInfo() {
+            return null;
+        }
+
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("no controls");
+        }
+
+        public synchronized void addLineListener(LineListener listener) {
+            listeners.add(listener);
+        }
+
+        public synchronized void removeLineListener(LineListener listener) {
+            listeners.remove(listener);
+        }
+
+        private void fire(LineEvent.Type type) {
+            List<LineListener> copy;
+            synchronized (this) {
+                copy = new ArrayList<LineListener>(listeners);
+            }
+            for (LineListener listener : copy) {
+                listener.update(new LineEvent(this, type, 0));
+            }
+        }
+    }
+}
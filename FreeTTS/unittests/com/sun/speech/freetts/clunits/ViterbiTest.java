@@ -0,0 +1,401 @@
+/**
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+package com.sun.speech.freetts.clunits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.speech.freetts.FeatureSet;
+import com.sun.speech.freetts.Item;
+import com.sun.speech.freetts.Relation;
+import com.sun.speech.freetts.Utterance;
+import com.sun.speech.freetts.relp.SampleSet;
+
+/**
+ * Checks that the Viterbi search of the unit selector picks the same
+ * units as the original linked list search on random databases.  The
+ * original search is kept here as {@link Reference}.
+ */
+public class ViterbiTest {
+    private final static String[] TYPES = {"aa_1", "b_2", "ch_3", "zz_4"};
+    private final static String[] FEATURES = {
+        "selected_unit", "unit_prev_move", "unit_this_move"};
+    private final static int RUNS = 100;
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNoCoupling() throws IOException {
+        compare(0, false);
+    }
+
+    @Test
+    public void testOptimalCouple() throws IOException {
+        compare(1, false);
+    }
+
+    @Test
+    public void testOptimalCoupleFrame() throws IOException {
+        compare(2, false);
+    }
+
+    /**
+     * Coupling values other than 1 and 2 have no join cost.
+     */
+    @Test
+    public void testUnknownCoupling() throws IOException {
+        compare(3, false);
+        compare(-1, false);
+    }
+
+    @Test
+    public void testMappedDatabase() throws IOException {
+        compare(1, true);
+        compare(2, true);
+    }
+
+    /**
+     * Runs both searches on random utterances and compares the units
+     * and moves they select.
+     *
+     * @param coupling the optimal coupling of the databases
+     * @param mapped if the databases are dumped and mapped back in
+     */
+    private void compare(int coupling, boolean mapped) throws IOException {
+        for (int seed = 0; seed < RUNS; seed++) {
+            Random random = new Random(seed * 31 + coupling);
+            ClusterUnitDatabase db = createDatabase(random, coupling, mapped);
+            for (int n = 0; n < 3; n++) {
+                Utterance u1 = new Utterance(null);
+                Utterance u2 = new Utterance(null);
+                Relation segs1 = u1.createRelation(Relation.SEGMENT);
+                Relation segs2 = u2.createRelation(Relation.SEGMENT);
+                int length = random.nextInt(12);
+                for (int i = 0; i < length; i++) {
+                    String type = TYPES[random.nextInt(TYPES.length)];
+                    segs1.appendItem().getFeatures()
+                        .setString("clunit_name", type);
+                    segs2.appendItem().getFeatures()
+                        .setString("clunit_name", type);
+                }
+
+                ClusterUnitSelector.Viterbi vd =
+                    new ClusterUnitSelector.Viterbi(segs1, db);
+                vd.decode();
+                assertTrue(vd.result("selected_unit"));
+                vd.copyFeature("unit_prev_move");
+                vd.copyFeature("unit_this_move");
+
+                Reference reference = new Reference(segs2, db);
+                reference.decode();
+                assertTrue(reference.result());
+
+                String where = "coupling " + coupling + " seed " + seed;
+                Item i1 = segs1.getHead();
+                Item i2 = segs2.getHead();
+                for (; i1 != null; i1 = i1.getNext(), i2 = i2.getNext()) {
+                    for (int f = 0; f < FEATURES.length; f++) {
+                        assertEquals(where + " " + FEATURES[f],
+                                get(i2.getFeatures(), FEATURES[f]),
+                                get(i1.getFeatures(), FEATURES[f]));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Integer get(FeatureSet features, String name) {
+        return features.isPresent(name)
+            ? Integer.valueOf(features.getInt(name)) : null;
+    }
+
+    /**
+     * Writes a random text database and loads it.
+     *
+     * @param random the source of the database
+     * @param coupling the optimal coupling
+     * @param mapped if the database is dumped and mapped back in
+     *
+     * @return the database
+     */
+    private ClusterUnitDatabase createDatabase(Random random, int coupling,
+            boolean mapped) throws IOException {
+        int perType = 3 + random.nextInt(5);
+        int units = perType * TYPES.length;
+        int frames = units * 4;
+        File text = createFile(".txt");
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        out.println("CONTINUITY_WEIGHT 5");
+        out.println("OPTIMAL_COUPLING " + coupling);
+        out.println("EXTEND_SELECTIONS " + random.nextInt(4));
+        out.println("JOIN_METHOD 1");
+        switch (random.nextInt(3)) {
+        case 0:
+            out.println("JOIN_WEIGHTS 3 32768 32768 32768");
+            break;
+        case 1:
+            out.println("JOIN_WEIGHTS 3 16384 16384 16384");
+            break;
+        default:
+            out.println("JOIN_WEIGHTS 3 " + random.nextInt(65536) + " "
+                    + random.nextInt(65536) + " 30000");
+        }
+        for (int i = 0; i < TYPES.length; i++) {
+            out.println("UNIT_TYPE " + TYPES[i] + " " + (i * perType)
+                    + " " + perType);
+        }
+        for (int i = 0; i < units; i++) {
+            int start = random.nextInt(frames - 4);
+            int end = start + 1 + random.nextInt(3);
+            int prev = random.nextInt(4) == 0
+                ? ClusterUnitDatabase.CLUNIT_NONE : random.nextInt(units);
+            int next = random.nextInt(4) == 0
+                ? ClusterUnitDatabase.CLUNIT_NONE : random.nextInt(units);
+            out.println("UNITS " + (i / perType) + " " + random.nextInt(40)
+                    + " " + start + " " + end + " " + prev + " " + next);
+        }
+        String[] sets = {"STS", "MCEP"};
+        for (int s = 0; s < sets.length; s++) {
+            out.println("STS " + sets[s] + " " + frames
+                    + " 3 16000 -1.5 3.0 0.0 1");
+            for (int i = 0; i < frames; i++) {
+                out.println("FRAME " + random.nextInt(65536) + " "
+                        + random.nextInt(65536) + " "
+                        + random.nextInt(65536));
+                out.println("RESIDUAL 1 " + random.nextInt(256));
+            }
+        }
+        for (int i = 0; i < TYPES.length; i++) {
+            int count = 1 + random.nextInt(perType);
+            StringBuilder leaf = new StringBuilder("LEAF List(");
+            for (int k = 0; k < count; k++) {
+                if (k > 0) {
+                    leaf.append(',');
+                }
+                leaf.append(random.nextInt(perType));
+            }
+            out.println("CART " + TYPES[i] + " 1");
+            out.println(leaf.append(')'));
+        }
+        out.close();
+
+        ClusterUnitDatabase db =
+            new ClusterUnitDatabase(text.toURI().toURL(), false);
+        if (mapped) {
+            File binary = createFile(".bin");
+            db.dumpBinary(binary.getPath());
+            db = new ClusterUnitDatabase(binary.toURI().toURL(), true);
+        }
+        return db;
+    }
+
+    private File createFile(String suffix) throws IOException {
+        File file = File.createTempFile("clunits", suffix);
+        files.add(file);
+        return file;
+    }
+
+    /**
+     * The search as the selector did it before the candidates and paths
+     * were kept in arrays.  Candidates are listed newest first, and a
+     * path only replaces the one kept for a candidate if it is strictly
+     * cheaper.
+     */
+    static class Reference {
+        private final ClusterUnitDatabase db;
+        private final List<Item> items = new ArrayList<Item>();
+        private final List<List<Integer>> cands =
+            new ArrayList<List<Integer>>();
+        private Path[] paths = {null};
+
+        Reference(Relation segs, ClusterUnitDatabase db) {
+            this.db = db;
+            for (Item s = segs.getHead(); s != null; s = s.getNext()) {
+                items.add(s);
+            }
+        }
+
+        void decode() {
+            for (int p = 0; p < items.size(); p++) {
+                List<Integer> c = getCandidates(p);
+                cands.add(c);
+                Path[] next = new Path[c.size()];
+                for (int i = 0; i < paths.length; i++) {
+                    if (p > 0 && paths[i] == null) {
+                        continue;
+                    }
+                    for (int k = 0; k < c.size(); k++) {
+                        Path np = getPath(paths[i], items.get(p),
+                                c.get(k).intValue());
+                        if (next[k] == null || np.score < next[k].score) {
+                            next[k] = np;
+                        }
+                    }
+                }
+                paths = next;
+            }
+        }
+
+        boolean result() {
+            if (items.isEmpty()) {
+                return true;
+            }
+            Path best = null;
+            int bestScore = Integer.MAX_VALUE;
+            for (int i = 0; i < paths.length; i++) {
+                if (paths[i] != null && paths[i].score < bestScore) {
+                    bestScore = paths[i].score;
+                    best = paths[i];
+                }
+            }
+            if (best == null) {
+                return false;
+            }
+            for (Path path = best; path != null; path = path.from) {
+                FeatureSet features = path.item.getFeatures();
+                features.setInt("selected_unit", path.unit);
+                if (path.prevMove != -1) {
+                    features.setInt("unit_prev_move", path.prevMove);
+                }
+                if (path.thisMove != -1) {
+                    features.setInt("unit_this_move", path.thisMove);
+                }
+            }
+            return true;
+        }
+
+        private List<Integer> getCandidates(int p) {
+            Item item = items.get(p);
+            String unitType = item.getFeatures().getString("clunit_name");
+            int[] clist = (int[]) db.getTree(unitType).interpret(item);
+            List<Integer> all = new ArrayList<Integer>();
+            for (int i = 0; i < clist.length; i++) {
+                all.add(0, Integer.valueOf(
+                            db.getUnitIndex(unitType, clist[i])));
+            }
+            if (db.getExtendSelections() > 0 && p > 0) {
+                List<Integer> previous = cands.get(p - 1);
+                for (int i = 0, e = 0; i < previous.size()
+                        && e < db.getExtendSelections(); i++) {
+                    int nu = db.getNextUnit(previous.get(i).intValue());
+                    if (nu == ClusterUnitDatabase.CLUNIT_NONE) {
+                        continue;
+                    }
+                    if (!all.contains(Integer.valueOf(nu))
+                            && db.isUnitTypeEqual(nu,
+                                all.get(0).intValue())) {
+                        all.add(0, Integer.valueOf(nu));
+                        e++;
+                    }
+                }
+            }
+            return all;
+        }
+
+        private Path getPath(Path from, Item item, int unit) {
+            Path path = new Path(from, item, unit);
+            int cost = 0;
+            if (from != null) {
+                int u0 = from.unit;
+                if (db.getOptimalCoupling() == 1) {
+                    cost = getOptimalCouple(u0, unit, path);
+                } else if (db.getOptimalCoupling() == 2) {
+                    cost = getOptimalCoupleFrame(u0, unit);
+                }
+            }
+            path.score = cost * 5 + (from == null ? 0 : from.score);
+            return path;
+        }
+
+        private int getOptimalCouple(int u0, int u1, Path path) {
+            int u1p = db.getPrevUnit(u1);
+            if (u1p == u0) {
+                return 0;
+            }
+            if (u1p == ClusterUnitDatabase.CLUNIT_NONE
+                    || db.getPhone(u0) != db.getPhone(u1p)) {
+                return 10 * getOptimalCoupleFrame(u0, u1);
+            }
+            int u0End = db.getEnd(u0) - db.getStart(u0);
+            int u1pEnd = db.getEnd(u1p) - db.getStart(u1p);
+            int u0Start = u0End / 3;
+            int u1pStart = u1pEnd / 3;
+            int count = Math.min(u0End - u0Start, u1pEnd - u1pStart);
+            int best0 = u0End;
+            int best1 = u1pEnd;
+            int best = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int dist = getDistance(db.getStart(u0) + u0Start + i,
+                        db.getStart(u1p) + u1pStart + i);
+                if (dist < best) {
+                    best = dist;
+                    best0 = u0Start + i;
+                    best1 = u1pStart + i;
+                }
+            }
+            path.prevMove = db.getStart(u0) + best0;
+            path.thisMove = db.getStart(u1p) + best1;
+            return 30000 + best;
+        }
+
+        private int getOptimalCoupleFrame(int u0, int u1) {
+            if (db.getPrevUnit(u1) == u0) {
+                return 0;
+            }
+            int a = db.getEnd(u0);
+            if (db.getNextUnit(u0) == ClusterUnitDatabase.CLUNIT_NONE) {
+                a--;
+            }
+            return getDistance(a, db.getStart(u1));
+        }
+
+        private int getDistance(int a, int b) {
+            SampleSet mcep = db.getMcep();
+            int[] weights = db.getJoinWeights();
+            int order = mcep.getSampleInfo().getNumberOfChannels();
+            int r = 0;
+            for (int i = 0; i < order; i++) {
+                int diff = mcep.getFrameData(a, i) - mcep.getFrameData(b, i);
+                r += Math.abs(diff) * weights[i] / 65536;
+            }
+            return r + Math.abs(db.getSts().getFrameSize(a)
+                    - db.getSts().getFrameSize(b)) * db.getContinuityWeight();
+        }
+    }
+
+    private static class Path {
+        final Path from;
+        final Item item;
+        final int unit;
+        int score;
+        int prevMove = -1;
+        int thisMove = -1;
+
+        Path(Path from, Item item, int unit) {
+            this.from = from;
+            this.item = item;
+            this.unit = unit;
+        }
+    }
+}